@@ -18,6 +18,7 @@ package com.bc.calvalus.inventory;
 
 import com.bc.calvalus.JobClientsMap;
 import com.bc.calvalus.inventory.hadoop.FileSystemPathIteratorFactory;
+import com.bc.calvalus.inventory.hadoop.ListingCache;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -151,6 +152,10 @@ public abstract class AbstractFileSystemService implements FileSystemService {
     }
 
     public RemoteIterator<LocatedFileStatus> globFileStatusIterator(List<String> pathPatterns, Configuration conf, FileSystemPathIteratorFactory.FileStatusFilter extraFilter, boolean withDirs, boolean doLocate) throws IOException {
+        return globFileStatusIterator(pathPatterns, conf, extraFilter, withDirs, doLocate, null);
+    }
+
+    public RemoteIterator<LocatedFileStatus> globFileStatusIterator(List<String> pathPatterns, Configuration conf, FileSystemPathIteratorFactory.FileStatusFilter extraFilter, boolean withDirs, boolean doLocate, ListingCache listingCache) throws IOException {
         Pattern pattern = createPattern(pathPatterns, conf);
         String commonPathPrefix = getCommonPathPrefix(pathPatterns);
         int maxDepth = levelOf(pathPatterns) - levelOf(commonPathPrefix);
@@ -164,7 +169,9 @@ public abstract class AbstractFileSystemService implements FileSystemService {
         if (extraFilter != null) {
             acceptFilter.add(extraFilter);
         }
-        return new FileSystemPathIteratorFactory(fs, doLocate, acceptFilter).listFiles(rootPath, true, withDirs, maxDepth);
+        FileSystemPathIteratorFactory iteratorFactory = new FileSystemPathIteratorFactory(fs, doLocate, acceptFilter);
+        iteratorFactory.setListingCache(listingCache);
+        return iteratorFactory.listFiles(rootPath, true, withDirs, maxDepth);
     }
 
     private int levelOf(List<String> pathPatterns) {
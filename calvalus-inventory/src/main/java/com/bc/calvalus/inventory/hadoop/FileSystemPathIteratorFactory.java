@@ -47,6 +47,7 @@ public class FileSystemPathIteratorFactory {
     private final FileSystem fs;
     private final FileStatusFilter filter;
     private final boolean doLocate;
+    private ListingCache listingCache;
 
     public FileSystemPathIteratorFactory(FileSystem fs, boolean doLocate, List<FileStatusFilter> filter) {
         this(fs, doLocate, filter.toArray(new FileStatusFilter[0]));
@@ -58,6 +59,14 @@ public class FileSystemPathIteratorFactory {
         this.doLocate = doLocate;
     }
 
+    /**
+     * Sets the cache used for the listings of the subdirectories traversed.
+     * The cache is used only if block locations are requested.
+     */
+    public void setListingCache(ListingCache listingCache) {
+        this.listingCache = listingCache;
+    }
+
     private RemoteIterator<LocatedFileStatus> applyFilter(RemoteIterator<LocatedFileStatus> fileStatusIt) throws IOException {
         return new RemoteIterator<LocatedFileStatus>() {
             LocatedFileStatus next = getNext();
@@ -137,20 +146,63 @@ public class FileSystemPathIteratorFactory {
                 if (! doLocate) {
                     return new LazilyLocatedFileStatus(result);
                 }
-                // for files, use getBlockLocations(FileStatus, int, int) to avoid
-                // calling getFileStatus(Path) to load the FileStatus again
-                BlockLocation[] locs = null;
-                if (result.isFile()) {
-                    try {
-                        locs = fs.getFileBlockLocations(result, 0, result.getLen());
-                    } catch (AccessControlException ignore) {
-                    }
+                return locate(result);
+            }
+        };
+    }
+
+    /**
+     * List a subdirectory, using the listing cache if the directory has not been modified since it was cached.
+     *
+     * @param dir the status of the subdirectory from the listing of its parent
+     * @return an iterator that traverses statuses of the files/directories in the given directory
+     * @throws IOException if any I/O error occurred
+     */
+    private RemoteIterator<LocatedFileStatus> listLocatedStatus(FileStatus dir) throws IOException {
+        if (listingCache == null || !doLocate || !listingCache.isCacheable(dir)) {
+            return listLocatedStatus(dir.getPath());
+        }
+        LocatedFileStatus[] listing = listingCache.get(dir);
+        if (listing == null) {
+            FileStatus[] stats = listStatus(dir.getPath());
+            listing = new LocatedFileStatus[stats.length];
+            for (int i = 0; i < stats.length; i++) {
+                listing[i] = locate(stats[i]);
+            }
+            listingCache.put(dir, listing);
+        }
+        final LocatedFileStatus[] stats = listing;
+        return new RemoteIterator<LocatedFileStatus>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < stats.length;
+            }
+
+            @Override
+            public LocatedFileStatus next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more entries in " + dir.getPath());
                 }
-                return new LocatedFileStatus(result, locs);
+                return stats[i++];
             }
         };
     }
 
+    private LocatedFileStatus locate(FileStatus result) throws IOException {
+        // for files, use getBlockLocations(FileStatus, int, int) to avoid
+        // calling getFileStatus(Path) to load the FileStatus again
+        BlockLocation[] locs = null;
+        if (result.isFile()) {
+            try {
+                locs = fs.getFileBlockLocations(result, 0, result.getLen());
+            } catch (AccessControlException ignore) {
+            }
+        }
+        return new LocatedFileStatus(result, locs);
+    }
+
     public FileStatus[] listStatus(Path f) throws FileNotFoundException, IOException {
         FileStatus[] listing;
         try {
@@ -236,7 +288,7 @@ public class FileSystemPathIteratorFactory {
                 if (recursive && depth > 0) { // directory
                     itors.push(curItor);
                     --depth;
-                    curItor = listLocatedStatus(stat.getPath());
+                    curItor = listLocatedStatus(stat);
                 }
             }
         }
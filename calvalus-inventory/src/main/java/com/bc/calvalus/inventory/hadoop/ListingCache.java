@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.inventory.hadoop;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent cache of directory listings including block locations, in a file system directory
+ * given by the job parameter calvalus.input.listingCache.dir (JobConfigNames.CALVALUS_INPUT_LISTING_CACHE_DIR).
+ * <p>
+ * The listing of a directory is stored together with the modification time of the directory
+ * and is valid as long as the directory is not modified. Only directories that contain files only
+ * are cached, because the modification time of a directory does not change if something deeper
+ * in its subtree changes. Directories modified recently are not cached either, as their files may
+ * still be written. The cache file of a directory is located at the path of the directory below the
+ * cache directory, hence the listings of a subtree can be invalidated by deleting the subtree.
+ * <p>
+ * The block locations cached may be outdated after the file system has been rebalanced.
+ * They are used as locality hints only.
+ */
+public class ListingCache {
+
+    public static final long MIN_AGE_MILLIS = 60L * 60 * 1000;
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final String LISTING_NAME = "listing";
+    private static final int VERSION = 1;
+
+    private final FileSystem fs;
+    private final Path cacheDir;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public ListingCache(FileSystem fs, Path cacheDir) {
+        this.fs = fs;
+        this.cacheDir = fs.makeQualified(cacheDir);
+    }
+
+    /**
+     * @param cacheDir the cache directory configured, may be null
+     * @return the cache in the directory, or null if no cache directory is configured
+     */
+    public static ListingCache get(Configuration conf, String cacheDir) throws IOException {
+        if (cacheDir == null || cacheDir.isEmpty()) {
+            return null;
+        }
+        Path cachePath = new Path(cacheDir);
+        return new ListingCache(cachePath.getFileSystem(conf), cachePath);
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return true if a listing of the directory would be stored by {@link #put}
+     */
+    public boolean isCacheable(FileStatus dir) {
+        return dir.isDirectory() && dir.getModificationTime() > 0
+               && dir.getModificationTime() < System.currentTimeMillis() - MIN_AGE_MILLIS;
+    }
+
+    /**
+     * @return the cached listing of the directory, or null if there is none for this modification time
+     */
+    public LocatedFileStatus[] get(FileStatus dir) {
+        if (!isCacheable(dir)) {
+            return null;
+        }
+        Path listingPath = getListingPath(dir.getPath());
+        try {
+            if (fs.getFileStatus(listingPath).isDirectory()) {
+                // the entry of a subdirectory named like the listing file, the directory itself is not cached
+                misses.incrementAndGet();
+                return null;
+            }
+            try (FSDataInputStream in = fs.open(listingPath)) {
+                LocatedFileStatus[] listing = readListing(in, dir);
+                if (listing != null) {
+                    hits.incrementAndGet();
+                    return listing;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // not cached
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "cannot read cached listing " + listingPath, e);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the listing of the directory if the directory is cacheable and the listing contains files only.
+     * Failures are logged and ignored.
+     */
+    public void put(FileStatus dir, LocatedFileStatus[] listing) {
+        if (!isCacheable(dir)) {
+            return;
+        }
+        for (LocatedFileStatus status : listing) {
+            if (!status.isFile()) {
+                return;
+            }
+        }
+        Path listingPath = getListingPath(dir.getPath());
+        Path tmpPath = new Path(listingPath.getParent(), "_" + LISTING_NAME + "-" + UUID.randomUUID());
+        try {
+            try (FSDataOutputStream out = fs.create(tmpPath, true)) {
+                writeListing(out, dir, listing);
+            }
+            fs.delete(listingPath, false);
+            if (!fs.rename(tmpPath, listingPath)) {
+                // concurrently stored by another job
+                fs.delete(tmpPath, false);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "cannot store listing of " + dir.getPath() + " in " + listingPath, e);
+        }
+    }
+
+    /**
+     * Deletes the cached listings of the directory and its subdirectories, or the complete cache if the path is null.
+     *
+     * @return true if something has been deleted
+     */
+    public boolean invalidate(Path path) throws IOException {
+        Path subtree = path != null ? getEntryDir(path) : cacheDir;
+        return fs.delete(subtree, true);
+    }
+
+    Path getListingPath(Path dir) {
+        return new Path(getEntryDir(dir), LISTING_NAME);
+    }
+
+    private Path getEntryDir(Path dir) {
+        String dirPath = dir.toUri().getPath();
+        while (dirPath.startsWith("/")) {
+            dirPath = dirPath.substring(1);
+        }
+        return dirPath.isEmpty() ? cacheDir : new Path(cacheDir, dirPath);
+    }
+
+    static void writeListing(DataOutput out, FileStatus dir, LocatedFileStatus[] listing) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(dir.getPath().toString());
+        out.writeLong(dir.getModificationTime());
+        out.writeInt(listing.length);
+        for (LocatedFileStatus status : listing) {
+            out.writeUTF(status.getPath().getName());
+            out.writeLong(status.getLen());
+            out.writeShort(status.getReplication());
+            out.writeLong(status.getBlockSize());
+            out.writeLong(status.getModificationTime());
+            out.writeLong(status.getAccessTime());
+            out.writeShort(status.getPermission().toShort());
+            out.writeUTF(status.getOwner());
+            out.writeUTF(status.getGroup());
+            BlockLocation[] locations = status.getBlockLocations();
+            out.writeInt(locations != null ? locations.length : -1);
+            if (locations != null) {
+                for (BlockLocation location : locations) {
+                    out.writeLong(location.getOffset());
+                    out.writeLong(location.getLength());
+                    writeStrings(out, location.getNames());
+                    writeStrings(out, location.getHosts());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the listing, or null if it has been stored for another directory or modification time
+     */
+    static LocatedFileStatus[] readListing(DataInput in, FileStatus dir) throws IOException {
+        if (in.readInt() != VERSION
+            || !in.readUTF().equals(dir.getPath().toString())
+            || in.readLong() != dir.getModificationTime()) {
+            return null;
+        }
+        LocatedFileStatus[] listing = new LocatedFileStatus[in.readInt()];
+        for (int i = 0; i < listing.length; i++) {
+            Path path = new Path(dir.getPath(), in.readUTF());
+            long length = in.readLong();
+            short replication = in.readShort();
+            long blockSize = in.readLong();
+            long modificationTime = in.readLong();
+            long accessTime = in.readLong();
+            FsPermission permission = new FsPermission(in.readShort());
+            String owner = in.readUTF();
+            String group = in.readUTF();
+            FileStatus status = new FileStatus(length, false, replication, blockSize, modificationTime, accessTime,
+                                               permission, owner, group, path);
+            BlockLocation[] locations = null;
+            int numLocations = in.readInt();
+            if (numLocations >= 0) {
+                locations = new BlockLocation[numLocations];
+                for (int j = 0; j < numLocations; j++) {
+                    long offset = in.readLong();
+                    long blockLength = in.readLong();
+                    String[] names = readStrings(in);
+                    String[] hosts = readStrings(in);
+                    locations[j] = new BlockLocation(names, hosts, offset, blockLength);
+                }
+            }
+            listing[i] = new LocatedFileStatus(status, locations);
+        }
+        return listing;
+    }
+
+    private static void writeStrings(DataOutput out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String[] readStrings(DataInput in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+}
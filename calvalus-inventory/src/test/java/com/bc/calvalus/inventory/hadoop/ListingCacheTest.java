@@ -0,0 +1,154 @@
+package com.bc.calvalus.inventory.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ListingCacheTest {
+
+    private static final long OLD = System.currentTimeMillis() - 2 * ListingCache.MIN_AGE_MILLIS;
+
+    private File testDir;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("ListingCacheTest").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteTree(testDir);
+    }
+
+    @Test
+    public void testWriteAndReadListing() throws Exception {
+        FileStatus dir = dirStatus("hdfs://master:9000/calvalus/eodata/MER_RR__1P/r03/2008/06/01", OLD);
+        LocatedFileStatus[] listing = {
+                fileStatus(dir, "MER_RR__1P_1.N1", new BlockLocation[]{
+                        new BlockLocation(new String[]{"node1:50010", "node2:50010"}, new String[]{"node1", "node2"}, 0, 100),
+                        new BlockLocation(new String[]{"node3:50010"}, new String[]{"node3"}, 100, 23)
+                }),
+                fileStatus(dir, "MER_RR__1P_2.N1", null)
+        };
+
+        LocatedFileStatus[] read = readListing(writeListing(dir, listing), dir);
+
+        assertNotNull(read);
+        assertEquals(2, read.length);
+        assertEquals(new Path(dir.getPath(), "MER_RR__1P_1.N1"), read[0].getPath());
+        assertEquals(123, read[0].getLen());
+        assertEquals(3, read[0].getReplication());
+        assertEquals(OLD - 5, read[0].getModificationTime());
+        assertEquals("calvalus", read[0].getOwner());
+        assertEquals((short) 0644, read[0].getPermission().toShort());
+        assertEquals(2, read[0].getBlockLocations().length);
+        assertArrayEquals(new String[]{"node1", "node2"}, read[0].getBlockLocations()[0].getHosts());
+        assertArrayEquals(new String[]{"node3:50010"}, read[0].getBlockLocations()[1].getNames());
+        assertEquals(100, read[0].getBlockLocations()[1].getOffset());
+        assertEquals(23, read[0].getBlockLocations()[1].getLength());
+        assertNull(read[1].getBlockLocations());
+    }
+
+    @Test
+    public void testListingOfModifiedDirectoryIsNotRead() throws Exception {
+        FileStatus dir = dirStatus("hdfs://master:9000/calvalus/eodata/2008/06/01", OLD);
+        byte[] bytes = writeListing(dir, new LocatedFileStatus[]{fileStatus(dir, "a.N1", null)});
+
+        assertNull(readListing(bytes, dirStatus("hdfs://master:9000/calvalus/eodata/2008/06/01", OLD + 1)));
+        assertNull(readListing(bytes, dirStatus("hdfs://master:9000/calvalus/eodata/2008/06/02", OLD)));
+    }
+
+    @Test
+    public void testPutGetAndInvalidate() throws Exception {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        ListingCache cache = new ListingCache(fs, new Path(testDir.getAbsolutePath(), "cache"));
+        FileStatus day1 = dirStatus("hdfs://master:9000/calvalus/eodata/2008/06/01", OLD);
+        FileStatus day2 = dirStatus("hdfs://master:9000/calvalus/eodata/2008/06/02", OLD);
+        FileStatus month = dirStatus("hdfs://master:9000/calvalus/eodata/2008/06", OLD);
+        FileStatus today = dirStatus("hdfs://master:9000/calvalus/eodata/2008/06/03", System.currentTimeMillis());
+
+        cache.put(day1, new LocatedFileStatus[]{fileStatus(day1, "a.N1", null)});
+        cache.put(day2, new LocatedFileStatus[]{fileStatus(day2, "b.N1", null)});
+        cache.put(month, new LocatedFileStatus[]{new LocatedFileStatus(day1, null)});
+        cache.put(today, new LocatedFileStatus[]{fileStatus(today, "c.N1", null)});
+
+        assertEquals("a.N1", cache.get(day1)[0].getPath().getName());
+        assertEquals("b.N1", cache.get(day2)[0].getPath().getName());
+        // directories with subdirectories and recently modified directories are not cached
+        assertNull(cache.get(month));
+        assertFalse(cache.isCacheable(today));
+        assertNull(cache.get(today));
+        assertNull(cache.get(dirStatus("hdfs://master:9000/calvalus/eodata/2008/06/01", OLD + 1000)));
+
+        assertTrue(cache.invalidate(new Path("hdfs://master:9000/calvalus/eodata/2008/06/01")));
+        assertNull(cache.get(day1));
+        assertNotNull(cache.get(day2));
+        assertTrue(cache.invalidate(null));
+        assertNull(cache.get(day2));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testSubdirectoryNamedLikeListing() throws Exception {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        ListingCache cache = new ListingCache(fs, new Path(testDir.getAbsolutePath(), "cache"));
+        FileStatus dir = dirStatus("hdfs://master:9000/calvalus/eodata/2008/07", OLD);
+        FileStatus subDir = dirStatus("hdfs://master:9000/calvalus/eodata/2008/07/listing", OLD);
+
+        cache.put(subDir, new LocatedFileStatus[]{fileStatus(subDir, "a.N1", null)});
+
+        assertNull(cache.get(dir));
+        assertEquals("a.N1", cache.get(subDir)[0].getPath().getName());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    private static byte[] writeListing(FileStatus dir, LocatedFileStatus[] listing) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ListingCache.writeListing(out, dir, listing);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static LocatedFileStatus[] readListing(byte[] bytes, FileStatus dir) throws Exception {
+        return ListingCache.readListing(new DataInputStream(new ByteArrayInputStream(bytes)), dir);
+    }
+
+    private static FileStatus dirStatus(String path, long modificationTime) {
+        return new FileStatus(0, true, 0, 0, modificationTime, new Path(path));
+    }
+
+    private static LocatedFileStatus fileStatus(FileStatus dir, String name, BlockLocation[] locations) {
+        FileStatus status = new FileStatus(123, false, 3, 128 * 1024 * 1024, dir.getModificationTime() - 5, 0,
+                                           new FsPermission((short) 0644), "calvalus", "calvalus",
+                                           new Path(dir.getPath(), name));
+        return new LocatedFileStatus(status, locations);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -40,6 +40,14 @@ public interface JobConfigNames {
     String CALVALUS_INPUT_PRODUCT_IDENTIFIERS = "calvalus.input.productIdentifiers";
     String CALVALUS_INPUT_COLLECTION_NAME = "calvalus.input.collectionName";
     String CALVALUS_INPUT_PRODUCT_TYPE = "calvalus.input.productType";
+    String CALVALUS_INPUT_STREAM_BLOCK_SIZE = "calvalus.input.stream.blockSize";
+    String CALVALUS_INPUT_STREAM_CACHED_BLOCKS = "calvalus.input.stream.cachedBlocks";
+    String CALVALUS_INPUT_STREAM_READ_AHEAD_BLOCKS = "calvalus.input.stream.readAheadBlocks";
+    String CALVALUS_LOCAL_CACHE_DIR = "calvalus.localCache.dir";
+    String CALVALUS_LOCAL_CACHE_MAX_SIZE = "calvalus.localCache.maxSize";
+    String CALVALUS_INPUT_UNCOMPRESS_THREADS = "calvalus.input.uncompressThreads";
+    String CALVALUS_INPUT_SPLIT_THREADS = "calvalus.input.splitThreads";
+    String CALVALUS_INPUT_LISTING_CACHE_DIR = "calvalus.input.listingCache.dir";
 
     String CALVALUS_OUTPUT_DIR = "calvalus.output.dir";
     String CALVALUS_OUTPUT_FORMAT = "calvalus.output.format";
@@ -54,11 +62,16 @@ public interface JobConfigNames {
     String CALVALUS_OUTPUT_POSTFIX = "calvalus.output.postfix";
     String CALVALUS_OUTPUT_NAMEFORMAT = "calvalus.output.nameformat";
     String CALVALUS_OUTPUT_PRESERVE_DATE_TREE = "calvalus.output.preserveDateTree";
+    String CALVALUS_OUTPUT_STREAMING_COMPRESSION = "calvalus.output.streaming.compression";
+    String CALVALUS_OUTPUT_STREAMING_THREADS = "calvalus.output.streaming.threads";
+    String CALVALUS_OUTPUT_UPLOAD_THREADS = "calvalus.output.upload.threads";
+    String CALVALUS_OUTPUT_UPLOAD_STREAMING = "calvalus.output.upload.streaming";
 
     String CALVALUS_OUTPUT_QUICKLOOKS = "calvalus.output.quicklooks";
     String CALVALUS_QUICKLOOK_PARAMETERS = "calvalus.ql.parameters";
 
     String CALVALUS_REQUEST_SIZE_LIMIT = "calvalus.requestSizeLimit";
+    String CALVALUS_FLOAT_ARRAY_COMPRESSION = "calvalus.floatArray.compression";
 
     String CALVALUS_L2_OPERATOR = "calvalus.l2.operator";
     String CALVALUS_L2_PARAMETERS = "calvalus.l2.parameters";
@@ -80,10 +93,23 @@ public interface JobConfigNames {
     String CALVALUS_CELL_PARAMETERS = "calvalus.cell.parameters";
     String CALVALUS_L3_REDUCERS = "calvalus.l3.reducers";
     String CALVALUS_L3_COMPUTE_OUTPUTS = "calvalus.l3.computeOutputs";
+    String CALVALUS_L3_COMBINER = "calvalus.l3.combiner";
+    String CALVALUS_L3_BALANCE_PARTITIONS = "calvalus.l3.balancePartitions";
+    String CALVALUS_L3_BALANCE_HISTOGRAM_INPUT = "calvalus.l3.balanceHistogramInput";
+    String CALVALUS_L3_PARTITION_START_ROWS = "calvalus.l3.partitionStartRows";
+    String CALVALUS_L3_FORMAT_READ_THREADS = "calvalus.l3.format.readThreads";
+    String CALVALUS_L3_INPUT_REGION = "calvalus.l3.inputRegion";
+    String CALVALUS_SEASONAL_MICRO_TILE_THREADS = "calvalus.seasonal.microTileThreads";
     String CALVALUS_MOSAIC_PARAMETERS = "calvalus.mosaic.parameters";
+    String CALVALUS_MOSAIC_REDUCER_THREADS = "calvalus.mosaic.reducerThreads";
     String CALVALUS_MA_PARAMETERS = "calvalus.ma.parameters";
     String CALVALUS_MA_USE_INPUT_PIXEL_POS = "calvalus.ma.useInputPixelPos";
+    String CALVALUS_MA_REFERENCE_INDEX = "calvalus.ma.referenceIndex";
+    String CALVALUS_MA_REFERENCE_INDEX_DIR = "calvalus.ma.referenceIndex.dir";
+    String CALVALUS_MA_REFERENCE_INDEX_PATH = "calvalus.ma.referenceIndex.path";
+    String CALVALUS_MA_GEOCODING_THREADS = "calvalus.ma.geoCodingThreads";
     String CALVALUS_RA_PARAMETERS = "calvalus.ra.parameters";
+    String CALVALUS_RA_EXTRACTION_THREADS = "calvalus.ra.extractionThreads";
     String CALVALUS_TA_PARAMETERS = "calvalus.ta.parameters";
     String PROCESSING_HISTORY = "processing_history";
 
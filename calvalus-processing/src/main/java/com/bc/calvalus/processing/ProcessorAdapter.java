@@ -19,6 +19,8 @@ package com.bc.calvalus.processing;
 import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.beam.CalvalusProductIO;
 import com.bc.calvalus.processing.beam.GpfUtils;
+import com.bc.calvalus.processing.beam.LocalProductCache;
+import com.bc.calvalus.processing.hadoop.FSImageInputStream;
 import com.bc.calvalus.processing.hadoop.ParameterizedSplit;
 import com.bc.calvalus.processing.hadoop.ProductSplit;
 import com.bc.calvalus.processing.utils.GeometryUtils;
@@ -523,6 +525,8 @@ public abstract class ProcessorAdapter {
      */
     public void dispose() {
         closeInputProduct();
+        FSImageInputStream.updateCounters(getMapContext());
+        LocalProductCache.updateCounters(getMapContext());
     }
 
     public void closeInputProduct() {
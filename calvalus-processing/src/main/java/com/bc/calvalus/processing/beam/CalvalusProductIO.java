@@ -17,6 +17,7 @@
 package com.bc.calvalus.processing.beam;
 
 import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.hadoop.FSImageInputStream;
 import com.bc.ceres.glevel.MultiLevelImage;
 import org.apache.hadoop.conf.Configuration;
@@ -52,11 +53,13 @@ import java.io.OutputStream;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -68,6 +71,8 @@ import java.util.zip.ZipInputStream;
 public class CalvalusProductIO {
 
     private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_UNCOMPRESS_THREADS = 4;
 
     /**
      * Reads a product from the distributed file system.
@@ -202,7 +207,17 @@ public class CalvalusProductIO {
                 FileUtil.symLink(path.toString(), localFile.getAbsolutePath());                
             } else {
                 FileSystem fs = path.getFileSystem(conf);
-                FileUtil.copy(fs, path, localFile, false, conf);
+                LocalProductCache cache = LocalProductCache.get(conf);
+                if (cache != null) {
+                    String name = localFile.getName();
+                    String key = LocalProductCache.createKey("copy:" + name, fs.getFileStatus(path));
+                    cache.getInto(key, localFile.getAbsoluteFile().getParentFile(), contentDir -> {
+                        FileUtil.copy(fs, path, new File(contentDir, name), false, conf);
+                        return Collections.singletonList(name);
+                    });
+                } else {
+                    FileUtil.copy(fs, path, localFile, false, conf);
+                }
             }
         }
         return localFile;
@@ -213,29 +228,85 @@ public class CalvalusProductIO {
     }
 
     public static File[] uncompressArchiveToDir(Path path, File localDir, Configuration conf) throws IOException {
+        return uncompressArchiveToDir(path, localDir, conf, null);
+    }
+
+    /**
+     * Extracts an archive into a local directory. Zip archives are extracted by several threads
+     * ({@link JobConfigNames#CALVALUS_INPUT_UNCOMPRESS_THREADS}), compressed tar archives are decompressed
+     * concurrently with extracting the entries.
+     *
+     * @param entryFilter selects the entries to be extracted by name, or null to extract all entries.
+     *                    Archives are only taken from the local product cache if all entries are extracted.
+     */
+    public static File[] uncompressArchiveToDir(Path path, File localDir, Configuration conf, Predicate<String> entryFilter) throws IOException {
+        LocalProductCache cache = LocalProductCache.get(conf);
+        if (cache == null || entryFilter != null) {
+            return uncompressArchive(path, localDir, conf, entryFilter);
+        }
+        String key = LocalProductCache.createKey("uncompress", path.getFileSystem(conf).getFileStatus(path));
+        List<String> names = cache.getInto(key, localDir, contentDir -> {
+            File[] extractedFiles = uncompressArchive(path, contentDir, conf, null);
+            List<String> extractedNames = new ArrayList<>(extractedFiles.length);
+            String prefix = contentDir.getPath() + File.separator;
+            for (File extractedFile : extractedFiles) {
+                extractedNames.add(extractedFile.getPath().substring(prefix.length()));
+            }
+            return extractedNames;
+        });
+        File[] files = new File[names.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(localDir, names.get(i));
+        }
+        return files;
+    }
+
+    private static File[] uncompressArchive(Path path, File localDir, Configuration conf, Predicate<String> entryFilter) throws IOException {
         long t1 = System.currentTimeMillis();
         FileSystem fs = path.getFileSystem(conf);
-        InputStream inputStream = new BufferedInputStream(fs.open(path));
-        List<File> extractedFiles = new ArrayList<>();
+        List<File> extractedFiles = null;
 
         String archiveName = path.getName().toLowerCase();
         long localSize = 0;
         boolean isZippedSlstrWithoutExtension = path.getName().matches("S3._SL_1_RBT.*_NT_00.");
         if (archiveName.endsWith(".zip") || isZippedSlstrWithoutExtension) {
-            try (ZipInputStream zipIn = new ZipInputStream(inputStream)) {
-                ZipEntry entry;
-                while ((entry = zipIn.getNextEntry()) != null) {
-                    extractedFiles.add(handleEntry(localDir, entry.getName(), entry.isDirectory(), zipIn));
-                    localSize += entry.getSize();
+            long length = fs.getFileStatus(path).getLen();
+            try (FSDataInputStream in = fs.open(path)) {
+                ParallelZipExtractor extractor = new ParallelZipExtractor(in, length);
+                List<ParallelZipExtractor.Entry> entries = extractor.readCentralDirectory();
+                if (entries != null) {
+                    int numThreads = conf.getInt(JobConfigNames.CALVALUS_INPUT_UNCOMPRESS_THREADS, DEFAULT_UNCOMPRESS_THREADS);
+                    extractedFiles = extractor.extract(entries, localDir, numThreads, entryFilter);
+                    for (ParallelZipExtractor.Entry entry : entries) {
+                        if (entryFilter == null || entryFilter.test(entry.name)) {
+                            localSize += entry.size;
+                        }
+                    }
+                }
+            }
+            if (extractedFiles == null) {
+                LOG.info("uncompressArchiveToDir: central directory not supported, reading zip stream " + path);
+                extractedFiles = new ArrayList<>();
+                try (ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(fs.open(path), COPY_BUFFER_SIZE))) {
+                    ZipEntry entry;
+                    while ((entry = zipIn.getNextEntry()) != null) {
+                        if (entryFilter == null || entryFilter.test(entry.getName())) {
+                            extractedFiles.add(handleEntry(localDir, entry.getName(), entry.isDirectory(), zipIn));
+                            localSize += entry.getSize();
+                        }
+                    }
                 }
             }
         } else if (isTarCompressed(archiveName)) {
+            extractedFiles = new ArrayList<>();
+            InputStream inputStream = new BufferedInputStream(fs.open(path), COPY_BUFFER_SIZE);
             try (TarInputStream tarIn = getTarInputStream(archiveName, inputStream)) {
                 TarEntry entry;
                 while ((entry = tarIn.getNextEntry()) != null) {
-                    extractedFiles.add(handleEntry(localDir, entry.getName(), entry.isDirectory(), tarIn));
-                    localSize += entry.getSize();
-                    
+                    if (entryFilter == null || entryFilter.test(entry.getName())) {
+                        extractedFiles.add(handleEntry(localDir, entry.getName(), entry.isDirectory(), tarIn));
+                        localSize += entry.getSize();
+                    }
                 }
             }
         } else {
@@ -255,18 +326,19 @@ public class CalvalusProductIO {
             if (parentDir != null && !parentDir.exists()) {
                 parentDir.mkdirs();
             }
-            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
-                IOUtils.copyBytes(zipIn, out, 8192);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), COPY_BUFFER_SIZE)) {
+                IOUtils.copyBytes(zipIn, out, COPY_BUFFER_SIZE);
             }
         }
         return file;
     }
 
     private static TarInputStream getTarInputStream(String archiveName, InputStream inputStream) throws IOException {
+        // decompression runs in a separate thread, concurrently with writing the entries
         if (isTgz(archiveName)) {
-            return new TarInputStream(new GZIPInputStream(inputStream));
+            return new TarInputStream(new ReadAheadInputStream(new GZIPInputStream(inputStream, COPY_BUFFER_SIZE), COPY_BUFFER_SIZE, 16));
         } else if (isTbz(archiveName)) {
-            return new TarInputStream(new CBZip2InputStream(inputStream, true));
+            return new TarInputStream(new ReadAheadInputStream(new CBZip2InputStream(inputStream, true), COPY_BUFFER_SIZE, 16));
         } else {
             return new TarInputStream(inputStream);
         }
@@ -306,7 +378,7 @@ public class CalvalusProductIO {
         FileSystem fs = path.getFileSystem(conf);
         FileStatus status = fs.getFileStatus(path);
         FSDataInputStream in = fs.open(path);
-        return new FSImageInputStream(in, status.getLen(), path.toString());
+        return FSImageInputStream.create(in, status.getLen(), path.toString(), conf);
     }
 
     private static Product readProductImpl(Object input, Class<?> inputClass, String inputFormat) {
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2014 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.beam;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A cache of input products shared by all tasks of a node, in a local directory given by
+ * {@link JobConfigNames#CALVALUS_LOCAL_CACHE_DIR}.
+ * <p>
+ * Entries are keyed by path, length and modification time of the remote file. An entry is fetched into a
+ * temporary directory and published by an atomic rename. Concurrent tasks fetching the same entry are
+ * serialised by file locks, so that only one of them downloads it. Entries are handed over into the task
+ * directory by hard links (or symbolic links if the task directory is on another file system), hence the
+ * task must not modify its inputs in place. If the cache exceeds {@link JobConfigNames#CALVALUS_LOCAL_CACHE_MAX_SIZE}
+ * the least recently used entries are deleted.
+ */
+public class LocalProductCache {
+
+    /**
+     * Fills a new cache entry.
+     */
+    public interface Fetcher {
+        /**
+         * @param contentDir the empty directory to fetch the entry into
+         * @return the names of the files fetched relative to the content directory
+         */
+        List<String> fetch(File contentDir) throws IOException;
+    }
+
+    public static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024 * 1024;
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final String COUNTER_GROUP_NAME = "Local Product Cache";
+    private static final String CONTENT_DIR_NAME = "content";
+    private static final String MANIFEST_NAME = "manifest";
+    private static final String SIZE_NAME = "size";
+    private static final String TEMP_PREFIX = "tmp-";
+    private static final String LOCK_PREFIX = "lock-";
+    private static final String EVICTION_LOCK_NAME = "lock-eviction";
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private final File cacheDir;
+    private final long maxSize;
+
+    public LocalProductCache(File cacheDir, long maxSize) {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cache configured for the job, or null if no cache is configured
+     */
+    public static LocalProductCache get(Configuration conf) {
+        String cacheDir = conf.get(JobConfigNames.CALVALUS_LOCAL_CACHE_DIR);
+        if (cacheDir == null || cacheDir.isEmpty()) {
+            return null;
+        }
+        return new LocalProductCache(new File(cacheDir), conf.getLong(JobConfigNames.CALVALUS_LOCAL_CACHE_MAX_SIZE, DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * Sets the task counters to the cache hits and misses of this JVM.
+     */
+    public static void updateCounters(TaskInputOutputContext<?, ?, ?, ?> context) {
+        context.getCounter(COUNTER_GROUP_NAME, "HITS").setValue(HITS.get());
+        context.getCounter(COUNTER_GROUP_NAME, "MISSES").setValue(MISSES.get());
+    }
+
+    public static String createKey(String kind, FileStatus status) {
+        return createKey(kind, status.getPath().toString(), status.getLen(), status.getModificationTime());
+    }
+
+    static String createKey(String kind, String path, long length, long modificationTime) {
+        String id = kind + '\n' + path + '\n' + length + '\n' + modificationTime;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(id.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(String.format("%02x", b & 0xff));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Links the files of the entry into the target directory, fetching the entry first if it is not yet cached.
+     *
+     * @return the names of the files of the entry relative to the target directory
+     */
+    public List<String> getInto(String key, File targetDir, Fetcher fetcher) throws IOException {
+        File entryDir = new File(cacheDir, key);
+        if (entryDir.isDirectory()) {
+            HITS.incrementAndGet();
+        } else {
+            fetch(key, entryDir, fetcher);
+        }
+        try {
+            return linkEntry(entryDir, targetDir);
+        } catch (NoSuchFileException e) {
+            // evicted in the meantime
+            fetch(key, entryDir, fetcher);
+            return linkEntry(entryDir, targetDir);
+        }
+    }
+
+    private static List<String> linkEntry(File entryDir, File targetDir) throws IOException {
+        entryDir.setLastModified(System.currentTimeMillis());
+        List<String> names = Files.readAllLines(new File(entryDir, MANIFEST_NAME).toPath(), StandardCharsets.UTF_8);
+        File contentDir = new File(entryDir, CONTENT_DIR_NAME);
+        File[] children = contentDir.listFiles();
+        if (children == null) {
+            throw new NoSuchFileException(contentDir.getPath());
+        }
+        for (File child : children) {
+            link(child, new File(targetDir, child.getName()));
+        }
+        return names;
+    }
+
+    private void fetch(String key, File entryDir, Fetcher fetcher) throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+            throw new IOException("cannot create cache directory " + cacheDir);
+        }
+        // tasks on the node fetching the same entry wait for each other, the lock files are striped to limit their number
+        File lockFile = new File(cacheDir, LOCK_PREFIX + key.substring(0, 2));
+        synchronized (LocalProductCache.class) {
+            try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+                 FileLock ignored = raf.getChannel().lock()) {
+                if (new File(entryDir, CONTENT_DIR_NAME).isDirectory()) {
+                    HITS.incrementAndGet();
+                    return;
+                }
+                MISSES.incrementAndGet();
+                if (entryDir.exists()) {
+                    // an incomplete entry, e.g. with its content deleted by hand, is replaced
+                    discard(entryDir);
+                }
+                File tempDir = new File(cacheDir, TEMP_PREFIX + key + "-" + UUID.randomUUID());
+                try {
+                    File contentDir = new File(tempDir, CONTENT_DIR_NAME);
+                    if (!contentDir.mkdirs()) {
+                        throw new IOException("cannot create directory " + contentDir);
+                    }
+                    List<String> names = fetcher.fetch(contentDir);
+                    Files.write(new File(tempDir, MANIFEST_NAME).toPath(), names, StandardCharsets.UTF_8);
+                    Files.write(new File(tempDir, SIZE_NAME).toPath(),
+                                Collections.singletonList(Long.toString(sizeOf(contentDir))), StandardCharsets.UTF_8);
+                    Files.move(tempDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    if (tempDir.exists()) {
+                        delete(tempDir);
+                    }
+                }
+            }
+        }
+        evict(entryDir);
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache size is below the limit.
+     */
+    private void evict(File keepDir) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(new File(cacheDir, EVICTION_LOCK_NAME), "rw");
+             FileChannel channel = raf.getChannel();
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                // another task is evicting
+                return;
+            }
+            File[] entryDirs = cacheDir.listFiles(file -> file.isDirectory() && !file.getName().startsWith(TEMP_PREFIX));
+            if (entryDirs == null) {
+                return;
+            }
+            long totalSize = 0;
+            long[] sizes = new long[entryDirs.length];
+            for (int i = 0; i < entryDirs.length; i++) {
+                sizes[i] = readSize(entryDirs[i]);
+                totalSize += sizes[i];
+            }
+            if (totalSize <= maxSize) {
+                return;
+            }
+            Integer[] order = new Integer[entryDirs.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final long[] lastModified = new long[entryDirs.length];
+            for (int i = 0; i < entryDirs.length; i++) {
+                lastModified[i] = entryDirs[i].lastModified();
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> lastModified[i]));
+            for (int i : order) {
+                if (totalSize <= maxSize) {
+                    break;
+                }
+                if (entryDirs[i].equals(keepDir)) {
+                    continue;
+                }
+                LOG.info("evicting " + entryDirs[i].getName() + " from local product cache");
+                if (discard(entryDirs[i])) {
+                    totalSize -= sizes[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Renames the entry first so that no task picks up a partially deleted entry, then deletes it.
+     */
+    private boolean discard(File entryDir) {
+        File trashDir = new File(cacheDir, TEMP_PREFIX + entryDir.getName() + "-" + UUID.randomUUID());
+        if (!entryDir.renameTo(trashDir)) {
+            return false;
+        }
+        delete(trashDir);
+        return true;
+    }
+
+    private static long readSize(File entryDir) {
+        try {
+            return Long.parseLong(Files.readAllLines(new File(entryDir, SIZE_NAME).toPath(), StandardCharsets.UTF_8).get(0).trim());
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(File file) {
+        if (file.isDirectory()) {
+            long size = 0;
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    size += sizeOf(child);
+                }
+            }
+            return size;
+        }
+        return file.length();
+    }
+
+    /**
+     * Recreates directories and hard links files, or symbolically links them if hard links are not possible,
+     * e.g. across file systems. A source file that has gone is reported by a NoSuchFileException.
+     */
+    private static void link(File source, File target) throws IOException {
+        if (source.isDirectory()) {
+            if (!target.isDirectory() && !target.mkdirs()) {
+                throw new IOException("cannot create directory " + target);
+            }
+            File[] children = source.listFiles();
+            if (children == null) {
+                throw new NoSuchFileException(source.getPath());
+            }
+            for (File child : children) {
+                link(child, new File(target, child.getName()));
+            }
+        } else if (!target.exists()) {
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (FileSystemException | UnsupportedOperationException e) {
+                Files.createSymbolicLink(target.toPath(), source.getAbsoluteFile().toPath());
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.isDirectory() && !Files.isSymbolicLink(file.toPath()) ? file.listFiles() : null;
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            LOG.warning("cannot delete " + file);
+        }
+    }
+}
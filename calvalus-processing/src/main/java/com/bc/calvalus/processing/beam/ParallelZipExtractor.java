@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2014 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.beam;
+
+import org.apache.hadoop.fs.PositionedReadable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Extracts the entries of a zip archive in parallel. The central directory at the end of the archive
+ * is read first, then the entries are read by positional reads and inflated concurrently.
+ * Archives this extractor does not support (no central directory found, encryption, compression
+ * methods other than stored and deflated) are reported by {@link #readCentralDirectory} returning null.
+ */
+final class ParallelZipExtractor {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_LENGTH = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    static final class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final PositionedReadable in;
+    private final long length;
+
+    ParallelZipExtractor(PositionedReadable in, long length) {
+        this.in = in;
+        this.length = length;
+    }
+
+    /**
+     * @return the entries of the archive in the order of the central directory,
+     * or null if the archive cannot be extracted by this extractor
+     */
+    List<Entry> readCentralDirectory() throws IOException {
+        int tailLength = (int) Math.min(length, EOCD_LENGTH + MAX_COMMENT_LENGTH + ZIP64_LOCATOR_LENGTH);
+        ByteBuffer tail = read(length - tailLength, tailLength);
+        int eocd = -1;
+        for (int i = tailLength - EOCD_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            return null;
+        }
+        long numEntries = tail.getShort(eocd + 10) & 0xffff;
+        long directorySize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+        if (eocd >= ZIP64_LOCATOR_LENGTH && tail.getInt(eocd - ZIP64_LOCATOR_LENGTH) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64EocdOffset = tail.getLong(eocd - ZIP64_LOCATOR_LENGTH + 8);
+            ByteBuffer zip64Eocd = read(zip64EocdOffset, 56);
+            if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                return null;
+            }
+            numEntries = zip64Eocd.getLong(32);
+            directorySize = zip64Eocd.getLong(40);
+            directoryOffset = zip64Eocd.getLong(48);
+        }
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > length) {
+            return null;
+        }
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<>((int) Math.min(numEntries, 100000));
+        int pos = 0;
+        for (long n = 0; n < numEntries; n++) {
+            if (directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                return null;
+            }
+            int flags = directory.getShort(pos + 8) & 0xffff;
+            int method = directory.getShort(pos + 10) & 0xffff;
+            long crc = directory.getInt(pos + 16) & ZIP64_MAGIC;
+            long compressedSize = directory.getInt(pos + 20) & ZIP64_MAGIC;
+            long size = directory.getInt(pos + 24) & ZIP64_MAGIC;
+            int nameLength = directory.getShort(pos + 28) & 0xffff;
+            int extraLength = directory.getShort(pos + 30) & 0xffff;
+            int commentLength = directory.getShort(pos + 32) & 0xffff;
+            long localHeaderOffset = directory.getInt(pos + 42) & ZIP64_MAGIC;
+            byte[] nameBytes = new byte[nameLength];
+            directory.position(pos + 46);
+            directory.get(nameBytes);
+            // zip64 extra field holds the values which do not fit into 32 bits, in this order
+            int extra = pos + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = directory.getShort(extra) & 0xffff;
+                int dataLength = directory.getShort(extra + 2) & 0xffff;
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + dataLength;
+            }
+            if ((flags & 1) != 0 || (method != STORED && method != DEFLATED)) {
+                // encrypted or unsupported compression
+                return null;
+            }
+            entries.add(new Entry(new String(nameBytes, StandardCharsets.UTF_8), method, crc, compressedSize, size, localHeaderOffset));
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Extracts the entries accepted by the filter into the directory.
+     *
+     * @return the files and directories extracted, in the order of the entries
+     */
+    List<File> extract(List<Entry> entries, File localDir, int numThreads, Predicate<String> entryFilter) throws IOException {
+        List<File> extractedFiles = new ArrayList<>();
+        List<Entry> fileEntries = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entryFilter != null && !entryFilter.test(entry.name)) {
+                continue;
+            }
+            File file = new File(localDir, entry.name);
+            extractedFiles.add(file);
+            if (entry.isDirectory()) {
+                mkdirs(file);
+            } else {
+                fileEntries.add(entry);
+            }
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            List<Future<?>> futures = new ArrayList<>(fileEntries.size());
+            for (Entry entry : fileEntries) {
+                futures.add(executorService.submit(() -> {
+                    extractEntry(entry, new File(localDir, entry.name));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        return extractedFiles;
+    }
+
+    private void extractEntry(Entry entry, File file) throws IOException {
+        ByteBuffer localHeader = read(entry.localHeaderOffset, LOCAL_HEADER_LENGTH);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("invalid local header of zip entry " + entry.name);
+        }
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_LENGTH
+                          + (localHeader.getShort(26) & 0xffff) + (localHeader.getShort(28) & 0xffff);
+        File parentDir = file.getParentFile();
+        if (parentDir != null) {
+            mkdirs(parentDir);
+        }
+        InputStream data;
+        Inflater inflater = null;
+        if (entry.method == DEFLATED) {
+            // the inflater may need a dummy byte after the compressed data
+            long dataLength = Math.min(entry.compressedSize + 1, length - dataOffset);
+            data = new PositionedInputStream(in, dataOffset, dataLength);
+            inflater = new Inflater(true);
+            data = new InflaterInputStream(data, inflater, BUFFER_SIZE);
+        } else {
+            data = new PositionedInputStream(in, dataOffset, entry.compressedSize);
+        }
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = data.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                crc.update(buffer, 0, n);
+                size += n;
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        if (size != entry.size || crc.getValue() != entry.crc) {
+            throw new IOException("corrupt zip entry " + entry.name);
+        }
+    }
+
+    private ByteBuffer read(long position, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        in.readFully(position, bytes, 0, len);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("cannot create directory " + dir);
+        }
+    }
+
+    /**
+     * Reads a range of a file by positional reads, hence can be used concurrently with other ranges.
+     */
+    private static class PositionedInputStream extends InputStream {
+
+        private final PositionedReadable in;
+        private final long end;
+        private long position;
+
+        PositionedInputStream(PositionedReadable in, long start, long length) {
+            this.in = in;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = (int) Math.min(len, end - position);
+            in.readFully(position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.beam;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a stream ahead in a separate thread, e.g. to decompress an archive concurrently
+ * with extracting its entries. The chunks read ahead are passed through a bounded queue.
+ * Any failure of the read-ahead thread is rethrown by the reads following the last chunk.
+ */
+final class ReadAheadInputStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private final InputStream in;
+    private final BlockingQueue<byte[]> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private byte[] chunk;
+    private int chunkPos;
+
+    ReadAheadInputStream(InputStream in, int chunkSize, int numChunks) {
+        this.in = in;
+        this.queue = new ArrayBlockingQueue<>(numChunks);
+        this.thread = new Thread(() -> readAhead(chunkSize), "read-ahead");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void readAhead(int chunkSize) {
+        try {
+            while (!closed) {
+                byte[] buffer = new byte[chunkSize];
+                int len = 0;
+                int n = 0;
+                while (len < chunkSize && (n = in.read(buffer, len, chunkSize - len)) >= 0) {
+                    len += n;
+                }
+                if (len > 0) {
+                    put(len == chunkSize ? buffer : Arrays.copyOf(buffer, len));
+                }
+                if (n < 0) {
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            // recorded before END is put, hence visible to the reader taking END
+            failure = t;
+        } finally {
+            put(END);
+        }
+    }
+
+    private void put(byte[] bytes) {
+        try {
+            while (!closed) {
+                if (queue.offer(bytes, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return chunk[chunkPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - chunkPos);
+        System.arraycopy(chunk, chunkPos, b, off, n);
+        chunkPos += n;
+        return n;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (chunk == END) {
+            throwFailure();
+            return false;
+        }
+        if (chunk == null || chunkPos == chunk.length) {
+            try {
+                chunk = queue.take();
+                chunkPos = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            if (chunk == END) {
+                throwFailure();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void throwFailure() throws IOException {
+        Throwable t = failure;
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        queue.clear();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    }
+}
@@ -21,8 +21,14 @@ import com.bc.ceres.core.ProgressMonitor;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
 import org.esa.snap.core.dataio.AbstractProductReader;
 import org.esa.snap.core.dataio.IllegalFileFormatException;
 import org.esa.snap.core.dataio.ProductReaderPlugIn;
@@ -41,11 +47,17 @@ import javax.media.jai.PlanarImage;
 import java.awt.*;
 import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 
 
+/**
+ * Reads products in the streaming format written by the {@link StreamingProductWriter}, both the variant
+ * with {@link ByteArrayWritable} values and the compressed variant with shuffled {@link BytesWritable} values.
+ * Compressed slices are read under the lock of the sequence file reader and decompressed outside of it.
+ */
 public class StreamingProductReader extends AbstractProductReader {
 
     private Path path;
@@ -53,6 +65,7 @@ public class StreamingProductReader extends AbstractProductReader {
     private Map<String, Long> keyIndex;
 
     private SequenceFile.Reader reader;
+    private boolean shuffled;
     private int sliceHeight;
     private Document dom;
 
@@ -72,6 +85,7 @@ public class StreamingProductReader extends AbstractProductReader {
         }
         FileSystem fileSystem = path.getFileSystem(configuration);
         reader = new SequenceFile.Reader(fileSystem, path, configuration);
+        shuffled = reader.getValueClass() == BytesWritable.class;
         Product product = readHeader();
         product.setPreferredTileSize(product.getSceneRasterWidth(), sliceHeight);
         Band[] bands = product.getBands();
@@ -126,17 +140,15 @@ public class StreamingProductReader extends AbstractProductReader {
     }
 
     private void readTiepoints(Product product) throws IOException {
-        Text key = new Text();
-        ByteArrayWritable value = new ByteArrayWritable();
         TiePointGrid[] tiePointGrids = product.getTiePointGrids();
         for (TiePointGrid tpg : tiePointGrids) {
             String expectedKey = "tiepoint:" + tpg.getName();
-            reader.next(key, value);
-            if (!key.toString().equals(expectedKey)) {
-                throw new IllegalStateException(String.format("key '%s' expected but got '%s'", expectedKey, key));
+            RawRecord record = readRawRecord(null);
+            if (!record.key.toString().equals(expectedKey)) {
+                throw new IllegalStateException(String.format("key '%s' expected but got '%s'", expectedKey, record.key));
             }
-            byte[] byteArray = value.getArray();
             ProductData productData = ProductData.createInstance(tpg.getDataType(), (int) tpg.getNumDataElems());
+            byte[] byteArray = decodeValue(record, productData);
 
             InputStream inputStream = new ByteArrayInputStream(byteArray);
             ImageInputStream iis = new MemoryCacheImageInputStream(inputStream);
@@ -146,6 +158,59 @@ public class StreamingProductReader extends AbstractProductReader {
         }
     }
 
+    /**
+     * Reads the key and the still compressed value of the record at the position, or at the current position if null.
+     */
+    private RawRecord readRawRecord(Long position) throws IOException {
+        DataOutputBuffer keyBuffer = new DataOutputBuffer();
+        DataOutputBuffer valueBuffer = new DataOutputBuffer();
+        synchronized (reader) {
+            if (position != null && position != reader.getPosition()) {
+                reader.seek(position);
+            }
+            SequenceFile.ValueBytes valueBytes = reader.createValueBytes();
+            if (reader.nextRaw(keyBuffer, valueBytes) < 0) {
+                throw new IOException("unexpected end of streaming product " + path);
+            }
+            if (reader.isCompressed()) {
+                valueBytes.writeCompressedBytes(valueBuffer);
+            } else {
+                valueBytes.writeUncompressedBytes(valueBuffer);
+            }
+        }
+        DataInputBuffer keyInput = new DataInputBuffer();
+        keyInput.reset(keyBuffer.getData(), keyBuffer.getLength());
+        Text key = new Text();
+        key.readFields(keyInput);
+        return new RawRecord(key, valueBuffer);
+    }
+
+    /**
+     * Decompresses and deserialises the value of a record to the bytes of the product data.
+     */
+    private byte[] decodeValue(RawRecord record, ProductData productData) throws IOException {
+        DataInputBuffer rawInput = new DataInputBuffer();
+        rawInput.reset(record.value.getData(), record.value.getLength());
+        if (!shuffled) {
+            ByteArrayWritable value = new ByteArrayWritable();
+            value.readFields(rawInput);
+            return value.getArray();
+        }
+        BytesWritable value = new BytesWritable();
+        if (reader.isCompressed()) {
+            CompressionCodec codec = reader.getCompressionCodec();
+            Decompressor decompressor = CodecPool.getDecompressor(codec);
+            try {
+                value.readFields(new DataInputStream(codec.createInputStream(rawInput, decompressor)));
+            } finally {
+                CodecPool.returnDecompressor(decompressor);
+            }
+        } else {
+            value.readFields(rawInput);
+        }
+        return StreamingProductWriter.unshuffle(value.getBytes(), value.getLength(), productData.getElemSize());
+    }
+
     private void initGeoCodings(Document dom, Product product) {
         final GeoCoding[] geoCodings = DimapProductHelpers.createGeoCoding(dom, product);
         if (geoCodings != null) {
@@ -206,19 +271,11 @@ public class StreamingProductReader extends AbstractProductReader {
             int sliceIndex = MathUtils.floorInt(y / sliceHeight);
             String expectedKey = rasterDataNode.getName() + ":" + sliceIndex;
 
-            Text key = new Text();
-            ByteArrayWritable value = new ByteArrayWritable();
-            synchronized (reader) {
-                Long keyPosition = keyIndex.get(expectedKey);
-                if (keyPosition != reader.getPosition()) {
-                    reader.seek(keyPosition);
-                }
-                reader.next(key, value);
+            RawRecord record = readRawRecord(keyIndex.get(expectedKey));
+            if (!record.key.toString().equals(expectedKey)) {
+                throw new IllegalStateException(String.format("key '%s' expected but got '%s'", expectedKey, record.key));
             }
-            if (!key.toString().equals(expectedKey)) {
-                throw new IllegalStateException(String.format("key '%s' expected but got '%s'", expectedKey, key));
-            }
-            byte[] byteArray = value.getArray();
+            byte[] byteArray = decodeValue(record, productData);
 
             InputStream inputStream = new ByteArrayInputStream(byteArray);
             ImageInputStream iis = new MemoryCacheImageInputStream(inputStream);
@@ -227,4 +284,15 @@ public class StreamingProductReader extends AbstractProductReader {
         }
 
     }
+
+    private static final class RawRecord {
+
+        private final Text key;
+        private final DataOutputBuffer value;
+
+        private RawRecord(Text key, DataOutputBuffer value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
 }
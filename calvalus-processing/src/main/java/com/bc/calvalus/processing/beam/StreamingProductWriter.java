@@ -24,8 +24,15 @@ import com.sun.media.jai.util.SunTileCache;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
 import org.apache.hadoop.util.Progressable;
 import org.esa.snap.core.dataio.AbstractProductWriter;
 import org.esa.snap.core.dataio.IllegalFileFormatException;
@@ -50,19 +57,37 @@ import javax.media.jai.TileCache;
 import java.awt.*;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 
+/**
+ * Writes products in the streaming format, a sequence file of band slices, with an index of the slice positions.
+ * <p>
+ * By default the slices are written as {@link ByteArrayWritable}s, deflated by the writable. If a codec is configured
+ * by {@link JobConfigNames#CALVALUS_OUTPUT_STREAMING_COMPRESSION} the bytes of the samples are shuffled into planes,
+ * the most significant bytes first, and written as {@link BytesWritable}s compressed record by record by the
+ * sequence file. Records stay seekable by the index. The reader distinguishes both variants by the value class.
+ * <p>
+ * With {@link JobConfigNames#CALVALUS_OUTPUT_STREAMING_THREADS} greater than one, slices are computed and encoded
+ * concurrently, with a bounded number of slices in flight, and written in the same order as sequentially.
+ */
 public class StreamingProductWriter extends AbstractProductWriter {
 
     private static final Logger LOG = CalvalusLogger.getLogger();
@@ -72,6 +97,7 @@ public class StreamingProductWriter extends AbstractProductWriter {
     private final Progressable progressable = null; // TODO no longer needed ??, progress through pm
     private SequenceFile.Writer sequenceFileWriter;
     private int tileHeight;
+    private CompressionCodec compressionCodec;
     private static boolean tileCacheDebugging;
 
 
@@ -89,21 +115,59 @@ public class StreamingProductWriter extends AbstractProductWriter {
             path = pathConfiguration.getPath();
             configuration = pathConfiguration.getConfiguration();
             tileCacheDebugging = configuration.getBoolean(JobConfigNames.CALVALUS_DEBUG_TILECACHE, false);
+            compressionCodec = getCompressionCodec(configuration);
         } else {
             throw new IllegalFileFormatException("input is not of the correct type.");
         }
         tileHeight = product.getPreferredTileSize().height;
         sequenceFileWriter = writeHeader(product, path);
-        writeTiePointData(product, sequenceFileWriter, indexMap);
+        writeTiePointData(product);
         LOG.info(" written header");
     }
 
     @Override
     public void writeBandRasterData(Band band, int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight, ProductData productData, ProgressMonitor pm) throws IOException {
+        writeEncodedBandRasterData(band, sourceOffsetY, encode(productData));
+    }
+
+    /**
+     * Writes a band slice encoded by {@link #encode}.
+     */
+    void writeEncodedBandRasterData(Band band, int sourceOffsetY, EncodedValue value) throws IOException {
         int sliceIndex = sourceOffsetY / tileHeight;
         String key = band.getName() + ":" + sliceIndex;
         updateIndex(indexMap, key, sequenceFileWriter.getLength());
-        writeProductData(sequenceFileWriter, key, productData);
+        writeEncoded(key, value);
+    }
+
+    /**
+     * Encodes and, if configured, compresses product data to be written. May be called concurrently.
+     */
+    EncodedValue encode(ProductData productData) throws IOException {
+        final byte[] buffer = new byte[productData.getNumElems() * productData.getElemSize()];
+        productData.writeTo(new ByteArrayBackedImageOutputStream(buffer));
+        final DataOutputBuffer out = new DataOutputBuffer();
+        if (compressionCodec == null) {
+            new ByteArrayWritable(buffer).write(out);
+        } else {
+            final Compressor compressor = CodecPool.getCompressor(compressionCodec);
+            try {
+                CompressionOutputStream compressionStream = compressionCodec.createOutputStream(out, compressor);
+                DataOutputStream dataStream = new DataOutputStream(compressionStream);
+                new BytesWritable(shuffle(buffer, productData.getElemSize())).write(dataStream);
+                dataStream.flush();
+                compressionStream.finish();
+            } finally {
+                CodecPool.returnCompressor(compressor);
+            }
+        }
+        return new EncodedValue(out);
+    }
+
+    private void writeEncoded(String key, EncodedValue value) throws IOException {
+        final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+        new Text(key).write(keyBuffer);
+        sequenceFileWriter.appendRaw(keyBuffer.getData(), 0, keyBuffer.getLength(), value);
     }
 
     @Override
@@ -139,14 +203,18 @@ public class StreamingProductWriter extends AbstractProductWriter {
         if (productWriter == null) {
             throw new IllegalArgumentException(String.format("No product writer found for format %s.", format));
         }
+        int numThreads = 1;
+        if (output instanceof PathConfiguration) {
+            numThreads = ((PathConfiguration) output).getConfiguration().getInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_THREADS, 1);
+        }
         product.setProductWriter(productWriter);
         productWriter.writeProductNodes(product, output);
-        writeAllBandsInSlices(product, pm, tileHeight);
+        writeAllBandsInSlices(product, pm, tileHeight, numThreads);
         product.closeProductWriter();
     }
 
     // TODO move to calvalusProductIO
-    private static void writeAllBandsInSlices(Product product, ProgressMonitor pm, int tileHeight) throws IOException {
+    private static void writeAllBandsInSlices(Product product, ProgressMonitor pm, int tileHeight, int numThreads) throws IOException {
         ProductWriter productWriter = product.getProductWriter();
 
         // for correct progress indication we need to collect
@@ -165,10 +233,10 @@ public class StreamingProductWriter extends AbstractProductWriter {
 
             if (allBandsSameSize(bandsToWrite)) {
                 CalvalusLogger.getLogger().info("Writing bands of the same size");
-                writeSameSizedBands(product, tileHeight, sceneHeight, bandsToWrite, productWriter, pm);
+                writeSameSizedBands(product, tileHeight, sceneHeight, bandsToWrite, productWriter, pm, numThreads);
             } else {
                 CalvalusLogger.getLogger().info("Writing bands of different sizes");
-                writeDifferentSizedBands(product, pm, productWriter, bandsToWrite);
+                writeDifferentSizedBands(product, pm, productWriter, bandsToWrite, numThreads);
             }
         }
     }
@@ -189,11 +257,10 @@ public class StreamingProductWriter extends AbstractProductWriter {
         return true;
     }
 
-    private static void writeDifferentSizedBands(Product product, ProgressMonitor pm, ProductWriter productWriter, List<Band> bandsToWrite) throws IOException {
+    private static void writeDifferentSizedBands(Product product, ProgressMonitor pm, ProductWriter productWriter, List<Band> bandsToWrite, int numThreads) throws IOException {
         try {
 
             int x = 0;
-            int sliceIndex = 0;
             int[] bandTileHeights = new int[bandsToWrite.size()];
             int[] bandTileWidths = new int[bandsToWrite.size()];
             for (int i = 0; i < bandsToWrite.size(); i++) {
@@ -201,69 +268,127 @@ public class StreamingProductWriter extends AbstractProductWriter {
                 bandTileWidths[i] = Math.min(product.getSceneRasterWidth(), bandsToWrite.get(i).getRasterWidth());
             }
 
+            List<BandSlice> slices = new ArrayList<>();
             for (int i = 0; i < bandsToWrite.size(); i++) {
                 final Band band = bandsToWrite.get(i);
                 int h = bandTileHeights[i];
                 int w = bandTileWidths[i];
 
-                for (int y = 0; y < bandsToWrite.get(i).getRasterHeight(); y += bandTileHeights[i], sliceIndex++) {
+                for (int y = 0; y < bandsToWrite.get(i).getRasterHeight(); y += bandTileHeights[i]) {
                     if (y + h > bandsToWrite.get(i).getRasterHeight()) {
                         h = bandsToWrite.get(i).getRasterHeight() - y;
                     }
-                    Rectangle rectangle = new Rectangle(x, y, w, h);
-                    Raster tile = band.getSourceImage().getData(rectangle);
-                    tileCacheDebugging(band, rectangle);
-                    boolean directMode = tile.getDataBuffer().getSize() == w * h;
-                    ProductData productData;
-                    if (directMode) {
-                        Object primitiveArray = ImageUtils.getPrimitiveArray(tile.getDataBuffer());
-                        productData = ProductData.createInstance(band.getDataType(), primitiveArray);
-                    } else {
-                        productData = ProductData.createInstance(band.getDataType(), w * h);
-                        tile.getDataElements(x, y, w, h, productData.getElems());
-                    }
-                    productWriter.writeBandRasterData(band, x, y, w, h, productData, ProgressMonitor.NULL);
-                    pm.worked(h);
+                    slices.add(new BandSlice(band, new Rectangle(x, y, w, h)));
                 }
             }
+            writeSlices(slices, productWriter, pm, numThreads);
         } finally {
             pm.done();
         }
     }
 
-    private static void writeSameSizedBands(Product product, int tileHeight, int sceneHeight, List<Band> bandsToWrite, ProductWriter productWriter, ProgressMonitor pm) throws IOException {
+    private static void writeSameSizedBands(Product product, int tileHeight, int sceneHeight, List<Band> bandsToWrite, ProductWriter productWriter, ProgressMonitor pm, int numThreads) throws IOException {
         try {
             int x = 0;
             int w = product.getSceneRasterWidth();
             int h = tileHeight;
-            int sliceIndex = 0;
 
-            for (int y = 0; y < sceneHeight; y += tileHeight, sliceIndex++) {
+            List<BandSlice> slices = new ArrayList<>();
+            for (int y = 0; y < sceneHeight; y += tileHeight) {
                 if (y + h > sceneHeight) {
                     h = sceneHeight - y;
                 }
                 for (Band band : bandsToWrite) {
-                    Rectangle rectangle = new Rectangle(x, y, w, h);
-                    Raster tile = band.getSourceImage().getData(rectangle);
-                    tileCacheDebugging(band, rectangle);
-                    boolean directMode = tile.getDataBuffer().getSize() == w * h;
-                    ProductData productData;
-                    if (directMode) {
-                        Object primitiveArray = ImageUtils.getPrimitiveArray(tile.getDataBuffer());
-                        productData = ProductData.createInstance(band.getDataType(), primitiveArray);
-                    } else {
-                        productData = ProductData.createInstance(band.getDataType(), w * h);
-                        tile.getDataElements(x, y, w, h, productData.getElems());
-                    }
-                    productWriter.writeBandRasterData(band, x, y, w, h, productData, ProgressMonitor.NULL);
-                    pm.worked(h);
+                    slices.add(new BandSlice(band, new Rectangle(x, y, w, h)));
                 }
             }
+            writeSlices(slices, productWriter, pm, numThreads);
         } finally {
             pm.done();
         }
     }
 
+    /**
+     * Writes the slices in the given order. With more than one thread the slices are computed, and encoded
+     * for a streaming product writer, concurrently ahead of writing, at most two slices per thread.
+     */
+    private static void writeSlices(List<BandSlice> slices, ProductWriter productWriter, ProgressMonitor pm, int numThreads) throws IOException {
+        if (numThreads <= 1) {
+            for (BandSlice slice : slices) {
+                slice.productData = computeSlice(slice);
+                writeSlice(slice, productWriter, pm);
+            }
+            return;
+        }
+        final StreamingProductWriter streamingWriter =
+                productWriter instanceof StreamingProductWriter ? (StreamingProductWriter) productWriter : null;
+        final ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try {
+            final Deque<Future<BandSlice>> slicesInFlight = new ArrayDeque<>();
+            for (BandSlice slice : slices) {
+                if (slicesInFlight.size() == 2 * numThreads) {
+                    writeSlice(getSlice(slicesInFlight.remove()), productWriter, pm);
+                }
+                slicesInFlight.add(executorService.submit(() -> {
+                    slice.productData = computeSlice(slice);
+                    if (streamingWriter != null) {
+                        slice.encodedValue = streamingWriter.encode(slice.productData);
+                    }
+                    return slice;
+                }));
+            }
+            while (!slicesInFlight.isEmpty()) {
+                writeSlice(getSlice(slicesInFlight.remove()), productWriter, pm);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static ProductData computeSlice(BandSlice slice) {
+        final Band band = slice.band;
+        final Rectangle rectangle = slice.rectangle;
+        Raster tile = band.getSourceImage().getData(rectangle);
+        tileCacheDebugging(band, rectangle);
+        boolean directMode = tile.getDataBuffer().getSize() == rectangle.width * rectangle.height;
+        ProductData productData;
+        if (directMode) {
+            Object primitiveArray = ImageUtils.getPrimitiveArray(tile.getDataBuffer());
+            productData = ProductData.createInstance(band.getDataType(), primitiveArray);
+        } else {
+            productData = ProductData.createInstance(band.getDataType(), rectangle.width * rectangle.height);
+            tile.getDataElements(rectangle.x, rectangle.y, rectangle.width, rectangle.height, productData.getElems());
+        }
+        return productData;
+    }
+
+    private static BandSlice getSlice(Future<BandSlice> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("writing of band slices interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("computing band slice failed", e.getCause());
+        }
+    }
+
+    private static void writeSlice(BandSlice slice, ProductWriter productWriter, ProgressMonitor pm) throws IOException {
+        final Rectangle r = slice.rectangle;
+        if (slice.encodedValue != null) {
+            ((StreamingProductWriter) productWriter).writeEncodedBandRasterData(slice.band, r.y, slice.encodedValue);
+        } else {
+            productWriter.writeBandRasterData(slice.band, r.x, r.y, r.width, r.height, slice.productData, ProgressMonitor.NULL);
+        }
+        // the list of slices outlives the writing, only the slices in flight shall hold their data
+        slice.productData = null;
+        slice.encodedValue = null;
+        pm.worked(r.height);
+    }
+
     private static void tileCacheDebugging(Band band, Rectangle rect) {
         if (!tileCacheDebugging) {
             return;
@@ -291,30 +416,68 @@ public class StreamingProductWriter extends AbstractProductWriter {
                 configuration,
                 outputPath,
                 Text.class,
-                ByteArrayWritable.class,
+                compressionCodec != null ? BytesWritable.class : ByteArrayWritable.class,
                 1024 * 1024, //buffersize,
                 fileSystem.getDefaultReplication(),
                 fileSystem.getDefaultBlockSize(),
-                SequenceFile.CompressionType.NONE,
-                null, // new DefaultCodec(),
+                compressionCodec != null ? SequenceFile.CompressionType.RECORD : SequenceFile.CompressionType.NONE,
+                compressionCodec,
                 progressable,
                 metadata);
     }
 
-    private static void writeTiePointData(Product product, SequenceFile.Writer writer, Map<String, Long> indexMap) throws IOException {
+    private static CompressionCodec getCompressionCodec(Configuration configuration) {
+        String codecName = configuration.get(JobConfigNames.CALVALUS_OUTPUT_STREAMING_COMPRESSION);
+        if (codecName == null || codecName.trim().isEmpty()) {
+            return null;
+        }
+        CompressionCodec codec = new CompressionCodecFactory(configuration).getCodecByName(codecName.trim());
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown compression codec for streaming products: " + codecName);
+        }
+        return codec;
+    }
+
+    private void writeTiePointData(Product product) throws IOException {
         TiePointGrid[] tiePointGrids = product.getTiePointGrids();
         for (TiePointGrid tiePointGrid : tiePointGrids) {
             String key = "tiepoint:" + tiePointGrid.getName();
             ProductData productData = tiePointGrid.getData();
-            updateIndex(indexMap, key, writer.getLength());
-            writeProductData(writer, key, productData);
+            updateIndex(indexMap, key, sequenceFileWriter.getLength());
+            writeEncoded(key, encode(productData));
         }
     }
 
-    private static void writeProductData(SequenceFile.Writer writer, String key, ProductData productData) throws IOException {
-        final byte[] buffer = new byte[productData.getNumElems() * productData.getElemSize()];
-        productData.writeTo(new ByteArrayBackedImageOutputStream(buffer));
-        writer.append(new Text(key), new ByteArrayWritable(buffer));
+    /**
+     * Shuffles the bytes of the elements into planes, first the first byte of all elements, then the second...
+     */
+    static byte[] shuffle(byte[] bytes, int elemSize) {
+        if (elemSize == 1) {
+            return bytes;
+        }
+        final int numElems = bytes.length / elemSize;
+        final byte[] shuffled = new byte[bytes.length];
+        for (int i = 0; i < numElems; i++) {
+            for (int b = 0; b < elemSize; b++) {
+                shuffled[b * numElems + i] = bytes[i * elemSize + b];
+            }
+        }
+        return shuffled;
+    }
+
+    static byte[] unshuffle(byte[] shuffled, int length, int elemSize) {
+        final byte[] bytes = new byte[length];
+        if (elemSize == 1) {
+            System.arraycopy(shuffled, 0, bytes, 0, length);
+            return bytes;
+        }
+        final int numElems = length / elemSize;
+        for (int i = 0; i < numElems; i++) {
+            for (int b = 0; b < elemSize; b++) {
+                bytes[i * elemSize + b] = shuffled[b * numElems + i];
+            }
+        }
+        return bytes;
     }
 
     private static void updateIndex(Map<String, Long> indexMap, String key, long position) {
@@ -341,6 +504,46 @@ public class StreamingProductWriter extends AbstractProductWriter {
 
     }
 
+    private static final class BandSlice {
+
+        private final Band band;
+        private final Rectangle rectangle;
+        private ProductData productData;
+        private EncodedValue encodedValue;
+
+        private BandSlice(Band band, Rectangle rectangle) {
+            this.band = band;
+            this.rectangle = rectangle;
+        }
+    }
+
+    /**
+     * A serialised and possibly compressed value, appended as is to the sequence file.
+     */
+    static final class EncodedValue implements SequenceFile.ValueBytes {
+
+        private final DataOutputBuffer buffer;
+
+        private EncodedValue(DataOutputBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void writeUncompressedBytes(DataOutputStream outStream) throws IOException {
+            outStream.write(buffer.getData(), 0, buffer.getLength());
+        }
+
+        @Override
+        public void writeCompressedBytes(DataOutputStream outStream) throws IOException {
+            outStream.write(buffer.getData(), 0, buffer.getLength());
+        }
+
+        @Override
+        public int getSize() {
+            return buffer.getLength();
+        }
+    }
+
     /**
      * An ImageOutputStream that is backed by a byte array. 
      */
@@ -49,6 +49,7 @@ class ClImage extends SingleBandedOpImage {
             throw new IllegalStateException(e);
         }
         int pixelIndex = 0;
+        NeighbourKernel neighbourKernel = new NeighbourKernel();
         for (int y = destRect.y; y < destRect.y + destRect.height; y++) {
             for (int x = destRect.x; x < destRect.x + destRect.width; x++) {
 
@@ -64,13 +65,13 @@ class ClImage extends SingleBandedOpImage {
                 }
 
                 if (Float.isNaN(jdValue) || jdValue == 999) {
-                    PixelFinaliseMapper.PositionAndValue positionAndValue = PixelFinaliseMapper.findNeighbourValue(sourceJdArray, lcArray, pixelIndex, destRect.width, false);
-                    if (positionAndValue.newPixelIndex != pixelIndex) {
+                    int neighbourIndex = neighbourKernel.findNeighbourIndex(sourceJdArray, lcArray, pixelIndex, destRect.width);
+                    if (neighbourIndex >= 0) {
                         // valid neighbour has been found, use it
-                        targetCl = sourceClArray[positionAndValue.newPixelIndex];
+                        targetCl = sourceClArray[neighbourIndex];
                         targetCl = clScaler.scaleCl(targetCl);
-                        jdValue = sourceJdArray[positionAndValue.newPixelIndex];
-                        sourceLcClass = lcArray[positionAndValue.newPixelIndex];
+                        jdValue = sourceJdArray[neighbourIndex];
+                        sourceLcClass = lcArray[neighbourIndex];
                     } else {
                         // no valid neighbour: use JD will be -1 or -2, so set 0
                         targetCl = 0;
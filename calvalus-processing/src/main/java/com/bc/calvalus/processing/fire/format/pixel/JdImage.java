@@ -79,6 +79,7 @@ class JdImage extends SingleBandedOpImage {
         }
         int pixelIndex = 0;
         PixelPos pixelPos = new PixelPos();
+        NeighbourKernel neighbourKernel = new NeighbourKernel();
 
         Polygon mask1 = new Polygon(new int[]{11170, 11170, 8942, 9888, 10141, 10087, 10277, 11147}, new int[]{20407, 27816, 27816, 25623, 24088, 23259, 21898, 20271}, 8);
 
@@ -93,9 +94,14 @@ class JdImage extends SingleBandedOpImage {
                 sourceJd = CommonUtils.checkForBurnability(sourceJd, sourceLcClass);
 
                 if (Float.isNaN(sourceJd) || sourceJd == 999) {
-                    PixelFinaliseMapper.PositionAndValue neighbourValue = PixelFinaliseMapper.findNeighbourValue(sourceJdArray, lcArray, pixelIndex, destRect.width, true);
-                    sourceJd = neighbourValue.value;
-                    sourceLcClass = lcArray[neighbourValue.newPixelIndex];
+                    int neighbourIndex = neighbourKernel.findNeighbourIndex(sourceJdArray, lcArray, pixelIndex, destRect.width);
+                    if (neighbourIndex >= 0) {
+                        sourceJd = (int) sourceJdArray[neighbourIndex];
+                        sourceLcClass = lcArray[neighbourIndex];
+                    } else {
+                        // all neighbours are NaN or not burnable
+                        sourceJd = -1;
+                    }
                 }
 
                 sourceJd = CommonUtils.checkForBurnability(sourceJd, sourceLcClass);
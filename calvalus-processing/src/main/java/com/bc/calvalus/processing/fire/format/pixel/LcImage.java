@@ -53,6 +53,7 @@ class LcImage extends SingleBandedOpImage {
             throw new IllegalStateException(e);
         }
         int pixelIndex = 0;
+        NeighbourKernel neighbourKernel = new NeighbourKernel();
         for (int y = destRect.y; y < destRect.y + destRect.height; y++) {
             for (int x = destRect.x; x < destRect.x + destRect.width; x++) {
                 float jdValue = jdArray[pixelIndex];
@@ -66,12 +67,12 @@ class LcImage extends SingleBandedOpImage {
                 }
 
                 if (Float.isNaN(jdValue) || jdValue == 999) {
-                    PixelFinaliseMapper.PositionAndValue positionAndValue = PixelFinaliseMapper.findNeighbourValue(jdArray, lcArray, pixelIndex, destRect.width, false);
-                    if (positionAndValue.newPixelIndex != pixelIndex) {
+                    int neighbourIndex = neighbourKernel.findNeighbourIndex(jdArray, lcArray, pixelIndex, destRect.width);
+                    if (neighbourIndex >= 0) {
                         // valid neighbour has been found, use it
-                        jdValue = jdArray[positionAndValue.newPixelIndex];
+                        jdValue = jdArray[neighbourIndex];
                         lcValue = lcArray[pixelIndex]; // use original pixel index to be consistent with original LC image
-                        clValue = clArray[positionAndValue.newPixelIndex];
+                        clValue = clArray[neighbourIndex];
                     } else {
                         // no valid neighbour: JD will be -1 or -2, so set 0
                         dest.setSample(x, y, 0, 0);
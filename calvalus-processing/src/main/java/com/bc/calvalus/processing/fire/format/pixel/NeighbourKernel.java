@@ -0,0 +1,94 @@
+package com.bc.calvalus.processing.fire.format.pixel;
+
+import com.bc.calvalus.processing.fire.format.LcRemapping;
+
+/**
+ * Finds the neighbour to fill a gap pixel of a JD tile with, by majority of the valid JD values in the 3x3
+ * neighbourhood of the pixel. Valid are values that are neither NaN nor 999 and of a burnable LC class.
+ * Values are compared as integers. Ties are resolved to the smallest value, and of the pixels with the chosen
+ * value the last one in row order is returned.
+ * <p>
+ * An instance keeps the candidates of one pixel in primitive arrays and is reused for all pixels of a tile.
+ * It must not be shared between threads; tiles computed concurrently use their own instances.
+ */
+final class NeighbourKernel {
+
+    private static final int LC_TABLE_OFFSET = 128;
+    private static final boolean[] BURNABLE_LC_CLASSES = new boolean[LC_TABLE_OFFSET + 256];
+
+    static {
+        for (int i = 0; i < BURNABLE_LC_CLASSES.length; i++) {
+            BURNABLE_LC_CLASSES[i] = LcRemapping.isInBurnableLcClass(i - LC_TABLE_OFFSET);
+        }
+    }
+
+    private final int[] keys = new int[9];
+    private final int[] indexes = new int[9];
+
+    /**
+     * @return the index of the neighbour with the majority value, or -1 if no neighbour is valid
+     */
+    int findNeighbourIndex(float[] jdData, int[] lcArray, int pixelIndex, int width) {
+        final int column = pixelIndex % width;
+        final int dxMin = column == 0 ? 0 : -1;
+        final int dxMax = column == width - 1 ? 0 : 1;
+        int numCandidates = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            final int rowIndex = pixelIndex + dy * width;
+            for (int dx = dxMin; dx <= dxMax; dx++) {
+                final int neighbourIndex = rowIndex + dx;
+                if (neighbourIndex < 0 || neighbourIndex >= jdData.length) {
+                    continue;
+                }
+                final float value = jdData[neighbourIndex];
+                if (Float.isNaN(value) || value == 999 || !isInBurnableLcClass(lcArray[neighbourIndex])) {
+                    continue;
+                }
+                keys[numCandidates] = (int) value;
+                indexes[numCandidates] = neighbourIndex;
+                numCandidates++;
+            }
+        }
+
+        int bestIndex = -1;
+        int bestKey = 0;
+        int bestCount = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            final int key = keys[i];
+            if (occursBefore(key, i)) {
+                continue;
+            }
+            int count = 1;
+            int lastIndex = indexes[i];
+            for (int j = i + 1; j < numCandidates; j++) {
+                if (keys[j] == key) {
+                    count++;
+                    lastIndex = indexes[j];
+                }
+            }
+            if (count > bestCount || count == bestCount && key < bestKey) {
+                bestCount = count;
+                bestKey = key;
+                bestIndex = lastIndex;
+            }
+        }
+        return bestIndex;
+    }
+
+    private boolean occursBefore(int key, int candidate) {
+        for (int j = 0; j < candidate; j++) {
+            if (keys[j] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isInBurnableLcClass(int lcClass) {
+        final int tableIndex = lcClass + LC_TABLE_OFFSET;
+        if (tableIndex >= 0 && tableIndex < BURNABLE_LC_CLASSES.length) {
+            return BURNABLE_LC_CLASSES[tableIndex];
+        }
+        return LcRemapping.isInBurnableLcClass(lcClass);
+    }
+}
@@ -2,7 +2,6 @@ package com.bc.calvalus.processing.fire.format.pixel;
 
 import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.beam.CalvalusProductIO;
-import com.bc.calvalus.processing.fire.format.LcRemapping;
 import com.bc.calvalus.processing.hadoop.ProductSplit;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.hadoop.conf.Configuration;
@@ -38,8 +37,6 @@ import java.time.LocalTime;
 import java.time.Year;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -650,80 +647,6 @@ public abstract class PixelFinaliseMapper extends Mapper {
             "" +
             "</gmi:MI_Metadata>";
 
-    static PositionAndValue findNeighbourValue(float[] jdData, int[] lcArray, int pixelIndex, int width, boolean isJD) {
-        int[] xDirections = new int[]{-1, 0, 1};
-        int[] yDirections = new int[]{-1, 0, 1};
-
-        SortedMap<Integer, Integer[]> values = new TreeMap<>();
-
-        for (int yDirection : yDirections) {
-            for (int xDirection : xDirections) {
-                if (pixelIndex % width == 0 && xDirection == -1
-                        || (pixelIndex + 1) % width == 0 && xDirection == 1) {
-                    continue;
-                }
-
-                int newPixelIndex = pixelIndex + yDirection * width + xDirection;
-                if (newPixelIndex < jdData.length) {
-                    if (newPixelIndex < 0 || newPixelIndex >= jdData.length) {
-                        continue;
-                    }
-                    float neighbourValue = jdData[newPixelIndex];
-
-                    boolean inBurnableLcClass = isInBurnableLcClass(lcArray[newPixelIndex]);
-
-                    if (!Float.isNaN(neighbourValue) && neighbourValue != 999 && inBurnableLcClass) {
-                        PositionAndValue positionAndValue = new PositionAndValue(newPixelIndex, neighbourValue);
-                        if (values.containsKey((int) positionAndValue.value)) {
-                            Integer[] v = new Integer[]{values.get((int) positionAndValue.value)[0] + 1, positionAndValue.newPixelIndex};
-                            values.put((int) positionAndValue.value, v);
-                        } else {
-                            Integer[] v = new Integer[]{1, positionAndValue.newPixelIndex};
-                            values.put((int) positionAndValue.value, v);
-                        }
-                    }
-                }
-            }
-        }
-
-        PositionAndValue result = null;
-        int maxCount = 0;
-        for (int value : values.keySet()) {
-            Integer count = values.get(value)[0];
-            if (count > maxCount) {
-                maxCount = count;
-                result = new PositionAndValue(values.get(value)[1], value);
-            }
-        }
-
-        if (result == null) {
-            // all neighbours are NaN or not burnable
-
-            if (isJD) {
-                return new PositionAndValue(pixelIndex, -1);
-            } else {
-                return new PositionAndValue(pixelIndex, 0);
-            }
-        }
-        return result;
-    }
-
-    private static boolean isInBurnableLcClass(int sourceLcClass) {
-        return LcRemapping.isInBurnableLcClass(sourceLcClass);
-    }
-
-    static class PositionAndValue {
-
-        PositionAndValue(int newPixelIndex, float value) {
-            this.newPixelIndex = newPixelIndex;
-            this.value = value;
-        }
-
-        int newPixelIndex;
-        public float value;
-
-    }
-
     public interface ClScaler {
 
         float scaleCl(float cl);
@@ -34,7 +34,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -50,9 +52,18 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -65,6 +76,10 @@ import java.util.logging.Logger;
 public class GeodbInputFormat extends InputFormat {
 
     private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final int DEFAULT_SPLIT_THREADS = 16;
+    private static final int MIN_PATHS_PER_LISTING = 8;
+    private static final int MIN_WINDOW_SIZE = 1000;
+    private static final int MAX_WINDOW_SIZE = 20000;
 
     @Override
     public List<InputSplit> getSplits(JobContext context) throws IOException, InterruptedException {
@@ -77,34 +92,147 @@ public class GeodbInputFormat extends InputFormat {
         return splits;
     }
 
+    /**
+     * Creates a split for each path, in the order of the paths, until the request size limit is reached.
+     * The file status and block locations are looked up concurrently in windows of paths. Paths of a window
+     * sharing a parent directory are looked up by a single listing of the directory.
+     */
     public static List<InputSplit> createInputSplits(Configuration conf, Collection<String> paths, int requestSizeLimit) throws IOException {
+        long t0 = System.currentTimeMillis();
+        int numThreads = Math.max(1, conf.getInt(JobConfigNames.CALVALUS_INPUT_SPLIT_THREADS, DEFAULT_SPLIT_THREADS));
+        int windowSize = requestSizeLimit > 0 ? Math.max(requestSizeLimit, MIN_WINDOW_SIZE) : MAX_WINDOW_SIZE;
         List<InputSplit> splits = new ArrayList<>(requestSizeLimit);
-        for (String stringPath : paths) {
-            final Path path = new Path(stringPath);
-            FileSystem fileSystem = path.getFileSystem(conf);
-            try {
-                final FileStatus status = fileSystem.getFileStatus(path);
-                if (status != null) {
-                    final BlockLocation[] locations = fileSystem.getFileBlockLocations(status, 0, status.getLen());
-                    if (locations == null || locations.length == 0) {
-                        LOG.warning("cannot find hosts of input " + stringPath);
-                    } else {
-                        LOG.fine("adding input split for  " + path.toUri().getPath());
-                        splits.add(new ProductSplit(path, status.getLen(), locations[0].getHosts()));
+        SplitStatistics statistics = new SplitStatistics();
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<String> window = new ArrayList<>(Math.min(windowSize, paths.size()));
+            Iterator<String> iterator = paths.iterator();
+            while (iterator.hasNext() && !(requestSizeLimit > 0 && splits.size() == requestSizeLimit)) {
+                window.clear();
+                while (iterator.hasNext() && window.size() < windowSize) {
+                    window.add(iterator.next());
+                }
+                InputSplit[] windowSplits = createInputSplits(conf, window, executorService, statistics);
+                for (InputSplit split : windowSplits) {
+                    if (split != null) {
+                        splits.add(split);
+                        if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
+                            break;
+                        }
                     }
-                } else {
-                    LOG.warning("cannot find input " + stringPath);
                 }
-            } catch (FileNotFoundException e) {
-                LOG.warning("cannot find input " + stringPath);
             }
-            if (requestSizeLimit > 0 && splits.size() == requestSizeLimit) {
-                break;
+        } finally {
+            executorService.shutdownNow();
+        }
+        LOG.info(String.format("%d splits created for %d paths in %d ms by %d threads, %d directory listings, %d file lookups",
+                               splits.size(), paths.size(), System.currentTimeMillis() - t0, numThreads,
+                               statistics.numListings.get(), statistics.numLookups.get()));
+        return splits;
+    }
+
+    private static InputSplit[] createInputSplits(Configuration conf, List<String> paths, ExecutorService executorService,
+                                                  SplitStatistics statistics) throws IOException {
+        // group the indexes of the paths by parent directory, in order of first occurrence
+        Map<Path, List<Integer>> pathsByDir = new LinkedHashMap<>();
+        for (int i = 0; i < paths.size(); i++) {
+            Path parent = new Path(paths.get(i)).getParent();
+            pathsByDir.computeIfAbsent(parent, k -> new ArrayList<>()).add(i);
+        }
+        InputSplit[] splits = new InputSplit[paths.size()];
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<Path, List<Integer>> dirEntry : pathsByDir.entrySet()) {
+            Path dir = dirEntry.getKey();
+            List<Integer> indexes = dirEntry.getValue();
+            if (dir != null && indexes.size() >= MIN_PATHS_PER_LISTING) {
+                futures.add(executorService.submit(() -> {
+                    createSplitsByListing(conf, dir, paths, indexes, splits, statistics);
+                    return null;
+                }));
+            } else {
+                for (int index : indexes) {
+                    futures.add(executorService.submit(() -> {
+                        splits[index] = createSplit(conf, paths.get(index), statistics);
+                        return null;
+                    }));
+                }
+            }
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new IOException(e.getCause());
         }
         return splits;
     }
 
+    private static void createSplitsByListing(Configuration conf, Path dir, List<String> paths, List<Integer> indexes,
+                                              InputSplit[] splits, SplitStatistics statistics) throws IOException {
+        Map<String, List<Integer>> indexesByName = new HashMap<>();
+        for (int index : indexes) {
+            indexesByName.computeIfAbsent(new Path(paths.get(index)).getName(), k -> new ArrayList<>()).add(index);
+        }
+        FileSystem fileSystem = dir.getFileSystem(conf);
+        statistics.numListings.incrementAndGet();
+        try {
+            RemoteIterator<LocatedFileStatus> iterator = fileSystem.listLocatedStatus(dir);
+            while (iterator.hasNext()) {
+                LocatedFileStatus status = iterator.next();
+                List<Integer> namedIndexes = indexesByName.remove(status.getPath().getName());
+                if (namedIndexes != null) {
+                    for (int index : namedIndexes) {
+                        splits[index] = createSplit(new Path(paths.get(index)), status, status.getBlockLocations());
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // reported as missing inputs below
+        }
+        for (List<Integer> missingIndexes : indexesByName.values()) {
+            for (int index : missingIndexes) {
+                LOG.warning("cannot find input " + paths.get(index));
+            }
+        }
+    }
+
+    private static InputSplit createSplit(Configuration conf, String stringPath, SplitStatistics statistics) throws IOException {
+        final Path path = new Path(stringPath);
+        FileSystem fileSystem = path.getFileSystem(conf);
+        statistics.numLookups.incrementAndGet();
+        try {
+            final FileStatus status = fileSystem.getFileStatus(path);
+            if (status != null) {
+                return createSplit(path, status, fileSystem.getFileBlockLocations(status, 0, status.getLen()));
+            } else {
+                LOG.warning("cannot find input " + stringPath);
+            }
+        } catch (FileNotFoundException e) {
+            LOG.warning("cannot find input " + stringPath);
+        }
+        return null;
+    }
+
+    private static InputSplit createSplit(Path path, FileStatus status, BlockLocation[] locations) throws IOException {
+        if (locations == null || locations.length == 0) {
+            LOG.warning("cannot find hosts of input " + path);
+            return null;
+        }
+        LOG.fine("adding input split for  " + path.toUri().getPath());
+        return new ProductSplit(path, status.getLen(), locations[0].getHosts());
+    }
+
+    private static class SplitStatistics {
+        final AtomicInteger numListings = new AtomicInteger();
+        final AtomicInteger numLookups = new AtomicInteger();
+    }
+
     public static Set<String> queryGeoInventory(boolean failOnMissingDB, Configuration conf) throws IOException {
         Constrain constrain = parseConstraint(conf);
         Set<String> paths = new HashSet<>();
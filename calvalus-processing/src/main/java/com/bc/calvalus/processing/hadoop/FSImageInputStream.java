@@ -1,46 +1,139 @@
 package com.bc.calvalus.processing.hadoop;
 
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * An {@link javax.imageio.stream.ImageInputStream} that can read from a Hadoop {@link FSImageInputStream}.
+ * <p>
+ * The file is read in blocks by positional reads, which are kept in a small LRU cache. Readers parsing
+ * headers byte by byte or seeking back and forth hence cause one file system call per block only.
+ * If blocks are requested in sequence the following blocks are read ahead with the same call.
+ * The bytes and blocks read and the cache hits are accumulated for all streams and can be
+ * reported as task counters with {@link #updateCounters}.
  *
  * @author Marco Zuehlke
  * @since 0.1
  */
 public class FSImageInputStream extends ImageInputStreamImpl {
 
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_CACHED_BLOCKS = 64;
+    public static final int DEFAULT_READ_AHEAD_BLOCKS = 4;
+
+    private static final String COUNTER_GROUP_NAME = "Image Input Stream Counters";
+    private static final AtomicLong BYTES_READ = new AtomicLong();
+    private static final AtomicLong BLOCKS_FETCHED = new AtomicLong();
+    private static final AtomicLong CACHE_HITS = new AtomicLong();
+
     private FSDataInputStream fsInStream;
     private final long length;
     private final String path;
+    private final int blockSize;
+    private final int readAheadBlocks;
+    private final Map<Long, byte[]> blockCache;
+    private long lastBlockIndex = -1;
 
     public FSImageInputStream(FSDataInputStream fsInStream, long length, String path) {
+        this(fsInStream, length, path, DEFAULT_BLOCK_SIZE, DEFAULT_CACHED_BLOCKS, DEFAULT_READ_AHEAD_BLOCKS);
+    }
+
+    public FSImageInputStream(FSDataInputStream fsInStream, long length, String path,
+                              int blockSize, final int cachedBlocks, int readAheadBlocks) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize <= 0");
+        }
         this.fsInStream = fsInStream;
         this.length = length;
         this.path = path;
+        this.blockSize = blockSize;
+        this.readAheadBlocks = Math.max(1, Math.min(readAheadBlocks, cachedBlocks));
+        this.blockCache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cachedBlocks;
+            }
+        };
+    }
+
+    /**
+     * Creates a stream with the block size, the number of cached blocks and the number of blocks read ahead
+     * taken from the configuration.
+     */
+    public static FSImageInputStream create(FSDataInputStream fsInStream, long length, String path, Configuration conf) {
+        return new FSImageInputStream(fsInStream, length, path,
+                                      conf.getInt(JobConfigNames.CALVALUS_INPUT_STREAM_BLOCK_SIZE, DEFAULT_BLOCK_SIZE),
+                                      conf.getInt(JobConfigNames.CALVALUS_INPUT_STREAM_CACHED_BLOCKS, DEFAULT_CACHED_BLOCKS),
+                                      conf.getInt(JobConfigNames.CALVALUS_INPUT_STREAM_READ_AHEAD_BLOCKS, DEFAULT_READ_AHEAD_BLOCKS));
+    }
+
+    /**
+     * Sets the task counters to the bytes and blocks read and the cache hits of all streams of this JVM.
+     */
+    public static void updateCounters(TaskInputOutputContext<?, ?, ?, ?> context) {
+        context.getCounter(COUNTER_GROUP_NAME, "BYTES_READ").setValue(BYTES_READ.get());
+        context.getCounter(COUNTER_GROUP_NAME, "BLOCKS_FETCHED").setValue(BLOCKS_FETCHED.get());
+        context.getCounter(COUNTER_GROUP_NAME, "CACHE_HITS").setValue(CACHE_HITS.get());
     }
 
     public int read() throws IOException {
         checkClosed();
         bitOffset = 0;
-        int val = fsInStream.read();
-        if (val != -1) {
-            ++streamPos;
+        if (streamPos >= length) {
+            return -1;
         }
+        byte[] block = getBlock(streamPos / blockSize);
+        int val = block[(int) (streamPos % blockSize)] & 0xff;
+        ++streamPos;
         return val;
     }
 
     public int read(byte[] b, int off, int len) throws IOException {
         checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
         bitOffset = 0;
-        int nbytes = fsInStream.read(b, off, len);
-        if (nbytes != -1) {
-            streamPos += nbytes;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
         }
+        int nbytes = (int) Math.min(len, length - streamPos);
+        int done = 0;
+        while (done < nbytes) {
+            long blockIndex = (streamPos + done) / blockSize;
+            int blockOffset = (int) ((streamPos + done) % blockSize);
+            int n = Math.min(nbytes - done, blockSize - blockOffset);
+            byte[] block = blockCache.get(blockIndex);
+            if (block == null && blockOffset == 0 && n == blockSize) {
+                // whole blocks are copied directly without polluting the cache
+                n = (nbytes - done) / blockSize * blockSize;
+                fetch(streamPos + done, b, off + done, n);
+                lastBlockIndex = blockIndex + n / blockSize - 1;
+            } else {
+                if (block == null) {
+                    block = getBlock(blockIndex);
+                } else {
+                    CACHE_HITS.incrementAndGet();
+                }
+                System.arraycopy(block, blockOffset, b, off + done, n);
+            }
+            done += n;
+        }
+        streamPos += nbytes;
         return nbytes;
     }
 
@@ -54,8 +147,7 @@ public class FSImageInputStream extends ImageInputStreamImpl {
             throw new IndexOutOfBoundsException("pos < flushedPos!");
         }
         bitOffset = 0;
-        fsInStream.seek(pos);
-        streamPos = fsInStream.getPos();
+        streamPos = pos;
     }
 
     public void close() throws IOException {
@@ -64,6 +156,7 @@ public class FSImageInputStream extends ImageInputStreamImpl {
             fsInStream.close();
         } finally {
             fsInStream = null;
+            blockCache.clear();
         }
     }
 
@@ -71,4 +164,45 @@ public class FSImageInputStream extends ImageInputStreamImpl {
     public String toString() {
         return String.format("FSImageInputStream{path='%s'} ", path);
     }
+
+    private byte[] getBlock(long blockIndex) throws IOException {
+        byte[] block = blockCache.get(blockIndex);
+        if (block != null) {
+            CACHE_HITS.incrementAndGet();
+            return block;
+        }
+        long numBlocks = (length + blockSize - 1) / blockSize;
+        int count = 1;
+        if (blockIndex == lastBlockIndex + 1) {
+            // sequential access, read ahead the following blocks not yet cached
+            while (count < readAheadBlocks && blockIndex + count < numBlocks && !blockCache.containsKey(blockIndex + count)) {
+                count++;
+            }
+        }
+        long position = blockIndex * blockSize;
+        int bufferLength = (int) Math.min((long) count * blockSize, length - position);
+        byte[] buffer = new byte[bufferLength];
+        fetch(position, buffer, 0, bufferLength);
+        for (int i = 0; i < count; i++) {
+            int from = i * blockSize;
+            int to = Math.min(from + blockSize, bufferLength);
+            byte[] fetched = count == 1 ? buffer : Arrays.copyOfRange(buffer, from, to);
+            blockCache.put(blockIndex + i, fetched);
+            if (i == 0) {
+                block = fetched;
+            }
+        }
+        BLOCKS_FETCHED.addAndGet(count);
+        lastBlockIndex = blockIndex + count - 1;
+        return block;
+    }
+
+    private void fetch(long position, byte[] buffer, int offset, int len) throws IOException {
+        try {
+            fsInStream.readFully(position, buffer, offset, len);
+        } catch (EOFException e) {
+            throw new EOFException(String.format("%s at %d + %d in %s", e.getMessage(), position, len, path));
+        }
+        BYTES_READ.addAndGet(len);
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.hadoop;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A NetCDF {@link RandomAccessFile} that reads from a Hadoop file system by positional reads,
+ * for opening NetCDF and HDF files without copying them to the local disk first.
+ * The file is read in chunks of the buffer size ({@link JobConfigNames#CALVALUS_INPUT_STREAM_BLOCK_SIZE}).
+ */
+public class FSRandomAccessFile extends RandomAccessFile {
+
+    private final FSDataInputStream fsInStream;
+    private final long length;
+    private final long lastModified;
+
+    public FSRandomAccessFile(FSDataInputStream fsInStream, FileStatus fileStatus, int bufferSize) {
+        super(bufferSize);
+        this.fsInStream = fsInStream;
+        this.length = fileStatus.getLen();
+        this.lastModified = fileStatus.getModificationTime();
+        this.location = fileStatus.getPath().toString();
+    }
+
+    public static FSRandomAccessFile open(Path path, Configuration conf) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        FileStatus fileStatus = fs.getFileStatus(path);
+        int bufferSize = conf.getInt(JobConfigNames.CALVALUS_INPUT_STREAM_BLOCK_SIZE, FSImageInputStream.DEFAULT_BLOCK_SIZE);
+        return new FSRandomAccessFile(fs.open(path), fileStatus, bufferSize);
+    }
+
+    @Override
+    protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+        len = (int) Math.min(len, length - pos);
+        if (len <= 0) {
+            return -1;
+        }
+        fsInStream.readFully(pos, b, offset, len);
+        return len;
+    }
+
+    @Override
+    public long readToByteChannel(WritableByteChannel dest, long offset, long nbytes) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(nbytes, 1024 * 1024)];
+        long numWritten = 0;
+        while (numWritten < nbytes) {
+            int numRead = read_(offset + numWritten, buffer, 0, (int) Math.min(buffer.length, nbytes - numWritten));
+            if (numRead <= 0) {
+                break;
+            }
+            dest.write(ByteBuffer.wrap(buffer, 0, numRead));
+            numWritten += numRead;
+        }
+        return numWritten;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            fsInStream.close();
+        }
+    }
+}
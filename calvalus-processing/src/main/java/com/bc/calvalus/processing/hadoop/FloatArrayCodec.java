@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.hadoop;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Encodes arrays of float arrays of equal length, e.g. the bands of a tile, for Hadoop writables.
+ * <p>
+ * Bands of NaNs only are skipped. Bands with many NaNs are written as a bitmap of the valid values followed
+ * by the valid values. The bytes of the values are shuffled into planes, the most significant bytes of all
+ * values first, which makes them more compressible. The result is compressed with the {@link Compression}
+ * configured by {@link JobConfigNames#CALVALUS_FLOAT_ARRAY_COMPRESSION}. The compression is recorded,
+ * hence the reader needs no configuration. Like {@link WritableUtils#convertFloatToByte} all NaNs are
+ * written as the canonical NaN.
+ * <p>
+ * Arrays can be read band by band, see {@link #readBands(DataInput, BandConsumer)}, so that consumers
+ * folding the bands one after the other never hold all of them.
+ * <p>
+ * Codecs are thread-safe, the buffers are reused per thread.
+ */
+public class FloatArrayCodec {
+
+    public enum Compression {
+        NONE(null),
+        DEFLATE("org.apache.hadoop.io.compress.DefaultCodec"),
+        // requires the native Hadoop library
+        LZ4("org.apache.hadoop.io.compress.Lz4Codec"),
+        // requires the native Hadoop library
+        ZSTD("org.apache.hadoop.io.compress.ZStandardCodec");
+
+        private final String codecClassName;
+
+        Compression(String codecClassName) {
+            this.codecClassName = codecClassName;
+        }
+    }
+
+    private static final byte ALL_NAN = 0;
+    private static final byte DENSE = 1;
+    private static final byte SPARSE = 2;
+
+    private static final Compression[] COMPRESSIONS = Compression.values();
+    private static final Map<Compression, FloatArrayCodec> CODECS = new EnumMap<>(Compression.class);
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final Compression compression;
+    private final CompressionCodec compressionCodec;
+
+    private FloatArrayCodec(Compression compression) {
+        this.compression = compression;
+        if (compression.codecClassName != null) {
+            try {
+                Class<?> codecClass = Class.forName(compression.codecClassName);
+                compressionCodec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, new Configuration(false));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("compression codec not found: " + compression.codecClassName, e);
+            }
+        } else {
+            compressionCodec = null;
+        }
+    }
+
+    /**
+     * @return the codec with the compression configured by {@link JobConfigNames#CALVALUS_FLOAT_ARRAY_COMPRESSION},
+     * one of none, deflate, lz4 or zstd, deflate by default
+     */
+    public static FloatArrayCodec get(Configuration conf) {
+        String compression = conf.get(JobConfigNames.CALVALUS_FLOAT_ARRAY_COMPRESSION, Compression.DEFLATE.name());
+        try {
+            return get(Compression.valueOf(compression.trim().toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown float array compression: " + compression, e);
+        }
+    }
+
+    public static synchronized FloatArrayCodec get(Compression compression) {
+        return CODECS.computeIfAbsent(compression, FloatArrayCodec::new);
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void write(DataOutput out, float[][] arrays) throws IOException {
+        int numBands = arrays.length;
+        int numElems = numBands > 0 ? arrays[0].length : 0;
+        Buffers buffers = BUFFERS.get();
+        int rawLength = encode(arrays, numElems, buffers);
+
+        out.writeByte(compression.ordinal());
+        out.writeInt(numBands);
+        out.writeInt(numElems);
+        out.writeInt(rawLength);
+        if (compressionCodec == null) {
+            out.write(buffers.raw, 0, rawLength);
+            return;
+        }
+        DataOutputBuffer compressed = buffers.compressed;
+        compressed.reset();
+        Compressor compressor = CodecPool.getCompressor(compressionCodec);
+        try {
+            CompressionOutputStream compressionStream = compressionCodec.createOutputStream(compressed, compressor);
+            compressionStream.write(buffers.raw, 0, rawLength);
+            compressionStream.finish();
+        } finally {
+            CodecPool.returnCompressor(compressor);
+        }
+        out.writeInt(compressed.getLength());
+        out.write(compressed.getData(), 0, compressed.getLength());
+    }
+
+    /**
+     * Reads arrays written by {@link #write} of any codec.
+     *
+     * @param arrays arrays to be reused if they have the same size, may be null
+     * @return the arrays read
+     */
+    public static float[][] read(DataInput in, float[][] arrays) throws IOException {
+        try (BandReader reader = new BandReader(in)) {
+            int numBands = reader.numBands;
+            int numElems = reader.numElems;
+            if (arrays == null || arrays.length != numBands || (numBands > 0 && arrays[0].length != numElems)) {
+                arrays = new float[numBands][numElems];
+            }
+            for (float[] array : arrays) {
+                reader.readBand(array);
+            }
+            return arrays;
+        }
+    }
+
+    /**
+     * Reads arrays written by {@link #write} of any codec band by band, without materializing all of them.
+     * The array passed to the consumer is reused for the next band.
+     */
+    public static void readBands(DataInput in, BandConsumer consumer) throws IOException {
+        try (BandReader reader = new BandReader(in)) {
+            float[] array = reader.buffers.getBand(reader.numElems);
+            for (int band = 0; band < reader.numBands; band++) {
+                reader.readBand(array);
+                consumer.accept(band, array);
+            }
+        }
+    }
+
+    /**
+     * Copies arrays written by {@link #write} without decoding them.
+     */
+    public static void copy(DataInput in, DataOutput out) throws IOException {
+        int compressionOrdinal = in.readByte();
+        int numBands = in.readInt();
+        int numElems = in.readInt();
+        int rawLength = in.readInt();
+        out.writeByte(compressionOrdinal);
+        out.writeInt(numBands);
+        out.writeInt(numElems);
+        out.writeInt(rawLength);
+        int length = rawLength;
+        if (getCodec(compressionOrdinal).compressionCodec != null) {
+            length = in.readInt();
+            out.writeInt(length);
+        }
+        byte[] buffer = BUFFERS.get().getCompressedInput(length);
+        in.readFully(buffer, 0, length);
+        out.write(buffer, 0, length);
+    }
+
+    private static FloatArrayCodec getCodec(int compressionOrdinal) throws IOException {
+        if (compressionOrdinal < 0 || compressionOrdinal >= COMPRESSIONS.length) {
+            throw new IOException("unknown float array compression: " + compressionOrdinal);
+        }
+        return get(COMPRESSIONS[compressionOrdinal]);
+    }
+
+    private static int encode(float[][] arrays, int numElems, Buffers buffers) {
+        int bitmapLength = (numElems + 7) / 8;
+        byte[] raw = buffers.getRaw(arrays.length * (1 + bitmapLength + 4 * numElems));
+        int[] bits = buffers.getBits(numElems);
+        int pos = 0;
+        for (float[] array : arrays) {
+            if (array.length != numElems) {
+                throw new IllegalArgumentException("arrays of different length: " + array.length + " != " + numElems);
+            }
+            int numValid = 0;
+            for (float value : array) {
+                if (!Float.isNaN(value)) {
+                    numValid++;
+                }
+            }
+            if (numValid == 0) {
+                raw[pos++] = ALL_NAN;
+            } else if ((numElems - numValid) * 32L > numElems) {
+                // the bitmap is smaller than the NaNs skipped
+                raw[pos++] = SPARSE;
+                Arrays.fill(raw, pos, pos + bitmapLength, (byte) 0);
+                int n = 0;
+                for (int i = 0; i < numElems; i++) {
+                    if (!Float.isNaN(array[i])) {
+                        raw[pos + (i >> 3)] |= 1 << (i & 7);
+                        bits[n++] = Float.floatToIntBits(array[i]);
+                    }
+                }
+                pos = shuffle(bits, numValid, raw, pos + bitmapLength);
+            } else {
+                raw[pos++] = DENSE;
+                for (int i = 0; i < numElems; i++) {
+                    bits[i] = Float.floatToIntBits(array[i]);
+                }
+                pos = shuffle(bits, numElems, raw, pos);
+            }
+        }
+        return pos;
+    }
+
+    private static int shuffle(int[] bits, int n, byte[] raw, int pos) {
+        for (int i = 0; i < n; i++) {
+            int value = bits[i];
+            raw[pos + i] = (byte) (value >>> 24);
+            raw[pos + n + i] = (byte) (value >>> 16);
+            raw[pos + 2 * n + i] = (byte) (value >>> 8);
+            raw[pos + 3 * n + i] = (byte) value;
+        }
+        return pos + 4 * n;
+    }
+
+    private static float getFloat(byte[] raw, int pos, int n, int i) {
+        return Float.intBitsToFloat((raw[pos + i] & 0xFF) << 24
+                                    | (raw[pos + n + i] & 0xFF) << 16
+                                    | (raw[pos + 2 * n + i] & 0xFF) << 8
+                                    | (raw[pos + 3 * n + i] & 0xFF));
+    }
+
+    public interface BandConsumer {
+
+        void accept(int band, float[] samples) throws IOException;
+    }
+
+    /**
+     * Decodes the bands one after the other, decompressing only as much as needed for the next band.
+     */
+    private static final class BandReader implements Closeable {
+
+        private final int numBands;
+        private final int numElems;
+        private final Buffers buffers;
+        private final DataInput raw;
+        private final Decompressor decompressor;
+
+        BandReader(DataInput in) throws IOException {
+            FloatArrayCodec codec = getCodec(in.readByte());
+            numBands = in.readInt();
+            numElems = in.readInt();
+            in.readInt(); // raw length
+            buffers = BUFFERS.get();
+            if (codec.compressionCodec == null) {
+                raw = in;
+                decompressor = null;
+            } else {
+                int compressedLength = in.readInt();
+                byte[] compressed = buffers.getCompressedInput(compressedLength);
+                in.readFully(compressed, 0, compressedLength);
+                decompressor = CodecPool.getDecompressor(codec.compressionCodec);
+                raw = new DataInputStream(codec.compressionCodec.createInputStream(
+                        new ByteArrayInputStream(compressed, 0, compressedLength), decompressor));
+            }
+        }
+
+        void readBand(float[] array) throws IOException {
+            int bitmapLength = (numElems + 7) / 8;
+            byte[] bytes = buffers.getRaw(bitmapLength + 4 * numElems);
+            byte mode = raw.readByte();
+            if (mode == ALL_NAN) {
+                Arrays.fill(array, 0, numElems, Float.NaN);
+            } else if (mode == DENSE) {
+                raw.readFully(bytes, 0, 4 * numElems);
+                for (int i = 0; i < numElems; i++) {
+                    array[i] = getFloat(bytes, 0, numElems, i);
+                }
+            } else if (mode == SPARSE) {
+                raw.readFully(bytes, 0, bitmapLength);
+                int numValid = 0;
+                for (int i = 0; i < bitmapLength; i++) {
+                    numValid += Integer.bitCount(bytes[i] & 0xFF);
+                }
+                raw.readFully(bytes, bitmapLength, 4 * numValid);
+                int n = 0;
+                for (int i = 0; i < numElems; i++) {
+                    if ((bytes[i >> 3] & (1 << (i & 7))) != 0) {
+                        array[i] = getFloat(bytes, bitmapLength, numValid, n++);
+                    } else {
+                        array[i] = Float.NaN;
+                    }
+                }
+            } else {
+                throw new IOException("illegal band encoding: " + mode);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (decompressor != null) {
+                CodecPool.returnDecompressor(decompressor);
+            }
+        }
+    }
+
+    private static final class Buffers {
+
+        private byte[] raw = new byte[0];
+        private int[] bits = new int[0];
+        private byte[] compressedInput = new byte[0];
+        private float[] band = new float[0];
+        private final DataOutputBuffer compressed = new DataOutputBuffer();
+
+        byte[] getRaw(int length) {
+            if (raw.length < length) {
+                raw = new byte[length];
+            }
+            return raw;
+        }
+
+        int[] getBits(int length) {
+            if (bits.length < length) {
+                bits = new int[length];
+            }
+            return bits;
+        }
+
+        byte[] getCompressedInput(int length) {
+            if (compressedInput.length < length) {
+                compressedInput = new byte[length];
+            }
+            return compressedInput;
+        }
+
+        float[] getBand(int length) {
+            if (band.length != length) {
+                band = new float[length];
+            }
+            return band;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import com.bc.calvalus.commons.InputPathResolver;
 import com.bc.calvalus.inventory.AbstractFileSystemService;
 import com.bc.calvalus.inventory.hadoop.FileSystemPathIteratorFactory;
 import com.bc.calvalus.inventory.hadoop.HdfsFileSystemService;
+import com.bc.calvalus.inventory.hadoop.ListingCache;
 import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.geodb.GeodbInputFormat;
 import com.bc.calvalus.processing.geodb.GeodbScanMapper;
@@ -106,6 +107,8 @@ public class PatternBasedInputFormat extends InputFormat {
     }
     private static NamespaceContext ATOM_NAMESPACE_CONTEXT = new AtomNamespaceContext();
 
+    private ListingCache listingCache;
+
     /**
      * Maps each input file to a single (file) split.
      * <p/>
@@ -168,6 +171,7 @@ public class PatternBasedInputFormat extends InputFormat {
 
             JobClientsMap jobClientsMap = new JobClientsMap(new JobConf(conf));
             HdfsFileSystemService hdfsFileSystemService = new HdfsFileSystemService(jobClientsMap);
+            listingCache = ListingCache.get(conf, conf.get(JobConfigNames.CALVALUS_INPUT_LISTING_CACHE_DIR));
 
             ProductInventory productInventory = ProductInventory.createInventory(conf);
             splits = new ArrayList<>(1000);
@@ -197,6 +201,7 @@ public class PatternBasedInputFormat extends InputFormat {
                 }
                 createSplits(productInventory, fileStatusIt, splits, conf, requestSizeLimit, true);
             }
+            logListingCacheStatistics();
             LOG.info("file system query done in [ms]: " + (System.currentTimeMillis() - t0));
 
         } else if (geoInventory != null && ! geoInventory.startsWith("catalogue") && inputPathPatterns != null) {
@@ -206,6 +211,7 @@ public class PatternBasedInputFormat extends InputFormat {
             Set<String> pathInDB = GeodbInputFormat.queryGeoInventory(false, conf);
             JobClientsMap jobClientsMap = new JobClientsMap(new JobConf(conf));
             HdfsFileSystemService hdfsFileSystemService = new HdfsFileSystemService(jobClientsMap);
+            listingCache = ListingCache.get(conf, conf.get(JobConfigNames.CALVALUS_INPUT_LISTING_CACHE_DIR));
 
             ProductInventory productInventory = ProductInventory.createInventory(conf);
             splits = new ArrayList<>(1000);
@@ -234,6 +240,7 @@ public class PatternBasedInputFormat extends InputFormat {
                 }
                 createSplits(productInventory, fileStatusIt, splits, conf, requestSizeLimit, false);
             }
+            logListingCacheStatistics();
             LOG.info("geo-inventory query and complementary file system query done in [ms]: " + (System.currentTimeMillis() - t0));
 
         } else if (geoInventory != null && geoInventory.startsWith("catalogue")) {
@@ -587,7 +594,7 @@ public class PatternBasedInputFormat extends InputFormat {
             };
         }
         if (inputPatterns.size() <= 1 || startsWithWildcard(inputPatterns)) {
-            return fileSystemService.globFileStatusIterator(inputPatterns, conf, extraFilter, withDirs, true);
+            return fileSystemService.globFileStatusIterator(inputPatterns, conf, extraFilter, withDirs, true, listingCache);
         } else {
             // It was a bad idea to search for the common prefix. This may comprise much too many paths to descend
             List<RemoteIterator<LocatedFileStatus>> iters = new ArrayList<>();
@@ -595,12 +602,19 @@ public class PatternBasedInputFormat extends InputFormat {
             for (String p : inputPatterns) {
                 inputPattern.clear();
                 inputPattern.add(p);
-                iters.add(fileSystemService.globFileStatusIterator(inputPattern, conf, extraFilter, withDirs, true));
+                iters.add(fileSystemService.globFileStatusIterator(inputPattern, conf, extraFilter, withDirs, true, listingCache));
             }
             return mergedIterator(iters);
         }
     }
 
+    private void logListingCacheStatistics() {
+        if (listingCache != null) {
+            LOG.info(String.format("listing cache: %d directories listed from cache, %d listed",
+                                   listingCache.getHits(), listingCache.getMisses()));
+        }
+    }
+
     protected boolean startsWithWildcard(List<String> inputPatterns) {
         int commonPrefixLength = AbstractFileSystemService.getCommonPathPrefix(inputPatterns).length();
         for (String pattern : inputPatterns) {
@@ -148,6 +148,7 @@ public class L2FormattingMapper extends Mapper<NullWritable, NullWritable, NullW
         }
 
         File productFile = productFormatter.createTemporaryProductFile();
+        productFormatter.startStreamingUpload(context);
         LOG.info("Start writing product to file: " + productFile.getName());
 
         //ProductIO.writeProduct(targetProduct, productFile, outputFormat, false, pm);
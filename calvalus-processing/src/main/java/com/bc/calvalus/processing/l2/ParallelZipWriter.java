@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l2;
+
+import org.apache.hadoop.util.Progressable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a ZIP archive of the files of a directory with the entries deflated concurrently.
+ * <p>
+ * The entries are prepared by a bounded pool of threads, at most two entries per thread in flight,
+ * and written in the order of the entry names. Files that are already compressed, recognised by
+ * their extension or by a sample that does not deflate, are stored instead of deflated.
+ * Entries up to {@link #MAX_BUFFERED_SIZE} are prepared in memory, larger ones in temporary files.
+ * Sizes and CRCs are written ahead of the data, so the archive can be written to a stream.
+ * ZIP64 extensions are used where sizes, offsets, or the number of entries require them.
+ */
+class ParallelZipWriter {
+
+    static final int MAX_BUFFERED_SIZE = 16 * 1024 * 1024;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "z", "7z", "png", "jpg", "jpeg", "jp2", "gif", "kmz"));
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final double COMPRESSED_SAMPLE_RATIO = 0.95;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private ParallelZipWriter() {
+    }
+
+    static void zip(File sourceDir, String[] entryNames, OutputStream outputStream, Progressable progressable,
+                    int numThreads) throws IOException {
+        final ZipStream zipStream = new ZipStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        final ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        final Deque<Future<PreparedEntry>> entriesInFlight = new ArrayDeque<>();
+        try {
+            for (String entryName : entryNames) {
+                if (entriesInFlight.size() == 2 * numThreads) {
+                    zipStream.writeEntry(getEntry(entriesInFlight.remove()), progressable);
+                }
+                entriesInFlight.add(executorService.submit(() -> prepare(sourceDir, entryName, progressable)));
+            }
+            while (!entriesInFlight.isEmpty()) {
+                zipStream.writeEntry(getEntry(entriesInFlight.remove()), progressable);
+            }
+            zipStream.finish();
+        } finally {
+            executorService.shutdown();
+            // after a failure, wait for the entries in flight to remove their temporary files
+            for (Future<PreparedEntry> future : entriesInFlight) {
+                try {
+                    future.get().dispose();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ignored) {
+                }
+            }
+            zipStream.close();
+        }
+    }
+
+    /**
+     * @return true if the file is already compressed and shall be stored rather than deflated
+     */
+    static boolean isCompressed(File file) throws IOException {
+        final String name = file.getName();
+        final int dotPos = name.lastIndexOf('.');
+        if (dotPos >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dotPos + 1).toLowerCase(Locale.ENGLISH))) {
+            return true;
+        }
+        if (file.length() < SAMPLE_SIZE) {
+            return false;
+        }
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int n = 0;
+            while (n < sample.length) {
+                int m = inputStream.read(sample, n, sample.length - n);
+                if (m < 0) {
+                    return false;
+                }
+                n += m;
+            }
+        }
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            final byte[] buffer = new byte[SAMPLE_SIZE];
+            while (!deflater.finished()) {
+                deflater.deflate(buffer);
+            }
+            return deflater.getBytesWritten() >= COMPRESSED_SAMPLE_RATIO * sample.length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static PreparedEntry getEntry(Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("writing of zip entries interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("preparing zip entry failed", e.getCause());
+        }
+    }
+
+    private static PreparedEntry prepare(File sourceDir, String entryName, Progressable progressable) throws IOException {
+        final File sourceFile = new File(sourceDir, entryName);
+        final PreparedEntry entry = new PreparedEntry(entryName.replace('\\', '/'), sourceFile.lastModified());
+        final boolean buffered = sourceFile.length() <= MAX_BUFFERED_SIZE;
+        final CRC32 crc = new CRC32();
+        if (isCompressed(sourceFile)) {
+            entry.method = ZipEntry.STORED;
+            if (buffered) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) sourceFile.length());
+                entry.size = copy(sourceFile, bytes, crc, progressable);
+                entry.data = bytes.toByteArray();
+            } else {
+                entry.size = copy(sourceFile, null, crc, progressable);
+                entry.dataFile = sourceFile;
+            }
+            entry.compressedSize = entry.size;
+        } else {
+            entry.method = ZipEntry.DEFLATED;
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                if (buffered) {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(bytes, deflater, BUFFER_SIZE)) {
+                        entry.size = copy(sourceFile, deflaterStream, crc, progressable);
+                    }
+                    entry.data = bytes.toByteArray();
+                } else {
+                    entry.dataFile = File.createTempFile("calvalus-zip-", ".deflated");
+                    entry.deleteDataFile = true;
+                    try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(entry.dataFile), BUFFER_SIZE), deflater, BUFFER_SIZE)) {
+                        entry.size = copy(sourceFile, deflaterStream, crc, progressable);
+                    } catch (IOException e) {
+                        entry.dispose();
+                        throw e;
+                    }
+                }
+                entry.compressedSize = deflater.getBytesWritten();
+            } finally {
+                deflater.end();
+            }
+        }
+        entry.crc = crc.getValue();
+        return entry;
+    }
+
+    private static long copy(File sourceFile, OutputStream outputStream, CRC32 crc, Progressable progressable) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream inputStream = new FileInputStream(sourceFile)) {
+            int n;
+            while ((n = inputStream.read(buffer)) >= 0) {
+                progressable.progress();
+                if (crc != null) {
+                    crc.update(buffer, 0, n);
+                }
+                if (outputStream != null) {
+                    outputStream.write(buffer, 0, n);
+                }
+                size += n;
+            }
+        }
+        return size;
+    }
+
+    private static class PreparedEntry {
+
+        final String name;
+        final long lastModified;
+        int method;
+        long crc;
+        long size;
+        long compressedSize;
+        byte[] data;
+        File dataFile;
+        boolean deleteDataFile;
+
+        PreparedEntry(String name, long lastModified) {
+            this.name = name;
+            this.lastModified = lastModified;
+        }
+
+        void dispose() {
+            if (deleteDataFile && dataFile != null) {
+                dataFile.delete();
+            }
+        }
+    }
+
+    private static class CentralEntry {
+
+        final PreparedEntry entry;
+        final long offset;
+
+        CentralEntry(PreparedEntry entry, long offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Little-endian writer of the ZIP records, counting the bytes written for the offsets.
+     */
+    private static class ZipStream extends FilterOutputStream {
+
+        private final List<CentralEntry> centralEntries = new ArrayList<>();
+        private long position;
+
+        ZipStream(OutputStream out) {
+            super(out);
+        }
+
+        void writeEntry(PreparedEntry entry, Progressable progressable) throws IOException {
+            try {
+                final long offset = position;
+                final byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                final boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+                writeInt(0x04034b50L);
+                writeShort(zip64 ? 45 : 20);
+                writeShort(1 << 11);
+                writeShort(entry.method);
+                writeInt(dosTime(entry.lastModified));
+                writeInt(entry.crc);
+                writeInt(zip64 ? ZIP64_MAGIC : entry.compressedSize);
+                writeInt(zip64 ? ZIP64_MAGIC : entry.size);
+                writeShort(name.length);
+                writeShort(zip64 ? 20 : 0);
+                write(name);
+                if (zip64) {
+                    writeShort(0x0001);
+                    writeShort(16);
+                    writeLong(entry.size);
+                    writeLong(entry.compressedSize);
+                }
+                if (entry.data != null) {
+                    write(entry.data);
+                } else {
+                    final long numBytes = copy(entry.dataFile, this, null, progressable);
+                    if (numBytes != entry.compressedSize) {
+                        throw new IOException("size of " + entry.name + " changed while zipping");
+                    }
+                }
+                centralEntries.add(new CentralEntry(entry, offset));
+            } finally {
+                entry.data = null;
+                entry.dispose();
+            }
+        }
+
+        void finish() throws IOException {
+            final long centralOffset = position;
+            for (CentralEntry centralEntry : centralEntries) {
+                writeCentralEntry(centralEntry.entry, centralEntry.offset);
+            }
+            final long centralSize = position - centralOffset;
+            final int numEntries = centralEntries.size();
+            final boolean zip64 = numEntries >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+            if (zip64) {
+                final long zip64EndOffset = position;
+                writeInt(0x06064b50L);
+                writeLong(44);
+                writeShort(45);
+                writeShort(45);
+                writeInt(0);
+                writeInt(0);
+                writeLong(numEntries);
+                writeLong(numEntries);
+                writeLong(centralSize);
+                writeLong(centralOffset);
+                writeInt(0x07064b50L);
+                writeInt(0);
+                writeLong(zip64EndOffset);
+                writeInt(1);
+            }
+            writeInt(0x06054b50L);
+            writeShort(0);
+            writeShort(0);
+            writeShort(Math.min(numEntries, ZIP64_MAGIC_COUNT));
+            writeShort(Math.min(numEntries, ZIP64_MAGIC_COUNT));
+            writeInt(Math.min(centralSize, ZIP64_MAGIC));
+            writeInt(Math.min(centralOffset, ZIP64_MAGIC));
+            writeShort(0);
+            flush();
+        }
+
+        private void writeCentralEntry(PreparedEntry entry, long offset) throws IOException {
+            final byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            final boolean zip64Size = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+            final boolean zip64Offset = offset >= ZIP64_MAGIC;
+            final int extraLength = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+            final int version = zip64Size || zip64Offset ? 45 : 20;
+            writeInt(0x02014b50L);
+            writeShort(version);
+            writeShort(version);
+            writeShort(1 << 11);
+            writeShort(entry.method);
+            writeInt(dosTime(entry.lastModified));
+            writeInt(entry.crc);
+            writeInt(zip64Size ? ZIP64_MAGIC : entry.compressedSize);
+            writeInt(zip64Size ? ZIP64_MAGIC : entry.size);
+            writeShort(name.length);
+            writeShort(extraLength > 0 ? extraLength + 4 : 0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(zip64Offset ? ZIP64_MAGIC : offset);
+            write(name);
+            if (extraLength > 0) {
+                writeShort(0x0001);
+                writeShort(extraLength);
+                if (zip64Size) {
+                    writeLong(entry.size);
+                    writeLong(entry.compressedSize);
+                }
+                if (zip64Offset) {
+                    writeLong(offset);
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        private void writeShort(int v) throws IOException {
+            write(v & 0xff);
+            write((v >>> 8) & 0xff);
+        }
+
+        private void writeInt(long v) throws IOException {
+            writeShort((int) (v & 0xffff));
+            writeShort((int) ((v >>> 16) & 0xffff));
+        }
+
+        private void writeLong(long v) throws IOException {
+            writeInt(v & 0xffffffffL);
+            writeInt(v >>> 32);
+        }
+
+        private static long dosTime(long time) {
+            final LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+            if (dateTime.getYear() < 1980) {
+                return (1 << 21) | (1 << 16);
+            }
+            return ((long) (dateTime.getYear() - 1980) << 25) | (dateTime.getMonthValue() << 21)
+                   | (dateTime.getDayOfMonth() << 16) | (dateTime.getHour() << 11)
+                   | (dateTime.getMinute() << 5) | (dateTime.getSecond() >> 1);
+        }
+    }
+}
@@ -630,6 +630,7 @@ public class ProcessingMapper extends Mapper<NullWritable, NullWritable, Text /*
         }
 
         File productFile = productFormatter.createTemporaryProductFile();
+        productFormatter.startStreamingUpload(context);
         LOG.info("Start writing product to file: " + productFile.getName());
 
         //ProductIO.writeProduct(targetProduct, productFile, outputFormat, false, pm);
@@ -17,6 +17,7 @@
 package com.bc.calvalus.processing.l2;
 
 import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.ceres.core.runtime.internal.DirScanner;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -37,12 +38,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
  * Methods used for formatting eo data products
+ * <p>
+ * The product is written to a local temporary directory and then copied to HDFS. Multi-file outputs
+ * are copied by {@link JobConfigNames#CALVALUS_OUTPUT_UPLOAD_THREADS} threads, which also deflate the
+ * entries of ZIP outputs concurrently. With {@link JobConfigNames#CALVALUS_OUTPUT_UPLOAD_STREAMING}
+ * the files of multi-file outputs are uploaded while the product is still written, see
+ * {@link #startStreamingUpload}.
  */
 public class ProductFormatter {
 
@@ -53,6 +61,7 @@ public class ProductFormatter {
     private final String productFilename;
     private final String outputCompression;
     private File tmpDir;
+    private ProductUploader uploader;
 
     public ProductFormatter(String productName, String outputFormat, String desiredOutputCompression) {
         String outputExtension = "";
@@ -154,7 +163,24 @@ public class ProductFormatter {
         return new File(tmpDir, getProductFilename());
     }
 
+    /**
+     * Starts uploading the files of multi-file outputs while the product is written,
+     * if configured by {@link JobConfigNames#CALVALUS_OUTPUT_UPLOAD_STREAMING}.
+     * To be called after {@link #createTemporaryProductFile()} and before writing the product.
+     */
+    public void startStreamingUpload(TaskInputOutputContext<?, ?, ?, ?> context) {
+        boolean multiFile = "dir".equals(outputCompression) || "dir2".equals(outputCompression);
+        if (multiFile && tmpDir != null && context.getConfiguration().getBoolean(JobConfigNames.CALVALUS_OUTPUT_UPLOAD_STREAMING, false)) {
+            uploader = new ProductUploader(context, tmpDir, "dir2".equals(outputCompression), getUploadThreads(context));
+            uploader.startStreaming();
+        }
+    }
+
     public void cleanupTempDir() {
+        if (uploader != null) {
+            uploader.cancel();
+            uploader = null;
+        }
         if (tmpDir != null) {
             FileUtils.deleteTree(tmpDir);
         }
@@ -162,38 +188,27 @@ public class ProductFormatter {
 
     public void compressToHDFS(TaskInputOutputContext<?, ?, ?, ?> context, File productFile) throws IOException {
 
+        int numThreads = getUploadThreads(context);
         if ("zip".equals(outputCompression)) {
             LOG.info("Creating ZIP archive on HDFS.");
             OutputStream outputStream = createOutputStream(context, outputFilename);
-            zip(tmpDir, outputStream, context);
+            zip(tmpDir, outputStream, context, numThreads);
         } else if ("gz".equals(outputCompression)) {
             LOG.info("Creating GZ file on HDFS.");
             InputStream inputStream = new BufferedInputStream(new FileInputStream(productFile));
             OutputStream outputStream = createOutputStream(context, outputFilename);
             GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
             copyAndClose(inputStream, gzipOutputStream, context);
-        } else if ("dir".equals(outputCompression)) {
-            // currently used only for NetCDF4-BEAM products with IsinPlanetaryGrid
+        } else if ("dir".equals(outputCompression) || "dir2".equals(outputCompression)) {
+            // "dir" currently used only for NetCDF4-BEAM products with IsinPlanetaryGrid, copies the files of tmpDir
+            // "dir2" copies the files of tmpDir and its sub-directories
             LOG.info("Copying content of tmpDir to HDFS.");
-            File[] files = tmpDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    LOG.info("Copying file " + file.getName() + " to HDFS.");
-                    InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-                    OutputStream outputStream = createOutputStream(context, file.getName());
-                    copyAndClose(inputStream, outputStream, context);
-                }
-            }
-        } else if ("dir2".equals(outputCompression)) {
-            LOG.info("Copying content of tmpDir to HDFS.");
-            DirScanner dirScanner = new DirScanner(tmpDir, true, true);
-            String[] entryPaths = dirScanner.scan();
-            for (String entryPath : entryPaths) {
-                File sourceFile = new File(tmpDir.getAbsolutePath() + File.separator + entryPath);
-                InputStream inputStream = new BufferedInputStream(new FileInputStream(sourceFile));
-                OutputStream outputStream = createOutputStream(context, entryPath);
-                copyAndClose(inputStream, outputStream, context);
+            ProductUploader productUploader = uploader;
+            uploader = null;
+            if (productUploader == null) {
+                productUploader = new ProductUploader(context, tmpDir, "dir2".equals(outputCompression), numThreads);
             }
+            productUploader.finish();
         } else {
             LOG.info("Copying file to HDFS.");
             InputStream inputStream = new BufferedInputStream(new FileInputStream(productFile));
@@ -216,8 +231,20 @@ public class ProductFormatter {
         }
     }
 
-    // copied from Staging
+    private static int getUploadThreads(TaskInputOutputContext<?, ?, ?, ?> context) {
+        return Math.max(1, context.getConfiguration().getInt(JobConfigNames.CALVALUS_OUTPUT_UPLOAD_THREADS, 1));
+    }
+
     public static void zip(File sourceDir, OutputStream outputStream, Progressable progressable) throws IOException {
+        zip(sourceDir, outputStream, progressable, 1);
+    }
+
+    // copied from Staging
+    /**
+     * Zips the files of the source directory. Files already compressed are stored, the others deflated,
+     * concurrently by {@link ParallelZipWriter} if more than one thread is given.
+     */
+    public static void zip(File sourceDir, OutputStream outputStream, Progressable progressable, int numThreads) throws IOException {
         if (!sourceDir.exists()) {
             throw new FileNotFoundException(sourceDir.getPath());
         }
@@ -226,6 +253,10 @@ public class ProductFormatter {
         DirScanner dirScanner = new DirScanner(sourceDir, true, true);
         String[] entryNames = dirScanner.scan();
         //            ... then create new file (avoid including the new ZIP in the ZIP!)
+        if (numThreads > 1) {
+            ParallelZipWriter.zip(sourceDir, entryNames, outputStream, progressable, numThreads);
+            return;
+        }
         ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(outputStream));
         zipOutputStream.setMethod(ZipEntry.DEFLATED);
 
@@ -234,6 +265,12 @@ public class ProductFormatter {
                 ZipEntry zipEntry = new ZipEntry(entryName.replace('\\', '/'));
 
                 File sourceFile = new File(sourceDir, entryName);
+                if (ParallelZipWriter.isCompressed(sourceFile)) {
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(sourceFile.length());
+                    zipEntry.setCompressedSize(sourceFile.length());
+                    zipEntry.setCrc(crc(sourceFile, progressable));
+                }
                 FileInputStream inputStream = new FileInputStream(sourceFile);
                 try {
                     zipOutputStream.putNextEntry(zipEntry);
@@ -248,6 +285,19 @@ public class ProductFormatter {
         }
     }
 
+    private static long crc(File file, Progressable progressable) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int n;
+            while ((n = inputStream.read(buffer)) > 0) {
+                progressable.progress();
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
     // copied from Staging
     public static void copy(InputStream inputStream, OutputStream outputStream, Progressable progressable) throws
                                                                                                            IOException {
@@ -281,4 +331,18 @@ public class ProductFormatter {
         return fileSystem.create(workPath);
     }
 
+    /**
+     * Deletes a file written by {@link #createOutputStream}, if it exists.
+     */
+    static void deleteOutput(TaskInputOutputContext<?, ?, ?, ?> context, String filename) throws IOException {
+        Path workOutputPath;
+        try {
+            workOutputPath = FileOutputFormat.getWorkOutputPath(context);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        Path workPath = new Path(workOutputPath, filename);
+        workPath.getFileSystem(context.getConfiguration()).delete(workPath, false);
+    }
+
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l2;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.ceres.core.runtime.internal.DirScanner;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies the files of a product directory to the work output directory by a bounded pool of threads.
+ * <p>
+ * In streaming mode the directory is watched while the product is written, and files that have not
+ * been modified for {@link #QUIET_PERIOD_MILLIS} are uploaded already. {@link #finish()} uploads
+ * the remaining files and those that have been modified after their upload, so the result does not
+ * depend on the writer leaving files untouched. Files copied while writing that have disappeared since,
+ * e.g. temporary files or files renamed by the writer, are deleted from the work output directory again.
+ * Failed streaming uploads are repeated by finish().
+ */
+class ProductUploader {
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+
+    static final long QUIET_PERIOD_MILLIS = 2000;
+    private static final long POLL_PERIOD_MILLIS = 1000;
+
+    private final TaskInputOutputContext<?, ?, ?, ?> context;
+    private final File sourceDir;
+    private final boolean recursive;
+    private final ExecutorService executorService;
+    private final Map<String, FileState> uploadedStates = new ConcurrentHashMap<>();
+    private final Map<String, Future<?>> streamingUploads = new HashMap<>();
+    private Timer timer;
+    private boolean stopped;
+
+    /**
+     * @param recursive whether to copy the files of sub-directories too, with their relative paths,
+     *                  or only the files directly contained in the source directory
+     */
+    ProductUploader(TaskInputOutputContext<?, ?, ?, ?> context, File sourceDir, boolean recursive, int numThreads) {
+        this.context = context;
+        this.sourceDir = sourceDir;
+        this.recursive = recursive;
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    }
+
+    synchronized void startStreaming() {
+        LOG.info("Start uploading files of " + sourceDir.getName() + " while writing.");
+        timer = new Timer("product-uploader", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                uploadQuietFiles();
+            }
+        }, POLL_PERIOD_MILLIS, POLL_PERIOD_MILLIS);
+    }
+
+    void finish() throws IOException {
+        try {
+            List<Future<?>> uploads = new ArrayList<>();
+            synchronized (this) {
+                stopStreaming();
+                Set<String> orphanPaths = new HashSet<>(streamingUploads.keySet());
+                waitForStreamingUploads();
+                int numStreamed = uploadedStates.size();
+                for (String entryPath : listEntries()) {
+                    orphanPaths.remove(entryPath);
+                    FileState state = new FileState(new File(sourceDir, entryPath));
+                    if (!state.equals(uploadedStates.get(entryPath))) {
+                        uploads.add(executorService.submit(() -> upload(entryPath, state)));
+                    }
+                }
+                LOG.info("Copying " + uploads.size() + " files to HDFS, " + numStreamed + " files copied while writing, "
+                         + orphanPaths.size() + " of them removed since.");
+                for (String entryPath : orphanPaths) {
+                    delete(entryPath);
+                }
+            }
+            for (Future<?> upload : uploads) {
+                waitFor(upload);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    synchronized void cancel() {
+        stopStreaming();
+        executorService.shutdownNow();
+    }
+
+    private synchronized void uploadQuietFiles() {
+        if (stopped) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            for (String entryPath : listEntries()) {
+                FileState state = new FileState(new File(sourceDir, entryPath));
+                Future<?> streamingUpload = streamingUploads.get(entryPath);
+                if (now - state.lastModified >= QUIET_PERIOD_MILLIS
+                    && !state.equals(uploadedStates.get(entryPath))
+                    && (streamingUpload == null || streamingUpload.isDone())) {
+                    streamingUploads.put(entryPath, executorService.submit(() -> {
+                        try {
+                            upload(entryPath, state);
+                        } catch (IOException e) {
+                            LOG.log(Level.WARNING, "Copying " + entryPath + " while writing failed, retrying later.", e);
+                        }
+                    }));
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Watching " + sourceDir.getName() + " failed.", e);
+        }
+    }
+
+    private void stopStreaming() {
+        stopped = true;
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    private void waitForStreamingUploads() throws IOException {
+        for (Future<?> streamingUpload : streamingUploads.values()) {
+            waitFor(streamingUpload);
+        }
+        streamingUploads.clear();
+    }
+
+    private String[] listEntries() {
+        if (recursive) {
+            return new DirScanner(sourceDir, true, true).scan();
+        }
+        List<String> entryPaths = new ArrayList<>();
+        File[] files = sourceDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    entryPaths.add(file.getName());
+                }
+            }
+        }
+        return entryPaths.toArray(new String[0]);
+    }
+
+    private Void upload(String entryPath, FileState state) throws IOException {
+        LOG.fine("Copying file " + entryPath + " to HDFS.");
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(new File(sourceDir, entryPath)));
+        OutputStream outputStream = ProductFormatter.createOutputStream(context, entryPath.replace('\\', '/'));
+        ProductFormatter.copyAndClose(inputStream, outputStream, context);
+        uploadedStates.put(entryPath, state);
+        return null;
+    }
+
+    private void delete(String entryPath) throws IOException {
+        LOG.fine("Deleting file " + entryPath + " from HDFS.");
+        ProductFormatter.deleteOutput(context, entryPath.replace('\\', '/'));
+        uploadedStates.remove(entryPath);
+    }
+
+    private static void waitFor(Future<?> upload) throws IOException {
+        try {
+            upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("copying to HDFS interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("copying to HDFS failed", e.getCause());
+        }
+    }
+
+    /**
+     * The length and modification time of a file, taken before uploading it.
+     */
+    private static class FileState {
+
+        final long length;
+        final long lastModified;
+
+        FileState(File file) {
+            length = file.length();
+            lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) o;
+            return length == other.length && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(length) * 31 + Long.hashCode(lastModified);
+        }
+    }
+}
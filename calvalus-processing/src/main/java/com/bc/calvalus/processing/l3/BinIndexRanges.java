@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted, disjoint ranges of bin indexes, e.g. the bins of the rows intersecting a region,
+ * to read only these bins of L3 part files, see {@link L3PartIndex}.
+ */
+public final class BinIndexRanges {
+
+    private final long[] firstBinIndexes;
+    private final long[] lastBinIndexes;
+
+    /**
+     * @param firstBinIndexes the first bin indexes of the ranges, ascending
+     * @param lastBinIndexes  the last bin indexes of the ranges, inclusive
+     */
+    public BinIndexRanges(long[] firstBinIndexes, long[] lastBinIndexes) {
+        if (firstBinIndexes.length != lastBinIndexes.length) {
+            throw new IllegalArgumentException("firstBinIndexes.length != lastBinIndexes.length");
+        }
+        for (int i = 0; i < firstBinIndexes.length; i++) {
+            if (firstBinIndexes[i] > lastBinIndexes[i] || i > 0 && firstBinIndexes[i] <= lastBinIndexes[i - 1]) {
+                throw new IllegalArgumentException("ranges must be sorted and disjoint");
+            }
+        }
+        this.firstBinIndexes = firstBinIndexes;
+        this.lastBinIndexes = lastBinIndexes;
+    }
+
+    /**
+     * Creates the ranges of bins which may be required for the region: the columns intersecting the envelope
+     * of the region, enlarged by a column, of the rows intersecting the envelope, enlarged by a row.
+     * For a collection of geometries the envelopes of the geometries in the collection are used.
+     *
+     * @return the ranges, or null if the region is null or does not restrict the bins of the grid,
+     * or if the grid has no rows of constant latitude
+     */
+    public static BinIndexRanges forRegion(PlanetaryGrid planetaryGrid, Geometry region) {
+        if (region == null || region.isEmpty() || !BinRegionIndex.isRowAligned(planetaryGrid)) {
+            return null;
+        }
+        List<Envelope> envelopes = new ArrayList<>();
+        for (int i = 0; i < region.getNumGeometries(); i++) {
+            if (!region.getGeometryN(i).isEmpty()) {
+                envelopes.add(region.getGeometryN(i).getEnvelopeInternal());
+            }
+        }
+        int numRows = planetaryGrid.getNumRows();
+        double rowHeight = 180.0 / numRows;
+        long[] firsts = new long[numRows];
+        long[] lasts = new long[numRows];
+        int numRanges = 0;
+        long[] rowRanges = new long[envelopes.size()];
+        for (int row = 0; row < numRows; row++) {
+            double lat = planetaryGrid.getCenterLat(row);
+            int numCols = planetaryGrid.getNumCols(row);
+            long firstBinIndex = planetaryGrid.getFirstBinIndex(row);
+            int numRowRanges = 0;
+            for (Envelope envelope : envelopes) {
+                if (lat > envelope.getMinY() - rowHeight && lat < envelope.getMaxY() + rowHeight) {
+                    int firstCol = Math.max(0, BinRegionIndex.firstColAbove(planetaryGrid, firstBinIndex, numCols, envelope.getMinX()) - 1);
+                    int lastCol = Math.min(numCols - 1, BinRegionIndex.firstColAbove(planetaryGrid, firstBinIndex, numCols, envelope.getMaxX()));
+                    // first column in the upper bits for sorting
+                    rowRanges[numRowRanges++] = ((long) firstCol << 32) | lastCol;
+                }
+            }
+            Arrays.sort(rowRanges, 0, numRowRanges);
+            for (int i = 0; i < numRowRanges; i++) {
+                long first = firstBinIndex + (int) (rowRanges[i] >>> 32);
+                long last = firstBinIndex + (int) rowRanges[i];
+                if (numRanges == firsts.length) {
+                    firsts = Arrays.copyOf(firsts, 2 * numRanges);
+                    lasts = Arrays.copyOf(lasts, 2 * numRanges);
+                }
+                if (numRanges > 0 && first <= lasts[numRanges - 1] + 1) {
+                    lasts[numRanges - 1] = Math.max(lasts[numRanges - 1], last);
+                } else {
+                    firsts[numRanges] = first;
+                    lasts[numRanges] = last;
+                    numRanges++;
+                }
+            }
+        }
+        if (numRanges == 1 && firsts[0] == 0 && lasts[0] == planetaryGrid.getNumBins() - 1) {
+            return null;
+        }
+        return new BinIndexRanges(Arrays.copyOf(firsts, numRanges), Arrays.copyOf(lasts, numRanges));
+    }
+
+    public int getNumRanges() {
+        return firstBinIndexes.length;
+    }
+
+    public boolean contains(long binIndex) {
+        int i = Arrays.binarySearch(firstBinIndexes, binIndex);
+        if (i >= 0) {
+            return true;
+        }
+        i = -i - 2;
+        return i >= 0 && binIndex <= lastBinIndexes[i];
+    }
+
+    /**
+     * @return true if a range intersects the range of bin indexes given
+     */
+    public boolean intersects(long firstBinIndex, long lastBinIndex) {
+        if (contains(firstBinIndex)) {
+            return true;
+        }
+        long nextFirstBinIndex = getNextFirstBinIndex(firstBinIndex);
+        return nextFirstBinIndex >= 0 && nextFirstBinIndex <= lastBinIndex;
+    }
+
+    /**
+     * @return the first bin index of the first range after the bin index, or -1 if there is none
+     */
+    public long getNextFirstBinIndex(long binIndex) {
+        int i = Arrays.binarySearch(firstBinIndexes, binIndex);
+        i = i >= 0 ? i + 1 : -i - 1;
+        return i < firstBinIndexes.length ? firstBinIndexes[i] : -1;
+    }
+}
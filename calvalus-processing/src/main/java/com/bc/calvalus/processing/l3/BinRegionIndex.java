@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The regions containing the centre of a bin, computed once per task for all bins of the planetary grid
+ * instead of testing the centre of every bin against every region. Regions may overlap.
+ * <p>
+ * For grids with rows of constant latitude and ascending longitudes, i.e. the {@link SEAGrid} and the
+ * {@link PlateCarreeGrid}, the column ranges of each region are computed row by row from the crossings
+ * of the row with the rings of the region. The columns at the ends of the ranges are tested against the
+ * geometry, hence the index yields the same regions as {@link Geometry#contains} of the bin centre.
+ * The columns are split into intervals covered by the same regions, a lookup is a binary search
+ * among the interval bounds of the row. For other grids the bin centres are tested against the
+ * prepared geometries.
+ */
+public final class BinRegionIndex {
+
+    private static final int[] NO_REGIONS = new int[0];
+
+    private final PlanetaryGrid planetaryGrid;
+    private final GeometryFactory geometryFactory;
+    private final PreparedGeometry[] preparedGeometries;
+    // interval start columns and regions of the intervals, by row
+    private final int[][] rowIntervalStarts;
+    private final int[][][] rowIntervalRegions;
+
+    private BinRegionIndex(PlanetaryGrid planetaryGrid, PreparedGeometry[] preparedGeometries, boolean rowAligned) {
+        this.planetaryGrid = planetaryGrid;
+        this.geometryFactory = new GeometryFactory();
+        this.preparedGeometries = preparedGeometries;
+        int numRows = rowAligned ? planetaryGrid.getNumRows() : 0;
+        this.rowIntervalStarts = rowAligned ? new int[numRows][] : null;
+        this.rowIntervalRegions = rowAligned ? new int[numRows][][] : null;
+    }
+
+    /**
+     * @param planetaryGrid the grid of the bins
+     * @param geometries    the regions, their index in the array is the region ID
+     */
+    public static BinRegionIndex create(PlanetaryGrid planetaryGrid, Geometry[] geometries) {
+        PreparedGeometry[] preparedGeometries = new PreparedGeometry[geometries.length];
+        for (int i = 0; i < geometries.length; i++) {
+            preparedGeometries[i] = PreparedGeometryFactory.prepare(geometries[i]);
+        }
+        boolean rowAligned = isRowAligned(planetaryGrid);
+        BinRegionIndex index = new BinRegionIndex(planetaryGrid, preparedGeometries, rowAligned);
+        if (rowAligned) {
+            index.build(geometries);
+        }
+        return index;
+    }
+
+    /**
+     * @return true if the bins of a row have the same latitude and ascending longitudes
+     */
+    static boolean isRowAligned(PlanetaryGrid planetaryGrid) {
+        return planetaryGrid instanceof SEAGrid || planetaryGrid instanceof PlateCarreeGrid;
+    }
+
+    /**
+     * @return the first column of the row with a centre longitude greater than the longitude, or the number of columns
+     */
+    static int firstColAbove(PlanetaryGrid planetaryGrid, long firstBinIndex, int numCols, double lon) {
+        int low = 0;
+        int high = numCols;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (planetaryGrid.getCenterLatLon(firstBinIndex + mid)[1] > lon) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the IDs of the regions containing the centre of the bin in ascending order,
+     * the array is shared and must not be modified
+     */
+    public int[] getRegionIds(long binIndex) {
+        if (rowIntervalStarts == null) {
+            return testAll(binIndex);
+        }
+        int row = planetaryGrid.getRowIndex(binIndex);
+        int[] starts = rowIntervalStarts[row];
+        if (starts == null) {
+            return NO_REGIONS;
+        }
+        int col = (int) (binIndex - planetaryGrid.getFirstBinIndex(row));
+        int i = Arrays.binarySearch(starts, col);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i < 0 ? NO_REGIONS : rowIntervalRegions[row][i];
+    }
+
+    private int[] testAll(long binIndex) {
+        double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex);
+        Geometry point = geometryFactory.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0]));
+        int[] regionIds = new int[preparedGeometries.length];
+        int numRegions = 0;
+        for (int regionId = 0; regionId < preparedGeometries.length; regionId++) {
+            if (preparedGeometries[regionId].contains(point)) {
+                regionIds[numRegions++] = regionId;
+            }
+        }
+        return numRegions == 0 ? NO_REGIONS : Arrays.copyOf(regionIds, numRegions);
+    }
+
+    private void build(Geometry[] geometries) {
+        int numRows = planetaryGrid.getNumRows();
+        double[] rowLats = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            rowLats[row] = planetaryGrid.getCenterLat(row);
+        }
+        RowLatitudes rowLatitudes = new RowLatitudes(rowLats);
+        // column ranges as (regionId, firstCol, lastCol) by row, in ascending order of regions
+        Map<Integer, RangeList> rowRanges = new HashMap<>();
+        for (int regionId = 0; regionId < geometries.length; regionId++) {
+            Geometry geometry = geometries[regionId];
+            if (geometry.isEmpty()) {
+                continue;
+            }
+            Map<Integer, double[]> crossings = geometry instanceof Polygonal ? getCrossings(geometry, rowLatitudes) : null;
+            Envelope envelope = geometry.getEnvelopeInternal();
+            for (int row = rowLatitudes.firstRowAbove(envelope.getMinY()); row >= 0 && row < numRows && rowLats[row] < envelope.getMaxY(); row += rowLatitudes.direction) {
+                RangeList ranges = rowRanges.computeIfAbsent(row, r -> new RangeList());
+                if (crossings != null) {
+                    double[] rowCrossings = crossings.get(row);
+                    if (rowCrossings != null) {
+                        addRanges(ranges, regionId, row, rowCrossings);
+                    }
+                } else {
+                    addTestedRange(ranges, regionId, row, envelope.getMinX(), envelope.getMaxX());
+                }
+            }
+        }
+        for (Map.Entry<Integer, RangeList> entry : rowRanges.entrySet()) {
+            if (entry.getValue().size > 0) {
+                createIntervals(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the sorted longitudes where the rings of the polygons cross the centre latitudes of the rows,
+     * a row is crossed by a segment if the latitude is in [minLat, maxLat) of the segment
+     */
+    private static Map<Integer, double[]> getCrossings(Geometry geometry, RowLatitudes rowLatitudes) {
+        Map<Integer, double[]> crossings = new HashMap<>();
+        Map<Integer, Integer> numCrossings = new HashMap<>();
+        for (int p = 0; p < geometry.getNumGeometries(); p++) {
+            Polygon polygon = (Polygon) geometry.getGeometryN(p);
+            for (int r = -1; r < polygon.getNumInteriorRing(); r++) {
+                LineString ring = r < 0 ? polygon.getExteriorRing() : polygon.getInteriorRingN(r);
+                Coordinate[] coordinates = ring.getCoordinates();
+                for (int i = 0; i + 1 < coordinates.length; i++) {
+                    Coordinate c1 = coordinates[i];
+                    Coordinate c2 = coordinates[i + 1];
+                    if (c1.y == c2.y) {
+                        continue;
+                    }
+                    double yMin = Math.min(c1.y, c2.y);
+                    double yMax = Math.max(c1.y, c2.y);
+                    for (int row = rowLatitudes.firstRowAtOrAbove(yMin); row >= 0 && row < rowLatitudes.lats.length && rowLatitudes.lats[row] < yMax; row += rowLatitudes.direction) {
+                        double x = c1.x + (rowLatitudes.lats[row] - c1.y) * (c2.x - c1.x) / (c2.y - c1.y);
+                        int n = numCrossings.getOrDefault(row, 0);
+                        double[] rowCrossings = crossings.get(row);
+                        if (rowCrossings == null || n == rowCrossings.length) {
+                            rowCrossings = rowCrossings == null ? new double[4] : Arrays.copyOf(rowCrossings, 2 * n);
+                            crossings.put(row, rowCrossings);
+                        }
+                        rowCrossings[n] = x;
+                        numCrossings.put(row, n + 1);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Integer, double[]> entry : crossings.entrySet()) {
+            double[] rowCrossings = Arrays.copyOf(entry.getValue(), numCrossings.get(entry.getKey()));
+            Arrays.sort(rowCrossings);
+            entry.setValue(rowCrossings);
+        }
+        return crossings;
+    }
+
+    /**
+     * Adds the columns between pairs of crossings with the even-odd rule, the end columns tested against the geometry.
+     */
+    private void addRanges(RangeList ranges, int regionId, int row, double[] crossings) {
+        int numCols = planetaryGrid.getNumCols(row);
+        long firstBinIndex = planetaryGrid.getFirstBinIndex(row);
+        for (int i = 0; i + 1 < crossings.length; i += 2) {
+            int firstCol = firstColAbove(planetaryGrid, firstBinIndex, numCols, crossings[i]);
+            int lastCol = firstColAbove(planetaryGrid, firstBinIndex, numCols, crossings[i + 1]) - 1;
+            while (firstCol > 0 && contains(regionId, firstBinIndex + firstCol - 1)) {
+                firstCol--;
+            }
+            while (firstCol <= lastCol && !contains(regionId, firstBinIndex + firstCol)) {
+                firstCol++;
+            }
+            while (lastCol < numCols - 1 && contains(regionId, firstBinIndex + lastCol + 1)) {
+                lastCol++;
+            }
+            while (lastCol >= firstCol && !contains(regionId, firstBinIndex + lastCol)) {
+                lastCol--;
+            }
+            if (firstCol <= lastCol) {
+                ranges.add(regionId, firstCol, lastCol);
+            }
+        }
+    }
+
+    /**
+     * Adds the columns within the longitudes tested one by one, for geometries that are not polygonal.
+     */
+    private void addTestedRange(RangeList ranges, int regionId, int row, double minLon, double maxLon) {
+        int numCols = planetaryGrid.getNumCols(row);
+        long firstBinIndex = planetaryGrid.getFirstBinIndex(row);
+        int lastCol = Math.min(numCols - 1, firstColAbove(planetaryGrid, firstBinIndex, numCols, maxLon));
+        for (int col = Math.max(0, firstColAbove(planetaryGrid, firstBinIndex, numCols, minLon) - 1); col <= lastCol; col++) {
+            if (contains(regionId, firstBinIndex + col)) {
+                ranges.add(regionId, col, col);
+            }
+        }
+    }
+
+    private boolean contains(int regionId, long binIndex) {
+        double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex);
+        return preparedGeometries[regionId].contains(geometryFactory.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0])));
+    }
+
+    /**
+     * Splits the columns of the row into intervals covered by the same regions, sweeping over the range bounds.
+     */
+    private void createIntervals(int row, RangeList ranges) {
+        int n = ranges.size;
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        for (int i = 0; i < n; i++) {
+            // column in the upper bits, range in the lower bits
+            starts[i] = ((long) ranges.firstCols[i] << 32) | i;
+            ends[i] = ((long) (ranges.lastCols[i] + 1) << 32) | i;
+        }
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        int[] intervalStarts = new int[2 * n];
+        int[][] intervalRegions = new int[2 * n][];
+        int numIntervals = 0;
+        int[] activeCounts = new int[preparedGeometries.length];
+        BitSet active = new BitSet(preparedGeometries.length);
+        Map<BitSet, int[]> sharedRegionIds = new HashMap<>();
+        int s = 0;
+        int e = 0;
+        while (e < n) {
+            int col = (int) (ends[e] >>> 32);
+            if (s < n) {
+                col = Math.min(col, (int) (starts[s] >>> 32));
+            }
+            while (e < n && (int) (ends[e] >>> 32) == col) {
+                int regionId = ranges.regionIds[(int) ends[e++]];
+                if (--activeCounts[regionId] == 0) {
+                    active.clear(regionId);
+                }
+            }
+            while (s < n && (int) (starts[s] >>> 32) == col) {
+                int regionId = ranges.regionIds[(int) starts[s++]];
+                if (activeCounts[regionId]++ == 0) {
+                    active.set(regionId);
+                }
+            }
+            int[] ids = sharedRegionIds.get(active);
+            if (ids == null) {
+                ids = active.isEmpty() ? NO_REGIONS : active.stream().toArray();
+                sharedRegionIds.put((BitSet) active.clone(), ids);
+            }
+            intervalStarts[numIntervals] = col;
+            intervalRegions[numIntervals++] = ids;
+        }
+        rowIntervalStarts[row] = Arrays.copyOf(intervalStarts, numIntervals);
+        rowIntervalRegions[row] = Arrays.copyOf(intervalRegions, numIntervals);
+    }
+
+    /**
+     * The centre latitudes of the rows, ascending or descending with the row.
+     */
+    private static final class RowLatitudes {
+
+        private final double[] lats;
+        private final int direction;
+
+        private RowLatitudes(double[] lats) {
+            this.lats = lats;
+            this.direction = lats.length > 1 && lats[0] > lats[lats.length - 1] ? -1 : 1;
+        }
+
+        /**
+         * @return the row with the lowest latitude greater than the given one, in the direction of ascending latitudes
+         */
+        private int firstRowAbove(double lat) {
+            return firstRow(lat, false);
+        }
+
+        private int firstRowAtOrAbove(double lat) {
+            return firstRow(lat, true);
+        }
+
+        private int firstRow(double lat, boolean inclusive) {
+            // binary search in the order of ascending latitudes
+            int low = 0;
+            int high = lats.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                double midLat = lats[toRow(mid)];
+                if (midLat > lat || inclusive && midLat == lat) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low < lats.length ? toRow(low) : -1;
+        }
+
+        private int toRow(int i) {
+            return direction > 0 ? i : lats.length - 1 - i;
+        }
+    }
+
+    private static final class RangeList {
+
+        private int[] regionIds = new int[4];
+        private int[] firstCols = new int[4];
+        private int[] lastCols = new int[4];
+        private int size;
+
+        private void add(int regionId, int firstCol, int lastCol) {
+            if (size > 0 && regionIds[size - 1] == regionId && firstCol <= lastCols[size - 1] + 1) {
+                // adjacent or overlapping range of the same region after testing the end columns
+                lastCols[size - 1] = Math.max(lastCols[size - 1], lastCol);
+                firstCols[size - 1] = Math.min(firstCols[size - 1], firstCol);
+                return;
+            }
+            if (size == regionIds.length) {
+                regionIds = Arrays.copyOf(regionIds, 2 * size);
+                firstCols = Arrays.copyOf(firstCols, 2 * size);
+                lastCols = Arrays.copyOf(lastCols, 2 * size);
+            }
+            regionIds[size] = regionId;
+            firstCols[size] = firstCol;
+            lastCols[size] = lastCol;
+            size++;
+        }
+    }
+}
@@ -11,7 +11,6 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
 import java.io.IOException;
 import java.util.Map;
@@ -64,7 +63,7 @@ public class CellL3ProcessorWorkflowItem extends HadoopWorkflowItem {
         job.setNumReduceTasks(jobConfig.getInt(JobConfigNames.CALVALUS_L3_REDUCERS, 8));
 
         JobUtils.clearAndSetOutputDir(getOutputDir(), job, this);
-        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setOutputFormatClass(L3PartOutputFormat.class);
 
         CellInputFormat cellInputFormat = new CellInputFormat();
         Path inputDirectory = cellInputFormat.getFirstInputDirectory(job);
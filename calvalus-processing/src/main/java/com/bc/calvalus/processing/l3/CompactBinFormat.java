@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact serialisation of the bins' counters and feature values, shared by {@link L3SpatialBin} and {@link L3TemporalBin}.
+ * <p>
+ * The compact format starts with a version byte that cannot be the first byte of the legacy format,
+ * where the first field is the number of observations written as a 4 byte integer (non-negative, or -1 for metadata).
+ * Counters are written as variable length integers. Feature values are written in groups of four,
+ * each group preceded by a byte with a 2 bit code per value telling whether it is NaN, zero,
+ * a small integral number (e.g. counts) written as variable length integer, or a float written with 4 bytes.
+ * The encoding is lossless.
+ */
+final class CompactBinFormat {
+
+    static final int VERSION_1 = 0xFE;
+
+    private static final int NAN = 0;
+    private static final int ZERO = 1;
+    private static final int INTEGRAL = 2;
+    private static final int FLOAT = 3;
+
+    private CompactBinFormat() {
+    }
+
+    /**
+     * Reads the remaining three bytes of a legacy 4 byte integer field the first byte of which has been read already.
+     */
+    static int readLegacyInt(int firstByte, DataInput dataInput) throws IOException {
+        return (firstByte << 24) | (dataInput.readUnsignedByte() << 16) | dataInput.readUnsignedShort();
+    }
+
+    static void writeFeatureValues(DataOutput dataOutput, float[] featureValues) throws IOException {
+        final int numFeatures = featureValues.length;
+        WritableUtils.writeVInt(dataOutput, numFeatures);
+        // groups of four features, each preceded by the byte with their codes
+        for (int i0 = 0; i0 < numFeatures; i0 += 4) {
+            final int i1 = Math.min(i0 + 4, numFeatures);
+            int codes = 0;
+            for (int i = i0; i < i1; i++) {
+                codes |= codeOf(featureValues[i]) << ((i & 3) << 1);
+            }
+            dataOutput.writeByte(codes);
+            for (int i = i0; i < i1; i++) {
+                final float value = featureValues[i];
+                switch (codeOf(value)) {
+                    case INTEGRAL:
+                        WritableUtils.writeVInt(dataOutput, (int) value);
+                        break;
+                    case FLOAT:
+                        dataOutput.writeFloat(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    static int readNumFeatures(DataInput dataInput) throws IOException {
+        return WritableUtils.readVInt(dataInput);
+    }
+
+    static void readFeatureValues(DataInput dataInput, float[] featureValues) throws IOException {
+        final int numFeatures = featureValues.length;
+        int codes = 0;
+        for (int i = 0; i < numFeatures; i++) {
+            if ((i & 3) == 0) {
+                codes = dataInput.readUnsignedByte();
+            }
+            switch ((codes >> ((i & 3) << 1)) & 3) {
+                case NAN:
+                    featureValues[i] = Float.NaN;
+                    break;
+                case ZERO:
+                    featureValues[i] = 0.0f;
+                    break;
+                case INTEGRAL:
+                    featureValues[i] = WritableUtils.readVInt(dataInput);
+                    break;
+                default:
+                    featureValues[i] = dataInput.readFloat();
+                    break;
+            }
+        }
+    }
+
+    private static int codeOf(float value) {
+        if (Float.isNaN(value)) {
+            return NAN;
+        }
+        if (Float.floatToRawIntBits(value) == 0) {
+            return ZERO;
+        }
+        // integral values which fit into less than 4 bytes, e.g. counts
+        if (value == (int) value && value > -0x10000 && value < 0x10000 && Float.floatToRawIntBits(value) != 0x80000000) {
+            return INTEGRAL;
+        }
+        return FLOAT;
+    }
+}
@@ -20,8 +20,6 @@ import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.Partitioner;
-import org.esa.snap.binning.support.IsinPlanetaryGrid;
-import org.esa.snap.core.util.grid.isin.IsinPoint;
 
 /**
  * Partitions the bins by their bin index.
@@ -32,6 +30,8 @@ import org.esa.snap.core.util.grid.isin.IsinPoint;
 public class IsinPartitioner extends Partitioner<LongWritable, L3SpatialBin> implements Configurable {
 
     private static final int NUM_TILE_COLUMNS = 36;
+    private static final long TILE_LINE_FACTOR = 10000000000L;
+    private static final long TILE_COL_FACTOR = 100000000L;
 
     private Configuration conf;
 
@@ -39,10 +39,15 @@ public class IsinPartitioner extends Partitioner<LongWritable, L3SpatialBin> imp
     @Override
     public int getPartition(LongWritable binIndex, L3SpatialBin spatialBin, int numPartitions) {
         long idx = binIndex.get();
-
-        final IsinPoint isinPoint = IsinPlanetaryGrid.toIsinPoint(idx);
-
-        return (isinPoint.getTile_line() * NUM_TILE_COLUMNS + isinPoint.getTile_col()) % numPartitions;
+        // for metadata contributions
+        if (idx < 0) {
+            return 0;
+        }
+        // decodes the tile of the bin index directly instead of creating an IsinPoint, see IsinPlanetaryGrid.toIsinPoint
+        final int tileLine = (int) (idx / TILE_LINE_FACTOR);
+        final int tileCol = (int) ((idx / TILE_COL_FACTOR) % 100);
+
+        return (tileLine * NUM_TILE_COLUMNS + tileCol) % numPartitions;
     }
 
     @Override
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.BinManager;
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.operator.BinningConfig;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Merges spatial bins of the same bin index on the map side before they are shuffled.
+ * <p>
+ * Merging is only done if the spatial features of all configured aggregators can be merged
+ * without access to the original observations (AVG, MIN_MAX, ON_MAX_SET). Otherwise, and for the
+ * metadata record, the spatial bins are passed through unchanged.
+ * <p>
+ * Note that all spatial bins of a bin index merged in one map task contribute as a single pass
+ * to the temporal bin, as if the overlapping inputs had been a single product.
+ */
+public class L3Combiner extends Reducer<LongWritable, L3SpatialBin, LongWritable, L3SpatialBin> {
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final String COUNTER_GROUP_NAME = "L3 Combiner";
+
+    private BinManager binManager;
+    private MergeRule[] mergeRules;
+    private int[] featureOffsets;
+    private int[] featureCounts;
+
+    enum MergeRule {
+        /**
+         * Spatial features are means of the spatial observations,
+         * the optional third feature are the counts used as weights.
+         */
+        AVG {
+            @Override
+            void merge(float[] target, int targetNumObs, float[] source, int sourceNumObs, int offset, int length) {
+                final boolean withCounts = length > 2;
+                final float targetWeight = withCounts ? target[offset + 2] : targetNumObs;
+                final float sourceWeight = withCounts ? source[offset + 2] : sourceNumObs;
+                if (Float.isNaN(source[offset]) || sourceWeight <= 0) {
+                    return;
+                }
+                if (Float.isNaN(target[offset]) || targetWeight <= 0) {
+                    target[offset] = source[offset];
+                    target[offset + 1] = source[offset + 1];
+                } else {
+                    final float weightSum = targetWeight + sourceWeight;
+                    target[offset] = (target[offset] * targetWeight + source[offset] * sourceWeight) / weightSum;
+                    target[offset + 1] = (target[offset + 1] * targetWeight + source[offset + 1] * sourceWeight) / weightSum;
+                }
+                if (withCounts) {
+                    target[offset + 2] = targetWeight + sourceWeight;
+                }
+            }
+        },
+        /**
+         * Spatial features are minimum and maximum.
+         */
+        MIN_MAX {
+            @Override
+            void merge(float[] target, int targetNumObs, float[] source, int sourceNumObs, int offset, int length) {
+                if (source[offset] < target[offset] || Float.isNaN(target[offset])) {
+                    target[offset] = source[offset];
+                }
+                if (source[offset + 1] > target[offset + 1] || Float.isNaN(target[offset + 1])) {
+                    target[offset + 1] = source[offset + 1];
+                }
+            }
+        },
+        /**
+         * The first spatial feature is the maximum, all other features belong to the observation of the maximum.
+         */
+        ON_MAX_SET {
+            @Override
+            void merge(float[] target, int targetNumObs, float[] source, int sourceNumObs, int offset, int length) {
+                if (source[offset] > target[offset] || Float.isNaN(target[offset])) {
+                    System.arraycopy(source, offset, target, offset, length);
+                }
+            }
+        };
+
+        abstract void merge(float[] target, int targetNumObs, float[] source, int sourceNumObs, int offset, int length);
+
+        static MergeRule forAggregator(Aggregator aggregator) {
+            try {
+                return valueOf(aggregator.getName());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        configure(context.getConfiguration());
+    }
+
+    void configure(Configuration conf) {
+        BinningConfig binningConfig = HadoopBinManager.getBinningConfig(conf);
+        BinningContext binningContext = HadoopBinManager.createBinningContext(binningConfig, null, null);
+        binManager = binningContext.getBinManager();
+        final int aggregatorCount = binManager.getAggregatorCount();
+        mergeRules = new MergeRule[aggregatorCount];
+        featureOffsets = new int[aggregatorCount];
+        featureCounts = new int[aggregatorCount];
+        int offset = 0;
+        for (int i = 0; i < aggregatorCount; i++) {
+            Aggregator aggregator = binManager.getAggregator(i);
+            mergeRules[i] = MergeRule.forAggregator(aggregator);
+            featureOffsets[i] = offset;
+            featureCounts[i] = aggregator.getSpatialFeatureNames().length;
+            offset += featureCounts[i];
+            if (mergeRules[i] == null) {
+                LOG.info("aggregator " + aggregator.getName() + " does not support merging of spatial bins, passing bins through");
+                mergeRules = null;
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void reduce(LongWritable binIndex, Iterable<L3SpatialBin> spatialBins, Context context) throws IOException, InterruptedException {
+        final long idx = binIndex.get();
+        if (idx == L3SpatialBin.METADATA_MAGIC_NUMBER || mergeRules == null) {
+            for (L3SpatialBin spatialBin : spatialBins) {
+                context.write(binIndex, spatialBin);
+            }
+            return;
+        }
+        L3SpatialBin mergedBin = null;
+        int numBins = 0;
+        for (L3SpatialBin spatialBin : spatialBins) {
+            // Hadoop reuses the value instance, therefore the first bin is copied
+            if (mergedBin == null) {
+                mergedBin = (L3SpatialBin) binManager.createSpatialBin(idx);
+                mergedBin.setNumObs(spatialBin.getNumObs());
+                System.arraycopy(spatialBin.getFeatureValues(), 0, mergedBin.getFeatureValues(), 0,
+                                 mergedBin.getFeatureValues().length);
+            } else {
+                mergeSpatialBin(mergedBin, spatialBin);
+            }
+            numBins++;
+        }
+        if (mergedBin != null) {
+            context.write(binIndex, mergedBin);
+            context.getCounter(COUNTER_GROUP_NAME, "Spatial bins merged").increment(numBins - 1);
+        }
+    }
+
+    boolean isMerging() {
+        return mergeRules != null;
+    }
+
+    void mergeSpatialBin(L3SpatialBin target, L3SpatialBin source) {
+        final float[] targetFeatures = target.getFeatureValues();
+        final float[] sourceFeatures = source.getFeatureValues();
+        for (int i = 0; i < mergeRules.length; i++) {
+            mergeRules[i].merge(targetFeatures, target.getNumObs(), sourceFeatures, source.getNumObs(),
+                                featureOffsets[i], featureCounts[i]);
+        }
+        target.setNumObs(target.getNumObs() + source.getNumObs());
+    }
+}
@@ -146,6 +146,7 @@ public class L3Formatter {
         }
         try {
             File productFile = productFormatter.createTemporaryProductFile();
+            productFormatter.startStreamingUpload(context);
 
             L3Formatter formatter = new L3Formatter(dateStart, dateStop,
                                                     productFile.getAbsolutePath(),
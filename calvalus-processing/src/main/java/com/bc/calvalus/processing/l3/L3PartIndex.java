@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A small sidecar file written by the {@link L3PartOutputFormat} next to each part file.
+ * It records the range of bin indexes in the part, so readers can order the parts
+ * without opening them. The name starts with an underscore to be ignored by input formats.
+ * <p>
+ * Since version 2 it also records sparse entries of bin indexes with the positions of sync markers written
+ * right before these bins, every {@link #ENTRY_INTERVAL} bins. Readers interested in some ranges of bins
+ * only sync to the position of the last entry before a range instead of reading all bins before it.
+ */
+public class L3PartIndex {
+
+    public static final int ENTRY_INTERVAL = 1024;
+
+    private static final String SUFFIX = ".index";
+    private static final int MAGIC_NUMBER = 0x4c33490a;
+    private static final int VERSION = 2;
+    private static final long[] NO_ENTRIES = new long[0];
+
+    private final long firstBinIndex;
+    private final long lastBinIndex;
+    private final long numBins;
+    private final long[] entryBinIndexes;
+    private final long[] entryPositions;
+
+    public L3PartIndex(long firstBinIndex, long lastBinIndex, long numBins) {
+        this(firstBinIndex, lastBinIndex, numBins, NO_ENTRIES, NO_ENTRIES);
+    }
+
+    /**
+     * @param entryBinIndexes ascending bin indexes of the entries
+     * @param entryPositions  positions of the sync markers right before the bins of the entries
+     */
+    public L3PartIndex(long firstBinIndex, long lastBinIndex, long numBins, long[] entryBinIndexes, long[] entryPositions) {
+        if (entryBinIndexes.length != entryPositions.length) {
+            throw new IllegalArgumentException("entryBinIndexes.length != entryPositions.length");
+        }
+        this.firstBinIndex = firstBinIndex;
+        this.lastBinIndex = lastBinIndex;
+        this.numBins = numBins;
+        this.entryBinIndexes = entryBinIndexes;
+        this.entryPositions = entryPositions;
+    }
+
+    public long getFirstBinIndex() {
+        return firstBinIndex;
+    }
+
+    public long getLastBinIndex() {
+        return lastBinIndex;
+    }
+
+    public long getNumBins() {
+        return numBins;
+    }
+
+    public int getNumEntries() {
+        return entryBinIndexes.length;
+    }
+
+    /**
+     * @return the position to sync to for reading the bins starting with the bin index,
+     * or -1 if there is no entry at or before the bin index
+     */
+    public long getSyncPosition(long binIndex) {
+        int i = Arrays.binarySearch(entryBinIndexes, binIndex);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i < 0 ? -1 : entryPositions[i];
+    }
+
+    public static Path getIndexPath(Path partPath) {
+        return new Path(partPath.getParent(), "_" + partPath.getName() + SUFFIX);
+    }
+
+    public void write(Path partPath, Configuration conf) throws IOException {
+        Path indexPath = getIndexPath(partPath);
+        FileSystem fs = indexPath.getFileSystem(conf);
+        try (FSDataOutputStream out = fs.create(indexPath, true)) {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(VERSION);
+            out.writeLong(firstBinIndex);
+            out.writeLong(lastBinIndex);
+            out.writeLong(numBins);
+            out.writeInt(entryBinIndexes.length);
+            for (int i = 0; i < entryBinIndexes.length; i++) {
+                out.writeLong(entryBinIndexes[i]);
+                out.writeLong(entryPositions[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the part file, or null if there is none
+     */
+    public static L3PartIndex read(Path partPath, Configuration conf) throws IOException {
+        Path indexPath = getIndexPath(partPath);
+        FileSystem fs = indexPath.getFileSystem(conf);
+        try (FSDataInputStream in = fs.open(indexPath)) {
+            if (in.readInt() != MAGIC_NUMBER) {
+                return null;
+            }
+            int version = in.readInt();
+            if (version > VERSION) {
+                return null;
+            }
+            long firstBinIndex = in.readLong();
+            long lastBinIndex = in.readLong();
+            long numBins = in.readLong();
+            if (version < 2) {
+                return new L3PartIndex(firstBinIndex, lastBinIndex, numBins);
+            }
+            int numEntries = in.readInt();
+            long[] entryBinIndexes = new long[numEntries];
+            long[] entryPositions = new long[numEntries];
+            for (int i = 0; i < numEntries; i++) {
+                entryBinIndexes[i] = in.readLong();
+                entryPositions[i] = in.readLong();
+            }
+            return new L3PartIndex(firstBinIndex, lastBinIndex, numBins, entryBinIndexes, entryPositions);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+}
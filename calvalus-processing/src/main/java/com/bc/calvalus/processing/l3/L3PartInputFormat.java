@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import com.bc.calvalus.processing.utils.GeometryUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the temporal bins of L3 part files, like the {@link SequenceFileInputFormat}, but only the bins
+ * of the rows and columns intersecting the envelopes of the regions given by
+ * {@link JobConfigNames#CALVALUS_L3_INPUT_REGION}. Parts and splits without such bins are dropped, and within
+ * a split the reader syncs to the positions recorded in the {@link L3PartIndex} of the part instead of
+ * reading the bins in between.
+ */
+public class L3PartInputFormat extends SequenceFileInputFormat<LongWritable, L3TemporalBin> {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    /**
+     * Restricts the bins read to the ones which may be contained in the regions.
+     * If a region is null, all bins are read.
+     */
+    public static void setInputRegions(Configuration conf, Geometry[] regions) {
+        Geometry[] envelopes = new Geometry[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            if (regions[i] == null) {
+                conf.unset(JobConfigNames.CALVALUS_L3_INPUT_REGION);
+                return;
+            }
+            envelopes[i] = regions[i].getEnvelope();
+        }
+        conf.set(JobConfigNames.CALVALUS_L3_INPUT_REGION, GEOMETRY_FACTORY.createGeometryCollection(envelopes).toText());
+    }
+
+    /**
+     * @return the ranges of the bins to be read, or null for all bins
+     */
+    static BinIndexRanges getInputRanges(Configuration conf) {
+        Geometry region = GeometryUtils.parseWKT(conf.get(JobConfigNames.CALVALUS_L3_INPUT_REGION));
+        if (region == null) {
+            return null;
+        }
+        return BinIndexRanges.forRegion(HadoopBinManager.getBinningConfig(conf).createPlanetaryGrid(), region);
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        List<InputSplit> splits = super.getSplits(job);
+        BinIndexRanges ranges = getInputRanges(job.getConfiguration());
+        if (ranges == null) {
+            return splits;
+        }
+        Map<Path, L3PartIndex> partIndexes = new HashMap<>();
+        List<InputSplit> selectedSplits = new ArrayList<>(splits.size());
+        for (InputSplit split : splits) {
+            Path partPath = ((FileSplit) split).getPath();
+            if (!partIndexes.containsKey(partPath)) {
+                partIndexes.put(partPath, L3PartIndex.read(partPath, job.getConfiguration()));
+            }
+            L3PartIndex partIndex = partIndexes.get(partPath);
+            if (partIndex == null
+                || partIndex.getNumBins() > 0 && ranges.intersects(partIndex.getFirstBinIndex(), partIndex.getLastBinIndex())) {
+                selectedSplits.add(split);
+            }
+        }
+        return selectedSplits;
+    }
+
+    @Override
+    public RecordReader<LongWritable, L3TemporalBin> createRecordReader(InputSplit split, TaskAttemptContext context) throws IOException {
+        BinIndexRanges ranges = getInputRanges(context.getConfiguration());
+        if (ranges == null) {
+            return super.createRecordReader(split, context);
+        }
+        return new RangeRecordReader(ranges);
+    }
+
+    /**
+     * Reads the bins of a split within the ranges, with the split semantics of the {@code SequenceFileRecordReader}:
+     * a split starts at the first sync marker after its start and ends before the first sync marker after its end.
+     */
+    static final class RangeRecordReader extends RecordReader<LongWritable, L3TemporalBin> {
+
+        private final BinIndexRanges ranges;
+        private final L3TemporalBin skippedValue = new L3TemporalBin();
+        private SequenceFile.Reader reader;
+        private L3PartIndex partIndex;
+        private LongWritable key;
+        private L3TemporalBin value;
+        private long start;
+        private long end;
+        private boolean more = true;
+
+        RangeRecordReader(BinIndexRanges ranges) {
+            this.ranges = ranges;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            FileSplit fileSplit = (FileSplit) split;
+            Configuration conf = context.getConfiguration();
+            Path path = fileSplit.getPath();
+            initialize(new SequenceFile.Reader(conf, SequenceFile.Reader.file(path)),
+                       L3PartIndex.read(path, conf),
+                       fileSplit.getStart(), fileSplit.getLength());
+        }
+
+        void initialize(SequenceFile.Reader reader, L3PartIndex partIndex, long splitStart, long splitLength) throws IOException {
+            this.reader = reader;
+            this.partIndex = partIndex;
+            end = splitStart + splitLength;
+            if (splitStart > reader.getPosition()) {
+                reader.sync(splitStart);
+            }
+            start = reader.getPosition();
+            more = start < end;
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (!more) {
+                return false;
+            }
+            if (key == null) {
+                key = new LongWritable();
+            }
+            while (true) {
+                long position = reader.getPosition();
+                if (!reader.next(key) || position >= end && reader.syncSeen()) {
+                    break;
+                }
+                if (ranges.contains(key.get())) {
+                    value = new L3TemporalBin();
+                    reader.getCurrentValue(value);
+                    value.setIndex(key.get());
+                    return true;
+                }
+                if (reader.isBlockCompressed()) {
+                    // the values of a block are read lazily, and so the position advances as with the
+                    // SequenceFileRecordReader only if they are read, otherwise bins at the end of the split
+                    // would be read twice
+                    reader.getCurrentValue(skippedValue);
+                }
+                long nextFirstBinIndex = ranges.getNextFirstBinIndex(key.get());
+                if (nextFirstBinIndex < 0) {
+                    break;
+                }
+                if (partIndex != null) {
+                    long syncPosition = partIndex.getSyncPosition(nextFirstBinIndex);
+                    if (syncPosition > reader.getPosition()) {
+                        if (syncPosition >= end) {
+                            // the next range starts in a following split
+                            break;
+                        }
+                        reader.sync(syncPosition);
+                    }
+                }
+            }
+            more = false;
+            key = null;
+            value = null;
+            return false;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public L3TemporalBin getCurrentValue() {
+            return value;
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            if (end == start) {
+                return 0.0f;
+            }
+            return Math.min(1.0f, (reader.getPosition() - start) / (float) (end - start));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+}
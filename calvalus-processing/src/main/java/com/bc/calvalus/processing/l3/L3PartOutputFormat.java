@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes the temporal bins of the {@link L3Reducer} into a sequence file, like the {@link SequenceFileOutputFormat},
+ * and the {@link L3PartIndex} of the part file when it is closed. Every {@link L3PartIndex#ENTRY_INTERVAL} bins
+ * a sync marker is written and its position recorded in the index.
+ */
+public class L3PartOutputFormat extends SequenceFileOutputFormat<LongWritable, L3TemporalBin> {
+
+    @Override
+    public RecordWriter<LongWritable, L3TemporalBin> getRecordWriter(TaskAttemptContext context) throws IOException {
+        Path partPath = getDefaultWorkFile(context, "");
+        SequenceFile.Writer writer = getSequenceWriter(context, LongWritable.class, L3TemporalBin.class);
+        return new IndexingRecordWriter(writer, partPath, context.getConfiguration());
+    }
+
+    static final class IndexingRecordWriter extends RecordWriter<LongWritable, L3TemporalBin> {
+
+        private final SequenceFile.Writer writer;
+        private final Path partPath;
+        private final Configuration conf;
+        private long firstBinIndex = -1;
+        private long lastBinIndex = -1;
+        private long numBins;
+        private long[] entryBinIndexes = new long[64];
+        private long[] entryPositions = new long[64];
+        private int numEntries;
+
+        IndexingRecordWriter(SequenceFile.Writer writer, Path partPath, Configuration conf) {
+            this.writer = writer;
+            this.partPath = partPath;
+            this.conf = conf;
+        }
+
+        @Override
+        public void write(LongWritable binIndex, L3TemporalBin temporalBin) throws IOException {
+            if (numBins % L3PartIndex.ENTRY_INTERVAL == 0) {
+                if (numEntries == entryBinIndexes.length) {
+                    entryBinIndexes = Arrays.copyOf(entryBinIndexes, 2 * numEntries);
+                    entryPositions = Arrays.copyOf(entryPositions, 2 * numEntries);
+                }
+                // position of the sync marker written before the bin, or before the buffered block of bins
+                entryPositions[numEntries] = writer.getLength();
+                entryBinIndexes[numEntries] = binIndex.get();
+                numEntries++;
+                writer.sync();
+            }
+            writer.append(binIndex, temporalBin);
+            if (numBins == 0) {
+                firstBinIndex = binIndex.get();
+            }
+            lastBinIndex = binIndex.get();
+            numBins++;
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException {
+            writer.close();
+            new L3PartIndex(firstBinIndex, lastBinIndex, numBins,
+                            Arrays.copyOf(entryBinIndexes, numEntries),
+                            Arrays.copyOf(entryPositions, numEntries)).write(partPath, conf);
+        }
+    }
+}
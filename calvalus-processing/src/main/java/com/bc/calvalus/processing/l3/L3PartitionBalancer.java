@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.esa.snap.binning.PlanetaryGrid;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Computes the start rows of the L3 partitions such that each reducer receives about the same number of bins.
+ * <p>
+ * The weight of a row is taken from a bin-density histogram sampled from the part files of a prior L3 job
+ * with the same grid ({@link JobConfigNames#CALVALUS_L3_BALANCE_HISTOGRAM_INPUT}). Without prior output
+ * the number of bins of a row is used as its weight, which accounts for the rows shrinking towards the poles.
+ * The start rows are passed to the {@link L3Partitioner} by {@link JobConfigNames#CALVALUS_L3_PARTITION_START_ROWS}.
+ */
+public class L3PartitionBalancer {
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final long BYTES_PER_SAMPLE = 8 * 1024 * 1024;
+    private static final int KEYS_PER_SAMPLE = 1000;
+
+    /**
+     * Sets the start rows of the partitions in the job configuration.
+     */
+    public static void configureJob(Configuration jobConfig, int numPartitions) throws IOException {
+        L3Partitioner partitioner = new L3Partitioner();
+        partitioner.setConf(jobConfig);
+        PlanetaryGrid planetaryGrid = partitioner.getPlanetaryGrid();
+        String histogramInput = jobConfig.get(JobConfigNames.CALVALUS_L3_BALANCE_HISTOGRAM_INPUT);
+        long[] rowWeights = null;
+        if (histogramInput != null) {
+            rowWeights = sampleRowHistogram(new Path(histogramInput), jobConfig, planetaryGrid);
+        }
+        if (rowWeights == null) {
+            rowWeights = binCountHistogram(planetaryGrid);
+        }
+        int[] startRows = computeStartRows(rowWeights, partitioner.getMinRowIndex(), partitioner.getNumRowsCovered(), numPartitions);
+        StringBuilder accu = new StringBuilder();
+        for (int startRow : startRows) {
+            if (accu.length() > 0) {
+                accu.append(',');
+            }
+            accu.append(startRow);
+        }
+        jobConfig.set(JobConfigNames.CALVALUS_L3_PARTITION_START_ROWS, accu.toString());
+        LOG.info("partition start rows " + accu + " with expected imbalance " +
+                 String.format("%.2f", computeImbalance(rowWeights, startRows, partitioner.getMinRowIndex() + partitioner.getNumRowsCovered())));
+    }
+
+    /**
+     * Uses the number of bins per row as weight.
+     */
+    static long[] binCountHistogram(PlanetaryGrid planetaryGrid) {
+        long[] rowWeights = new long[planetaryGrid.getNumRows()];
+        for (int row = 0; row < rowWeights.length; row++) {
+            rowWeights[row] = planetaryGrid.getNumCols(row);
+        }
+        return rowWeights;
+    }
+
+    /**
+     * Counts the bins per row of samples of the keys of the part files in a directory.
+     * The samples are read after sync marks evenly distributed over each file.
+     *
+     * @return the histogram, or null if there are no part files
+     */
+    static long[] sampleRowHistogram(Path partsDir, Configuration conf, PlanetaryGrid planetaryGrid) throws IOException {
+        FileSystem fs = partsDir.getFileSystem(conf);
+        FileStatus[] parts = fs.globStatus(new Path(partsDir, "part-r-*"));
+        if (parts == null || parts.length == 0) {
+            LOG.warning("no part files found in " + partsDir + ", using bin counts as row weights");
+            return null;
+        }
+        long[] rowWeights = new long[planetaryGrid.getNumRows()];
+        LongWritable binIndex = new LongWritable();
+        long numKeys = 0;
+        for (FileStatus part : parts) {
+            long length = part.getLen();
+            int numSamples = (int) Math.max(1, length / BYTES_PER_SAMPLE);
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part.getPath()))) {
+                for (int sample = 0; sample < numSamples; sample++) {
+                    if (sample > 0) {
+                        reader.sync(length * sample / numSamples);
+                    }
+                    for (int k = 0; k < KEYS_PER_SAMPLE && reader.next(binIndex); k++) {
+                        long idx = binIndex.get();
+                        if (idx >= 0 && idx < planetaryGrid.getNumBins()) {
+                            rowWeights[planetaryGrid.getRowIndex(idx)]++;
+                            numKeys++;
+                        }
+                    }
+                }
+            }
+        }
+        LOG.info(numKeys + " bin indexes sampled from " + parts.length + " part files in " + partsDir);
+        return numKeys > 0 ? rowWeights : null;
+    }
+
+    /**
+     * Splits the covered rows into partitions of about equal weight.
+     */
+    static int[] computeStartRows(long[] rowWeights, int minRowIndex, int numRowsCovered, int numPartitions) {
+        int maxRowIndex = Math.min(minRowIndex + numRowsCovered, rowWeights.length);
+        long totalWeight = 0;
+        for (int row = minRowIndex; row < maxRowIndex; row++) {
+            totalWeight += rowWeights[row];
+        }
+        int[] startRows = new int[numPartitions];
+        startRows[0] = minRowIndex;
+        int row = minRowIndex;
+        long accumulatedWeight = 0;
+        for (int p = 1; p < numPartitions; p++) {
+            double partitionStartWeight = (double) totalWeight * p / numPartitions;
+            while (row < maxRowIndex && accumulatedWeight + rowWeights[row] / 2.0 < partitionStartWeight) {
+                accumulatedWeight += rowWeights[row];
+                row++;
+            }
+            startRows[p] = Math.max(row, startRows[p - 1]);
+        }
+        return startRows;
+    }
+
+    /**
+     * @return the ratio of the maximum and the mean weight of the partitions
+     */
+    static double computeImbalance(long[] rowWeights, int[] startRows, int endRowIndex) {
+        long maxWeight = 0;
+        long totalWeight = 0;
+        for (int p = 0; p < startRows.length; p++) {
+            int stopRow = p + 1 < startRows.length ? startRows[p + 1] : Math.min(endRowIndex, rowWeights.length);
+            long weight = 0;
+            for (int row = startRows[p]; row < stopRow; row++) {
+                weight += rowWeights[row];
+            }
+            maxWeight = Math.max(maxWeight, weight);
+            totalWeight += weight;
+        }
+        return totalWeight > 0 ? (double) maxWeight * startRows.length / totalWeight : 1.0;
+    }
+}
@@ -40,26 +40,58 @@ public class L3Partitioner extends Partitioner<LongWritable, L3SpatialBin> imple
     private PlanetaryGrid planetaryGrid;
     private int minRowIndex;
     private int numRowsCovered;
+    private int[] partitionStartRows;
+    private long[] partitionStartBinIndexes;
 
     @Override
     public int getPartition(LongWritable binIndex, L3SpatialBin spatialBin, int numPartitions) {
         long idx = binIndex.get();
-        int partition;
         // for metadata contributions
         if (idx < 0) {
-            partition = 0;
-        } else {
-            int row = planetaryGrid.getRowIndex(idx);
-            partition = ((row - minRowIndex) * numPartitions) / numRowsCovered;
-            if (partition < 0) {
-                partition = 0;
-            } else if (partition >= numPartitions) {
-                partition = numPartitions - 1;
+            return 0;
+        }
+        if (partitionStartBinIndexes == null || partitionStartBinIndexes.length != numPartitions) {
+            partitionStartBinIndexes = computePartitionStartBinIndexes(numPartitions);
+        }
+        // last partition starting at or before the bin index, avoids the row lookup per bin
+        int partition = 0;
+        int low = 1;
+        int high = numPartitions - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (partitionStartBinIndexes[mid] <= idx) {
+                partition = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
         }
         return partition;
     }
 
+    /**
+     * Computes the first bin index of each partition. Partition p starts with the first row r
+     * with ((r - minRowIndex) * numPartitions) / numRowsCovered >= p,
+     * or with the row configured by the {@link L3PartitionBalancer}.
+     */
+    long[] computePartitionStartBinIndexes(int numPartitions) {
+        long[] startBinIndexes = new long[numPartitions];
+        for (int p = 1; p < numPartitions; p++) {
+            long row;
+            if (partitionStartRows != null && partitionStartRows.length == numPartitions) {
+                row = partitionStartRows[p];
+            } else {
+                row = minRowIndex + ((long) p * numRowsCovered + numPartitions - 1) / numPartitions;
+            }
+            if (row < planetaryGrid.getNumRows()) {
+                startBinIndexes[p] = planetaryGrid.getFirstBinIndex((int) row);
+            } else {
+                startBinIndexes[p] = Long.MAX_VALUE;
+            }
+        }
+        return startBinIndexes;
+    }
+
     @Override
     public void setConf(Configuration conf) {
         this.conf = conf;
@@ -80,6 +112,11 @@ public class L3Partitioner extends Partitioner<LongWritable, L3SpatialBin> imple
             numRowsCovered = planetaryGrid.getNumRows();
             minRowIndex = 0;
         }
+        partitionStartRows = conf.getInts(JobConfigNames.CALVALUS_L3_PARTITION_START_ROWS);
+        if (partitionStartRows.length == 0) {
+            partitionStartRows = null;
+        }
+        partitionStartBinIndexes = null;
     }
 
     @Override
@@ -90,4 +127,12 @@ public class L3Partitioner extends Partitioner<LongWritable, L3SpatialBin> imple
     PlanetaryGrid getPlanetaryGrid() {
         return planetaryGrid;
     }
+
+    int getMinRowIndex() {
+        return minRowIndex;
+    }
+
+    int getNumRowsCovered() {
+        return numRowsCovered;
+    }
 }
@@ -179,10 +179,14 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
     protected void reduce(LongWritable binIndex, Iterable<L3SpatialBin> spatialBins, Context context) throws IOException, InterruptedException {
         TemporalBin temporalBin = aggregate(binIndex, spatialBins);
         if (temporalBin != null) {
-            context.write(binIndex, (L3TemporalBin) temporalBin);
+            write(binIndex, (L3TemporalBin) temporalBin, context);
         }
     }
 
+    private void write(LongWritable binIndex, L3TemporalBin temporalBin, Context context) throws IOException, InterruptedException {
+        context.write(binIndex, temporalBin);
+    }
+
     private TemporalBin aggregate(LongWritable binIndex, Iterable<L3SpatialBin> spatialBins) throws IOException, InterruptedException {
         final long idx = binIndex.get();
         if (idx == L3SpatialBin.METADATA_MAGIC_NUMBER) {
@@ -213,13 +217,13 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
 
     @Override
     protected void cleanup(Context context) throws IOException, InterruptedException {
+        final Path workOutputPath = FileOutputFormat.getWorkOutputPath(context);
         // only write this file in the first reducer
         final int partition = context.getTaskAttemptID().getTaskID().getId();
         if (partition == 0) {
             final Map<String, String> metadata = ProcessingMetadata.config2metadata(conf, JobConfigNames.LEVEL3_METADATA_KEYS);
             final String aggregatedMetadataXml = metadataSerializer.toXml(processingGraphMetadata);
             metadata.put(JobConfigNames.PROCESSING_HISTORY, aggregatedMetadataXml);
-            final Path workOutputPath = FileOutputFormat.getWorkOutputPath(context);
             ProcessingMetadata.write(workOutputPath, conf, metadata);
         }
     }
@@ -307,7 +311,7 @@ public class L3Reducer extends Reducer<LongWritable, L3SpatialBin, LongWritable,
                 LongWritable binIndex = context.getCurrentKey();
                 Iterable<L3SpatialBin> spatialBins = context.getValues();
                 TemporalBin temporalBin = aggregate(binIndex, spatialBins);
-                context.write(binIndex, (L3TemporalBin) temporalBin);
+                write(binIndex, (L3TemporalBin) temporalBin, context);
                 return temporalBin;
             } catch (Exception e) {
                 throw new RuntimeException(e);
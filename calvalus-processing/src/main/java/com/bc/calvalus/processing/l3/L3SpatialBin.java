@@ -1,6 +1,7 @@
 package com.bc.calvalus.processing.l3;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.esa.snap.binning.SpatialBin;
 import org.esa.snap.binning.support.GrowableVector;
 
@@ -13,6 +14,7 @@ import java.util.Arrays;
 /**
  * A Hadoop-serializable, spatial bin.
  * The class is final for allowing method in-lining.
+ * Bins are written in the {@link CompactBinFormat}, the legacy format is still read.
  *
  * @author Norman Fomferra
  * @author Martin
@@ -48,7 +50,19 @@ public final class L3SpatialBin extends SpatialBin implements Writable {
     public void write(DataOutput dataOutput) throws IOException {
          // Note, we don't serialise the index, because it is usually the MapReduce key
         if (metadata == null) {
-            super.write(dataOutput);
+            dataOutput.writeByte(CompactBinFormat.VERSION_1);
+            WritableUtils.writeVInt(dataOutput, getNumObs());
+            CompactBinFormat.writeFeatureValues(dataOutput, getFeatureValues());
+            final int numVectors = vectors != null ? vectors.length : 0;
+            WritableUtils.writeVInt(dataOutput, numVectors);
+            for (int i = 0; i < numVectors; i++) {
+                final GrowableVector vector = vectors[i];
+                final int vectorLength = vector.size();
+                WritableUtils.writeVInt(dataOutput, vectorLength);
+                for (int k = 0; k < vectorLength; k++) {
+                    dataOutput.writeFloat(vector.get(k));
+                }
+            }
         } else {
             dataOutput.writeInt(METADATA_MAGIC_NUMBER);
             int chunkSize = 65535 / 3;  // UTF may blow up the string to trice the size in bytes
@@ -66,8 +80,22 @@ public final class L3SpatialBin extends SpatialBin implements Writable {
 
      public void readFields(DataInput dataInput) throws IOException {
          // // Note, we don't serialise the index, because it is usually the MapReduce key
-         setNumObs(dataInput.readInt());
+         final int firstByte = dataInput.readUnsignedByte();
+         if (firstByte == CompactBinFormat.VERSION_1) {
+             metadata = null;
+             setNumObs(WritableUtils.readVInt(dataInput));
+             final int numFeatures = CompactBinFormat.readNumFeatures(dataInput);
+             if (getFeatureValues() == null || getFeatureValues().length != numFeatures) {
+                 setNumFeatures(numFeatures);
+             }
+             CompactBinFormat.readFeatureValues(dataInput, getFeatureValues());
+             readVectors(dataInput, WritableUtils.readVInt(dataInput), true);
+             return;
+         }
+         // legacy format
+         setNumObs(CompactBinFormat.readLegacyInt(firstByte, dataInput));
          if (getNumObs() != METADATA_MAGIC_NUMBER) {
+             metadata = null;
              final int numFeatures = dataInput.readInt();
              if (getFeatureValues() == null || getFeatureValues().length != numFeatures) {
                  setNumFeatures(numFeatures);
@@ -75,17 +103,7 @@ public final class L3SpatialBin extends SpatialBin implements Writable {
              for (int i = 0; i < numFeatures; i++) {
                  getFeatureValues()[i] = dataInput.readFloat();
              }
-
-             final int numVectors = dataInput.readInt();
-             vectors = new GrowableVector[numVectors];
-             for (int i = 0; i < numVectors; i++) {
-                 final int vectorLength = dataInput.readInt();
-                 final GrowableVector vector = new GrowableVector(vectorLength);
-                 vectors[i] = vector;
-                 for (int k = 0; k < vectorLength; k++) {
-                     vector.add(dataInput.readFloat());
-                 }
-             }
+             readVectors(dataInput, dataInput.readInt(), false);
          } else {
              int noOfChunks = dataInput.readInt();
              StringBuffer accu = new StringBuffer();
@@ -96,6 +114,25 @@ public final class L3SpatialBin extends SpatialBin implements Writable {
          }
      }
 
+     private void readVectors(DataInput dataInput, int numVectors, boolean compact) throws IOException {
+         // the array of vectors is reused. A GrowableVector cannot be cleared, so only empty vectors are kept,
+         // the others are allocated with the capacity needed, which avoids growing them while reading.
+         if (vectors == null || vectors.length != numVectors) {
+             vectors = new GrowableVector[numVectors];
+         }
+         for (int i = 0; i < numVectors; i++) {
+             final int vectorLength = compact ? WritableUtils.readVInt(dataInput) : dataInput.readInt();
+             GrowableVector vector = vectors[i];
+             if (vector == null || vector.size() > 0 || vectorLength > 0) {
+                 vector = new GrowableVector(vectorLength);
+                 vectors[i] = vector;
+             }
+             for (int k = 0; k < vectorLength; k++) {
+                 vector.add(dataInput.readFloat());
+             }
+         }
+     }
+
      public static SpatialBin read(DataInput dataInput) throws IOException {
          return read(-1L, dataInput);
      }
@@ -1,6 +1,7 @@
 package com.bc.calvalus.processing.l3;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.esa.snap.binning.TemporalBin;
 
 import java.io.DataInput;
@@ -11,6 +12,7 @@ import java.io.IOException;
 /**
  * A Hadoop-serializable, temporal bin.
  * The class is final for allowing method in-lining.
+ * Bins are written in the {@link CompactBinFormat}, the legacy format is still read.
  *
  * @author Norman Fomferra
  */
@@ -26,12 +28,37 @@ public final class L3TemporalBin extends TemporalBin implements Writable {
 
     @Override
     public void write(DataOutput dataOutput) throws IOException {
-        super.write(dataOutput);
+        // Note, we don't serialise the index, because it is usually the MapReduce key
+        dataOutput.writeByte(CompactBinFormat.VERSION_1);
+        WritableUtils.writeVInt(dataOutput, getNumObs());
+        WritableUtils.writeVInt(dataOutput, getNumPasses());
+        CompactBinFormat.writeFeatureValues(dataOutput, getFeatureValues());
     }
 
     @Override
     public void readFields(DataInput dataInput) throws IOException {
-        super.readFields(dataInput);
+        final int firstByte = dataInput.readUnsignedByte();
+        final int numFeatures;
+        if (firstByte == CompactBinFormat.VERSION_1) {
+            setNumObs(WritableUtils.readVInt(dataInput));
+            setNumPasses(WritableUtils.readVInt(dataInput));
+            numFeatures = CompactBinFormat.readNumFeatures(dataInput);
+        } else {
+            // legacy format
+            setNumObs(CompactBinFormat.readLegacyInt(firstByte, dataInput));
+            setNumPasses(dataInput.readInt());
+            numFeatures = dataInput.readInt();
+        }
+        if (getFeatureValues() == null || getFeatureValues().length != numFeatures) {
+            setNumFeatures(numFeatures);
+        }
+        if (firstByte == CompactBinFormat.VERSION_1) {
+            CompactBinFormat.readFeatureValues(dataInput, getFeatureValues());
+        } else {
+            for (int i = 0; i < numFeatures; i++) {
+                getFeatureValues()[i] = dataInput.readFloat();
+            }
+        }
     }
 
     public static L3TemporalBin read(DataInput dataInput) throws IOException {
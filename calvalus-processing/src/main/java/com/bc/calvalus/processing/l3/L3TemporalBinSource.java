@@ -17,6 +17,8 @@
 package com.bc.calvalus.processing.l3;
 
 import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
+import com.bc.calvalus.processing.utils.GeometryUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -27,6 +29,7 @@ import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.esa.snap.binning.TemporalBin;
 import org.esa.snap.binning.TemporalBinSource;
+import org.locationtech.jts.geom.Geometry;
 
 import java.io.IOException;
 import java.text.MessageFormat;
@@ -34,10 +37,21 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
  * For formatting the results of a SNAP Level 3 Hadoop Job.
+ * <p>
+ * The parts are ordered by the bin index ranges recorded in the {@link L3PartIndex} files written by the
+ * {@link L3PartOutputFormat} of the {@link L3Reducer}. The parts have disjoint bin index ranges, hence they are
+ * returned one after the other, while the following parts are already read ahead by a pool of threads
+ * ({@link JobConfigNames#CALVALUS_L3_FORMAT_READ_THREADS}).
+ * If a region is given ({@link JobConfigNames#CALVALUS_REGION_GEOMETRY}), only the bins of the rows intersecting
+ * the region are read, parts without such bins are skipped, see {@link BinIndexRanges#forRegion}.
  *
  * @author Norman Fomferra
  */
@@ -45,6 +59,8 @@ public class L3TemporalBinSource implements TemporalBinSource {
 
     private static final Logger LOG = CalvalusLogger.getLogger();
     private static final String PART_FILE_PREFIX = "part-";
+    private static final int DEFAULT_READ_THREADS = 4;
+    private static final int QUEUE_CAPACITY = 16;
 
     private final Configuration configuration;
     private final Path partsDir;
@@ -52,6 +68,10 @@ public class L3TemporalBinSource implements TemporalBinSource {
     private final Mapper.Context context;
     private List<PartFile> partFiles;
     private FileSystem hdfs;
+    private ExecutorService executorService;
+    private PrefetchingBinIterator[] prefetchingIterators;
+    private int numReadThreads;
+    private BinIndexRanges ranges;
 
     public L3TemporalBinSource(Path partsDir, Mapper.Context context) {
         this.context = context;
@@ -70,51 +90,115 @@ public class L3TemporalBinSource implements TemporalBinSource {
                 return path.getName().startsWith(PART_FILE_PREFIX);
             }
         });
+        numReadThreads = Math.max(1, configuration.getInt(JobConfigNames.CALVALUS_L3_FORMAT_READ_THREADS, DEFAULT_READ_THREADS));
+        executorService = Executors.newFixedThreadPool(numReadThreads);
+        Geometry regionGeometry = GeometryUtils.createGeometry(configuration.get(JobConfigNames.CALVALUS_REGION_GEOMETRY));
+        ranges = BinIndexRanges.forRegion(HadoopBinManager.getBinningConfig(configuration).createPlanetaryGrid(), regionGeometry);
         partFiles = readFirstIndices(parts);
 
-        LOG.info(MessageFormat.format("start reprojection, collecting {0} parts", parts.length));
+        LOG.info(MessageFormat.format("start reprojection, collecting {0} parts", partFiles.size()));
 
         Collections.sort(partFiles);
 
+        prefetchingIterators = new PrefetchingBinIterator[partFiles.size()];
+        for (int index = 0; index < Math.min(numReadThreads, partFiles.size()); index++) {
+            prefetch(index);
+        }
         return partFiles.size();
     }
 
     private List<PartFile> readFirstIndices(FileStatus[] parts) throws IOException {
+        List<Future<PartFile>> futures = new ArrayList<>(parts.length);
+        for (final FileStatus part : parts) {
+            futures.add(executorService.submit(() -> readFirstIndex(part.getPath())));
+        }
         List<PartFile> partFiles = new ArrayList<PartFile>(parts.length);
-        for (FileStatus part : parts) {
-            SequenceFile.Reader reader = new SequenceFile.Reader(hdfs, part.getPath(), configuration);
-            try {
-                LongWritable key = new LongWritable(-42);
-                boolean more = reader.next(key);
-                if (more && key.get() != -42) {
-                    partFiles.add(new PartFile(part.getPath(), key.get()));
+        try {
+            for (Future<PartFile> future : futures) {
+                PartFile partFile = future.get();
+                if (partFile != null) {
+                    partFiles.add(partFile);
                 }
-            } finally {
-                reader.close();
             }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
         }
         return partFiles;
     }
 
+    /**
+     * @return the part with its first bin index, or null if the part is empty or has no bins within the ranges
+     */
+    private PartFile readFirstIndex(Path partPath) throws IOException {
+        L3PartIndex partIndex = L3PartIndex.read(partPath, configuration);
+        if (partIndex != null) {
+            if (partIndex.getNumBins() == 0
+                || ranges != null && !ranges.intersects(partIndex.getFirstBinIndex(), partIndex.getLastBinIndex())) {
+                return null;
+            }
+            return new PartFile(partPath, partIndex.getFirstBinIndex(), partIndex);
+        }
+        // parts of older jobs have no index
+        SequenceFile.Reader reader = new SequenceFile.Reader(hdfs, partPath, configuration);
+        try {
+            LongWritable key = new LongWritable(-42);
+            boolean more = reader.next(key);
+            if (more && key.get() != -42) {
+                return new PartFile(partPath, key.get(), null);
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void prefetch(int index) {
+        PartFile partFile = partFiles.get(index);
+        PrefetchingBinIterator iterator = new PrefetchingBinIterator(partFile.getPath(), configuration, QUEUE_CAPACITY,
+                                                                     partFile.getPartIndex(), ranges);
+        prefetchingIterators[index] = iterator;
+        executorService.submit(iterator);
+    }
+
     @Override
     public Iterator<? extends TemporalBin> getPart(int index) throws IOException {
         context.setStatus(String.format("part %d/%d", (index + 1), (partFiles.size() + 1)));
         context.progress();
         Path partFile = partFiles.get(index).getPath();
         LOG.info(MessageFormat.format("reading and reprojecting part {0}", partFile));
-        SequenceFile.Reader reader = new SequenceFile.Reader(hdfs, partFile, configuration);
-        return new SequenceFileBinIterator(reader);
+        if (prefetchingIterators[index] == null) {
+            prefetch(index);
+        }
+        int ahead = index + numReadThreads;
+        if (ahead < partFiles.size() && prefetchingIterators[ahead] == null) {
+            prefetch(ahead);
+        }
+        return prefetchingIterators[index];
     }
 
     @Override
     public void partProcessed(int index, Iterator<? extends TemporalBin> part) throws IOException {
         context.progress();
-        ((SequenceFileBinIterator) part).getReader().close();
+        ((PrefetchingBinIterator) part).stop();
+        prefetchingIterators[index] = null;
     }
 
     @Override
     public void close() {
         context.progress();
+        if (executorService != null) {
+            for (PrefetchingBinIterator iterator : prefetchingIterators) {
+                if (iterator != null) {
+                    iterator.stop();
+                }
+            }
+            executorService.shutdown();
+        }
         long stopTime = System.nanoTime();
         LOG.info(MessageFormat.format("stop reprojection after {0} sec", (stopTime - startTime) / 1E9));
     }
@@ -123,16 +207,22 @@ public class L3TemporalBinSource implements TemporalBinSource {
 
         private final Path path;
         private final long firstIndex;
+        private final L3PartIndex partIndex;
 
-        public PartFile(Path path, long firstIndex) {
+        public PartFile(Path path, long firstIndex, L3PartIndex partIndex) {
             this.path = path;
             this.firstIndex = firstIndex;
+            this.partIndex = partIndex;
         }
 
         public Path getPath() {
             return path;
         }
 
+        public L3PartIndex getPartIndex() {
+            return partIndex;
+        }
+
         @Override
         public int compareTo(PartFile other) {
             long thisVal = this.firstIndex;
@@ -23,7 +23,6 @@ import com.bc.calvalus.processing.hadoop.HadoopWorkflowItem;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
 import java.io.IOException;
 
@@ -78,16 +77,23 @@ public class L3WorkflowItem extends HadoopWorkflowItem {
 
         job.setInputFormatClass(getInputFormatClass(jobConfig));
         job.setNumReduceTasks(jobConfig.getInt(JobConfigNames.CALVALUS_L3_REDUCERS, 8));
+        if (jobConfig.getBoolean(JobConfigNames.CALVALUS_L3_BALANCE_PARTITIONS, false)
+                && jobConfig.get("mapreduce.job.partitioner.class") == null) {
+            L3PartitionBalancer.configureJob(jobConfig, job.getNumReduceTasks());
+        }
         job.setMapperClass(L3Mapper.class);
         job.setMapOutputKeyClass(LongWritable.class);
         job.setMapOutputValueClass(L3SpatialBin.class);
         if (jobConfig.get("mapreduce.job.partitioner.class") == null) {
             job.setPartitionerClass(L3Partitioner.class);
         }
+        if (jobConfig.getBoolean(JobConfigNames.CALVALUS_L3_COMBINER, false)) {
+            job.setCombinerClass(L3Combiner.class);
+        }
         job.setReducerClass(L3Reducer.class);
         job.setOutputKeyClass(LongWritable.class);
         job.setOutputValueClass(L3TemporalBin.class);
-        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setOutputFormatClass(L3PartOutputFormat.class);
 
         JobUtils.clearAndSetOutputDir(getOutputDir(), job, this);
     }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An iterator for temporal bins of a Hadoop sequence file which are read ahead by another thread.
+ * The bins are passed in chunks through a bounded queue, so the reader blocks if the consumer falls behind.
+ * An I/O error of the reader is thrown by the consumer as {@link IllegalStateException},
+ * other exceptions and errors of the reader are rethrown by the consumer as they are.
+ * The bins may be restricted to ranges of bin indexes, see {@link SequenceFileBinIterator}.
+ */
+final class PrefetchingBinIterator implements Iterator<L3TemporalBin>, Runnable {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final List<L3TemporalBin> END = Collections.emptyList();
+
+    private final Path path;
+    private final Configuration conf;
+    private final L3PartIndex partIndex;
+    private final BinIndexRanges ranges;
+    private final BlockingQueue<List<L3TemporalBin>> queue;
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+    private List<L3TemporalBin> chunk;
+    private int chunkPos;
+
+    PrefetchingBinIterator(Path path, Configuration conf, int queueCapacity) {
+        this(path, conf, queueCapacity, null, null);
+    }
+
+    /**
+     * @param partIndex the index of the part file, or null
+     * @param ranges    the ranges of the bins to be returned, or null for all bins
+     */
+    PrefetchingBinIterator(Path path, Configuration conf, int queueCapacity, L3PartIndex partIndex, BinIndexRanges ranges) {
+        this.path = path;
+        this.conf = conf;
+        this.partIndex = partIndex;
+        this.ranges = ranges;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    public IOException getIOException() {
+        return failure instanceof IOException ? (IOException) failure : null;
+    }
+
+    @Override
+    public void run() {
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(path))) {
+            boolean more = true;
+            while (more && !stopped) {
+                List<L3TemporalBin> bins = new ArrayList<>(CHUNK_SIZE);
+                while (bins.size() < CHUNK_SIZE) {
+                    LongWritable binIndex = new LongWritable();
+                    L3TemporalBin temporalBin = new L3TemporalBin();
+                    if (ranges == null) {
+                        more = reader.next(binIndex, temporalBin);
+                    } else {
+                        more = SequenceFileBinIterator.nextInRanges(reader, partIndex, ranges, binIndex);
+                        if (more) {
+                            reader.getCurrentValue(temporalBin);
+                        }
+                    }
+                    if (!more) {
+                        break;
+                    }
+                    temporalBin.setIndex(binIndex.get());
+                    bins.add(temporalBin);
+                }
+                if (!bins.isEmpty()) {
+                    put(bins);
+                }
+            }
+        } catch (Throwable t) {
+            // recorded before END is put, so the consumer cannot take a failed part for a complete one
+            failure = t;
+        } finally {
+            put(END);
+        }
+    }
+
+    /**
+     * Stops reading ahead. The reader is closed by the reading thread.
+     */
+    void stop() {
+        stopped = true;
+        queue.clear();
+    }
+
+    @Override
+    public boolean hasNext() {
+        maybeTakeChunk();
+        return chunk != END;
+    }
+
+    @Override
+    public L3TemporalBin next() {
+        maybeTakeChunk();
+        if (chunk == END) {
+            throw new NoSuchElementException();
+        }
+        return chunk.get(chunkPos++);
+    }
+
+    @Override
+    public void remove() {
+        throw new IllegalStateException("remove() not supported");
+    }
+
+    private void maybeTakeChunk() {
+        if (chunk == END) {
+            throwFailure();
+            return;
+        }
+        if (chunk == null || chunkPos == chunk.size()) {
+            try {
+                chunk = queue.take();
+                chunkPos = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            if (chunk == END) {
+                throwFailure();
+            }
+        }
+    }
+
+    private void throwFailure() {
+        final Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+
+    private void put(List<L3TemporalBin> bins) {
+        try {
+            while (!stopped) {
+                if (queue.offer(bins, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
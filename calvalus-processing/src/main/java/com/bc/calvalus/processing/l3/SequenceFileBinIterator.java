@@ -9,18 +9,34 @@ import java.util.NoSuchElementException;
 
 /**
  * An iterator for temporal bins originating from a Hadoop sequence file.
+ * <p>
+ * The iterator may be restricted to ranges of bin indexes. Bins outside of the ranges are skipped without
+ * reading their values. With the {@link L3PartIndex} of the part file, the reader syncs to the last entry
+ * before the next range instead of reading the bins before it.
  *
  * @author Norman
  */
 public final class SequenceFileBinIterator implements Iterator<L3TemporalBin> {
     private final SequenceFile.Reader reader;
+    private final L3PartIndex partIndex;
+    private final BinIndexRanges ranges;
     private L3TemporalBin temporalBin;
     private boolean mustRead;
     private boolean lastItemValid;
     private IOException ioException;
 
     SequenceFileBinIterator(SequenceFile.Reader reader) {
+        this(reader, null, null);
+    }
+
+    /**
+     * @param partIndex the index of the part file, or null
+     * @param ranges    the ranges of the bins to be returned, or null for all bins
+     */
+    public SequenceFileBinIterator(SequenceFile.Reader reader, L3PartIndex partIndex, BinIndexRanges ranges) {
         this.reader = reader;
+        this.partIndex = partIndex;
+        this.ranges = ranges;
         mustRead = true;
         lastItemValid = true;
     }
@@ -55,7 +71,14 @@ public final class SequenceFileBinIterator implements Iterator<L3TemporalBin> {
             try {
                 LongWritable binIndex = new LongWritable();
                 temporalBin = new L3TemporalBin();
-                lastItemValid = reader.next(binIndex, temporalBin);
+                if (ranges == null) {
+                    lastItemValid = reader.next(binIndex, temporalBin);
+                } else {
+                    lastItemValid = nextInRanges(reader, partIndex, ranges, binIndex);
+                    if (lastItemValid) {
+                        reader.getCurrentValue(temporalBin);
+                    }
+                }
                 if (lastItemValid) {
                     temporalBin.setIndex(binIndex.get());
                 }
@@ -66,6 +89,30 @@ public final class SequenceFileBinIterator implements Iterator<L3TemporalBin> {
         }
     }
 
+    /**
+     * Reads the key of the next bin within the ranges, its value is read by {@link SequenceFile.Reader#getCurrentValue}.
+     *
+     * @return false if there is no further bin within the ranges
+     */
+    static boolean nextInRanges(SequenceFile.Reader reader, L3PartIndex partIndex, BinIndexRanges ranges, LongWritable binIndex) throws IOException {
+        while (reader.next(binIndex)) {
+            if (ranges.contains(binIndex.get())) {
+                return true;
+            }
+            long nextFirstBinIndex = ranges.getNextFirstBinIndex(binIndex.get());
+            if (nextFirstBinIndex < 0) {
+                return false;
+            }
+            if (partIndex != null) {
+                long syncPosition = partIndex.getSyncPosition(nextFirstBinIndex);
+                if (syncPosition > reader.getPosition()) {
+                    reader.sync(syncPosition);
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public void remove() {
         throw new IllegalStateException("remove() not supported");
@@ -24,12 +24,29 @@ public abstract class AbstractNetcdfCellReader {
 
     public abstract String[] getFeatureNames();
 
+    /**
+     * @return the number of bins read, of the range if a range is selected
+     */
     public abstract int getNumReadBins();
 
     public abstract int getNumRows();
 
     public abstract int getNumBins();
 
+    /**
+     * Selects a range of the rows of the file to be read. The rows are distributed on the ranges by the bins they
+     * contain, a row belongs to the range containing its first bin. Must be called before the first bin is read.
+     *
+     * @param rangeIndex the index of the range
+     * @param numRanges  the number of ranges
+     */
+    public abstract void selectRange(int rangeIndex, int numRanges) throws IOException;
+
+    /**
+     * @return the number of bins of the selected range, may be estimated, or of the file if no range is selected
+     */
+    public abstract int getNumRangeBins();
+
     public abstract Date getStartDate();
 
     public abstract Date getEndDate();
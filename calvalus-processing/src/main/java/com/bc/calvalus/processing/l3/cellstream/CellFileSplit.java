@@ -18,19 +18,24 @@ package com.bc.calvalus.processing.l3.cellstream;
 
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * An input format specific for file containing cell files.
- * It is capable of transferring metadata from the input format to the mapper
+ * It is capable of transferring metadata from the input format to the mapper.
+ * A NetCDF cell file may be split into ranges of bin rows, the split then reads the range with the given index.
  *
  * @author MarcoZ
  */
 public class CellFileSplit extends FileSplit {
 
     private Map<String, String> metadata; // not serialized
+    private int rangeIndex;
+    private int numRanges;
 
     /**
      * For deserialize only!
@@ -45,7 +50,42 @@ public class CellFileSplit extends FileSplit {
      * @param fileSplit  the file split
      */
     public CellFileSplit(FileSplit fileSplit) throws IOException {
+        this(fileSplit, 0, 1);
+    }
+
+    /**
+     * Constructs a split for a range of the bin rows of a NetCDF cell file
+     *
+     * @param fileSplit  the file split
+     * @param rangeIndex the index of the range of the split
+     * @param numRanges  the number of ranges the file is split into
+     */
+    public CellFileSplit(FileSplit fileSplit, int rangeIndex, int numRanges) throws IOException {
         super(fileSplit.getPath(), fileSplit.getStart(), fileSplit.getLength(), fileSplit.getLocations());
+        this.rangeIndex = rangeIndex;
+        this.numRanges = numRanges;
+    }
+
+    public int getRangeIndex() {
+        return rangeIndex;
+    }
+
+    public int getNumRanges() {
+        return numRanges;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeInt(rangeIndex);
+        out.writeInt(numRanges);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        rangeIndex = in.readInt();
+        numRanges = in.readInt();
     }
 
     public Map<String, String> getMetadata() {
@@ -27,6 +27,9 @@ import java.util.Map;
 /**
  * An {@link org.apache.hadoop.mapreduce.InputFormat} for reading Cells (aka {@link com.bc.calvalus.processing.l3.L3TemporalBin TemporalBins})
  * from either {@link org.apache.hadoop.io.SequenceFile}s or from NetCDf/HDf files.
+ * <p>
+ * NetCDF/HDF files are split like other files by their size, each split reads a range of the bin rows of the file,
+ * see {@link CellFileSplit}.
  */
 public class CellInputFormat extends FileInputFormat<LongWritable, L3TemporalBin> {
 
@@ -36,9 +39,23 @@ public class CellInputFormat extends FileInputFormat<LongWritable, L3TemporalBin
     public List<InputSplit> getSplits(JobContext job) throws IOException {
         List<InputSplit> inputSplits = super.getSplits(job);
         List<InputSplit> cellSplits = new ArrayList<InputSplit>(inputSplits.size());
-        for (InputSplit inputSplit : inputSplits) {
-            FileSplit fileSplit = (FileSplit) inputSplit;
-            cellSplits.add(new CellFileSplit(fileSplit));
+        int fileStart = 0;
+        while (fileStart < inputSplits.size()) {
+            // the splits of a file follow each other
+            Path path = ((FileSplit) inputSplits.get(fileStart)).getPath();
+            int fileEnd = fileStart + 1;
+            while (fileEnd < inputSplits.size() && ((FileSplit) inputSplits.get(fileEnd)).getPath().equals(path)) {
+                fileEnd++;
+            }
+            for (int i = fileStart; i < fileEnd; i++) {
+                FileSplit fileSplit = (FileSplit) inputSplits.get(i);
+                if (isPartFile(path)) {
+                    cellSplits.add(new CellFileSplit(fileSplit));
+                } else {
+                    cellSplits.add(new CellFileSplit(fileSplit, i - fileStart, fileEnd - fileStart));
+                }
+            }
+            fileStart = fileEnd;
         }
         return cellSplits;
     }
@@ -49,8 +66,7 @@ public class CellInputFormat extends FileInputFormat<LongWritable, L3TemporalBin
         Configuration conf = context.getConfiguration();
         FileSplit fileSplit = (FileSplit) split;
         Path path = fileSplit.getPath();
-        String filename = path.getName().toLowerCase();
-        if (filename.startsWith(PART_FILE_PREFIX)) {
+        if (isPartFile(path)) {
             return new SequenceFileRecordReader<LongWritable, L3TemporalBin>();
         } else {
             CellRecordReader reader = new CellRecordReader(path, conf);
@@ -68,19 +84,21 @@ public class CellInputFormat extends FileInputFormat<LongWritable, L3TemporalBin
         }
     }
 
-    /**
-     * Only {@link org.apache.hadoop.io.SequenceFile}s will be splitted.
-     */
     @Override
     protected long getFormatMinSplitSize() {
         return SequenceFile.SYNC_INTERVAL;
     }
 
     /**
-     * Only {@link org.apache.hadoop.io.SequenceFile}s will be splitted.
+     * {@link org.apache.hadoop.io.SequenceFile}s and NetCDF/HDF files that are not compressed as a whole
+     * will be splitted.
      */
     @Override
     protected boolean isSplitable(JobContext context, Path path) {
+        return isPartFile(path) || !CellRecordReader.isCompressed(path);
+    }
+
+    private static boolean isPartFile(Path path) {
         String filename = path.getName().toLowerCase();
         return filename.startsWith(PART_FILE_PREFIX);
     }
@@ -1,6 +1,7 @@
 package com.bc.calvalus.processing.l3.cellstream;
 
 import com.bc.calvalus.commons.DateUtils;
+import com.bc.calvalus.processing.hadoop.FSRandomAccessFile;
 import com.bc.calvalus.processing.l3.L3TemporalBin;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -21,6 +22,9 @@ import java.util.Date;
 /**
  * A record reader for reading binned data out of netcdf files.
  * The actual reading is done by implementations of {@link }AbstractNetcdfCellReader}.
+ * <p>
+ * The file is read directly from the file system in chunks, only compressed files are copied to the local disk.
+ * If the split is a range of the rows of the file, only the bins of these rows are read.
  */
 class CellRecordReader extends RecordReader<LongWritable, L3TemporalBin> {
 
@@ -32,8 +36,19 @@ class CellRecordReader extends RecordReader<LongWritable, L3TemporalBin> {
     private boolean hasMore;
 
     public CellRecordReader(Path path, Configuration conf) throws IOException {
-        File localFile = copyToLocal(path, conf);
-        NetcdfFile netcdfFile = NetcdfFile.open(localFile.getAbsolutePath());
+        NetcdfFile netcdfFile;
+        if (isCompressed(path)) {
+            File localFile = copyToLocal(path, conf);
+            netcdfFile = NetcdfFile.open(localFile.getAbsolutePath());
+        } else {
+            FSRandomAccessFile raf = FSRandomAccessFile.open(path, conf);
+            try {
+                netcdfFile = RandomAccessNetcdfFile.open(raf, path.toString());
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
         cellReader = createReader(netcdfFile);
         key = new LongWritable();
         value = new L3TemporalBin(-1, cellReader.getFeatureNames().length);
@@ -41,6 +56,10 @@ class CellRecordReader extends RecordReader<LongWritable, L3TemporalBin> {
 
     @Override
     public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+        if (split instanceof CellFileSplit && ((CellFileSplit) split).getNumRanges() > 1) {
+            CellFileSplit cellFileSplit = (CellFileSplit) split;
+            cellReader.selectRange(cellFileSplit.getRangeIndex(), cellFileSplit.getNumRanges());
+        }
         hasMore = true;
     }
 
@@ -69,7 +88,11 @@ class CellRecordReader extends RecordReader<LongWritable, L3TemporalBin> {
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
-        return Math.min(1.0f, (cellReader.getNumReadBins() / (float) cellReader.getNumBins()));
+        int numRangeBins = cellReader.getNumRangeBins();
+        if (numRangeBins == 0) {
+            return 1.0f;
+        }
+        return Math.min(1.0f, (cellReader.getNumReadBins() / (float) numRangeBins));
     }
 
     @Override
@@ -102,6 +125,15 @@ class CellRecordReader extends RecordReader<LongWritable, L3TemporalBin> {
         return cellReader.getNumRows();
     }
 
+    /**
+     * @return true if the file is compressed as a whole, it is uncompressed by the NetCDF library when opened
+     * from the local disk then
+     */
+    static boolean isCompressed(Path path) {
+        String filename = path.getName().toLowerCase();
+        return filename.endsWith(".gz") || filename.endsWith(".bz2") || filename.endsWith(".z") || filename.endsWith(".zip");
+    }
+
     /**
      * Copies the file given to the local input directory for access as a ordinary {@link java.io.File}.
      *
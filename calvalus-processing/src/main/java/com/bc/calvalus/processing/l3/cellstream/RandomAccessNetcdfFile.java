@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3.cellstream;
+
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.iosp.IOServiceProvider;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * A NetCDF file opened from a {@link RandomAccessFile} given, e.g. one reading from HDFS,
+ * instead of a file name. Only the formats of binned cell files are supported, NetCDF 3, NetCDF 4 and HDF 4.
+ * <p>
+ * The IO service providers registered with the library are asked first. The core providers of NetCDF 3,
+ * HDF 5 and HDF 4 are built into the library without registration, they are looked up by the names
+ * they have in the netcdf-java version on the class path.
+ */
+class RandomAccessNetcdfFile extends NetcdfFile {
+
+    private static final String[] CORE_IOSP_CLASS_NAMES = {
+            "ucar.nc2.iosp.netcdf3.N3iosp",
+            "ucar.nc2.iosp.netcdf3.N3raf",
+            "ucar.nc2.iosp.hdf5.H5iosp",
+            "ucar.nc2.iosp.hdf4.H4iosp",
+    };
+
+    private RandomAccessNetcdfFile(IOServiceProvider spi, RandomAccessFile raf, String location) throws IOException {
+        super(spi, raf, location, null);
+    }
+
+    static NetcdfFile open(RandomAccessFile raf, String location) throws IOException {
+        for (IOServiceProvider spi : getServiceProviders()) {
+            if (spi.isValidFile(raf)) {
+                return new RandomAccessNetcdfFile(spi, raf, location);
+            }
+        }
+        throw new IOException("unsupported netcdf file " + location);
+    }
+
+    private static List<IOServiceProvider> getServiceProviders() {
+        List<IOServiceProvider> serviceProviders = new ArrayList<>();
+        for (IOServiceProvider spi : ServiceLoader.load(IOServiceProvider.class)) {
+            serviceProviders.add(spi);
+        }
+        for (String iospClassName : CORE_IOSP_CLASS_NAMES) {
+            try {
+                Class<?> iospClass = Class.forName(iospClassName);
+                serviceProviders.add((IOServiceProvider) iospClass.getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not part of this netcdf-java version
+            }
+        }
+        return serviceProviders;
+    }
+}
@@ -9,6 +9,7 @@ import org.esa.snap.binning.support.SeadasGrid;
 import org.esa.snap.core.datamodel.ProductData;
 import ucar.ma2.Array;
 import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Structure;
 import ucar.nc2.Variable;
@@ -50,8 +51,11 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
     private int currentRowPointer;
     private int currentRowElems;
     private int currentBlock;
+    private int currentBlockOrigin;
     private int readAheadElems;
     private int numReadBins;
+    private int firstRow;
+    private int numRangeBins;
 
 
     public SeadasBinnnedCellReader(NetcdfFile netcdfFile) throws IOException {
@@ -99,14 +103,9 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
         numRows = binIndexVariable.getShape(0);
         rowOffset = new int[numRows];
         rowExtent = new int[numRows];
-        blockOffset = new int[numRows];
-        blockExtent = new int[numRows];
 
         int rowOff = 0;
-        int blockOff = 0;
-        int blockSize = 0;
         int rowCounter = 0;
-        int blockCounter = 0;
         for (int i = 0; i < numRows; i++) {
             int extent = extentArray.getInt(i);
             if (extent != 0) {
@@ -114,38 +113,12 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
                 rowExtent[rowCounter] = extent;
                 rowOff += extent;
                 rowCounter++;
-                blockSize += extent;
-                if (blockSize > DEFAULT_READAHEAD) {
-                    blockExtent[blockCounter] = blockSize;
-                    blockOffset[blockCounter] = blockOff;
-                    blockOff += blockSize;
-                    blockSize = 0;
-                    blockCounter++;
-                }
             }
         }
-        if (blockSize > 0) {
-            blockExtent[blockCounter] = blockSize;
-            blockOffset[blockCounter] = blockOff;
-            blockCounter++;
-        }
-
         rowExtent = Arrays.copyOf(rowExtent, rowCounter);
         rowOffset = Arrays.copyOf(rowOffset, rowCounter);
-        blockExtent = Arrays.copyOf(blockExtent, blockCounter);
-        blockOffset = Arrays.copyOf(blockOffset, blockCounter);
 
-        currentRow = rowExtent.length - 1;
-        currentBlock = blockExtent.length - 1;
-
-        currentBinIndex = numBins;
-        currentBlockPointer = Integer.MAX_VALUE;
-        readAheadElems = 0;
-
-        currentRowPointer = Integer.MAX_VALUE;
-        currentRowElems = 0;
-
-        numReadBins = 0;
+        selectRows(0, rowCounter);
 
         BinningConfig binningConfig = new BinningConfig();
         binningConfig.setNumRows(numRows);
@@ -183,6 +156,71 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
         return numBins;
     }
 
+    @Override
+    public void selectRange(int rangeIndex, int numRanges) {
+        int rangeStart = (int) ((long) numBins * rangeIndex / numRanges);
+        int rangeEnd = (int) ((long) numBins * (rangeIndex + 1) / numRanges);
+        int first = 0;
+        while (first < rowOffset.length && rowOffset[first] < rangeStart) {
+            first++;
+        }
+        int end = first;
+        while (end < rowOffset.length && rowOffset[end] < rangeEnd) {
+            end++;
+        }
+        selectRows(first, end);
+    }
+
+    @Override
+    public int getNumRangeBins() {
+        return numRangeBins;
+    }
+
+    /**
+     * Selects the non-empty rows to be read and groups them into blocks read at once.
+     *
+     * @param first the index of the first non-empty row
+     * @param end   the index of the non-empty row after the last one
+     */
+    private void selectRows(int first, int end) {
+        blockOffset = new int[end - first];
+        blockExtent = new int[end - first];
+        int blockOff = first < end ? rowOffset[first] : 0;
+        int blockSize = 0;
+        int blockCounter = 0;
+        for (int row = first; row < end; row++) {
+            blockSize += rowExtent[row];
+            if (blockSize > DEFAULT_READAHEAD) {
+                blockExtent[blockCounter] = blockSize;
+                blockOffset[blockCounter] = blockOff;
+                blockOff += blockSize;
+                blockSize = 0;
+                blockCounter++;
+            }
+        }
+        if (blockSize > 0) {
+            blockExtent[blockCounter] = blockSize;
+            blockOffset[blockCounter] = blockOff;
+            blockCounter++;
+        }
+        blockExtent = Arrays.copyOf(blockExtent, blockCounter);
+        blockOffset = Arrays.copyOf(blockOffset, blockCounter);
+
+        firstRow = first;
+        currentRow = end - 1;
+        currentBlock = blockExtent.length - 1;
+
+        currentBinIndex = numBins;
+        currentBlockPointer = Integer.MAX_VALUE;
+        readAheadElems = 0;
+
+        currentRowPointer = Integer.MAX_VALUE;
+        currentRowElems = 0;
+
+        numReadBins = 0;
+        numRangeBins = first < end ? rowOffset[end - 1] + rowExtent[end - 1] - rowOffset[first] : 0;
+    }
+
     @Override
     public Date getStartDate() {
         return startDate;
@@ -195,7 +233,7 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
 
     @Override
     public boolean readNext(LongWritable key, L3TemporalBin temporalBin) throws Exception {
-        if (currentBlock == -1 && currentRowPointer >=  currentRowElems && currentRow == -1) {
+        if (currentBlock == -1 && currentRowPointer >=  currentRowElems && currentRow == firstRow - 1) {
             return false;
         }
 
@@ -204,7 +242,8 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
             int toRead = blockExtent[currentBlock];
             int origin = blockOffset[currentBlock];
             currentBlock--;
-            readAhead(new int[]{origin}, new int[]{toRead});
+            readAhead(new Section(new int[]{origin}, new int[]{toRead}));
+            currentBlockOrigin = origin;
             readAheadElems = toRead;
             currentBlockPointer = 0;
         }
@@ -216,16 +255,17 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
             currentRow--;
         }
 
-        long seadasBinIndex = binNumArray.getLong(currentBinIndex);
+        int arrayIndex = currentBinIndex - currentBlockOrigin;
+        long seadasBinIndex = binNumArray.getLong(arrayIndex);
         long snapBinIndex = seadasGrid.reverseBinIndex(seadasBinIndex);
         key.set(snapBinIndex);
 
         temporalBin.setIndex(snapBinIndex);
-        temporalBin.setNumObs(numObsArray.getInt(currentBinIndex));
-        temporalBin.setNumPasses(numSceneArray.getInt(currentBinIndex));
+        temporalBin.setNumObs(numObsArray.getInt(arrayIndex));
+        temporalBin.setNumPasses(numSceneArray.getInt(arrayIndex));
         float[] featureValues = temporalBin.getFeatureValues();
         for (int i = 0; i < featureArrays.length; i++) {
-            featureValues[i] = featureArrays[i].getFloat(currentBinIndex);
+            featureValues[i] = featureArrays[i].getFloat(arrayIndex);
         }
 
         currentBlockPointer++;
@@ -235,12 +275,12 @@ public class SeadasBinnnedCellReader extends AbstractNetcdfCellReader {
         return true;
     }
 
-    private void readAhead(int[] origin, int[] shape) throws IOException, InvalidRangeException {
-        binNumArray = binNumVar.read().section(origin, shape);
-        numObsArray = numObsVar.read().section(origin, shape);
-        numSceneArray = numSceneVar.read().section(origin, shape);
+    private void readAhead(Section section) throws IOException, InvalidRangeException {
+        binNumArray = binNumVar.read(section);
+        numObsArray = numObsVar.read(section);
+        numSceneArray = numSceneVar.read(section);
         for (int i = 0; i < featureVars.length; i++) {
-            featureArrays[i] = featureVars[i].read().section(origin, shape);
+            featureArrays[i] = featureVars[i].read(section);
         }
     }
 
@@ -4,6 +4,8 @@ import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.commons.DateUtils;
 import com.bc.calvalus.processing.l3.L3TemporalBin;
 import org.apache.hadoop.io.LongWritable;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.operator.BinningConfig;
 import ucar.ma2.Array;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Section;
@@ -33,6 +35,7 @@ public class SnapSparseCellReader extends AbstractNetcdfCellReader {
     private final Date startDate;
     private final Date endDate;
     private int numRows;
+    private PlanetaryGrid planetaryGrid;
 
     private Variable binNumVar;
     private Array binNumArray;
@@ -46,6 +49,9 @@ public class SnapSparseCellReader extends AbstractNetcdfCellReader {
     private int currentBinIndex = 0;
     private int arrayPointer = Integer.MAX_VALUE;
     private int readAhead;
+    private int rangeStart;
+    private int rangeEnd;
+    private int numReadBins;
 
     public SnapSparseCellReader(NetcdfFile netcdfFile) {
         super(netcdfFile);
@@ -86,7 +92,12 @@ public class SnapSparseCellReader extends AbstractNetcdfCellReader {
         final Dimension bin_index = netcdfFile.findDimension("bin_index");
         if (bin_index != null) {
             numRows = bin_index.getLength();
+            BinningConfig binningConfig = new BinningConfig();
+            binningConfig.setNumRows(numRows);
+            planetaryGrid = binningConfig.createPlanetaryGrid();
         }
+        rangeStart = 0;
+        rangeEnd = numBins;
     }
 
     private static Date extractDate(NetcdfFile netcdfFile, String name, String alternativeName) {
@@ -117,7 +128,7 @@ public class SnapSparseCellReader extends AbstractNetcdfCellReader {
 
     @Override
     public int getNumReadBins() {
-        return currentBinIndex;
+        return numReadBins;
     }
 
     @Override
@@ -125,6 +136,47 @@ public class SnapSparseCellReader extends AbstractNetcdfCellReader {
         return numBins;
     }
 
+    @Override
+    public void selectRange(int rangeIndex, int numRanges) throws IOException {
+        rangeStart = findRowStart((int) ((long) numBins * rangeIndex / numRanges));
+        rangeEnd = findRowStart((int) ((long) numBins * (rangeIndex + 1) / numRanges));
+        currentBinIndex = rangeStart;
+        arrayPointer = Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getNumRangeBins() {
+        return rangeEnd - rangeStart;
+    }
+
+    /**
+     * @return the index of the first bin in the bin list at or after the index given which is the first bin of
+     * its row, bins are not aligned to rows if the number of rows is unknown
+     */
+    private int findRowStart(int index) throws IOException {
+        if (index <= 0 || index >= numBins || planetaryGrid == null) {
+            return Math.max(0, Math.min(index, numBins));
+        }
+        int previousRow = -1;
+        for (int origin = index - 1; origin < numBins; origin += readAhead) {
+            int shape = Math.min(numBins - origin, readAhead);
+            Array binNums;
+            try {
+                binNums = binNumVar.read(new Section(new int[]{origin}, new int[]{shape}));
+            } catch (InvalidRangeException e) {
+                throw new IOException(e);
+            }
+            for (int i = 0; i < shape; i++) {
+                int row = planetaryGrid.getRowIndex(binNums.getLong(i));
+                if (origin + i > index - 1 && row != previousRow) {
+                    return origin + i;
+                }
+                previousRow = row;
+            }
+        }
+        return numBins;
+    }
+
     @Override
     public Date getStartDate() {
         return startDate;
@@ -137,12 +189,12 @@ public class SnapSparseCellReader extends AbstractNetcdfCellReader {
 
     @Override
     public boolean readNext(LongWritable key, L3TemporalBin temporalBin) throws Exception {
-        if (currentBinIndex >= numBins) {
+        if (currentBinIndex >= rangeEnd) {
             return false;
         }
         if (arrayPointer >= readAhead) {
             final int origin = currentBinIndex;
-            final int shape = Math.min(numBins - currentBinIndex, readAhead);
+            final int shape = Math.min(rangeEnd - currentBinIndex, readAhead);
             readAhead(new Section(new int[]{origin}, new int[]{shape}));
             arrayPointer = 0;
         }
@@ -157,6 +209,7 @@ public class SnapSparseCellReader extends AbstractNetcdfCellReader {
         }
         arrayPointer++;
         currentBinIndex++;
+        numReadBins++;
         return true;
     }
 
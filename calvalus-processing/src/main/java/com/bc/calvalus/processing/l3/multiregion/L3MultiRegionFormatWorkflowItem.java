@@ -5,10 +5,12 @@ import com.bc.calvalus.processing.JobUtils;
 import com.bc.calvalus.processing.hadoop.HadoopProcessingService;
 import com.bc.calvalus.processing.hadoop.HadoopWorkflowItem;
 import com.bc.calvalus.processing.hadoop.ProcessingMetadata;
+import com.bc.calvalus.processing.l3.HadoopBinManager;
+import com.bc.calvalus.processing.l3.L3PartInputFormat;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.esa.snap.binning.PlanetaryGrid;
 
 import java.io.IOException;
 import java.util.Map;
@@ -44,7 +46,7 @@ public class L3MultiRegionFormatWorkflowItem extends HadoopWorkflowItem {
         Configuration jobConfig = job.getConfiguration();
 
         FileInputFormat.addInputPaths(job, getInputDir());
-        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setInputFormatClass(L3PartInputFormat.class);
 
         job.setMapperClass(L3MultiRegionFormatMapper.class);
         job.setMapOutputKeyClass(L3MultiRegionBinIndex.class);
@@ -63,6 +65,11 @@ public class L3MultiRegionFormatWorkflowItem extends HadoopWorkflowItem {
 
         Map<String, String> metadata = ProcessingMetadata.read(FileInputFormat.getInputPaths(job)[0], jobConfig);
         ProcessingMetadata.metadata2Config(metadata, jobConfig, JobConfigNames.LEVEL3_METADATA_KEYS);
+
+        // read only the bins of the rows intersecting the regions
+        PlanetaryGrid planetaryGrid = HadoopBinManager.getBinningConfig(jobConfig).createPlanetaryGrid();
+        L3MultiRegionFormatConfig.Region[] regions = L3MultiRegionFormatConfig.get(jobConfig).getRegions();
+        L3PartInputFormat.setInputRegions(jobConfig, L3MultiRegionFormatMapper.createRegionGeometries(planetaryGrid, regions));
     }
 
 }
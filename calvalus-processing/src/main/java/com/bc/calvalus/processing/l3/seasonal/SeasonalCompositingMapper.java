@@ -6,6 +6,7 @@ import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.beam.GpfUtils;
 import com.bc.calvalus.processing.hadoop.ProgressSplitProgressMonitor;
 import com.bc.ceres.binding.BindingException;
+import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.glevel.MultiLevelImage;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -31,14 +32,20 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -75,17 +82,6 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
     public static final boolean DEBUG = false;
     private static final float EPS = 1.0E-6f;
 
-    short[][] bandDataB;
-    short[][] bandDataS;
-    float[][] bandDataF;
-    float[][] ndxiSum;
-    float[][] ndxiSqrSum;
-    int[][] ndxiCount;
-    int[][] statusCount;
-    float[] ndxiMean;
-    float[] ndxiSdev;
-    float[][] accu;
-
     ProgressSplitProgressMonitor pm;
 
     @Override
@@ -170,78 +166,46 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
                                  srRootDir, conf, fs, isMsi, isOlci, numSourceBands, sourceBandIndex,
                                  products, bandImages);
         LOG.info("inputs determined in " + (System.currentTimeMillis()-timestamp0) + " millis");
-        // pre-allocate arrays for band values per data type, for best pixels aggregation, and for transfer to reducer
-        bandDataB = new short[numSourceBands][];
-        bandDataS = new short[numSourceBands][];
-        bandDataF = new float[numSourceBands][];
-        if (withBestPixels) {
-            ndxiSum = new float[NUM_INDEXES][microTileSize*microTileSize];
-            ndxiSqrSum = new float[NUM_INDEXES][microTileSize*microTileSize];
-            ndxiCount = new int[NUM_INDEXES][microTileSize*microTileSize];
-            statusCount = new int[NUM_INDEXES][microTileSize*microTileSize];
-            ndxiMean = new float[microTileSize*microTileSize];
-            ndxiSdev = new float[microTileSize*microTileSize];
-        }
-        accu = new float[numTargetBands][microTileSize * microTileSize];
+        // pre-allocate arrays for band values per data type, for best pixels aggregation, and for transfer to reducer, per worker
+        final int numThreads = Math.max(1, Math.min(conf.getInt(JobConfigNames.CALVALUS_SEASONAL_MICRO_TILE_THREADS, 1),
+                                                    numMicroTiles * numMicroTiles));
+        final MicroTileCompositor[] compositors = new MicroTileCompositor[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            compositors[t] = new MicroTileCompositor(withBestPixels, withMaxNdvi,
+                                                     b3BandIndex, b11BandIndex, ndviBandIndex,
+                                                     numSourceBands, numTargetBands, microTileSize, pm);
+        }
 
         // micro tile loop
-        LOG.info("processing " + (numMicroTiles*numMicroTiles) + " micro tiles ...");
-        for (int microTileY = 0; microTileY < numMicroTiles; ++microTileY) {
-            for (int microTileX = 0; microTileX < numMicroTiles; ++microTileX) {
-                long timestamp1 = System.currentTimeMillis();
-                long timestamp3;
-                final Rectangle microTileArea = new Rectangle(microTileX * microTileSize, microTileY * microTileSize, microTileSize, microTileSize);
-                clearAccu(numTargetBands, accu);
-                if (withBestPixels) {
-
-                    determineMajorityStatus(bandImages, microTileArea,
-                                            b3BandIndex, b11BandIndex, ndviBandIndex,
-                                            ndxiMean, ndxiSdev, accu);
-                    long timestamp2 = System.currentTimeMillis();
-                    LOG.info("majority status determined in " + (timestamp2-timestamp1) + " millis");
-                    aggregateBestPixels(bandImages, microTileArea,
-                                        b3BandIndex, b11BandIndex, ndviBandIndex,
-                                        numSourceBands, numTargetBands,
-                                        accu);
-                    divideByCount(microTileArea, numTargetBands, accu);
-                    timestamp3 = System.currentTimeMillis();
-                    LOG.info("best pixels aggregated in " + (timestamp3-timestamp2) + " millis");
-                } else if (withMaxNdvi) {
-                    aggregateByMaxNdvi(bandImages, microTileArea, ndviBandIndex, numSourceBands, numTargetBands,
-                                       accu);
-                    timestamp3 = System.currentTimeMillis();
-                    LOG.info("max ndvi aggregated in " + (timestamp3-timestamp1) + " millis");
-                } else {
-                    aggregateByStatusRank(bandImages, microTileArea, numSourceBands, numTargetBands,
-                                          accu);
-                    divideByCount(microTileArea, numTargetBands, accu);
-                    timestamp3 = System.currentTimeMillis();
-                    LOG.info("average aggregated in " + (timestamp3-timestamp1) + " millis");
-                }
-                // statistics for logging
-                final int[] counts = new int[16];
-                for (float state : accu[0]) {
-                    ++counts[rank(state)];
-                }
-                LOG.info((counts[14]+counts[10]+counts[9]+counts[8]) + " land, " + (counts[15]) + " water, " + counts[13] + " snow, " + counts[5] + " shadow, " + (counts[1]+counts[2]) + " cloud");
-                if (counts[14]+counts[10]+counts[9]+counts[8] == 0 && counts[15] == 0 && counts[13] == 0 && counts[5] == 0 && counts[1]+counts[2] == 0) {
-                    continue;
-                }
-                // stream results, one per band
-                for (int b = 0; b < numTargetBands; ++b) {
-                    // compose key from band and tile
-                    final int bandAndTile = ((sensorBands.length - 3) << 27) + (targetBandIndex[b] << 22) + ((tileRow * numMicroTiles + microTileY) << 11) + (tileColumn * numMicroTiles + microTileX);
-                    //LOG.info("streaming band " + targetBandIndex[b] + " tile row " + (tileRow * numMicroTiles + microTileY) + " tile column " + (tileColumn * numMicroTiles + microTileX) + " key " + bandAndTile);
-                    // write tile
-                    final IntWritable key = new IntWritable(bandAndTile);
-                    final BandTileWritable value = new BandTileWritable(accu[b]);
-                    context.write(key, value);
-                }
-                long timestamp4 = System.currentTimeMillis();
-                LOG.info("result streamed in " + (timestamp4-timestamp3) + " millis");
-                pm.worked(4);
+        LOG.info("processing " + (numMicroTiles*numMicroTiles) + " micro tiles with " + numThreads + " threads ...");
+        final int finalNumTargetBands = numTargetBands;
+        compositeMicroTiles(bandImages, numMicroTiles, microTileSize, compositors, (microTileArea, accu) -> {
+            final int microTileX = microTileArea.x / microTileSize;
+            final int microTileY = microTileArea.y / microTileSize;
+            long timestamp3 = System.currentTimeMillis();
+            // statistics for logging
+            final int[] counts = new int[16];
+            for (float state : accu[0]) {
+                ++counts[rank(state)];
             }
-        }
+            LOG.info((counts[14]+counts[10]+counts[9]+counts[8]) + " land, " + (counts[15]) + " water, " + counts[13] + " snow, " + counts[5] + " shadow, " + (counts[1]+counts[2]) + " cloud");
+            if (counts[14]+counts[10]+counts[9]+counts[8] == 0 && counts[15] == 0 && counts[13] == 0 && counts[5] == 0 && counts[1]+counts[2] == 0) {
+                return;
+            }
+            // stream results, one per band
+            for (int b = 0; b < finalNumTargetBands; ++b) {
+                // compose key from band and tile
+                final int bandAndTile = ((sensorBands.length - 3) << 27) + (targetBandIndex[b] << 22) + ((tileRow * numMicroTiles + microTileY) << 11) + (tileColumn * numMicroTiles + microTileX);
+                //LOG.info("streaming band " + targetBandIndex[b] + " tile row " + (tileRow * numMicroTiles + microTileY) + " tile column " + (tileColumn * numMicroTiles + microTileX) + " key " + bandAndTile);
+                // write tile
+                final IntWritable key = new IntWritable(bandAndTile);
+                final BandTileWritable value = new BandTileWritable(accu[b]);
+                context.write(key, value);
+            }
+            long timestamp4 = System.currentTimeMillis();
+            LOG.info("result streamed in " + (timestamp4-timestamp3) + " millis");
+            worked(pm, 4);
+        });
         for (Product product : products) {
             product.dispose();
         }
@@ -299,75 +263,176 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
         }
     }
 
-    private void determineMajorityStatus(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
-                                         int b3BandIndex, int b11BandIndex, int ndviBandIndex,
-                                         float[] ndxiMean, float[] ndxiSdev, float[][] accu) {
-        clearNdxi();
-        for (MultiLevelImage[] bandImage : bandImages) {
-            readStatusBand(bandImage, microTileArea, bandDataB);
-            readNdviNdwiBands(bandImage, b3BandIndex, b11BandIndex, ndviBandIndex, microTileArea, bandDataF);
-            // pixel loop
-            for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
-                final int state = (int) bandDataB[0][i];
-                final int index = index(state);
-                if (index >= 0) {
-                    statusCount[index][i]++;
+    /**
+     * Composites the micro tiles row by row and passes them to the consumer in this order. With more than
+     * one compositor the micro tiles are composited concurrently, each compositor with its own buffers
+     * composites one micro tile at a time. The results of a compositor are passed to the consumer before
+     * the compositor is reused.
+     */
+    static void compositeMicroTiles(List<MultiLevelImage[]> bandImages, int numMicroTiles, int microTileSize,
+                                    MicroTileCompositor[] compositors, MicroTileConsumer consumer) throws IOException, InterruptedException {
+        if (compositors.length == 1) {
+            for (int microTileY = 0; microTileY < numMicroTiles; ++microTileY) {
+                for (int microTileX = 0; microTileX < numMicroTiles; ++microTileX) {
+                    final Rectangle microTileArea = new Rectangle(microTileX * microTileSize, microTileY * microTileSize, microTileSize, microTileSize);
+                    consumer.accept(microTileArea, compositors[0].composite(bandImages, microTileArea));
                 }
-                if (index >= 0 && ! Float.isNaN(bandDataF[ndviBandIndex][i]) && ! Float.isNaN(bandDataF[b3BandIndex][i]) && ! Float.isNaN(bandDataF[b11BandIndex][i])) {
-                    switch (state) {
-                        case 1:
-                        case 15:
-                        case 12:
-                        case 11:
-                        case 5:
-                            float ndvi = bandDataF[ndviBandIndex][i];
-                            ndxiSum[index][i] += ndvi;
-                            ndxiSqrSum[index][i] += ndvi * ndvi;
-                            ndxiCount[index][i]++;
-                            break;
-                        case 2:
-                        case 3:  // TODO TBC whether to use water index for snow as well
-                            float ndwi = (bandDataF[b11BandIndex][i] - bandDataF[b3BandIndex][i]) / (bandDataF[b11BandIndex][i] + bandDataF[b3BandIndex][i]);
-                            ndxiSum[index][i] += ndwi;
-                            ndxiSqrSum[index][i] += ndwi * ndwi;
-                            ndxiCount[index][i]++;
-                            break;
+            }
+            return;
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(compositors.length);
+        try {
+            final Deque<MicroTileCompositor> idleCompositors = new ArrayDeque<>(Arrays.asList(compositors));
+            final Deque<Future<MicroTileCompositor>> pendingCompositors = new ArrayDeque<>();
+            for (int microTileY = 0; microTileY < numMicroTiles; ++microTileY) {
+                for (int microTileX = 0; microTileX < numMicroTiles; ++microTileX) {
+                    if (idleCompositors.isEmpty()) {
+                        idleCompositors.add(consumeMicroTile(pendingCompositors.remove(), consumer));
                     }
+                    final MicroTileCompositor compositor = idleCompositors.remove();
+                    final Rectangle microTileArea = new Rectangle(microTileX * microTileSize, microTileY * microTileSize, microTileSize, microTileSize);
+                    pendingCompositors.add(executorService.submit(() -> {
+                        compositor.composite(bandImages, microTileArea);
+                        return compositor;
+                    }));
                 }
-                //traceState(state, index, i, statusCount, microTileArea);
             }
-            pm.worked(1);
-        }
-        for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
-            int state = majorityPriorityStatusOf(statusCount, i);
-            int index = index(state);
-            if (index >= 0) {
-                accu[0][i] = state;
+            while (!pendingCompositors.isEmpty()) {
+                consumeMicroTile(pendingCompositors.remove(), consumer);
             }
-            if (index >= 0 && index < 7 && ndxiCount[index][i] > 0) {
-                ndxiMean[i] = ndxiSum[index][i] / ndxiCount[index][i];
-                ndxiSdev[i] = (float) Math.sqrt(ndxiSqrSum[index][i] / ndxiCount[index][i] - ndxiMean[i] * ndxiMean[i]);
-            } else {  // invalid or cloud or temporal cloud
-                ndxiMean[i] = Float.NaN;
-                ndxiSdev[i] = Float.NaN;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static MicroTileCompositor consumeMicroTile(Future<MicroTileCompositor> future, MicroTileConsumer consumer) throws IOException, InterruptedException {
+        final MicroTileCompositor compositor;
+        try {
+            compositor = future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            //traceMajoState(state, index, i, ndxiCount, ndxiMean, ndxiSdev, microTileArea);
+            throw new IOException("compositing of micro tile failed", e.getCause());
         }
+        consumer.accept(compositor.microTileArea, compositor.accu);
+        return compositor;
     }
 
-    private void aggregateBestPixels(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
-                                     int b3BandIndex, int b11BandIndex, int ndviBandIndex,
-                                     int numSourceBands, int numTargetBands,
-                                     float[][] accu) {
-        // product loop
-        for (MultiLevelImage[] bandImage : bandImages) {
-            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
-            // pixel loop
-            for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
-                final int state = (int) bandDataB[0][i];
-                if (state > 0) {
-                    accu[2][i] += count(bandDataS, i);
-                    if (state == accu[0][i] && ! containsNan(bandDataF, numTargetBands, i)) {
+    private static void worked(ProgressMonitor pm, int work) {
+        synchronized (pm) {
+            pm.worked(work);
+        }
+    }
+
+    interface MicroTileConsumer {
+        void accept(Rectangle microTileArea, float[][] accu) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Composites one micro tile after the other from all input products, with buffers for band values
+     * per data type and for best pixels aggregation reused between micro tiles.
+     */
+    static class MicroTileCompositor {
+
+        private final boolean withBestPixels;
+        private final boolean withMaxNdvi;
+        private final int b3BandIndex;
+        private final int b11BandIndex;
+        private final int ndviBandIndex;
+        private final int numSourceBands;
+        private final int numTargetBands;
+        private final ProgressMonitor pm;
+
+        short[][] bandDataB;
+        short[][] bandDataS;
+        float[][] bandDataF;
+        float[][] ndxiSum;
+        float[][] ndxiSqrSum;
+        int[][] ndxiCount;
+        int[][] statusCount;
+        float[] ndxiMean;
+        float[] ndxiSdev;
+        float[][] accu;
+        Rectangle microTileArea;
+
+        MicroTileCompositor(boolean withBestPixels, boolean withMaxNdvi,
+                            int b3BandIndex, int b11BandIndex, int ndviBandIndex,
+                            int numSourceBands, int numTargetBands, int microTileSize, ProgressMonitor pm) {
+            this.withBestPixels = withBestPixels;
+            this.withMaxNdvi = withMaxNdvi;
+            this.b3BandIndex = b3BandIndex;
+            this.b11BandIndex = b11BandIndex;
+            this.ndviBandIndex = ndviBandIndex;
+            this.numSourceBands = numSourceBands;
+            this.numTargetBands = numTargetBands;
+            this.pm = pm;
+            bandDataB = new short[numSourceBands][];
+            bandDataS = new short[numSourceBands][];
+            bandDataF = new float[numSourceBands][];
+            if (withBestPixels) {
+                ndxiSum = new float[NUM_INDEXES][microTileSize*microTileSize];
+                ndxiSqrSum = new float[NUM_INDEXES][microTileSize*microTileSize];
+                ndxiCount = new int[NUM_INDEXES][microTileSize*microTileSize];
+                statusCount = new int[NUM_INDEXES][microTileSize*microTileSize];
+                ndxiMean = new float[microTileSize*microTileSize];
+                ndxiSdev = new float[microTileSize*microTileSize];
+            }
+            accu = new float[numTargetBands][microTileSize * microTileSize];
+        }
+
+        /**
+         * @return the composite of the micro tile, valid until the next call
+         */
+        float[][] composite(List<MultiLevelImage[]> bandImages, Rectangle microTileArea) {
+            this.microTileArea = microTileArea;
+            long timestamp1 = System.currentTimeMillis();
+            long timestamp3;
+            clearAccu(numTargetBands, accu);
+            if (withBestPixels) {
+
+                determineMajorityStatus(bandImages, microTileArea,
+                                        b3BandIndex, b11BandIndex, ndviBandIndex,
+                                        ndxiMean, ndxiSdev, accu);
+                long timestamp2 = System.currentTimeMillis();
+                LOG.info("majority status determined in " + (timestamp2-timestamp1) + " millis");
+                aggregateBestPixels(bandImages, microTileArea,
+                                    b3BandIndex, b11BandIndex, ndviBandIndex,
+                                    numSourceBands, numTargetBands,
+                                    accu);
+                divideByCount(microTileArea, numTargetBands, accu);
+                timestamp3 = System.currentTimeMillis();
+                LOG.info("best pixels aggregated in " + (timestamp3-timestamp2) + " millis");
+            } else if (withMaxNdvi) {
+                aggregateByMaxNdvi(bandImages, microTileArea, ndviBandIndex, numSourceBands, numTargetBands,
+                                   accu);
+                timestamp3 = System.currentTimeMillis();
+                LOG.info("max ndvi aggregated in " + (timestamp3-timestamp1) + " millis");
+            } else {
+                aggregateByStatusRank(bandImages, microTileArea, numSourceBands, numTargetBands,
+                                      accu);
+                divideByCount(microTileArea, numTargetBands, accu);
+                timestamp3 = System.currentTimeMillis();
+                LOG.info("average aggregated in " + (timestamp3-timestamp1) + " millis");
+            }
+            return accu;
+        }
+
+        private void determineMajorityStatus(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
+                                             int b3BandIndex, int b11BandIndex, int ndviBandIndex,
+                                             float[] ndxiMean, float[] ndxiSdev, float[][] accu) {
+            clearNdxi();
+            for (MultiLevelImage[] bandImage : bandImages) {
+                readStatusBand(bandImage, microTileArea, bandDataB);
+                readNdviNdwiBands(bandImage, b3BandIndex, b11BandIndex, ndviBandIndex, microTileArea, bandDataF);
+                // pixel loop
+                for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
+                    final int state = (int) bandDataB[0][i];
+                    final int index = index(state);
+                    if (index >= 0) {
+                        statusCount[index][i]++;
+                    }
+                    if (index >= 0 && ! Float.isNaN(bandDataF[ndviBandIndex][i]) && ! Float.isNaN(bandDataF[b3BandIndex][i]) && ! Float.isNaN(bandDataF[b11BandIndex][i])) {
                         switch (state) {
                             case 1:
                             case 15:
@@ -375,140 +440,217 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
                             case 11:
                             case 5:
                                 float ndvi = bandDataF[ndviBandIndex][i];
-                                if (ndvi >= ndxiMean[i] - ndxiSdev[i] - EPS && ndvi <= ndxiMean[i] + ndxiSdev[i] + EPS) {
-                                    final int stateCount = count(state == 1 ? state : STATUS_CLOUD_SHADOW, bandDataS, i);  // cloud shadow count abused for dark, bright, haze
-                                    accu[1][i] += stateCount;
-                                    for (int b = 3; b < numTargetBands; ++b) {
-                                        accu[b][i] += stateCount * bandDataF[b + 3][i];
-                                    }
-                                    //traceAggregation(state, i, stateCount, ndvi, bandDataF, microTileArea);
-                                }
+                                ndxiSum[index][i] += ndvi;
+                                ndxiSqrSum[index][i] += ndvi * ndvi;
+                                ndxiCount[index][i]++;
                                 break;
                             case 2:
                             case 3:  // TODO TBC whether to use water index for snow as well
                                 float ndwi = (bandDataF[b11BandIndex][i] - bandDataF[b3BandIndex][i]) / (bandDataF[b11BandIndex][i] + bandDataF[b3BandIndex][i]);
-                                if (ndwi >= ndxiMean[i] - ndxiSdev[i] - EPS && ndwi <= ndxiMean[i] + ndxiSdev[i] + EPS) {
+                                ndxiSum[index][i] += ndwi;
+                                ndxiSqrSum[index][i] += ndwi * ndwi;
+                                ndxiCount[index][i]++;
+                                break;
+                        }
+                    }
+                    //traceState(state, index, i, statusCount, microTileArea);
+                }
+                worked(pm, 1);
+            }
+            for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
+                int state = majorityPriorityStatusOf(statusCount, i);
+                int index = index(state);
+                if (index >= 0) {
+                    accu[0][i] = state;
+                }
+                if (index >= 0 && index < 7 && ndxiCount[index][i] > 0) {
+                    ndxiMean[i] = ndxiSum[index][i] / ndxiCount[index][i];
+                    ndxiSdev[i] = (float) Math.sqrt(ndxiSqrSum[index][i] / ndxiCount[index][i] - ndxiMean[i] * ndxiMean[i]);
+                } else {  // invalid or cloud or temporal cloud
+                    ndxiMean[i] = Float.NaN;
+                    ndxiSdev[i] = Float.NaN;
+                }
+                //traceMajoState(state, index, i, ndxiCount, ndxiMean, ndxiSdev, microTileArea);
+            }
+        }
+
+        private void aggregateBestPixels(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
+                                         int b3BandIndex, int b11BandIndex, int ndviBandIndex,
+                                         int numSourceBands, int numTargetBands,
+                                         float[][] accu) {
+            // product loop
+            for (MultiLevelImage[] bandImage : bandImages) {
+                readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
+                // pixel loop
+                for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
+                    final int state = (int) bandDataB[0][i];
+                    if (state > 0) {
+                        accu[2][i] += count(bandDataS, i);
+                        if (state == accu[0][i] && ! containsNan(bandDataF, numTargetBands, i)) {
+                            switch (state) {
+                                case 1:
+                                case 15:
+                                case 12:
+                                case 11:
+                                case 5:
+                                    float ndvi = bandDataF[ndviBandIndex][i];
+                                    if (ndvi >= ndxiMean[i] - ndxiSdev[i] - EPS && ndvi <= ndxiMean[i] + ndxiSdev[i] + EPS) {
+                                        final int stateCount = count(state == 1 ? state : STATUS_CLOUD_SHADOW, bandDataS, i);  // cloud shadow count abused for dark, bright, haze
+                                        accu[1][i] += stateCount;
+                                        for (int b = 3; b < numTargetBands; ++b) {
+                                            accu[b][i] += stateCount * bandDataF[b + 3][i];
+                                        }
+                                        //traceAggregation(state, i, stateCount, ndvi, bandDataF, microTileArea);
+                                    }
+                                    break;
+                                case 2:
+                                case 3:  // TODO TBC whether to use water index for snow as well
+                                    float ndwi = (bandDataF[b11BandIndex][i] - bandDataF[b3BandIndex][i]) / (bandDataF[b11BandIndex][i] + bandDataF[b3BandIndex][i]);
+                                    if (ndwi >= ndxiMean[i] - ndxiSdev[i] - EPS && ndwi <= ndxiMean[i] + ndxiSdev[i] + EPS) {
+                                        final int stateCount = count(state, bandDataS, i);
+                                        accu[1][i] += stateCount;
+                                        for (int b = 3; b < numTargetBands; ++b) {
+                                            accu[b][i] += stateCount * bandDataF[b + 3][i];
+                                        }
+                                        //traceAggregation(state, i, stateCount, ndwi, bandDataF, microTileArea);
+                                    }
+                                    break;
+                                case 4:
+                                case 14:
                                     final int stateCount = count(state, bandDataS, i);
                                     accu[1][i] += stateCount;
                                     for (int b = 3; b < numTargetBands; ++b) {
-                                        accu[b][i] += stateCount * bandDataF[b + 3][i];
+                                        accu[b][i] += stateCount * bandDataF[b + 3][i];  // we may have processed under clouds
                                     }
-                                    //traceAggregation(state, i, stateCount, ndwi, bandDataF, microTileArea);
-                                }
-                                break;
-                            case 4:
-                            case 14:
-                                final int stateCount = count(state, bandDataS, i);
-                                accu[1][i] += stateCount;
-                                for (int b = 3; b < numTargetBands; ++b) {
-                                    accu[b][i] += stateCount * bandDataF[b + 3][i];  // we may have processed under clouds
-                                }
-                                //traceAggregation(state, i, stateCount, bandDataF[10+3][i], bandDataF, microTileArea);
-                                break;
+                                    //traceAggregation(state, i, stateCount, bandDataF[10+3][i], bandDataF, microTileArea);
+                                    break;
+                            }
                         }
                     }
                 }
+                worked(pm, 5);
             }
-            pm.worked(5);
         }
-    }
 
-    private void aggregateByMaxNdvi(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
-                                    int ndviBandIndex, int numSourceBands, int numTargetBands,
-                                    float[][] accu) {
-        for (MultiLevelImage[] bandImage : bandImages) {
-            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
-            // pixel loop
-            for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
-                // aggregate pixel-wise using aggregation rules
-                final int state = (int) bandDataB[0][i];
-                if (state > 0 && ! containsNan(bandDataF, numTargetBands, i)) {
-                    if (state == accu[0][i]) {
-                        // same state as before, aggregate ...
-                        final int stateCount = count(state, bandDataS, i);
-                        accu[1][i] += stateCount;
-                        accu[2][i] += count(bandDataS, i);
-                        if (bandDataF[ndviBandIndex][i] > accu[numTargetBands - 1][i]) {
+        private void aggregateByMaxNdvi(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
+                                        int ndviBandIndex, int numSourceBands, int numTargetBands,
+                                        float[][] accu) {
+            for (MultiLevelImage[] bandImage : bandImages) {
+                readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
+                // pixel loop
+                for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
+                    // aggregate pixel-wise using aggregation rules
+                    final int state = (int) bandDataB[0][i];
+                    if (state > 0 && ! containsNan(bandDataF, numTargetBands, i)) {
+                        if (state == accu[0][i]) {
+                            // same state as before, aggregate ...
+                            final int stateCount = count(state, bandDataS, i);
+                            accu[1][i] += stateCount;
+                            accu[2][i] += count(bandDataS, i);
+                            if (bandDataF[ndviBandIndex][i] > accu[numTargetBands - 1][i]) {
+                                for (int b = 3; b < numTargetBands; ++b) {
+                                    accu[b][i] = bandDataF[b + 3][i];
+                                }
+                            }
+                        } else if (rank(state) > rank(accu[0][i])) {
+                            // better state, e.g. land instead of snow: restart counting ...
+                            final int stateCount = count(state, bandDataS, i);
+                            accu[0][i] = state;
+                            accu[1][i] = stateCount;
+                            accu[2][i] = count(bandDataS, i);
                             for (int b = 3; b < numTargetBands; ++b) {
                                 accu[b][i] = bandDataF[b + 3][i];
                             }
                         }
-                    } else if (rank(state) > rank(accu[0][i])) {
-                        // better state, e.g. land instead of snow: restart counting ...
-                        final int stateCount = count(state, bandDataS, i);
-                        accu[0][i] = state;
-                        accu[1][i] = stateCount;
-                        accu[2][i] = count(bandDataS, i);
-                        for (int b = 3; b < numTargetBands; ++b) {
-                            accu[b][i] = bandDataF[b + 3][i];
+                    }
+                }
+                worked(pm, 6);
+            }
+        }
+
+        private void aggregateByStatusRank(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
+                                           int numSourceBands, int numTargetBands,
+                                           float[][] accu) {
+            for (MultiLevelImage[] bandImage : bandImages) {
+                readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
+                // pixel loop
+                for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
+                    final int state = (int) bandDataB[0][i];
+                    if (state > 0 && ! containsNan(bandDataF, numTargetBands, i)) {
+                        if (state == accu[0][i]) {
+                            // same state as before, aggregate ...
+                            final int stateCount = count(state, bandDataS, i);
+                            accu[1][i] += stateCount;
+                            accu[2][i] += count(bandDataS, i);
+                            for (int b = 3; b < numTargetBands; ++b) {
+                                accu[b][i] += stateCount * bandDataF[b + 3][i];
+                            }
+                        } else if (rank(state) > rank(accu[0][i])) {
+                            // better state, e.g. land instead of snow: restart counting ...
+                            final int stateCount = count(state, bandDataS, i);
+                            accu[0][i] = state;
+                            accu[1][i] = stateCount;
+                            accu[2][i] = count(bandDataS, i);
+                            for (int b = 3; b < numTargetBands; ++b) {
+                                accu[b][i] = stateCount * bandDataF[b + 3][i];
+                            }
                         }
                     }
                 }
+                worked(pm, 6);
             }
-            pm.worked(6);
         }
-    }
 
-    private void aggregateByStatusRank(List<MultiLevelImage[]> bandImages, Rectangle microTileArea,
-                                       int numSourceBands, int numTargetBands,
-                                       float[][] accu) {
-        for (MultiLevelImage[] bandImage : bandImages) {
-            readSourceBands(bandImage, microTileArea, numSourceBands, bandDataB, bandDataS, bandDataF);
-            // pixel loop
+        private void divideByCount(Rectangle microTileArea, int numTargetBands, float[][] accu) {
             for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
-                final int state = (int) bandDataB[0][i];
-                if (state > 0 && ! containsNan(bandDataF, numTargetBands, i)) {
-                    if (state == accu[0][i]) {
-                        // same state as before, aggregate ...
-                        final int stateCount = count(state, bandDataS, i);
-                        accu[1][i] += stateCount;
-                        accu[2][i] += count(bandDataS, i);
-                        for (int b = 3; b < numTargetBands; ++b) {
-                            accu[b][i] += stateCount * bandDataF[b + 3][i];
-                        }
-                    } else if (rank(state) > rank(accu[0][i])) {
-                        // better state, e.g. land instead of snow: restart counting ...
-                        final int stateCount = count(state, bandDataS, i);
-                        accu[0][i] = state;
-                        accu[1][i] = stateCount;
-                        accu[2][i] = count(bandDataS, i);
-                        for (int b = 3; b < numTargetBands; ++b) {
-                            accu[b][i] = stateCount * bandDataF[b + 3][i];
-                        }
+                final float stateCount = accu[1][i];
+                for (int b = 3; b < numTargetBands; ++b) {
+                    if (stateCount > 0) {
+                        accu[b][i] /= stateCount;
+                    } else {
+                        accu[b][i] = Float.NaN;
                     }
+                    //traceValue(i, stateCount, b, accu, microTileArea);
                 }
             }
-            pm.worked(6);
         }
-    }
 
-    private void divideByCount(Rectangle microTileArea, int numTargetBands, float[][] accu) {
-        for (int i = 0; i < microTileArea.height * microTileArea.width; ++i) {
-            final float stateCount = accu[1][i];
-            for (int b = 3; b < numTargetBands; ++b) {
-                if (stateCount > 0) {
-                    accu[b][i] /= stateCount;
+
+        private void clearAccu(int numTargetBands, float[][] accu) {
+            for (int b = 0; b < numTargetBands; b++) {
+                Arrays.fill(accu[b], 0.0f);
+            }
+        }
+
+        private void clearNdxi() {
+            for (int j=0; j<NUM_INDEXES; ++j) {
+                Arrays.fill(ndxiSum[j], 0.0f);
+                Arrays.fill(ndxiSqrSum[j], 0.0f);
+                Arrays.fill(ndxiCount[j], 0);
+                Arrays.fill(statusCount[j], 0);
+            }
+        }
+
+        private void readSourceBands(MultiLevelImage[] bandImage, Rectangle microTileArea, int numSourceBands, short[][] bandDataB, short[][] bandDataS, float[][] bandDataF) {
+            for (int b = 0; b < numSourceBands; b++) {
+                if (b == 0) {
+                    bandDataB[b] = (short[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
+                } else if (b < 6) {
+                    bandDataS[b] = (short[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
                 } else {
-                    accu[b][i] = Float.NaN;
+                    bandDataF[b] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
                 }
-                //traceValue(i, stateCount, b, accu, microTileArea);
             }
         }
-    }
-
 
-    private void clearAccu(int numTargetBands, float[][] accu) {
-        for (int b = 0; b < numTargetBands; b++) {
-            Arrays.fill(accu[b], 0.0f);
+        private void readStatusBand(MultiLevelImage[] bandImage, Rectangle microTileArea, short[][] bandDataB) {
+            bandDataB[0] = (short[]) ImageUtils.getPrimitiveArray(bandImage[0].getData(microTileArea).getDataBuffer());
         }
-    }
 
-    private void clearNdxi() {
-        for (int j=0; j<NUM_INDEXES; ++j) {
-            Arrays.fill(ndxiSum[j], 0.0f);
-            Arrays.fill(ndxiSqrSum[j], 0.0f);
-            Arrays.fill(ndxiCount[j], 0);
-            Arrays.fill(statusCount[j], 0);
+        private void readNdviNdwiBands(MultiLevelImage[] bandImage, int b3BandIndex, int b11BandIndex, int ndviBandIndex, Rectangle microTileArea, float[][] bandDataF) {
+            bandDataF[b3BandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b3BandIndex].getData(microTileArea).getDataBuffer());
+            bandDataF[b11BandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b11BandIndex].getData(microTileArea).getDataBuffer());
+            bandDataF[ndviBandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[ndviBandIndex].getData(microTileArea).getDataBuffer());
         }
     }
 
@@ -518,28 +660,6 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
         return ProductIO.readProduct(localFile);
     }
 
-    private void readSourceBands(MultiLevelImage[] bandImage, Rectangle microTileArea, int numSourceBands, short[][] bandDataB, short[][] bandDataS, float[][] bandDataF) {
-        for (int b = 0; b < numSourceBands; b++) {
-            if (b == 0) {
-                bandDataB[b] = (short[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
-            } else if (b < 6) {
-                bandDataS[b] = (short[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
-            } else {
-                bandDataF[b] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b].getData(microTileArea).getDataBuffer());
-            }
-        }
-    }
-
-    private void readStatusBand(MultiLevelImage[] bandImage, Rectangle microTileArea, short[][] bandDataB) {
-        bandDataB[0] = (short[]) ImageUtils.getPrimitiveArray(bandImage[0].getData(microTileArea).getDataBuffer());
-    }
-
-    private void readNdviNdwiBands(MultiLevelImage[] bandImage, int b3BandIndex, int b11BandIndex, int ndviBandIndex, Rectangle microTileArea, float[][] bandDataF) {
-        bandDataF[b3BandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b3BandIndex].getData(microTileArea).getDataBuffer());
-        bandDataF[b11BandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[b11BandIndex].getData(microTileArea).getDataBuffer());
-        bandDataF[ndviBandIndex] = (float[]) ImageUtils.getPrimitiveArray(bandImage[ndviBandIndex].getData(microTileArea).getDataBuffer());
-    }
-
     private static boolean containsNan(float[][] bandDataF, int numTargetBands, int i) {
         for (int b = 3; b < numTargetBands; ++b) {
             if (Float.isNaN(bandDataF[b + 3][i])) {
@@ -658,7 +778,7 @@ public class SeasonalCompositingMapper extends Mapper<NullWritable, NullWritable
         return product;
     }
 
-    private int majorityPriorityStatusOf(int[][] statusCount, int i) {
+    private static int majorityPriorityStatusOf(int[][] statusCount, int i) {
         return (statusCount[1][i] > 0 && statusCount[1][i] >= statusCount[0][i] && statusCount[1][i] >= statusCount[2][i]) ? 2 :  // more water than land or snow
                (statusCount[0][i] > 0 && statusCount[0][i] >= statusCount[2][i]) ? 1 :  // more land than snow
                statusCount[2][i] > 0 ? 3 :   // some snow
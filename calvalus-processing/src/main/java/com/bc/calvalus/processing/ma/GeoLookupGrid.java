@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ma;
+
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+
+import java.util.BitSet;
+
+/**
+ * A coarse lat/lon raster marking the area covered by the pixels of a product, used to reject
+ * reference locations far off the product without inverse geo-coding them.
+ * <p>
+ * The product is sampled by the geo-coding at the corners of cells of {@link #STEP} x {@link #STEP} pixels.
+ * The lat/lon box of each cell is extended by the size of the cell on each side and marked in the raster.
+ * Hence a location not marked is more than a cell away from any pixel, and the inverse geo-coding
+ * cannot find a valid pixel for it within the allowed pixel displacement.
+ */
+final class GeoLookupGrid {
+
+    static final int STEP = 16;
+
+    private static final int MAX_RASTER_SIZE = 1 << 22;
+
+    private final double latMin;
+    private final double lonMin;
+    private final double cellSize;
+    private final int numRows;
+    private final int numCols;
+    private final BitSet covered;
+
+    private GeoLookupGrid(double latMin, double lonMin, double cellSize, int numRows, int numCols) {
+        this.latMin = latMin;
+        this.lonMin = lonMin;
+        this.cellSize = cellSize;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.covered = new BitSet(numRows * numCols);
+    }
+
+    /**
+     * @return the number of geo-coding calls needed to create the grid of a product of this size
+     */
+    static long getNodeCount(int width, int height) {
+        return (long) (width / STEP + 2) * (height / STEP + 2);
+    }
+
+    /**
+     * @return the grid, or null if the product covers a pole or the anti-meridian or has no valid geo-location,
+     * in which case every location has to be geo-coded
+     */
+    static GeoLookupGrid create(GeoCoding geoCoding, int width, int height) {
+        int numX = (width + STEP - 1) / STEP;
+        int numY = (height + STEP - 1) / STEP;
+        double[] nodeLats = new double[(numX + 1) * (numY + 1)];
+        double[] nodeLons = new double[(numX + 1) * (numY + 1)];
+        PixelPos pixelPos = new PixelPos();
+        GeoPos geoPos = new GeoPos();
+        for (int j = 0; j <= numY; j++) {
+            for (int i = 0; i <= numX; i++) {
+                pixelPos.setLocation(Math.min(i * STEP, width), Math.min(j * STEP, height));
+                geoCoding.getGeoPos(pixelPos, geoPos);
+                int node = j * (numX + 1) + i;
+                nodeLats[node] = geoPos.isValid() ? geoPos.lat : Double.NaN;
+                nodeLons[node] = geoPos.isValid() ? geoPos.lon : Double.NaN;
+            }
+        }
+
+        // extended lat/lon boxes of all cells, as latMin, latMax, lonMin, lonMax, or NaN if the cell has no valid pixel
+        double[] boxes = new double[numX * numY * 4];
+        double extentSum = 0.0;
+        int numBoxes = 0;
+        double[] lats = new double[4];
+        double[] lons = new double[4];
+        for (int j = 0; j < numY; j++) {
+            for (int i = 0; i < numX; i++) {
+                int node = j * (numX + 1) + i;
+                lats[0] = nodeLats[node];
+                lats[1] = nodeLats[node + 1];
+                lats[2] = nodeLats[node + numX + 1];
+                lats[3] = nodeLats[node + numX + 2];
+                lons[0] = nodeLons[node];
+                lons[1] = nodeLons[node + 1];
+                lons[2] = nodeLons[node + numX + 1];
+                lons[3] = nodeLons[node + numX + 2];
+                double[] box = getBox(lats, lons);
+                if (box == null || Double.isNaN(lats[0] + lats[1] + lats[2] + lats[3])) {
+                    // some corners without geo-location, e.g. at swath borders, hence sample every pixel of the cell
+                    box = getBox(geoCoding, i * STEP, j * STEP, Math.min(STEP, width - i * STEP), Math.min(STEP, height - j * STEP));
+                }
+                int b = (j * numX + i) * 4;
+                if (box == null) {
+                    boxes[b] = Double.NaN;
+                    continue;
+                }
+                double extent = Math.max(box[1] - box[0], box[3] - box[2]);
+                if (extent > 180.0) {
+                    return null;
+                }
+                extentSum += extent;
+                numBoxes++;
+                boxes[b] = box[0] - extent;
+                boxes[b + 1] = box[1] + extent;
+                boxes[b + 2] = box[2] - extent;
+                boxes[b + 3] = box[3] + extent;
+                if (boxes[b] <= -90.0 || boxes[b + 1] >= 90.0 || boxes[b + 2] <= -180.0 || boxes[b + 3] >= 180.0) {
+                    return null;
+                }
+            }
+        }
+        if (numBoxes == 0) {
+            return null;
+        }
+
+        double latMin = 90.0;
+        double latMax = -90.0;
+        double lonMin = 180.0;
+        double lonMax = -180.0;
+        for (int b = 0; b < boxes.length; b += 4) {
+            if (!Double.isNaN(boxes[b])) {
+                latMin = Math.min(latMin, boxes[b]);
+                latMax = Math.max(latMax, boxes[b + 1]);
+                lonMin = Math.min(lonMin, boxes[b + 2]);
+                lonMax = Math.max(lonMax, boxes[b + 3]);
+            }
+        }
+        double cellSize = Math.max(extentSum / numBoxes, 1e-6);
+        while (Math.ceil((latMax - latMin) / cellSize) * Math.ceil((lonMax - lonMin) / cellSize) > MAX_RASTER_SIZE) {
+            cellSize *= 2;
+        }
+        int numRows = Math.max(1, (int) Math.ceil((latMax - latMin) / cellSize));
+        int numCols = Math.max(1, (int) Math.ceil((lonMax - lonMin) / cellSize));
+        GeoLookupGrid grid = new GeoLookupGrid(latMin, lonMin, cellSize, numRows, numCols);
+        for (int b = 0; b < boxes.length; b += 4) {
+            if (!Double.isNaN(boxes[b])) {
+                grid.mark(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return false if the location is certainly not covered by the product, true if it may be
+     */
+    boolean mayContain(double lat, double lon) {
+        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+            return true;
+        }
+        if (lon >= 180.0) {
+            lon -= 360.0;
+        } else if (lon < -180.0) {
+            lon += 360.0;
+        }
+        int row = (int) Math.floor((lat - latMin) / cellSize);
+        int col = (int) Math.floor((lon - lonMin) / cellSize);
+        if (row < 0 || row >= numRows || col < 0 || col >= numCols) {
+            return false;
+        }
+        return covered.get(row * numCols + col);
+    }
+
+    private void mark(double boxLatMin, double boxLatMax, double boxLonMin, double boxLonMax) {
+        int row1 = Math.max(0, (int) Math.floor((boxLatMin - latMin) / cellSize));
+        int row2 = Math.min(numRows - 1, (int) Math.floor((boxLatMax - latMin) / cellSize));
+        int col1 = Math.max(0, (int) Math.floor((boxLonMin - lonMin) / cellSize));
+        int col2 = Math.min(numCols - 1, (int) Math.floor((boxLonMax - lonMin) / cellSize));
+        for (int row = row1; row <= row2; row++) {
+            covered.set(row * numCols + col1, row * numCols + col2 + 1);
+        }
+    }
+
+    private static double[] getBox(double[] lats, double[] lons) {
+        double[] box = null;
+        for (int k = 0; k < lats.length; k++) {
+            if (!Double.isNaN(lats[k]) && !Double.isNaN(lons[k])) {
+                if (box == null) {
+                    box = new double[]{lats[k], lats[k], lons[k], lons[k]};
+                } else {
+                    box[0] = Math.min(box[0], lats[k]);
+                    box[1] = Math.max(box[1], lats[k]);
+                    box[2] = Math.min(box[2], lons[k]);
+                    box[3] = Math.max(box[3], lons[k]);
+                }
+            }
+        }
+        return box;
+    }
+
+    private static double[] getBox(GeoCoding geoCoding, int x0, int y0, int w, int h) {
+        // pixel corners and centres
+        double[] lats = new double[(2 * w + 1) * (2 * h + 1)];
+        double[] lons = new double[lats.length];
+        PixelPos pixelPos = new PixelPos();
+        GeoPos geoPos = new GeoPos();
+        int k = 0;
+        for (int y = 0; y <= 2 * h; y++) {
+            for (int x = 0; x <= 2 * w; x++) {
+                pixelPos.setLocation(x0 + 0.5 * x, y0 + 0.5 * y);
+                geoCoding.getGeoPos(pixelPos, geoPos);
+                lats[k] = geoPos.isValid() ? geoPos.lat : Double.NaN;
+                lons[k] = geoPos.isValid() ? geoPos.lon : Double.NaN;
+                k++;
+            }
+        }
+        return getBox(lats, lons);
+    }
+}
@@ -41,6 +41,8 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 /**
@@ -48,7 +50,7 @@ import java.util.logging.Logger;
  *
  * @author Norman Fomferra
  */
-public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWritable> {
+public class MAMapper extends Mapper<NullWritable, NullWritable, MatchUpKey, MatchUpWritable> {
 
     public static final Text HEADER_KEY = new Text("#");
 
@@ -86,6 +88,11 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
         ProgressMonitor pm = new ProgressSplitProgressMonitor(context);
         pm.beginTask("Match-Up analysis", progressForProcessing + progressForSaving + progressForExtraction);
         ProgressMonitor extractionPM = SubProgressMonitor.create(pm, progressForExtraction);
+        ReferenceRecordIndex referenceRecordIndex = null;
+        // one pool for all geo-coding of the mapper, shut down with the mapper,
+        // off by default because the geo-coding of a product is not necessarily thread-safe
+        int geoCodingThreads = conf.getInt(JobConfigNames.CALVALUS_MA_GEOCODING_THREADS, 1);
+        ExecutorService geoCodingExecutor = geoCodingThreads > 1 ? Executors.newFixedThreadPool(geoCodingThreads) : null;
         try {
             Product inputProduct = processorAdapter.getInputProduct();
             long productOpenTime = (now() - t0);
@@ -93,14 +100,19 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                                    context.getTaskAttemptID(), inputProduct.getName(), productOpenTime / 1E3));
 
             t0 = now();
-            RecordSource referenceRecordSource = getReferenceRecordSource(maConfig, regionGeometry, conf);
-            Header referenceRecordHeader = referenceRecordSource.getHeader();
+            referenceRecordIndex = ReferenceRecordIndex.open(conf);
+            RecordSource referenceRecordSource = referenceRecordIndex == null ? getReferenceRecordSource(maConfig, regionGeometry, conf) : null;
+            Header referenceRecordHeader = referenceRecordIndex != null ? referenceRecordIndex.getHeader() : referenceRecordSource.getHeader();
             PixelPosProvider pixelPosProvider = new PixelPosProvider(inputProduct,
                                                                      PixelTimeProvider.create(inputProduct),
                                                                      maConfig.getMaxTimeDifference(),
-                                                                     referenceRecordHeader.hasTime());
+                                                                     referenceRecordHeader.hasTime(),
+                                                                     geoCodingExecutor);
             List<PixelPosProvider.PixelPosRecord> pixelPosRecords;
             try {
+                if (referenceRecordIndex != null) {
+                    referenceRecordSource = referenceRecordIndex.query(inputProduct, maConfig.getMacroPixelSize(), pixelPosProvider.getReferenceTimeRange());
+                }
                 pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordSource.getRecords());
             } catch (Exception e) {
                 throw new RuntimeException("Failed to retrieve input records. " + e.getMessage(), e);
@@ -153,13 +165,18 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                     if (!useInputPixelPos || transform == null) {
                         LOG.info("Retrieving pixel positions from processed product");
                         transform = new AffineTransform();
-                        referenceRecordSource = getReferenceRecordSource(maConfig, regionGeometry, conf);
                         pixelPosProvider = new PixelPosProvider(processedProduct,
                                                                 PixelTimeProvider.create(processedProduct),
                                                                 maConfig.getMaxTimeDifference(),
-                                                                referenceRecordHeader.hasTime());
+                                                                referenceRecordHeader.hasTime(),
+                                                                geoCodingExecutor);
 
                         try {
+                            if (referenceRecordIndex != null) {
+                                referenceRecordSource = referenceRecordIndex.query(processedProduct, maConfig.getMacroPixelSize(), pixelPosProvider.getReferenceTimeRange());
+                            } else {
+                                referenceRecordSource = getReferenceRecordSource(maConfig, regionGeometry, conf);
+                            }
                             pixelPosRecords = pixelPosProvider.computePixelPosRecords(referenceRecordSource.getRecords());
                         } catch (Exception e) {
                             throw new RuntimeException("Failed to retrieve input records. " + e.getMessage(), e);
@@ -191,8 +208,8 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
 
                 int numMatchUps = 0;
                 for (Record selectedRecord : overlappingFilteredRecords) {
-                    context.write(new Text(String.format("%06d_%s", selectedRecord.getId(), processedProduct.getName())),
-                                  new RecordWritable(selectedRecord.getAttributeValues(), selectedRecord.getAnnotationValues()));
+                    context.write(MatchUpKey.createRecordKey(selectedRecord.getId(), processedProduct.getName()),
+                                  new MatchUpWritable(selectedRecord.getAttributeValues(), selectedRecord.getAnnotationValues()));
                     context.progress();
                     extractionPM.worked(1);
                     numMatchUps++;
@@ -202,8 +219,8 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                 LOG.info(String.format("found %s match-ups, took %s sec", numMatchUps, recordWriteTime / 1E3));
                 if (numMatchUps > 0) {
                     // write header for each product, it may change in the time series (e.g. for Landsat at 01.05.2017)
-                    context.write(new Text(String.format("#_%s", processedProduct.getName())),
-                                  new RecordWritable(header.getAttributeNames(), header.getAnnotationNames()));
+                    context.write(MatchUpKey.createHeaderKey(processedProduct.getName()),
+                                  new MatchUpWritable(header.getAttributeNames(), header.getAnnotationNames()));
                     context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Products with match-ups").increment(1);
                     context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Number of match-ups").increment(numMatchUps);
                 } else {
@@ -218,6 +235,12 @@ public class MAMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
         } finally {
             extractionPM.done();
             pm.done();
+            if (referenceRecordIndex != null) {
+                referenceRecordIndex.close();
+            }
+            if (geoCodingExecutor != null) {
+                geoCodingExecutor.shutdownNow();
+            }
             processorAdapter.dispose();
         }
 
@@ -36,14 +36,14 @@ import java.util.NoSuchElementException;
 import java.util.logging.Logger;
 
 /**
- * Reads the records emitted by the MAMapper.
+ * Reads the records emitted by the MAMapper and writes them with their textual keys.
  * It is expected that each true 'record' key will only have one unique value.
  * Only 'header' keys ("#") will have multiple values containing (in most cases) all the same the attribute names.
  * This is why the reducer only writes the first value and checks whether the other headers are equal.
  *
  * @author Norman Fomferra
  */
-public class MAReducer extends Reducer<Text, RecordWritable, Text, RecordWritable> {
+public class MAReducer extends Reducer<MatchUpKey, MatchUpWritable, Text, RecordWritable> {
 
     static final Logger LOG = CalvalusLogger.getLogger();
 
@@ -85,11 +85,12 @@ public class MAReducer extends Reducer<Text, RecordWritable, Text, RecordWritabl
         Map<String, RecordProcessor[]> filenameMap = new HashMap<>();
 
         while (context.nextKey()) {
-            final Text key = context.getCurrentKey();
-            final Iterator<RecordWritable> iterator = context.getValues().iterator();
+            final Text key = new Text(context.getCurrentKey().toString());
+            final Iterator<MatchUpWritable> iterator = context.getValues().iterator();
             if (iterator.hasNext()) {
 
-                final RecordWritable record = iterator.next();
+                final MatchUpWritable matchUp = iterator.next();
+                final RecordWritable record = new RecordWritable(matchUp.getAttributeValues(), matchUp.getAnnotationValues());
                 context.write(key, record);  // where is this written to?
 
                 if (key.toString().startsWith("#_")) {
@@ -16,16 +16,30 @@
 
 package com.bc.calvalus.processing.ma;
 
+import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.JobUtils;
 import com.bc.calvalus.processing.hadoop.HadoopProcessingService;
 import com.bc.calvalus.processing.hadoop.HadoopWorkflowItem;
+import com.bc.calvalus.processing.utils.GeometryUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.locationtech.jts.geom.Geometry;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A workflow item creating a Hadoop job for match-up extraction on n input products.
@@ -35,6 +49,8 @@ import java.io.IOException;
  */
 public class MAWorkflowItem extends HadoopWorkflowItem {
 
+    private static final Logger LOG = CalvalusLogger.getLogger();
+
     public MAWorkflowItem(HadoopProcessingService processingService, String username, String jobName, Configuration jobConfig) {
         super(processingService, username, jobName, jobConfig);
     }
@@ -86,8 +102,8 @@ public class MAWorkflowItem extends HadoopWorkflowItem {
 
         job.setInputFormatClass(getInputFormatClass(jobConfig));
         job.setMapperClass(MAMapper.class);
-        job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(RecordWritable.class);
+        job.setMapOutputKeyClass(MatchUpKey.class);
+        job.setMapOutputValueClass(MatchUpWritable.class);
         job.setReducerClass(MAReducer.class);
         job.setNumReduceTasks(1);
         job.setOutputKeyClass(Text.class);
@@ -95,6 +111,68 @@ public class MAWorkflowItem extends HadoopWorkflowItem {
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
         JobUtils.clearAndSetOutputDir(getOutputDir(), job, this);
+
+        if (jobConfig.getBoolean(JobConfigNames.CALVALUS_MA_REFERENCE_INDEX, true)) {
+            addReferenceRecordIndex(job);
+        }
+    }
+
+    /**
+     * Compiles the reference records into an index shipped to the mappers by the distributed cache.
+     * The index is kept for later jobs with the same reference records and region.
+     * If the index cannot be created the mappers read the reference records themselves.
+     */
+    private void addReferenceRecordIndex(Job job) {
+        Configuration jobConfig = job.getConfiguration();
+        try {
+            MAConfig maConfig = MAConfig.get(jobConfig);
+            Path recordSourcePath = new Path(maConfig.getRecordSourceUrl());
+            FileSystem recordSourceFs = getProcessingService().getFileSystem(getUserName(), jobConfig, recordSourcePath);
+            FileStatus recordSourceStatus = recordSourceFs.getFileStatus(recordSourcePath);
+            String regionWkt = jobConfig.get(JobConfigNames.CALVALUS_REGION_GEOMETRY, "");
+            String indexDir = jobConfig.get(JobConfigNames.CALVALUS_MA_REFERENCE_INDEX_DIR,
+                                            String.format("/calvalus/home/%s/.ma-reference-index", getUserName()));
+            FileSystem fs = getProcessingService().getFileSystem(getUserName(), indexDir);
+            Path indexPath = fs.makeQualified(new Path(indexDir, createIndexName(recordSourceStatus, maConfig, regionWkt)));
+            if (!fs.exists(indexPath)) {
+                long t0 = System.currentTimeMillis();
+                RecordSource recordSource = maConfig.createRecordSource(jobConfig);
+                Geometry regionGeometry = GeometryUtils.createGeometry(regionWkt);
+                if (regionGeometry != null) {
+                    recordSource = new FilteredRecordSource(recordSource, new GeometryRecordFilter(regionGeometry));
+                }
+                Path tmpPath = new Path(indexDir, "_" + indexPath.getName() + "-" + UUID.randomUUID());
+                int numRecords;
+                try (OutputStream out = fs.create(tmpPath)) {
+                    numRecords = ReferenceRecordIndex.write(recordSource, out);
+                }
+                if (!fs.rename(tmpPath, indexPath)) {
+                    // created concurrently by another job
+                    fs.delete(tmpPath, false);
+                }
+                LOG.info(String.format("indexed %d reference records of %s in %s, took %s sec",
+                                       numRecords, recordSourcePath, indexPath, (System.currentTimeMillis() - t0) / 1E3));
+            }
+            jobConfig.set(JobConfigNames.CALVALUS_MA_REFERENCE_INDEX_PATH, indexPath.toString());
+            job.addCacheFile(new URI(indexPath.toUri() + "#" + ReferenceRecordIndex.LINK_NAME));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "cannot index reference records, mappers read them: " + e.getMessage(), e);
+        }
+    }
+
+    static String createIndexName(FileStatus recordSourceStatus, MAConfig maConfig, String regionWkt) {
+        String id = recordSourceStatus.getPath() + "\n" + recordSourceStatus.getLen() + "\n" + recordSourceStatus.getModificationTime()
+                    + "\n" + maConfig.getRecordSourceSpiClassName() + "\n" + regionWkt;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(id.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                name.append(String.format("%02x", b & 0xff));
+            }
+            return name.append(".idx").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
 }
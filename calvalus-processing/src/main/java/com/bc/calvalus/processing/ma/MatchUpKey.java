@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ma;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary key of the records passed from the match-up mappers to the {@link MAReducer}.
+ * It consists of the ID of the reference record and the name of the product, or marks the header of a product.
+ * <p>
+ * Keys are sorted in the order of their textual form, {@code #_<product>} for headers
+ * and {@code <id, 6 digits>_<product>} for records, which is the key written to the output.
+ * Hence all headers precede the records, and the records are sorted by ID and product.
+ */
+public class MatchUpKey implements WritableComparable<MatchUpKey> {
+
+    private static final byte HEADER = 0;
+    private static final byte PRODUCT_HEADER = 1;
+    private static final byte RECORD = 2;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    static {
+        WritableComparator.define(MatchUpKey.class, new Comparator());
+    }
+
+    private byte kind;
+    private int recordId;
+    private String productName;
+
+    public MatchUpKey() {
+    }
+
+    private MatchUpKey(byte kind, int recordId, String productName) {
+        this.kind = kind;
+        this.recordId = recordId;
+        this.productName = productName;
+    }
+
+    /**
+     * @param productName the product name, or null for a header common to all products
+     */
+    public static MatchUpKey createHeaderKey(String productName) {
+        return new MatchUpKey(productName != null ? PRODUCT_HEADER : HEADER, 0, productName);
+    }
+
+    public static MatchUpKey createRecordKey(int recordId, String productName) {
+        return new MatchUpKey(RECORD, recordId, productName);
+    }
+
+    public boolean isHeader() {
+        return kind != RECORD;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    /**
+     * @return the product name, or null for a header common to all products
+     */
+    public String getProductName() {
+        return productName;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(kind);
+        if (kind == RECORD) {
+            out.writeInt(recordId);
+        }
+        if (kind != HEADER) {
+            Text.writeString(out, productName);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        kind = in.readByte();
+        recordId = kind == RECORD ? in.readInt() : 0;
+        productName = kind != HEADER ? Text.readString(in) : null;
+    }
+
+    @Override
+    public int compareTo(MatchUpKey other) {
+        byte[] name1 = productName != null ? productName.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] name2 = other.productName != null ? other.productName.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return Comparator.compare(kind, recordId, name1, 0, name1.length,
+                                  other.kind, other.recordId, name2, 0, name2.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MatchUpKey)) {
+            return false;
+        }
+        MatchUpKey other = (MatchUpKey) o;
+        return kind == other.kind && recordId == other.recordId
+               && (productName != null ? productName.equals(other.productName) : other.productName == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * kind + recordId) + (productName != null ? productName.hashCode() : 0);
+    }
+
+    /**
+     * @return the textual form of the key, as written to the output
+     */
+    @Override
+    public String toString() {
+        if (kind == HEADER) {
+            return "#";
+        } else if (kind == PRODUCT_HEADER) {
+            return "#_" + productName;
+        }
+        return String.format("%06d_%s", recordId, productName);
+    }
+
+    /**
+     * @return the length of the textual form of the key without the product name
+     */
+    private static int getPrefixLength(byte kind, int recordId) {
+        if (kind == HEADER) {
+            return 1;
+        } else if (kind == PRODUCT_HEADER) {
+            return 2;
+        }
+        // same as "%06d_"
+        int numDigits = 1;
+        for (long rest = Math.abs((long) recordId) / 10; rest > 0; rest /= 10) {
+            numDigits++;
+        }
+        return recordId < 0 ? Math.max(numDigits, 5) + 2 : Math.max(numDigits, 6) + 1;
+    }
+
+    /**
+     * @return the byte at the index given of the textual form of the key without the product name
+     */
+    private static int getPrefixByte(byte kind, int recordId, int prefixLength, int index) {
+        if (kind != RECORD) {
+            return index == 0 ? '#' : '_';
+        } else if (index == prefixLength - 1) {
+            return '_';
+        } else if (index == 0 && recordId < 0) {
+            return '-';
+        }
+        long value = Math.abs((long) recordId);
+        return '0' + (int) (value / POWERS_OF_TEN[prefixLength - 2 - index] % 10);
+    }
+
+    /**
+     * Compares serialised keys without deserialising them.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(MatchUpKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                byte kind1 = b1[s1];
+                byte kind2 = b2[s2];
+                int recordId1 = kind1 == RECORD ? readInt(b1, s1 + 1) : 0;
+                int recordId2 = kind2 == RECORD ? readInt(b2, s2 + 1) : 0;
+                int name1 = s1 + (kind1 == RECORD ? 5 : 1);
+                int name2 = s2 + (kind2 == RECORD ? 5 : 1);
+                int nameLength1 = 0;
+                int nameLength2 = 0;
+                if (kind1 != HEADER) {
+                    nameLength1 = readVInt(b1, name1);
+                    name1 += WritableUtils.decodeVIntSize(b1[name1]);
+                }
+                if (kind2 != HEADER) {
+                    nameLength2 = readVInt(b2, name2);
+                    name2 += WritableUtils.decodeVIntSize(b2[name2]);
+                }
+                return compare(kind1, recordId1, b1, name1, nameLength1, kind2, recordId2, b2, name2, nameLength2);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Compares the textual forms of keys byte-wise, like {@link Text}, without building them.
+         */
+        static int compare(byte kind1, int recordId1, byte[] b1, int name1, int nameLength1,
+                           byte kind2, int recordId2, byte[] b2, int name2, int nameLength2) {
+            int prefixLength1 = getPrefixLength(kind1, recordId1);
+            int prefixLength2 = getPrefixLength(kind2, recordId2);
+            int length1 = prefixLength1 + nameLength1;
+            int length2 = prefixLength2 + nameLength2;
+            int length = Math.min(length1, length2);
+            for (int i = 0; i < length; i++) {
+                int c1 = i < prefixLength1 ? getPrefixByte(kind1, recordId1, prefixLength1, i)
+                                           : b1[name1 + i - prefixLength1] & 0xff;
+                int c2 = i < prefixLength2 ? getPrefixByte(kind2, recordId2, prefixLength2, i)
+                                           : b2[name2 + i - prefixLength2] & 0xff;
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            return length1 - length2;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ma;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A compact Hadoop writable for the records passed from the match-up mappers to the {@link MAReducer},
+ * supporting the value types of {@link RecordWritable}.
+ * <p/>
+ * <i>
+ * Implementation note: Instead of a type identifier for each value, the values of a record are preceded
+ * by a bitmap of the {@code null} values and by the run-length encoded types of the other values.
+ * The types of consecutive values are mostly the same, e.g. for the aggregated pixel values of the bands.
+ * </i>
+ */
+public class MatchUpWritable implements Writable {
+
+    private static final RecordWritable.Type[] TYPES = RecordWritable.Type.values();
+
+    private Object[] attributeValues;
+    private Object[] annotationValues;
+
+    public MatchUpWritable() {
+    }
+
+    public MatchUpWritable(Object[] attributeValues, Object[] annotationValues) {
+        this.attributeValues = attributeValues;
+        this.annotationValues = annotationValues;
+    }
+
+    public Object[] getAttributeValues() {
+        return attributeValues;
+    }
+
+    public Object[] getAnnotationValues() {
+        return annotationValues;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        writeValues(out, attributeValues);
+        writeValues(out, annotationValues);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        attributeValues = readValues(in, attributeValues);
+        annotationValues = readValues(in, annotationValues);
+    }
+
+    static void writeValues(DataOutput out, Object[] values) throws IOException {
+        WritableUtils.writeVInt(out, values.length);
+        RecordWritable.Type[] types = new RecordWritable.Type[values.length];
+        for (int i = 0; i < values.length; i++) {
+            types[i] = RecordWritable.Type.getType(values[i]);
+            if (types[i] == null) {
+                throw new IllegalStateException("Unhandled value type: " + values[i].getClass());
+            }
+        }
+        // null bitmap
+        for (int i = 0; i < values.length; i += 8) {
+            int bits = 0;
+            for (int j = i; j < Math.min(i + 8, values.length); j++) {
+                if (types[j] == RecordWritable.Type.NULL) {
+                    bits |= 1 << (j - i);
+                }
+            }
+            out.writeByte(bits);
+        }
+        // runs of types, a null value continues the current run
+        int runStart = 0;
+        RecordWritable.Type runType = null;
+        for (int i = 0; i < values.length; i++) {
+            if (types[i] == RecordWritable.Type.NULL) {
+                continue;
+            }
+            if (runType == null) {
+                runType = types[i];
+            } else if (types[i] != runType) {
+                out.writeByte(runType.ordinal());
+                WritableUtils.writeVInt(out, i - runStart);
+                runStart = i;
+                runType = types[i];
+            }
+        }
+        if (runStart < values.length) {
+            out.writeByte(runType != null ? runType.ordinal() : RecordWritable.Type.NULL.ordinal());
+            WritableUtils.writeVInt(out, values.length - runStart);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (types[i] != RecordWritable.Type.NULL) {
+                RecordWritable.writeValue(out, types[i], values[i]);
+            }
+        }
+    }
+
+    static Object[] readValues(DataInput in, Object[] values) throws IOException {
+        final int valueCount = WritableUtils.readVInt(in);
+        if (values == null || values.length != valueCount) {
+            values = new Object[valueCount];
+        }
+        boolean[] isNull = new boolean[valueCount];
+        for (int i = 0; i < valueCount; i += 8) {
+            int bits = in.readByte();
+            for (int j = i; j < Math.min(i + 8, valueCount); j++) {
+                isNull[j] = (bits & (1 << (j - i))) != 0;
+            }
+        }
+        RecordWritable.Type[] types = new RecordWritable.Type[valueCount];
+        for (int i = 0; i < valueCount; ) {
+            int typeOrdinal = in.readByte();
+            if (typeOrdinal < 0 || typeOrdinal >= TYPES.length) {
+                throw new IllegalStateException("Read illegal type ordinal: " + typeOrdinal);
+            }
+            int runLength = WritableUtils.readVInt(in);
+            if (runLength <= 0 || i + runLength > valueCount) {
+                throw new IllegalStateException("Read illegal run length: " + runLength);
+            }
+            for (int j = i; j < i + runLength; j++) {
+                types[j] = TYPES[typeOrdinal];
+            }
+            i += runLength;
+        }
+        for (int i = 0; i < valueCount; i++) {
+            values[i] = isNull[i] ? null : RecordWritable.readValue(in, types[i]);
+        }
+        return values;
+    }
+}
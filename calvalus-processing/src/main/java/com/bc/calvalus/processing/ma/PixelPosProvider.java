@@ -17,6 +17,7 @@
 package com.bc.calvalus.processing.ma;
 
 import com.bc.calvalus.commons.DateUtils;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
 import org.esa.snap.core.datamodel.GeoCoding;
 import org.esa.snap.core.datamodel.GeoPos;
 import org.esa.snap.core.datamodel.PixelPos;
@@ -31,6 +32,9 @@ import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -38,6 +42,8 @@ import java.util.logging.Logger;
  */
 public class PixelPosProvider {
     private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final int BATCH_SIZE = 4096;
+    private static final int CHUNK_SIZE = 256;
 
     private final Product product;
     private final PixelTimeProvider pixelTimeProvider;
@@ -46,14 +52,32 @@ public class PixelPosProvider {
     private final long productEndTime;
     // todo make this a parameter
     private final int allowedPixelDisplacement;
+    private final ExecutorService executorService;
+    private GeoLookupGrid lookupGrid;
+    private long numLocationsGeoCoded;
 
 
     public PixelPosProvider(Product product, PixelTimeProvider pixelTimeProvider,
                             String maxTimeDifference, boolean hasReferenceTime) {
+        this(product, pixelTimeProvider, maxTimeDifference, hasReferenceTime, null);
+    }
+
+    /**
+     * @param executorService the executor to geo-code the reference locations concurrently, or null to geo-code
+     *                        them in the calling thread. It requires the geo-coding of the product to be thread-safe.
+     *                        The executor is owned by the caller, who may share it between providers.
+     */
+    public PixelPosProvider(Product product, PixelTimeProvider pixelTimeProvider,
+                            String maxTimeDifference, boolean hasReferenceTime, ExecutorService executorService) {
         this.product = product;
+        this.executorService = executorService;
         if (product.getSceneGeoCoding() == null) {
             throw new NullPointerException("product has no geo-coding");
         }
+        if (!hasExactInverse(product.getSceneGeoCoding())) {
+            // the lookup grid could reject locations the approximate inverse geo-coding places in the product
+            numLocationsGeoCoded = -1;
+        }
         this.pixelTimeProvider = pixelTimeProvider;
 
         if (maxTimeDifference != null && hasReferenceTime) {
@@ -101,7 +125,7 @@ public class PixelPosProvider {
      * @param referenceRecord The reference record
      * @return The pixel position, or {@code null} if no such exist.
      */
-    private PixelPosRecord getPixelPosRecord(Record referenceRecord) {
+    PixelPosRecord getPixelPosRecord(Record referenceRecord) {
 
         if (testTime()) {
 
@@ -135,6 +159,23 @@ public class PixelPosProvider {
         return null;
     }
 
+    /**
+     * Gets the range of reference times that can match the product.
+     * A reference record outside of this range is rejected by the time test.
+     *
+     * @return minimum and maximum reference time, or {@code null} if the time is not tested
+     */
+    public long[] getReferenceTimeRange() {
+        if (!testTime()) {
+            return null;
+        }
+        long maxTimeDifference = timeRangeProvider.getMaxTimeDifference();
+        return new long[]{
+                Math.min(productStartTime, productEndTime) - maxTimeDifference,
+                Math.max(productStartTime, productEndTime) + maxTimeDifference
+        };
+    }
+
     private boolean testTime() {
         return timeRangeProvider != null && pixelTimeProvider != null;
     }
@@ -144,6 +185,10 @@ public class PixelPosProvider {
         if (location == null) {
             return null;
         }
+        return getSpatiallyValidPixelPos(location);
+    }
+
+    private PixelPos getSpatiallyValidPixelPos(GeoPos location) {
         GeoCoding geoCoding = product.getSceneGeoCoding();
         final PixelPos pixelPos = geoCoding.getPixelPos(location, null);
         if (pixelPos.isValid() && product.containsPixel(pixelPos)) {
@@ -177,19 +222,150 @@ public class PixelPosProvider {
         return timeRangeProvider.getMaxReferenceTime(referenceRecord);
     }
 
+    /**
+     * Computes the spatially valid pixel positions of a batch of locations, the same as for single records,
+     * possibly concurrently. For geo-codings with an exact inverse, i.e. map projections, locations
+     * far off the product are rejected by a coarse lookup grid first. Other geo-codings, e.g. tie-point or
+     * pixel geo-codings, approximate the inverse and may place such locations in the product, hence all
+     * their locations are geo-coded one by one. A coarse lat/lon to pixel seed refined by a local search would
+     * not reproduce the pixel positions of their inverse exactly, so it is not used for them.
+     * <p>
+     * Locations are only geo-coded concurrently if the provider has an executor, which
+     * {@code calvalus.ma.geoCodingThreads} enables for match-ups.
+     *
+     * @param lats   The latitudes
+     * @param lons   The longitudes
+     * @param length The number of locations
+     * @param pixelX Receives the pixel x coordinates, or NaN if there is no spatially valid pixel position
+     * @param pixelY Receives the pixel y coordinates, or NaN if there is no spatially valid pixel position
+     */
+    public void computePixelPos(double[] lats, double[] lons, int length, double[] pixelX, double[] pixelY) {
+        if (lookupGrid == null && numLocationsGeoCoded >= 0) {
+            numLocationsGeoCoded += length;
+            // creating the grid pays off as soon as more locations have been geo-coded than grid nodes are needed
+            int width = product.getSceneRasterWidth();
+            int height = product.getSceneRasterHeight();
+            if (numLocationsGeoCoded > GeoLookupGrid.getNodeCount(width, height)) {
+                lookupGrid = GeoLookupGrid.create(product.getSceneGeoCoding(), width, height);
+                if (lookupGrid == null) {
+                    LOG.info("no lookup grid for geo-coding of product " + product.getName());
+                    numLocationsGeoCoded = -1;
+                }
+            }
+        }
+        if (executorService == null || length <= CHUNK_SIZE) {
+            computePixelPos(lats, lons, 0, length, pixelX, pixelY);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        try {
+            for (int start = 0; start < length; start += CHUNK_SIZE) {
+                int chunkStart = start;
+                int chunkEnd = Math.min(length, start + CHUNK_SIZE);
+                futures.add(executorService.submit(() -> computePixelPos(lats, lons, chunkStart, chunkEnd, pixelX, pixelY)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // after a failure, chunks not yet started are dropped
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static boolean hasExactInverse(GeoCoding geoCoding) {
+        return geoCoding instanceof CrsGeoCoding;
+    }
+
+    private void computePixelPos(double[] lats, double[] lons, int start, int end, double[] pixelX, double[] pixelY) {
+        for (int i = start; i < end; i++) {
+            PixelPos pixelPos = null;
+            if (lookupGrid == null || lookupGrid.mayContain(lats[i], lons[i])) {
+                pixelPos = getSpatiallyValidPixelPos(new GeoPos(lats[i], lons[i]));
+            }
+            pixelX[i] = pixelPos != null ? pixelPos.x : Double.NaN;
+            pixelY[i] = pixelPos != null ? pixelPos.y : Double.NaN;
+        }
+    }
+
     private List<PixelPosRecord> getInputRecordsSortedByPixelYX(Iterable<Record> inputRecords) {
         ArrayList<PixelPosRecord> pixelPosList = new ArrayList<>(128);
+        // the records passing the time test are geo-coded in batches, in the order of the input records
+        Record[] batch = new Record[BATCH_SIZE];
+        long[] minReferenceTimes = new long[BATCH_SIZE];
+        long[] maxReferenceTimes = new long[BATCH_SIZE];
+        double[] lats = new double[BATCH_SIZE];
+        double[] lons = new double[BATCH_SIZE];
+        double[] pixelX = new double[BATCH_SIZE];
+        double[] pixelY = new double[BATCH_SIZE];
+        int length = 0;
         for (Record inputRecord : inputRecords) {
-            final PixelPosRecord pixelPosRecord = getPixelPosRecord(inputRecord);
-            if (pixelPosRecord != null) {
-                pixelPosList.add(pixelPosRecord);
+            if (testTime()) {
+                long minReferenceTime = getMinReferenceTime(inputRecord);
+                if (minReferenceTime > productEndTime) {
+                    continue;
+                }
+                long maxReferenceTime = getMaxReferenceTime(inputRecord);
+                if (maxReferenceTime < productStartTime) {
+                    continue;
+                }
+                minReferenceTimes[length] = minReferenceTime;
+                maxReferenceTimes[length] = maxReferenceTime;
+            }
+            GeoPos location = inputRecord.getLocation();
+            if (location == null) {
+                continue;
+            }
+            batch[length] = inputRecord;
+            lats[length] = location.lat;
+            lons[length] = location.lon;
+            length++;
+            if (length == BATCH_SIZE) {
+                addPixelPosRecords(batch, minReferenceTimes, maxReferenceTimes, lats, lons, length, pixelX, pixelY, pixelPosList);
+                length = 0;
             }
         }
+        addPixelPosRecords(batch, minReferenceTimes, maxReferenceTimes, lats, lons, length, pixelX, pixelY, pixelPosList);
         PixelPosRecord[] records = pixelPosList.toArray(new PixelPosRecord[pixelPosList.size()]);
         Arrays.sort(records, new YXComparator());
         return Arrays.asList(records);
     }
 
+    private void addPixelPosRecords(Record[] batch, long[] minReferenceTimes, long[] maxReferenceTimes,
+                                    double[] lats, double[] lons, int length,
+                                    double[] pixelX, double[] pixelY, List<PixelPosRecord> pixelPosList) {
+        computePixelPos(lats, lons, length, pixelX, pixelY);
+        for (int i = 0; i < length; i++) {
+            if (Double.isNaN(pixelX[i])) {
+                continue;
+            }
+            PixelPos pixelPos = new PixelPos(pixelX[i], pixelY[i]);
+            if (testTime()) {
+                long pixelTime = pixelTimeProvider.getTime(pixelPos).getTime();
+                if (pixelTime >= minReferenceTimes[i] && pixelTime <= maxReferenceTimes[i]) {
+                    pixelPosList.add(new PixelPosRecord(pixelPos, batch[i], pixelTime));
+                }
+            } else {
+                long pixelTime = -1;
+                if (pixelTimeProvider != null) {
+                    pixelTime = pixelTimeProvider.getTime(pixelPos).getTime();
+                }
+                pixelPosList.add(new PixelPosRecord(pixelPos, batch[i], pixelTime));
+            }
+            batch[i] = null;
+        }
+    }
+
     public List<PixelPosRecord> computePixelPosRecords(Iterable<Record> referenceRecords) {
         return getInputRecordsSortedByPixelYX(referenceRecords);
     }
@@ -293,6 +469,11 @@ public class PixelPosProvider {
         long getMinReferenceTime(Record referenceRecord);
 
         long getMaxReferenceTime(Record referenceRecord);
+
+        /**
+         * @return the maximum difference between the reference time and the minimum or maximum reference time
+         */
+        long getMaxTimeDifference();
     }
 
     static class DefaultTimeRangeProvider implements TimeRangeProvider {
@@ -313,6 +494,11 @@ public class PixelPosProvider {
             return referenceRecord.getTime().getTime() + timeDifferenceMS;
         }
 
+        @Override
+        public long getMaxTimeDifference() {
+            return timeDifferenceMS;
+        }
+
         @Override
         public String toString() {
             return "DefaultTimeRangeProvider{timeDifferenceMS=" + timeDifferenceMS + "}";
@@ -345,6 +531,12 @@ public class PixelPosProvider {
             return referenceRecord.getTime().getTime() - utcShift + timeDifferenceMS;
         }
 
+        @Override
+        public long getMaxTimeDifference() {
+            // the shift to the calendar day is less than a day, hence the range stays within this difference
+            return timeDifferenceMS;
+        }
+
         private long getUtcShift(Record referenceRecord) {
             Date time = referenceRecord.getTime();
             double lon = referenceRecord.getLocation().getLon();
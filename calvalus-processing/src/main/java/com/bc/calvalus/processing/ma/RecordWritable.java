@@ -39,7 +39,7 @@ public class RecordWritable implements Writable {
         DATE('T', Date.class),
         AGGREGATED_NUMBER('A', AggregatedNumber.class);
 
-        private static final Map<Character, Type> TYPE_ID_TO_TYPE_MAP = new HashMap<Character, Type>();
+        private static final Type[] TYPE_ID_TO_TYPE = new Type[128];
         private static final Map<Class, Type> CLASS_TO_TYPE_MAP = new HashMap<Class, Type>();
 
         private final char id;
@@ -67,15 +67,13 @@ public class RecordWritable implements Writable {
         }
 
         public static Type getType(char typeId) {
-            // Performance note: typeId is converted to Character object here,
-            // maybe use a fixed size lookup array here? (nf)
-            return TYPE_ID_TO_TYPE_MAP.get(typeId);
+            return typeId < TYPE_ID_TO_TYPE.length ? TYPE_ID_TO_TYPE[typeId] : null;
         }
 
         static {
             for (Type type : Type.values()) {
                 CLASS_TO_TYPE_MAP.put(type.getType(), type);
-                TYPE_ID_TO_TYPE_MAP.put(type.getId(), type);
+                TYPE_ID_TO_TYPE[type.getId()] = type;
             }
         }
     }
@@ -129,9 +127,19 @@ public class RecordWritable implements Writable {
         return values;
     }
 
-    private void writeValue(DataOutput out, Object value) throws IOException {
+    static void writeValue(DataOutput out, Object value) throws IOException {
         final Type type = Type.getType(value);
+        if (type == null) {
+            throw new IllegalStateException("Unhandled value type: " + value.getClass());
+        }
         out.writeChar(type.getId());
+        writeValue(out, type, value);
+    }
+
+    /**
+     * Writes a value of the given type without the type identifier.
+     */
+    static void writeValue(DataOutput out, Type type, Object value) throws IOException {
         if (type == Type.INTEGER) {
             out.writeInt((Integer) value);
         } else if (type == Type.LONG) {
@@ -169,13 +177,20 @@ public class RecordWritable implements Writable {
         }
     }
 
-    private Object readValue(DataInput in) throws IOException {
-        final Object value;
+    static Object readValue(DataInput in) throws IOException {
         final char typeId = in.readChar();
         final Type type = Type.getType(typeId);
         if (type == null) {
             throw new IllegalStateException("Read illegal type ID: '" + typeId + "'");
         }
+        return readValue(in, type);
+    }
+
+    /**
+     * Reads a value of the given type written without the type identifier.
+     */
+    static Object readValue(DataInput in, Type type) throws IOException {
+        final Object value;
         if (type == Type.INTEGER) {
             value = in.readInt();
         } else if (type == Type.LONG) {
@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ma;
+
+import com.bc.calvalus.commons.CalvalusLogger;
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The reference records of a match-up analysis, compiled into a binary file that is sorted and indexed
+ * by geographical cells of {@link #CELL_SIZE} degrees and time buckets of a day. Mappers read only the
+ * records of the cells and buckets that can match their product, instead of parsing the complete
+ * reference record source.
+ * <p>
+ * Records without location are not indexed, as they never match. Records without time are always read,
+ * so that the time test reports them as before. The records read are returned in their original order.
+ */
+public class ReferenceRecordIndex implements Closeable {
+
+    public static final String LINK_NAME = "ma-reference-records.idx";
+
+    static final double CELL_SIZE = 1.0;
+    static final long TIME_BUCKET_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final Logger LOG = CalvalusLogger.getLogger();
+    private static final int MAGIC = 0x4d415249; // "MARI"
+    private static final int VERSION = 1;
+    private static final int NUM_LAT_CELLS = (int) Math.ceil(180.0 / CELL_SIZE);
+    private static final int NUM_LON_CELLS = (int) Math.ceil(360.0 / CELL_SIZE);
+    private static final int NO_TIME = Integer.MIN_VALUE;
+    private static final long NULL_TIME = Long.MIN_VALUE;
+    private static final int TRAILER_LENGTH = 12;
+    private static final int BORDER_SAMPLES = 64;
+    // of the 4 * (BORDER_SAMPLES + 1) border samples, at least half must have a valid position
+    private static final int MIN_VALID_BORDER_SAMPLES = 2 * (BORDER_SAMPLES + 1);
+
+    private final FSDataInputStream in;
+    private final Header header;
+    private final String timeAndLocationColumnDescription;
+    private final int[] cells;
+    private final int[] buckets;
+    private final long[] offsets;
+    private final int[] counts;
+    private final long recordsEnd;
+
+    private ReferenceRecordIndex(FSDataInputStream in, long length) throws IOException {
+        this.in = in;
+        in.seek(0);
+        DataInputStream headerIn = new DataInputStream(new BufferedInputStream(in));
+        if (headerIn.readInt() != MAGIC || headerIn.readInt() != VERSION) {
+            throw new IOException("not a reference record index of version " + VERSION);
+        }
+        boolean hasLocation = headerIn.readBoolean();
+        boolean hasTime = headerIn.readBoolean();
+        String[] attributeNames = readStrings(headerIn);
+        String[] annotationNames = readStrings(headerIn);
+        header = new DefaultHeader(hasLocation, hasTime, attributeNames, annotationNames);
+        timeAndLocationColumnDescription = headerIn.readBoolean() ? headerIn.readUTF() : null;
+
+        byte[] trailer = new byte[TRAILER_LENGTH];
+        in.readFully(length - TRAILER_LENGTH, trailer);
+        DataInputStream trailerIn = new DataInputStream(new ByteArrayInputStream(trailer));
+        recordsEnd = trailerIn.readLong();
+        int numEntries = trailerIn.readInt();
+        in.seek(recordsEnd);
+        DataInputStream entriesIn = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        cells = new int[numEntries];
+        buckets = new int[numEntries];
+        offsets = new long[numEntries];
+        counts = new int[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            cells[i] = entriesIn.readInt();
+            buckets[i] = entriesIn.readInt();
+            offsets[i] = entriesIn.readLong();
+            counts[i] = entriesIn.readInt();
+        }
+    }
+
+    /**
+     * Opens the index given by {@link JobConfigNames#CALVALUS_MA_REFERENCE_INDEX_PATH}, preferring the
+     * copy in the distributed cache.
+     *
+     * @return the index, or null if the job has no reference record index
+     */
+    public static ReferenceRecordIndex open(Configuration conf) throws IOException {
+        String indexPath = conf.get(JobConfigNames.CALVALUS_MA_REFERENCE_INDEX_PATH);
+        if (indexPath == null) {
+            return null;
+        }
+        File localFile = new File(LINK_NAME);
+        Path path = localFile.exists() ? new Path(localFile.getAbsoluteFile().toURI()) : new Path(indexPath);
+        FileSystem fs = localFile.exists() ? FileSystem.getLocal(conf) : path.getFileSystem(conf);
+        return open(fs, path);
+    }
+
+    static ReferenceRecordIndex open(FileSystem fs, Path path) throws IOException {
+        return open(fs.open(path), fs.getFileStatus(path).getLen());
+    }
+
+    static ReferenceRecordIndex open(FSDataInputStream in, long length) throws IOException {
+        try {
+            return new ReferenceRecordIndex(in, length);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the number of cells and time buckets with records
+     */
+    public int getNumEntries() {
+        return cells.length;
+    }
+
+    /**
+     * Reads the records that may match the product.
+     *
+     * @param product            the product
+     * @param macroPixelSize     the size of the macro pixels extracted
+     * @param referenceTimeRange the range of reference times that can match the product, or null for any time
+     * @return a record source of the records in their original order
+     */
+    public RecordSource query(Product product, int macroPixelSize, long[] referenceTimeRange) throws IOException {
+        return query(getGeoBounds(product, macroPixelSize), referenceTimeRange);
+    }
+
+    /**
+     * @param geoBounds          minLat, maxLat, minLon, maxLon of the area, or null for everywhere
+     * @param referenceTimeRange the range of reference times, or null for any time
+     */
+    RecordSource query(double[] geoBounds, long[] referenceTimeRange) throws IOException {
+        int minLatCell = 0;
+        int maxLatCell = NUM_LAT_CELLS - 1;
+        int minLonCell = 0;
+        int maxLonCell = NUM_LON_CELLS - 1;
+        if (geoBounds != null) {
+            minLatCell = latCell(geoBounds[0]);
+            maxLatCell = latCell(geoBounds[1]);
+            minLonCell = lonCell(geoBounds[2]);
+            maxLonCell = lonCell(geoBounds[3]);
+        }
+        long minBucket = referenceTimeRange != null ? Math.floorDiv(referenceTimeRange[0], TIME_BUCKET_MILLIS) : Long.MIN_VALUE;
+        long maxBucket = referenceTimeRange != null ? Math.floorDiv(referenceTimeRange[1], TIME_BUCKET_MILLIS) : Long.MAX_VALUE;
+
+        List<IndexedRecord> records = new ArrayList<>();
+        int i = 0;
+        while (i < cells.length) {
+            if (!matches(i, minLatCell, maxLatCell, minLonCell, maxLonCell, minBucket, maxBucket)) {
+                i++;
+                continue;
+            }
+            // coalesce adjacent entries into a single read
+            int first = i;
+            int count = 0;
+            while (i < cells.length && matches(i, minLatCell, maxLatCell, minLonCell, maxLonCell, minBucket, maxBucket)) {
+                count += counts[i];
+                i++;
+            }
+            long start = offsets[first];
+            long end = i < cells.length ? offsets[i] : recordsEnd;
+            byte[] bytes = new byte[(int) (end - start)];
+            in.readFully(start, bytes);
+            DataInputStream recordsIn = new DataInputStream(new ByteArrayInputStream(bytes));
+            for (int n = 0; n < count; n++) {
+                records.add(readRecord(recordsIn));
+            }
+        }
+        records.sort(Comparator.comparingInt(record -> record.sequenceNumber));
+        return new IndexedRecordSource(header, records, timeAndLocationColumnDescription);
+    }
+
+    private boolean matches(int i, int minLatCell, int maxLatCell, int minLonCell, int maxLonCell, long minBucket, long maxBucket) {
+        int latCell = cells[i] / NUM_LON_CELLS;
+        int lonCell = cells[i] % NUM_LON_CELLS;
+        return latCell >= minLatCell && latCell <= maxLatCell
+               && lonCell >= minLonCell && lonCell <= maxLonCell
+               && (buckets[i] == NO_TIME || (buckets[i] >= minBucket && buckets[i] <= maxBucket));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Determines the geographical bounds of the product from its border, extended by a margin of half a macro
+     * pixel and one pixel, with the pixel spacing estimated from the distances of the border samples.
+     * If the border spans more than half of the globe in longitude, the product crosses the anti-meridian
+     * or contains a pole, and the bounds are extended to all longitudes and to the pole.
+     *
+     * @return minLat, maxLat, minLon, maxLon, or null if the product has no usable geo-coding or too few
+     * valid positions at its border to rely on
+     */
+    static double[] getGeoBounds(Product product, int macroPixelSize) {
+        GeoCoding geoCoding = product.getSceneGeoCoding();
+        if (geoCoding == null || !geoCoding.canGetGeoPos()) {
+            return null;
+        }
+        int width = product.getSceneRasterWidth();
+        int height = product.getSceneRasterHeight();
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        // top, bottom, left and right border, each sampled along the border
+        BorderSampler[] borders = {new BorderSampler(bounds), new BorderSampler(bounds), new BorderSampler(bounds), new BorderSampler(bounds)};
+        for (int i = 0; i <= BORDER_SAMPLES; i++) {
+            double x = Math.min(width * (double) i / BORDER_SAMPLES, width - 0.5);
+            double y = Math.min(height * (double) i / BORDER_SAMPLES, height - 0.5);
+            borders[0].sample(geoCoding, x, 0.5, x);
+            borders[1].sample(geoCoding, x, height - 0.5, x);
+            borders[2].sample(geoCoding, 0.5, y, y);
+            borders[3].sample(geoCoding, width - 0.5, y, y);
+        }
+        int numValid = 0;
+        double degreesPerPixel = 0.0;
+        for (BorderSampler border : borders) {
+            numValid += border.numValid;
+            degreesPerPixel = Math.max(degreesPerPixel, border.degreesPerPixel);
+        }
+        if (numValid < MIN_VALID_BORDER_SAMPLES) {
+            return null;
+        }
+        if (bounds[3] - bounds[2] > 180.0) {
+            bounds[2] = -180.0;
+            bounds[3] = 180.0;
+            if (bounds[0] > 0.0) {
+                bounds[1] = 90.0;
+            } else if (bounds[1] < 0.0) {
+                bounds[0] = -90.0;
+            } else {
+                bounds[0] = -90.0;
+                bounds[1] = 90.0;
+            }
+        }
+        double margin = (macroPixelSize / 2 + 1) * degreesPerPixel;
+        bounds[0] = Math.max(-90.0, bounds[0] - margin);
+        bounds[1] = Math.min(90.0, bounds[1] + margin);
+        bounds[2] = Math.max(-180.0, bounds[2] - margin);
+        bounds[3] = Math.min(180.0, bounds[3] + margin);
+        return bounds;
+    }
+
+    /**
+     * Compiles the records of the record source into an index.
+     * The records are first serialised into a temporary file in their original order,
+     * then copied into the output sorted by cell and time bucket.
+     *
+     * @return the number of records indexed
+     */
+    public static int write(RecordSource recordSource, OutputStream outputStream) throws Exception {
+        Header header = recordSource.getHeader();
+        File tempFile = File.createTempFile("ma-reference-records", ".tmp");
+        try {
+            int numRecords = 0;
+            long[] keys = new long[1024];
+            long[] tempOffsets = new long[1024];
+            // FSDataOutputStream counts the position as long
+            try (FSDataOutputStream tempOut = new FSDataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024), null)) {
+                for (Record record : recordSource.getRecords()) {
+                    GeoPos location = record.getLocation();
+                    if (location == null || Double.isNaN(location.lat) || Double.isNaN(location.lon)) {
+                        continue;
+                    }
+                    if (numRecords == keys.length) {
+                        keys = Arrays.copyOf(keys, 2 * numRecords);
+                        tempOffsets = Arrays.copyOf(tempOffsets, 2 * numRecords);
+                    }
+                    Date time = record.getTime();
+                    int cell = latCell(location.lat) * NUM_LON_CELLS + lonCell(location.lon);
+                    int bucket = time != null ? (int) Math.floorDiv(time.getTime(), TIME_BUCKET_MILLIS) : NO_TIME;
+                    keys[numRecords] = ((long) cell << 32) | (bucket & 0xffffffffL);
+                    tempOffsets[numRecords] = tempOut.getPos();
+                    writeRecord(tempOut, numRecords, record);
+                    numRecords++;
+                }
+            }
+            Integer[] order = new Integer[numRecords];
+            for (int i = 0; i < numRecords; i++) {
+                order[i] = i;
+            }
+            final long[] sortKeys = keys;
+            // stable, hence the records of a cell and bucket keep their original order
+            Arrays.sort(order, Comparator.comparingLong(i -> sortKeys[i]));
+
+            FSDataOutputStream out = new FSDataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024), null);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeBoolean(header.hasLocation());
+            out.writeBoolean(header.hasTime());
+            writeStrings(out, header.getAttributeNames());
+            writeStrings(out, header.getAnnotationNames());
+            String description = recordSource.getTimeAndLocationColumnDescription();
+            out.writeBoolean(description != null);
+            if (description != null) {
+                out.writeUTF(description);
+            }
+            List<long[]> entries = new ArrayList<>();
+            try (RandomAccessFile tempIn = new RandomAccessFile(tempFile, "r")) {
+                long fileLength = tempIn.length();
+                byte[] buffer = new byte[1024];
+                for (int i : order) {
+                    long key = keys[i];
+                    if (entries.isEmpty() || entries.get(entries.size() - 1)[0] != key) {
+                        entries.add(new long[]{key, out.getPos(), 0});
+                    }
+                    entries.get(entries.size() - 1)[2]++;
+                    long end = i + 1 < numRecords ? tempOffsets[i + 1] : fileLength;
+                    int length = (int) (end - tempOffsets[i]);
+                    if (buffer.length < length) {
+                        buffer = new byte[length];
+                    }
+                    tempIn.seek(tempOffsets[i]);
+                    tempIn.readFully(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                }
+            }
+            long recordsEnd = out.getPos();
+            for (long[] entry : entries) {
+                out.writeInt((int) (entry[0] >> 32));
+                out.writeInt((int) entry[0]);
+                out.writeLong(entry[1]);
+                out.writeInt((int) entry[2]);
+            }
+            out.writeLong(recordsEnd);
+            out.writeInt(entries.size());
+            out.flush();
+            return numRecords;
+        } finally {
+            if (!tempFile.delete()) {
+                LOG.warning("cannot delete " + tempFile);
+            }
+        }
+    }
+
+    private static int latCell(double lat) {
+        return Math.max(0, Math.min(NUM_LAT_CELLS - 1, (int) Math.floor((lat + 90.0) / CELL_SIZE)));
+    }
+
+    private static int lonCell(double lon) {
+        return Math.max(0, Math.min(NUM_LON_CELLS - 1, (int) Math.floor((lon + 180.0) / CELL_SIZE)));
+    }
+
+    private static void writeRecord(DataOutput out, int sequenceNumber, Record record) throws IOException {
+        GeoPos location = record.getLocation();
+        Date time = record.getTime();
+        out.writeInt(sequenceNumber);
+        out.writeInt(record.getId());
+        out.writeDouble(location.lat);
+        out.writeDouble(location.lon);
+        out.writeLong(time != null ? time.getTime() : NULL_TIME);
+        writeValues(out, record.getAttributeValues());
+        writeValues(out, record.getAnnotationValues());
+    }
+
+    private static IndexedRecord readRecord(DataInput in) throws IOException {
+        int sequenceNumber = in.readInt();
+        int id = in.readInt();
+        GeoPos location = new GeoPos(in.readDouble(), in.readDouble());
+        long time = in.readLong();
+        Object[] attributeValues = readValues(in);
+        Object[] annotationValues = readValues(in);
+        return new IndexedRecord(sequenceNumber, id, location, time != NULL_TIME ? new Date(time) : null,
+                                 attributeValues, annotationValues);
+    }
+
+    private static void writeValues(DataOutput out, Object[] values) throws IOException {
+        out.writeInt(values != null ? values.length : -1);
+        if (values != null) {
+            for (Object value : values) {
+                RecordWritable.writeValue(out, value);
+            }
+        }
+    }
+
+    private static Object[] readValues(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = RecordWritable.readValue(in);
+        }
+        return values;
+    }
+
+    private static void writeStrings(DataOutput out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String[] readStrings(DataInput in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    /**
+     * Collects the bounds of the valid positions along one border and the largest distance in degrees
+     * per pixel between neighbouring samples.
+     */
+    private static class BorderSampler {
+
+        private final double[] bounds;
+        private final PixelPos pixelPos = new PixelPos();
+        private GeoPos previousGeoPos;
+        private double previousPixel;
+        int numValid;
+        double degreesPerPixel;
+
+        BorderSampler(double[] bounds) {
+            this.bounds = bounds;
+        }
+
+        void sample(GeoCoding geoCoding, double x, double y, double pixel) {
+            pixelPos.setLocation(x, y);
+            GeoPos geoPos = geoCoding.getGeoPos(pixelPos, new GeoPos());
+            if (!geoPos.isValid()) {
+                previousGeoPos = null;
+                return;
+            }
+            numValid++;
+            bounds[0] = Math.min(bounds[0], geoPos.lat);
+            bounds[1] = Math.max(bounds[1], geoPos.lat);
+            bounds[2] = Math.min(bounds[2], geoPos.lon);
+            bounds[3] = Math.max(bounds[3], geoPos.lon);
+            if (previousGeoPos != null && pixel > previousPixel) {
+                double deltaLat = Math.abs(geoPos.lat - previousGeoPos.lat);
+                double deltaLon = Math.abs(geoPos.lon - previousGeoPos.lon);
+                if (deltaLon > 180.0) {
+                    // across the anti-meridian
+                    deltaLon = 360.0 - deltaLon;
+                }
+                degreesPerPixel = Math.max(degreesPerPixel, Math.max(deltaLat, deltaLon) / (pixel - previousPixel));
+            }
+            previousGeoPos = geoPos;
+            previousPixel = pixel;
+        }
+    }
+
+    private static class IndexedRecord extends DefaultRecord {
+
+        private final int sequenceNumber;
+
+        IndexedRecord(int sequenceNumber, int id, GeoPos location, Date time, Object[] attributeValues, Object[] annotationValues) {
+            super(id, location, time, attributeValues, annotationValues);
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    private static class IndexedRecordSource implements RecordSource {
+
+        private final Header header;
+        private final List<? extends Record> records;
+        private final String timeAndLocationColumnDescription;
+
+        IndexedRecordSource(Header header, List<? extends Record> records, String timeAndLocationColumnDescription) {
+            this.header = header;
+            this.records = records;
+            this.timeAndLocationColumnDescription = timeAndLocationColumnDescription;
+        }
+
+        @Override
+        public Header getHeader() {
+            return header;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterable<Record> getRecords() {
+            return (List<Record>) records;
+        }
+
+        @Override
+        public String getTimeAndLocationColumnDescription() {
+            return timeAndLocationColumnDescription;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.mosaic;
+
+/**
+ * A mosaic algorithm that aggregates each band independently of the other bands. The contributions may be
+ * passed band by band to {@link #processTemporalBand} instead of {@link #processTemporal}, for different
+ * bands concurrently.
+ * <p>
+ * Only {@link MeanMosaicAlgorithm} implements the band-wise path so far. The land cover, fire and GlobVeg
+ * algorithms still implement the plain {@link MosaicAlgorithm} and receive whole contributions.
+ */
+public interface BandwiseMosaicAlgorithm extends MosaicAlgorithm {
+
+    /**
+     * Aggregates one band of a contribution. The samples array may be reused after the call.
+     */
+    void processTemporalBand(int band, float[] samples);
+}
@@ -11,7 +11,7 @@ import java.util.Arrays;
  *
  * @author MarcoZ
  */
-public class MeanMosaicAlgorithm implements MosaicAlgorithm, Configurable {
+public class MeanMosaicAlgorithm implements BandwiseMosaicAlgorithm, Configurable {
     private float[][] aggregatedSamples = null;
     private int[][] counters = null;
     private String[] featureNames;
@@ -22,8 +22,11 @@ public class MeanMosaicAlgorithm implements MosaicAlgorithm, Configurable {
     @Override
     public void initTemporal(TileIndexWritable tileIndex) {
         int numElems = tileSize * tileSize;
-        aggregatedSamples = new float[variableCount][numElems];
-        counters = new int[variableCount][numElems];
+        // the result of the previous tile has been written already, the arrays are reused
+        if (aggregatedSamples == null || aggregatedSamples.length != variableCount || aggregatedSamples[0].length != numElems) {
+            aggregatedSamples = new float[variableCount][numElems];
+            counters = new int[variableCount][numElems];
+        }
         for (int band = 0; band < variableCount; band++) {
             Arrays.fill(aggregatedSamples[band], 0.0f);
             Arrays.fill(counters[band], 0);
@@ -33,15 +36,22 @@ public class MeanMosaicAlgorithm implements MosaicAlgorithm, Configurable {
     @Override
     public void processTemporal(float[][] samples) {
         for (int band = 0; band < variableCount; band++) {
-            float[] aggregatedSample = aggregatedSamples[band];
-            int[] counter = counters[band];
-            float[] sample = samples[band];
-            for (int i = 0; i < sample.length; i++) {
-                float value = sample[i];
-                if (!Float.isNaN(value)) {
-                    aggregatedSample[i] += value;
-                    counter[i]++;
-                }
+            processTemporalBand(band, samples[band]);
+        }
+    }
+
+    @Override
+    public void processTemporalBand(int band, float[] samples) {
+        if (band >= variableCount) {
+            return;
+        }
+        float[] aggregatedSample = aggregatedSamples[band];
+        int[] counter = counters[band];
+        for (int i = 0; i < samples.length; i++) {
+            float value = samples[i];
+            if (!Float.isNaN(value)) {
+                aggregatedSample[i] += value;
+                counter[i]++;
             }
         }
     }
@@ -19,6 +19,7 @@ package com.bc.calvalus.processing.mosaic;
 import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.ProcessorAdapter;
 import com.bc.calvalus.processing.ProcessorFactory;
+import com.bc.calvalus.processing.hadoop.FloatArrayCodec;
 import com.bc.calvalus.processing.hadoop.ProgressSplitProgressMonitor;
 import com.bc.calvalus.processing.utils.GeometryUtils;
 import com.bc.ceres.core.ProgressMonitor;
@@ -235,12 +236,14 @@ public class MosaicMapper extends Mapper<NullWritable, NullWritable, TileIndexWr
         private final MultiLevelImage[] varImages;
         private final Context context;
         private final int tileSize;
+        private final FloatArrayCodec codec;
 
         public TileFactory(MultiLevelImage maskImage, MultiLevelImage[] varImages, Context context, int tileSize) {
             this.maskImage = maskImage;
             this.varImages = varImages;
             this.context = context;
             this.tileSize = tileSize;
+            this.codec = FloatArrayCodec.get(context.getConfiguration());
         }
 
         private boolean processTile(TileIndexWritable tileIndex) throws IOException, InterruptedException {
@@ -265,7 +268,7 @@ public class MosaicMapper extends Mapper<NullWritable, NullWritable, TileIndexWr
                     raster.getPixels(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), samples);
                 }
 
-                TileDataWritable value = new TileDataWritable(sampleValues);
+                TileDataWritable value = new TileDataWritable(sampleValues, codec);
                 context.write(tileIndex, value);
             } else {
                 LOG.fine("Tile contains NO data: " + tileIndex);
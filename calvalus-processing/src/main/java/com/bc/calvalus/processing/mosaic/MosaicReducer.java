@@ -16,14 +16,29 @@
 
 package com.bc.calvalus.processing.mosaic;
 
+import com.bc.calvalus.processing.JobConfigNames;
+import com.bc.calvalus.processing.hadoop.FloatArrayCodec;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Reduces list of spatial tiles to a temporal tile.
+ * <p/>
+ * If the algorithm is a {@link BandwiseMosaicAlgorithm}, the spatial tiles are decoded and aggregated one band after
+ * the other, hence no spatial tile is ever held completely. With {@link JobConfigNames#CALVALUS_MOSAIC_REDUCER_THREADS}
+ * greater than one the bands are aggregated in parallel, each group of bands by its own thread.
  *
  * @author Marco Zuehlke
  */
@@ -31,28 +46,121 @@ public class MosaicReducer extends Reducer<TileIndexWritable, TileDataWritable,
 
     private Configuration jobConf;
     private MosaicAlgorithm algorithm;
+    private FloatArrayCodec codec;
+    private TileDataWritable value;
+    private ParallelBandAggregator parallelAggregator;
 
     @Override
     protected void reduce(TileIndexWritable tileIndex, Iterable<TileDataWritable> spatialTiles, Context context) throws IOException, InterruptedException {
         algorithm.initTemporal(tileIndex);
-        for (TileDataWritable spatialTile : spatialTiles) {
-            float[][] samples = spatialTile.getSamples();
-            algorithm.processTemporal(samples);
+        if (parallelAggregator != null) {
+            for (TileDataWritable spatialTile : spatialTiles) {
+                spatialTile.processSamples(parallelAggregator);
+            }
+            parallelAggregator.await();
+        } else if (algorithm instanceof BandwiseMosaicAlgorithm) {
+            BandwiseMosaicAlgorithm bandwiseAlgorithm = (BandwiseMosaicAlgorithm) algorithm;
+            for (TileDataWritable spatialTile : spatialTiles) {
+                spatialTile.processSamples(bandwiseAlgorithm::processTemporalBand);
+            }
+        } else {
+            for (TileDataWritable spatialTile : spatialTiles) {
+                float[][] samples = spatialTile.getSamples();
+                algorithm.processTemporal(samples);
+            }
         }
 
         float[][] result = algorithm.getTemporalResult();
-        TileDataWritable value = new TileDataWritable(result);
+        value.setSamples(result);
         context.write(tileIndex, value);
     }
 
+    @Override
+    protected void cleanup(Context context) {
+        if (parallelAggregator != null) {
+            parallelAggregator.shutdown();
+        }
+    }
+
     @Override
     public void setConf(Configuration jobConf) {
         this.jobConf = jobConf;
         algorithm = MosaicConfig.createAlgorithm(jobConf);
+        codec = FloatArrayCodec.get(jobConf);
+        value = new TileDataWritable(null, codec);
+        int numThreads = jobConf.getInt(JobConfigNames.CALVALUS_MOSAIC_REDUCER_THREADS, 1);
+        if (numThreads > 1 && algorithm instanceof BandwiseMosaicAlgorithm) {
+            parallelAggregator = new ParallelBandAggregator((BandwiseMosaicAlgorithm) algorithm, numThreads);
+        }
     }
 
     @Override
     public Configuration getConf() {
         return jobConf;
     }
+
+    /**
+     * Aggregates the bands of the spatial tiles in parallel. The bands are grouped by thread, so each band
+     * is aggregated by one thread in the order of the spatial tiles. The samples are copied into a bounded
+     * number of buffers, which limits how far decoding runs ahead of the aggregation.
+     */
+    private static class ParallelBandAggregator implements FloatArrayCodec.BandConsumer {
+
+        private final BandwiseMosaicAlgorithm algorithm;
+        private final ExecutorService[] groupExecutors;
+        private final BlockingQueue<float[]> freeBuffers;
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        ParallelBandAggregator(BandwiseMosaicAlgorithm algorithm, int numThreads) {
+            this.algorithm = algorithm;
+            groupExecutors = new ExecutorService[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                groupExecutors[i] = Executors.newSingleThreadExecutor();
+            }
+            freeBuffers = new ArrayBlockingQueue<>(2 * numThreads);
+            for (int i = 0; i < 2 * numThreads; i++) {
+                freeBuffers.add(new float[0]);
+            }
+        }
+
+        @Override
+        public void accept(int band, float[] samples) throws IOException {
+            float[] buffer;
+            try {
+                buffer = freeBuffers.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("band aggregation interrupted");
+            }
+            if (buffer.length != samples.length) {
+                buffer = new float[samples.length];
+            }
+            System.arraycopy(samples, 0, buffer, 0, samples.length);
+            final float[] bandSamples = buffer;
+            futures.add(groupExecutors[band % groupExecutors.length].submit(() -> {
+                try {
+                    algorithm.processTemporalBand(band, bandSamples);
+                } finally {
+                    freeBuffers.add(bandSamples);
+                }
+            }));
+        }
+
+        void await() throws IOException, InterruptedException {
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("band aggregation failed", e.getCause());
+            } finally {
+                futures.clear();
+            }
+        }
+
+        void shutdown() {
+            for (ExecutorService executor : groupExecutors) {
+                executor.shutdown();
+            }
+        }
+    }
 }
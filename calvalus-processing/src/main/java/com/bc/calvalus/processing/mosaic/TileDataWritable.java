@@ -16,52 +16,121 @@
 
 package com.bc.calvalus.processing.mosaic;
 
+import com.bc.calvalus.processing.hadoop.FloatArrayCodec;
 import com.bc.calvalus.processing.hadoop.WritableUtils;
-import org.apache.hadoop.io.CompressedWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A Hadoop writable for a bunch of {@link org.esa.snap.core.gpf.Tile}s.
+ * <p/>
+ * The samples are written by a {@link FloatArrayCodec}. Tiles written as a
+ * {@link org.apache.hadoop.io.CompressedWritable} by former versions can still be read.
+ * <p/>
+ * Samples read are kept encoded until they are requested, either all at once by {@link #getSamples}
+ * or band by band by {@link #processSamples}.
  *
  * @author MarcoZ
  */
-public class TileDataWritable extends CompressedWritable {
+public class TileDataWritable implements Writable {
+
+    // distinguishes the codec format from the length of the deflated data written by former versions
+    private static final int CODEC_MARKER = -1;
 
     // an array of databuffers
     private float[][] sampleValues;
-
+    private FloatArrayCodec codec;
+    // the samples read, if not decoded yet
+    private DataOutputBuffer encoded;
+    private DataInputBuffer encodedInput;
+    private boolean decoded = true;
 
     public TileDataWritable() {
     }
 
     public TileDataWritable(float[][] sampleValues) {
+        this(sampleValues, FloatArrayCodec.get(FloatArrayCodec.Compression.DEFLATE));
+    }
+
+    public TileDataWritable(float[][] sampleValues, FloatArrayCodec codec) {
         this.sampleValues = sampleValues;
+        this.codec = codec;
     }
 
-    public float[][] getSamples() {
-        ensureInflated();
+    public float[][] getSamples() throws IOException {
+        if (!decoded) {
+            sampleValues = FloatArrayCodec.read(getEncodedInput(), sampleValues);
+            decoded = true;
+        }
         return sampleValues;
     }
 
+    public void setSamples(float[][] sampleValues) {
+        this.sampleValues = sampleValues;
+        decoded = true;
+    }
+
+    /**
+     * Passes the samples band by band to the consumer. Unless the samples have been decoded already,
+     * they are decoded one band after the other into an array reused for the next band.
+     */
+    public void processSamples(FloatArrayCodec.BandConsumer consumer) throws IOException {
+        if (!decoded) {
+            FloatArrayCodec.readBands(getEncodedInput(), consumer);
+        } else {
+            for (int band = 0; band < sampleValues.length; band++) {
+                consumer.accept(band, sampleValues[band]);
+            }
+        }
+    }
+
+    private DataInputBuffer getEncodedInput() {
+        if (encodedInput == null) {
+            encodedInput = new DataInputBuffer();
+        }
+        encodedInput.reset(encoded.getData(), encoded.getLength());
+        return encodedInput;
+    }
+
     @Override
-    public void writeCompressed(DataOutput out) throws IOException {
-        float[][] array2D = sampleValues;
-        int numBands = array2D.length;
-        int numElems = array2D[0].length;
-        out.writeInt(numBands);
-        out.writeInt(numElems);
-        byte[] byteBuffer = new byte[numElems * 4];
-        for (float[] array1D : array2D) {
-            WritableUtils.convertFloatToByte(array1D, byteBuffer);
-            out.write(byteBuffer);
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(CODEC_MARKER);
+        if (!decoded) {
+            out.write(encoded.getData(), 0, encoded.getLength());
+            return;
+        }
+        if (codec == null) {
+            codec = FloatArrayCodec.get(FloatArrayCodec.Compression.DEFLATE);
         }
+        codec.write(out, sampleValues);
     }
 
     @Override
-    public void readFieldsCompressed(DataInput in) throws IOException {
+    public void readFields(DataInput in) throws IOException {
+        int marker = in.readInt();
+        if (marker == CODEC_MARKER) {
+            if (encoded == null) {
+                encoded = new DataOutputBuffer();
+            }
+            encoded.reset();
+            FloatArrayCodec.copy(in, encoded);
+            decoded = false;
+        } else {
+            byte[] compressed = new byte[marker];
+            in.readFully(compressed);
+            readFieldsDeflated(new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+        }
+    }
+
+    private void readFieldsDeflated(DataInput in) throws IOException {
         int numBands = in.readInt();
         int numElems = in.readInt();
         float[][] array2D = this.sampleValues;
@@ -74,16 +143,16 @@ public class TileDataWritable extends CompressedWritable {
             WritableUtils.convertByteToFloat(byteBuffer, array1D);
         }
         this.sampleValues = array2D;
+        decoded = true;
     }
 
     public String toString() {
-        if (sampleValues != null && sampleValues.length > 0 && sampleValues[0] != null) {
+        if (!decoded) {
+            return "TileDataWritable(encoded)";
+        } else if (sampleValues != null && sampleValues.length > 0 && sampleValues[0] != null) {
             return "TileDataWritable(" + sampleValues.length + "," + sampleValues[0].length + ")";
         } else {
             return "TileDataWritable(null)";
         }
     }
 }
-
-
-
@@ -16,6 +16,7 @@
 
 package com.bc.calvalus.processing.mosaic2;
 
+import com.bc.calvalus.processing.l3.L3SpatialBin;
 import org.apache.hadoop.io.CompressedWritable;
 import org.esa.snap.binning.SpatialBin;
 import java.io.DataInput;
@@ -83,8 +84,7 @@ public class L3SpatialBinMicroTileWritable extends CompressedWritable {
             for (int i=0; i<numSamples; ++i) {
                 long index = in.readLong();
                 if (index != NULL_BIN) {
-                    sampleValues[i] = SpatialBin.read(in);
-                    sampleValues[i].setIndex(index);
+                    sampleValues[i] = L3SpatialBin.read(index, in);
                 }
             }
         } else {
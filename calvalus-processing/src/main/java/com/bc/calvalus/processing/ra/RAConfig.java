@@ -150,6 +150,10 @@ public class RAConfig implements XmlConvertible {
     @Parameter(defaultValue = "false")
     private boolean binValuesAsRatio = false;
 
+    // mappers compute mergeable statistics instead of passing all samples, percentiles are approximated
+    @Parameter(defaultValue = "false")
+    private boolean partialAggregation = false;
+
     // internal, will be set by the production type, to prevent repeated reading
     @Parameter
     private String[] internalRegionNames;
@@ -273,6 +277,17 @@ public class RAConfig implements XmlConvertible {
         this.binValuesAsRatio = binValuesAsRatio;
     }
 
+    /**
+     * @return true if the statistics are aggregated in the mappers, which is not possible when writing pixel values
+     */
+    public boolean isPartialAggregation() {
+        return partialAggregation && !writePixelValues;
+    }
+
+    public void setPartialAggregation(boolean partialAggregation) {
+        this.partialAggregation = partialAggregation;
+    }
+
     public static RAConfig get(Configuration conf) {
         String xml = conf.get(JobConfigNames.CALVALUS_RA_PARAMETERS);
         if (xml == null) {
@@ -20,8 +20,10 @@ import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.ProcessorAdapter;
 import com.bc.calvalus.processing.ProcessorFactory;
+import com.bc.calvalus.processing.hadoop.FloatArrayCodec;
 import com.bc.calvalus.processing.hadoop.ProgressSplitProgressMonitor;
 import com.bc.calvalus.processing.ra.stat.Extractor;
+import com.bc.calvalus.processing.ra.stat.PartialStatistics;
 import com.bc.calvalus.processing.ra.stat.RADateRanges;
 import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.core.SubProgressMonitor;
@@ -83,15 +85,22 @@ public class RAMapper extends Mapper<NullWritable, NullWritable, RAKey, RAValue>
                 final AtomicLong numSamplesTotal = new AtomicLong(0);
                 final Set<Integer> regionIdSet = new HashSet<>();
                 final String productName = product.getName();
+                final FloatArrayCodec codec = FloatArrayCodec.get(jobConfig);
+                final PartialStatistics partialStatistics = raConfig.isPartialAggregation() ? new PartialStatistics(raConfig) : null;
                 RARegions.RegionIterator regionIterator = raConfig.createNamedRegionIterator(context.getConfiguration());
                 Extractor extractor = new Extractor(product, raConfig.getGoodPixelExpression(), raConfig.getBandNames(), regionIterator) {
                     @Override
                     public void extractedData(int regionIndex, String regionName, long time, int numObs, float[][] samples) throws IOException, InterruptedException {
                         RAKey key = new RAKey(regionIndex, regionName, time);
-                        RAValue value = new RAValue(numObs, samples, time, productName);
+                        int numSamples = samples[0].length;
+                        RAValue value;
+                        if (partialStatistics != null) {
+                            value = new RAValue(numObs, numSamples, partialStatistics.compute(samples), time, productName);
+                        } else {
+                            value = new RAValue(numObs, samples, time, productName, codec);
+                        }
                         context.write(key, value);
 
-                        int numSamples = samples[0].length;
                         context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Observations").increment(numObs);
                         context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Valid Samples").increment(numSamples);
                         
@@ -101,6 +110,7 @@ public class RAMapper extends Mapper<NullWritable, NullWritable, RAKey, RAValue>
                         regionIdSet.add(regionIndex);
                     }
                 };
+                extractor.setNumThreads(jobConfig.getInt(JobConfigNames.CALVALUS_RA_EXTRACTION_THREADS, 1));
                 extractor.extract(pm);
                 if (foundPixel.get()) {
                     context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Product with pixel").increment(1);
@@ -96,13 +96,17 @@ public class RAReducer extends Reducer<RAKey, RAValue, NullWritable, NullWritabl
             long time = extract.getTime();
             int numObs = extract.getNumObs();
             float[][] samples = extract.getSamples();
-            int numSamples = samples[0].length;
+            int numSamples = extract.getNumSamples();
             String productName = extract.getProductName();
 
             String timeFormatted = RADateRanges.dateFormat.format(new Date(time));
             LOG.info(String.format("    time: %s numObs: %8d  numSamples: %8d   %s", timeFormatted, numObs, numSamples, productName));
 
-            regionAnalysis.addData(time, numObs, samples, productName);
+            if (samples != null) {
+                regionAnalysis.addData(time, numObs, samples, productName);
+            } else {
+                regionAnalysis.addStatistics(time, numObs, extract.getStatistics(), productName);
+            }
             if (pixelArchiver != null) {
                 if (time != lastTime && lastTime != -1) {
                     pixelArchiver.writeTempNetcdf();
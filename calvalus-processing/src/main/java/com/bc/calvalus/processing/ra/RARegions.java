@@ -42,9 +42,11 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -53,9 +55,12 @@ import java.util.regex.Pattern;
 public class RARegions {
 
     private static final String REGION_INDEX = "region_index";
+    // the files a shapefile may consist of, other entries of a zipped shapefile like metadata are not extracted
+    private static final Set<String> SHAPEFILE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "shp", "shx", "dbf", "prj", "cpg", "sbn", "sbx", "qix", "fix"));
 
     public static FeatureCollection<SimpleFeatureType, SimpleFeature> openShapefile(Path path, File tempDir, Configuration conf) throws IOException {
-        File[] unzippedFiles = CalvalusProductIO.uncompressArchiveToDir(path, tempDir, conf);
+        File[] unzippedFiles = CalvalusProductIO.uncompressArchiveToDir(path, tempDir, conf, RARegions::isShapefileFile);
         File shpFile = null;
         File prjFile = null;
         for (File file : unzippedFiles) {
@@ -79,6 +84,11 @@ public class RARegions {
         }
     }
 
+    static boolean isShapefileFile(String entryName) {
+        int dotPos = entryName.lastIndexOf('.');
+        return dotPos > entryName.lastIndexOf('/') && SHAPEFILE_EXTENSIONS.contains(entryName.substring(dotPos + 1).toLowerCase());
+    }
+
     private static void mayFixPrjFile(File prjFile) throws IOException {
         // read existing PRJ file
         Charset cs = Charset.forName("ISO-8859-1");
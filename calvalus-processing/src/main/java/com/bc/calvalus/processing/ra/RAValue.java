@@ -16,9 +16,9 @@
 
 package com.bc.calvalus.processing.ra;
 
-import com.bc.calvalus.processing.hadoop.WritableUtils;
-import org.apache.hadoop.io.CompressedWritable;
+import com.bc.calvalus.processing.hadoop.FloatArrayCodec;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -26,85 +26,119 @@ import java.io.IOException;
 
 /**
  * A {@link org.apache.hadoop.io.Writable} to hold a region analysis extract.
+ * The samples are written by a {@link FloatArrayCodec}.
  *
  * @author MarcoZ
  */
-public class RAValue extends CompressedWritable {
+public class RAValue implements Writable {
 
     private int numObs;
     private float[][] sampleValues;
+    private int numSamples;
+    private byte[] statistics;
     private long time;
     private String productName;
+    private FloatArrayCodec codec;
 
     // required by Hadoop
     public RAValue() {
     }
 
     public RAValue(int numObs, float[][] samples, long time, String productName) {
+        this(numObs, samples, time, productName, FloatArrayCodec.get(FloatArrayCodec.Compression.DEFLATE));
+    }
+
+    public RAValue(int numObs, float[][] samples, long time, String productName, FloatArrayCodec codec) {
         this.numObs = numObs;
         this.sampleValues = samples;
+        this.numSamples = samples[0].length;
+        this.time = time;
+        this.productName = productName;
+        this.codec = codec;
+    }
+
+    /**
+     * Creates an extract holding partial statistics of the samples instead of the samples.
+     */
+    public RAValue(int numObs, int numSamples, byte[] statistics, long time, String productName) {
+        this.numObs = numObs;
+        this.numSamples = numSamples;
+        this.statistics = statistics;
         this.time = time;
         this.productName = productName;
     }
 
     public int getNumObs() {
-        ensureInflated();
         return numObs;
     }
 
     public String getProductName() {
-        ensureInflated();
         return productName;
     }
 
     public long getTime() {
-        ensureInflated();
         return time;
     }
 
+    /**
+     * @return the samples, or null if the extract holds partial statistics
+     */
     public float[][] getSamples() {
-        ensureInflated();
         return sampleValues;
     }
 
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @return the partial statistics of the samples, or null if the extract holds the samples
+     */
+    public byte[] getStatistics() {
+        return statistics;
+    }
+
     @Override
-    public void writeCompressed(DataOutput out) throws IOException {
+    public void write(DataOutput out) throws IOException {
         out.writeInt(numObs);
         out.writeLong(time);
         Text.writeString(out, productName);
-        float[][] array2D = sampleValues;
-        int numBands = array2D.length;
-        int numElems = array2D[0].length;
-        out.writeInt(numBands);
-        out.writeInt(numElems);
-        byte[] byteBuffer = new byte[numElems * 4];
-        for (float[] array1D : array2D) {
-            WritableUtils.convertFloatToByte(array1D, byteBuffer);
-            out.write(byteBuffer);
+        if (statistics != null) {
+            // marked by a negative number of samples
+            out.writeInt(-1);
+            out.writeInt(numSamples);
+            out.writeInt(statistics.length);
+            out.write(statistics);
+            return;
+        }
+        out.writeInt(numSamples);
+        if (codec == null) {
+            codec = FloatArrayCodec.get(FloatArrayCodec.Compression.DEFLATE);
         }
+        codec.write(out, sampleValues);
     }
 
     @Override
-    public void readFieldsCompressed(DataInput in) throws IOException {
+    public void readFields(DataInput in) throws IOException {
         numObs = in.readInt();
         time = in.readLong();
         productName = Text.readString(in);
-        int numBands = in.readInt();
-        int numSamples = in.readInt();
-        float[][] array2D = sampleValues;
-        if (array2D == null || array2D.length != numBands || array2D[0].length != numSamples) {
-            array2D = new float[numBands][numSamples];
-        }
-        byte[] byteBuffer = new byte[numSamples * 4];
-        for (float[] array1D : array2D) {
-            in.readFully(byteBuffer);
-            WritableUtils.convertByteToFloat(byteBuffer, array1D);
+        numSamples = in.readInt();
+        if (numSamples < 0) {
+            numSamples = in.readInt();
+            statistics = new byte[in.readInt()];
+            in.readFully(statistics);
+            sampleValues = null;
+            return;
         }
-        sampleValues = array2D;
+        statistics = null;
+        sampleValues = FloatArrayCodec.read(in, sampleValues);
     }
 
     public String toString() {
-        if (sampleValues != null && sampleValues.length > 0 && sampleValues[0] != null) {
+        if (statistics != null) {
+            return "ExtractWritable(statistics," + numSamples + ")";
+        } else if (sampleValues != null && sampleValues.length > 0 && sampleValues[0] != null) {
             return "ExtractWritable(" + sampleValues.length + "," + sampleValues[0].length + ")";
         } else {
             return "ExtractWritable(null)";
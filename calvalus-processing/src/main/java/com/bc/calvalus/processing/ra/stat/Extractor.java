@@ -20,15 +20,10 @@ import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.ra.RAConfig;
 import com.bc.calvalus.processing.ra.RARegions;
 import com.bc.ceres.core.ProgressMonitor;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.TopologyException;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.esa.snap.core.datamodel.Band;
-import org.esa.snap.core.datamodel.GeoCoding;
-import org.esa.snap.core.datamodel.GeoPos;
-import org.esa.snap.core.datamodel.PixelPos;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.gpf.common.SubsetOp;
@@ -40,9 +35,16 @@ import javax.media.jai.PlanarImage;
 import java.awt.*;
 import java.awt.image.Raster;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -57,7 +59,8 @@ public abstract class Extractor {
     private final PlanarImage[] dataImages;
     private final boolean equalTileGrids;
     private final List<GeometryFilter> regionFilters;
-    private long time;
+    private volatile long time;
+    private int numThreads = 1;
 
     public Extractor(Product product, String validExpression, String[] bandNames, RARegions.RegionIterator regionIterator) {
         this.product = product;
@@ -104,11 +107,14 @@ public abstract class Extractor {
 
                 if (!pixelRect.isEmpty()) {
                     PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(namedRegion.region);
+                    RegionMask regionMask = RegionMask.create(namedRegion.region,
+                            preparedGeometry,
+                            product.getSceneGeoCoding(),
+                            pixelRect);
                     regionFilters.add(new Extractor.GeometryFilter(regionIndex,
                             namedRegion.name,
                             pixelRect,
-                            product.getSceneGeoCoding(),
-                            preparedGeometry));
+                            regionMask));
                 }
                 regionIndex++;
             }
@@ -126,32 +132,129 @@ public abstract class Extractor {
                 im1.getTileGridYOffset() == im2.getTileGridYOffset();
     }
 
+    /**
+     * @param numThreads number of threads computing the tiles and their extracts, the extracts are
+     *                   passed to {@link #extractedData} in the order of the tiles on the calling thread
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     public abstract void extractedData(int regionIndex, String regionName, long time, int numObs, float[][] samples) throws IOException, InterruptedException;
 
     public void extract(ProgressMonitor pm) throws IOException, InterruptedException {
         Point[] tileIndices = maskImage.getTileIndices(null);
-        LOG.info(String.format("Start extracting data from %d tiles for %d regions", tileIndices.length, regionFilters.size()));
+        LOG.info(String.format("Start extracting data from %d tiles for %d regions using %d threads", tileIndices.length, regionFilters.size(), numThreads));
         pm.beginTask("extraction", tileIndices.length * regionFilters.size());
-        for (Point maskTileIndex : tileIndices) {
-            final Extractor.RasterStack rasterStack = getRasters(maskTileIndex);
-            Rectangle tr = rasterStack.tileRect;
-            LOG.info(String.format("Tile [x=%d,y=%d,width=%d,height=%d]", tr.x, tr.y, tr.width, tr.height));
-            for (GeometryFilter region : regionFilters) {
-                Rectangle rect = rasterStack.tileRect.intersection(region.pixelRect);
-                if (!rect.isEmpty()) {
-                    LOG.info(String.format("    Region '%s' [x=%d,y=%d,width=%d,height=%d]", region.name, rect.x, rect.y, rect.width, rect.height));
-                    Extract extract = handleSingleTile(rasterStack, rect, region);
-                    if (extract != null) {
-                        LOG.info(String.format("    numObs %8d    numSamples %8d", extract.numObs, extract.numValid));
-                        extractedData(region.geoId, region.name, extract.time, extract.numObs, extract.samples);
+        List<List<GeometryFilter>> tileRegions = getTileRegions();
+        if (numThreads == 1) {
+            for (Point maskTileIndex : tileIndices) {
+                writeTile(extractTile(maskTileIndex, tileRegions), pm);
+            }
+        } else {
+            ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+            try {
+                // a bounded number of tiles in flight, passed on in the order of the tiles
+                Deque<Future<TileExtracts>> futures = new ArrayDeque<>();
+                for (Point maskTileIndex : tileIndices) {
+                    if (futures.size() == 2 * numThreads) {
+                        writeTile(getTile(futures.removeFirst()), pm);
                     }
+                    futures.addLast(executorService.submit(() -> extractTile(maskTileIndex, tileRegions)));
                 }
-                pm.worked(1);
+                while (!futures.isEmpty()) {
+                    writeTile(getTile(futures.removeFirst()), pm);
+                }
+            } finally {
+                executorService.shutdownNow();
             }
         }
         pm.done();
     }
 
+    /**
+     * @return the regions intersecting each tile, by tile index relative to the minimum tile indices, in row-major order
+     */
+    private List<List<GeometryFilter>> getTileRegions() {
+        int numXTiles = maskImage.getNumXTiles();
+        int numYTiles = maskImage.getNumYTiles();
+        List<List<GeometryFilter>> tileRegions = new ArrayList<>(numXTiles * numYTiles);
+        for (int i = 0; i < numXTiles * numYTiles; i++) {
+            tileRegions.add(new ArrayList<>());
+        }
+        for (GeometryFilter region : regionFilters) {
+            Rectangle pixelRect = region.pixelRect;
+            int tileX1 = Math.max(maskImage.getMinTileX(), maskImage.XToTileX(pixelRect.x));
+            int tileX2 = Math.min(maskImage.getMaxTileX(), maskImage.XToTileX(pixelRect.x + pixelRect.width - 1));
+            int tileY1 = Math.max(maskImage.getMinTileY(), maskImage.YToTileY(pixelRect.y));
+            int tileY2 = Math.min(maskImage.getMaxTileY(), maskImage.YToTileY(pixelRect.y + pixelRect.height - 1));
+            for (int tileY = tileY1; tileY <= tileY2; tileY++) {
+                for (int tileX = tileX1; tileX <= tileX2; tileX++) {
+                    tileRegions.get((tileY - maskImage.getMinTileY()) * numXTiles + tileX - maskImage.getMinTileX()).add(region);
+                }
+            }
+        }
+        return tileRegions;
+    }
+
+    private Extractor.TileExtracts extractTile(Point maskTileIndex, List<List<GeometryFilter>> tileRegions) {
+        int tileIndex = (maskTileIndex.y - maskImage.getMinTileY()) * maskImage.getNumXTiles() + maskTileIndex.x - maskImage.getMinTileX();
+        List<GeometryFilter> regions = tileRegions.get(tileIndex);
+        Rectangle tileRect = maskImage.getTileRect(maskTileIndex.x, maskTileIndex.y);
+        if (regions.isEmpty()) {
+            return new Extractor.TileExtracts(tileRect, Collections.emptyList(), new Extractor.Extract[0]);
+        }
+        final Extractor.RasterStack rasterStack = getRasters(maskTileIndex);
+        Extractor.Extract[] extracts = new Extractor.Extract[regions.size()];
+        for (int i = 0; i < extracts.length; i++) {
+            Rectangle rect = rasterStack.tileRect.intersection(regions.get(i).pixelRect);
+            if (!rect.isEmpty()) {
+                extracts[i] = handleSingleTile(rasterStack, rect, regions.get(i));
+            }
+        }
+        return new Extractor.TileExtracts(tileRect, regions, extracts);
+    }
+
+    private static Extractor.TileExtracts getTile(Future<Extractor.TileExtracts> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeTile(Extractor.TileExtracts tile, ProgressMonitor pm) throws IOException, InterruptedException {
+        Rectangle tr = tile.tileRect;
+        LOG.info(String.format("Tile [x=%d,y=%d,width=%d,height=%d]", tr.x, tr.y, tr.width, tr.height));
+        for (int i = 0; i < tile.extracts.length; i++) {
+            GeometryFilter region = tile.regions.get(i);
+            Rectangle rect = tr.intersection(region.pixelRect);
+            if (!rect.isEmpty()) {
+                LOG.info(String.format("    Region '%s' [x=%d,y=%d,width=%d,height=%d]", region.name, rect.x, rect.y, rect.width, rect.height));
+            }
+            Extract extract = tile.extracts[i];
+            if (extract != null) {
+                // the time of the first pixel found is used for all extracts of the product
+                if (time == -1) {
+                    time = extract.time;
+                }
+                extract.time = time;
+                LOG.info(String.format("    numObs %8d    numSamples %8d", extract.numObs, extract.numValid));
+                extractedData(region.geoId, region.name, extract.time, extract.numObs, extract.samples);
+            }
+        }
+        pm.worked(regionFilters.size());
+    }
+
+    /**
+     * @return the extract, with the time of its first pixel if no time has been found before, or null if the
+     * region does not cover a pixel of the rectangle
+     */
     private Extractor.Extract handleSingleTile(Extractor.RasterStack rasterStack, Rectangle rect, Extractor.GeometryFilter geometryFilter) {
         int numPixelsMax = rect.width * rect.height;
         Extractor.Extract extract = new Extractor.Extract(dataImages.length, numPixelsMax);
@@ -172,8 +275,8 @@ public abstract class Extractor {
                         }
                         if (oneValueValid) {
                             extract.numValid++;
-                            if (time == -1) {
-                                time = getPixelTime(x, y);
+                            if (extract.time == -1 && time == -1) {
+                                extract.time = getPixelTime(x, y);
                             }
                         }
                     }
@@ -187,16 +290,14 @@ public abstract class Extractor {
                 float[] samples = extract.samples[i];
                 extract.samples[i] = Arrays.copyOf(samples, extract.numValid);
             }
-            extract.time = time;
             return extract;
         } else if (extract.numObs > 0) {
             // no valid samples
             extract.samples = new float[extract.samples.length][0];
             // no Valid samples, but time should be set
             if (time == -1) {
-                time = getPixelTime(rect.x, rect.y);
+                extract.time = getPixelTime(rect.x, rect.y);
             }
-            extract.time = time;
             return extract;
         } else {
             return null;
@@ -239,6 +340,18 @@ public abstract class Extractor {
         }
     }
 
+    static class TileExtracts {
+        private final Rectangle tileRect;
+        private final List<GeometryFilter> regions;
+        private final Extract[] extracts;
+
+        TileExtracts(Rectangle tileRect, List<GeometryFilter> regions, Extract[] extracts) {
+            this.tileRect = tileRect;
+            this.regions = regions;
+            this.extracts = extracts;
+        }
+    }
+
     static class RasterStack {
         private final Rectangle tileRect;
         private final Raster maskTile;
@@ -255,24 +368,17 @@ public abstract class Extractor {
         private final int geoId;
         private final String name;
         private final Rectangle pixelRect;
-        private final GeoCoding geoCoding;
-        private final PreparedGeometry geometry;
-        private final GeometryFactory geometryFactory;
+        private final RegionMask regionMask;
 
-        GeometryFilter(int geoId, String name, Rectangle pixelRect, GeoCoding geoCoding, PreparedGeometry geometry) {
+        GeometryFilter(int geoId, String name, Rectangle pixelRect, RegionMask regionMask) {
             this.geoId = geoId;
             this.name = name;
             this.pixelRect = pixelRect;
-            this.geoCoding = geoCoding;
-            this.geometry = geometry;
-            this.geometryFactory = new GeometryFactory();
+            this.regionMask = regionMask;
         }
 
         boolean test(int x, int y) {
-            final PixelPos pixelPos = new PixelPos(x + 0.5, y + 0.5);
-            final GeoPos geoPos = geoCoding.getGeoPos(pixelPos, null);
-            Coordinate coordinate = new Coordinate(geoPos.lon, geoPos.lat);
-            return geometry.contains(geometryFactory.createPoint(coordinate));
+            return regionMask.contains(x, y);
         }
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import com.bc.calvalus.processing.ra.RAConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Computes the statistics of the samples of an extract in the mapper, to be merged by {@link RegionAnalysis#addStatistics}
+ * instead of passing all samples to the reducer.
+ * <p>
+ * Counts, extrema and histograms are the same as computed from all samples. Means and sigma differ by rounding only.
+ * Percentiles are approximated with a relative error of at most {@link QuantileSketch#RELATIVE_ACCURACY}.
+ */
+public class PartialStatistics {
+
+    private final Statistics[] stats;
+
+    public PartialStatistics(RAConfig raConfig) {
+        this.stats = RegionAnalysis.createStatistics(raConfig, false, true);
+    }
+
+    /**
+     * @param samples the samples of each band
+     * @return the serialised statistics of the samples of each band
+     */
+    public byte[] compute(float[][] samples) throws IOException {
+        if (samples.length != stats.length) {
+            throw new IllegalArgumentException(String.format("samples.length(%d) does not match num bands(%d)", samples.length, stats.length));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(stats.length);
+        for (int bandId = 0; bandId < stats.length; bandId++) {
+            stats[bandId].reset();
+            stats[bandId].process(samples[bandId]);
+            stats[bandId].write(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
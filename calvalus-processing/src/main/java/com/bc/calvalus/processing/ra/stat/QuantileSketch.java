@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A mergeable sketch of the distribution of values, to approximate percentiles.
+ * <p>
+ * The values are counted in buckets of logarithmically growing width, separately for positive and
+ * negative values. The value of the bucket a value falls into differs from the value by at most
+ * {@link #RELATIVE_ACCURACY} relative to the value. Values closer to zero than {@link #MIN_MAGNITUDE}
+ * are counted as zero. Sketches are merged by adding the counts of their buckets, which is exact.
+ */
+final class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.005;
+    static final double MIN_MAGNITUDE = 1.0e-30;
+
+    private static final double GAMMA = (1.0 + RELATIVE_ACCURACY) / (1.0 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount;
+
+    void add(float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        if (value >= MIN_MAGNITUDE) {
+            positive.add(getIndex(value), 1);
+        } else if (value <= -MIN_MAGNITUDE) {
+            negative.add(getIndex(-value), 1);
+        } else {
+            zeroCount++;
+        }
+    }
+
+    void merge(QuantileSketch other) {
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+    }
+
+    long getCount() {
+        return negative.total + zeroCount + positive.total;
+    }
+
+    /**
+     * @param rank the rank of the value in the ascending order of all values, from 0 to count - 1
+     * @return the approximated value
+     */
+    double getValue(long rank) {
+        if (rank < negative.total) {
+            // the negative values in ascending order are the magnitudes in descending order
+            return -getBucketValue(negative.getIndex(negative.total - 1 - rank));
+        }
+        rank -= negative.total;
+        if (rank < zeroCount) {
+            return 0.0;
+        }
+        return getBucketValue(positive.getIndex(rank - zeroCount));
+    }
+
+    void clear() {
+        positive.clear();
+        negative.clear();
+        zeroCount = 0;
+    }
+
+    void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, zeroCount);
+        positive.write(out);
+        negative.write(out);
+    }
+
+    /**
+     * Reads a sketch written by {@link #write} and merges it into this one.
+     */
+    void merge(DataInput in) throws IOException {
+        zeroCount += WritableUtils.readVLong(in);
+        positive.merge(in);
+        negative.merge(in);
+    }
+
+    private static int getIndex(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    private static double getBucketValue(int index) {
+        return 2.0 * Math.pow(GAMMA, index) / (GAMMA + 1.0);
+    }
+
+    /**
+     * Counts of consecutive bucket indices, grown as needed.
+     */
+    private static final class Buckets {
+
+        private long[] counts = new long[0];
+        private int offset;
+        private long total;
+
+        void add(int index, long count) {
+            ensureIndex(index);
+            counts[index - offset] += count;
+            total += count;
+        }
+
+        void merge(Buckets other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        /**
+         * @return the index of the bucket containing the value of the given rank in ascending order
+         */
+        int getIndex(long rank) {
+            long n = 0;
+            for (int i = 0; i < counts.length; i++) {
+                n += counts[i];
+                if (rank < n) {
+                    return offset + i;
+                }
+            }
+            throw new IllegalArgumentException("rank " + rank + " exceeds count " + total);
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            total = 0;
+        }
+
+        void write(DataOutput out) throws IOException {
+            int first = 0;
+            int last = counts.length - 1;
+            while (first <= last && counts[first] == 0) {
+                first++;
+            }
+            while (last >= first && counts[last] == 0) {
+                last--;
+            }
+            int numBuckets = last - first + 1;
+            WritableUtils.writeVInt(out, numBuckets);
+            if (numBuckets > 0) {
+                WritableUtils.writeVInt(out, offset + first);
+                for (int i = first; i <= last; i++) {
+                    WritableUtils.writeVLong(out, counts[i]);
+                }
+            }
+        }
+
+        void merge(DataInput in) throws IOException {
+            int numBuckets = WritableUtils.readVInt(in);
+            if (numBuckets > 0) {
+                int first = WritableUtils.readVInt(in);
+                ensureIndex(first);
+                ensureIndex(first + numBuckets - 1);
+                for (int i = 0; i < numBuckets; i++) {
+                    long count = WritableUtils.readVLong(in);
+                    counts[first + i - offset] += count;
+                    total += count;
+                }
+            }
+        }
+
+        private void ensureIndex(int index) {
+            if (counts.length == 0) {
+                counts = new long[64];
+                offset = index - 32;
+            } else if (index < offset) {
+                int newOffset = Math.min(index, offset - counts.length / 2);
+                long[] newCounts = new long[counts.length + offset - newOffset];
+                System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+                counts = newCounts;
+                offset = newOffset;
+            } else if (index >= offset + counts.length) {
+                int newLength = Math.max(index - offset + 1, counts.length + counts.length / 2);
+                counts = Arrays.copyOf(counts, newLength);
+            }
+        }
+    }
+}
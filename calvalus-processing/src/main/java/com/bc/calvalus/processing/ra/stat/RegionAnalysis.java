@@ -3,6 +3,8 @@ package com.bc.calvalus.processing.ra.stat;
 import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.processing.ra.RAConfig;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,30 +39,59 @@ public class RegionAnalysis {
         this.regionNameList = Arrays.asList(internalRegionNames);
         this.regionHandler = new HandleAll(internalRegionNames.length);
 
+        stats = createStatistics(raConfig, binValuesAsRatio, raConfig.isPartialAggregation());
+        withProductNames = raConfig.withProductNames();
+        statisticsWriter = new StatisticsWriter(raConfig, stats, writerFactor);
+    }
+
+    static Statistics[] createStatistics(RAConfig raConfig, boolean binValuesAsRatio, boolean mergeable) {
         RAConfig.BandConfig[] bandConfigs = raConfig.getBandConfigs();
-        stats = new Statistics[bandConfigs.length];
+        Statistics[] stats = new Statistics[bandConfigs.length];
         for (int i = 0; i < bandConfigs.length; i++) {
             RAConfig.BandConfig bConfig = bandConfigs[i];
-            stats[i] = new Statistics(bConfig.getNumBins(), bConfig.getMin(), bConfig.getMax(), raConfig.getPercentiles(), binValuesAsRatio);
+            stats[i] = new Statistics(bConfig.getNumBins(), bConfig.getMin(), bConfig.getMax(), raConfig.getPercentiles(), binValuesAsRatio, mergeable);
         }
-        withProductNames = raConfig.withProductNames();
-        statisticsWriter = new StatisticsWriter(raConfig, stats, writerFactor);
+        return stats;
     }
 
     public void addData(long time, int numObs, float[][] samples, String... productNames) throws IOException {
+        if (selectDateRange(time)) {
+            accumulate(time, numObs, samples);
+            productName = productNames.length > 0 ? productNames[0] : null;
+        }
+    }
+
+    /**
+     * Adds the partial statistics of an extract, computed by a {@link PartialStatistics}.
+     */
+    public void addStatistics(long time, int numObs, byte[] statistics, String... productNames) throws IOException {
+        if (selectDateRange(time)) {
+            countObservations(time, numObs);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(statistics));
+            int numBands = in.readInt();
+            if (numBands != stats.length) {
+                throw new IllegalArgumentException(String.format("statistics of %d bands does not match num bands(%d)", numBands, stats.length));
+            }
+            for (Statistics stat : stats) {
+                stat.merge(in);
+            }
+            productName = productNames.length > 0 ? productNames[0] : null;
+        }
+    }
+
+    private boolean selectDateRange(long time) throws IOException {
         int newDateRange = dateRanges.findIndex(time);
         if (newDateRange == -1) {
             String out_ouf_range_date = dateRanges.format(time);
             LOG.warning("out_ouf_range_date = " + out_ouf_range_date + " --> ignoring extract data");
-        } else {
-            if (newDateRange != dataRangeHandler.current()) {
-                writeCurrentRecord();
-                resetRecord();
-                writeEmptyRecords(regionHandler.current(), dataRangeHandler.preceedingUnhandledIndices(newDateRange));
-            }
-            accumulate(time, numObs, samples);
-            productName = productNames.length > 0 ? productNames[0] : null;
+            return false;
+        }
+        if (newDateRange != dataRangeHandler.current()) {
+            writeCurrentRecord();
+            resetRecord();
+            writeEmptyRecords(regionHandler.current(), dataRangeHandler.preceedingUnhandledIndices(newDateRange));
         }
+        return true;
     }
 
     public void startRegion(int regionId, String regionName) throws IOException {
@@ -97,11 +128,7 @@ public class RegionAnalysis {
     /////////////////////////////////
 
     private void accumulate(long time, int numObs, float[][] samples) {
-        if (time != currentTime) {
-            currentTime = time;
-            numPasses++;
-        }
-        this.numObs += numObs;
+        countObservations(time, numObs);
         if (samples.length != stats.length) {
             throw new IllegalArgumentException(String.format("samples.length(%d) does not match num bands(%d)", samples.length, stats.length));
         }
@@ -110,6 +137,14 @@ public class RegionAnalysis {
         }
     }
 
+    private void countObservations(long time, int numObs) {
+        if (time != currentTime) {
+            currentTime = time;
+            numPasses++;
+        }
+        this.numObs += numObs;
+    }
+
     private void resetRecord() {
         currentTime = -1;
         numObs = 0;
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The pixels of a product inside a region, rasterized once per product instead of testing every pixel
+ * of every tile against the geometry. Each region has its own mask, hence regions may overlap.
+ * <p>
+ * The rings of the region are projected into pixel coordinates by the geo-coding and filled scanline by
+ * scanline at the pixel centres. The edges are straight lines in lat/lon, hence they are subdivided until
+ * the projected midpoints deviate less than {@link #MAX_DEVIATION} pixels from the projected lines.
+ * Pixels closer than {@link #EDGE_DISTANCE} pixels to an edge are refined by testing the geo-location of
+ * the pixel centre against the geometry, like it is done for all pixels if the geometry is not polygonal
+ * or cannot be projected.
+ */
+final class RegionMask {
+
+    static final double MAX_DEVIATION = 0.1;
+    static final double EDGE_DISTANCE = 1.0;
+
+    private static final double MAX_SEGMENT_LENGTH = 64.0;
+    private static final int MAX_SUBDIVISIONS = 16;
+
+    private final Rectangle rect;
+    private final BitSet mask;
+
+    private RegionMask(Rectangle rect) {
+        this.rect = rect;
+        this.mask = new BitSet(rect.width * rect.height);
+    }
+
+    /**
+     * @param rect the pixel rectangle containing the region
+     */
+    static RegionMask create(Geometry geometry, PreparedGeometry preparedGeometry, GeoCoding geoCoding, Rectangle rect) {
+        RegionMask regionMask = new RegionMask(rect);
+        Segments segments = geoCoding.canGetPixelPos() ? getSegments(geometry, geoCoding) : null;
+        if (segments == null) {
+            regionMask.testAll(preparedGeometry, geoCoding);
+        } else {
+            regionMask.fill(segments);
+            regionMask.refine(segments, preparedGeometry, geoCoding);
+        }
+        return regionMask;
+    }
+
+    /**
+     * Creates the mask by testing every pixel against the geometry.
+     */
+    static RegionMask createByTesting(PreparedGeometry preparedGeometry, GeoCoding geoCoding, Rectangle rect) {
+        RegionMask regionMask = new RegionMask(rect);
+        regionMask.testAll(preparedGeometry, geoCoding);
+        return regionMask;
+    }
+
+    /**
+     * @return true if the centre of the pixel is inside the region, the pixel must be inside the rectangle
+     */
+    boolean contains(int x, int y) {
+        return mask.get((y - rect.y) * rect.width + (x - rect.x));
+    }
+
+    int getNumPixels() {
+        return mask.cardinality();
+    }
+
+    private void testAll(PreparedGeometry preparedGeometry, GeoCoding geoCoding) {
+        PixelTest pixelTest = new PixelTest(preparedGeometry, geoCoding);
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            for (int x = rect.x; x < rect.x + rect.width; x++) {
+                if (pixelTest.test(x, y)) {
+                    mask.set(getIndex(x, y));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the rings with the even-odd rule, a pixel is inside if its centre is.
+     */
+    private void fill(Segments segments) {
+        int numSegments = segments.size;
+        double[] s = segments.coords;
+        // segments by first row crossed, linked by index
+        int[] firstSegment = new int[rect.height];
+        int[] nextSegment = new int[numSegments];
+        int[] lastRows = new int[numSegments];
+        Arrays.fill(firstSegment, -1);
+        for (int i = 0; i < numSegments; i++) {
+            double yMin = Math.min(s[4 * i + 1], s[4 * i + 3]);
+            double yMax = Math.max(s[4 * i + 1], s[4 * i + 3]);
+            // rows with yMin <= y + 0.5 < yMax
+            int firstRow = Math.max(rect.y, (int) Math.ceil(yMin - 0.5));
+            int lastRow = Math.min(rect.y + rect.height, (int) Math.ceil(yMax - 0.5)) - 1;
+            if (firstRow <= lastRow) {
+                lastRows[i] = lastRow;
+                nextSegment[i] = firstSegment[firstRow - rect.y];
+                firstSegment[firstRow - rect.y] = i;
+            }
+        }
+        int[] active = new int[16];
+        int numActive = 0;
+        double[] crossings = new double[16];
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            int n = 0;
+            for (int i = 0; i < numActive; i++) {
+                if (lastRows[active[i]] >= y) {
+                    active[n++] = active[i];
+                }
+            }
+            numActive = n;
+            for (int i = firstSegment[y - rect.y]; i != -1; i = nextSegment[i]) {
+                if (numActive == active.length) {
+                    active = Arrays.copyOf(active, 2 * numActive);
+                }
+                active[numActive++] = i;
+            }
+            if (numActive > crossings.length) {
+                crossings = new double[active.length];
+            }
+            double yc = y + 0.5;
+            for (int i = 0; i < numActive; i++) {
+                int k = 4 * active[i];
+                crossings[i] = s[k] + (yc - s[k + 1]) * (s[k + 2] - s[k]) / (s[k + 3] - s[k + 1]);
+            }
+            Arrays.sort(crossings, 0, numActive);
+            for (int i = 0; i + 1 < numActive; i += 2) {
+                // columns with x1 <= x + 0.5 < x2
+                int x1 = Math.max(rect.x, (int) Math.ceil(crossings[i] - 0.5));
+                int x2 = Math.min(rect.x + rect.width, (int) Math.ceil(crossings[i + 1] - 0.5));
+                if (x1 < x2) {
+                    mask.set(getIndex(x1, y), getIndex(x2 - 1, y) + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the pixels close to the projected edges against the geometry.
+     */
+    private void refine(Segments segments, PreparedGeometry preparedGeometry, GeoCoding geoCoding) {
+        BitSet edgePixels = new BitSet(rect.width * rect.height);
+        double[] s = segments.coords;
+        for (int i = 0; i < segments.size; i++) {
+            double x1 = s[4 * i];
+            double y1 = s[4 * i + 1];
+            double x2 = s[4 * i + 2];
+            double y2 = s[4 * i + 3];
+            int xMin = Math.max(rect.x, (int) Math.floor(Math.min(x1, x2) - EDGE_DISTANCE));
+            int xMax = Math.min(rect.x + rect.width - 1, (int) Math.floor(Math.max(x1, x2) + EDGE_DISTANCE));
+            int yMin = Math.max(rect.y, (int) Math.floor(Math.min(y1, y2) - EDGE_DISTANCE));
+            int yMax = Math.min(rect.y + rect.height - 1, (int) Math.floor(Math.max(y1, y2) + EDGE_DISTANCE));
+            for (int y = yMin; y <= yMax; y++) {
+                for (int x = xMin; x <= xMax; x++) {
+                    if (getDistanceSq(x + 0.5, y + 0.5, x1, y1, x2, y2) <= EDGE_DISTANCE * EDGE_DISTANCE) {
+                        edgePixels.set(getIndex(x, y));
+                    }
+                }
+            }
+        }
+        PixelTest pixelTest = new PixelTest(preparedGeometry, geoCoding);
+        for (int i = edgePixels.nextSetBit(0); i >= 0; i = edgePixels.nextSetBit(i + 1)) {
+            mask.set(i, pixelTest.test(rect.x + i % rect.width, rect.y + i / rect.width));
+        }
+    }
+
+    private int getIndex(int x, int y) {
+        return (y - rect.y) * rect.width + (x - rect.x);
+    }
+
+    private static double getDistanceSq(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq > 0.0 ? ((px - x1) * dx + (py - y1) * dy) / lengthSq : 0.0;
+        t = Math.max(0.0, Math.min(1.0, t));
+        double ex = x1 + t * dx - px;
+        double ey = y1 + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * @return the projected edges of all rings, or null if the geometry is not polygonal or cannot be projected
+     */
+    private static Segments getSegments(Geometry geometry, GeoCoding geoCoding) {
+        Segments segments = new Segments();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (!(part instanceof Polygon)) {
+                return null;
+            }
+            Polygon polygon = (Polygon) part;
+            if (!addRing(polygon.getExteriorRing(), geoCoding, segments)) {
+                return null;
+            }
+            for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                if (!addRing(polygon.getInteriorRingN(j), geoCoding, segments)) {
+                    return null;
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static boolean addRing(LineString ring, GeoCoding geoCoding, Segments segments) {
+        Coordinate[] coordinates = ring.getCoordinates();
+        if (coordinates.length == 0) {
+            return true;
+        }
+        PixelPos p1 = project(coordinates[0].x, coordinates[0].y, geoCoding);
+        if (p1 == null) {
+            return false;
+        }
+        for (int i = 1; i < coordinates.length; i++) {
+            PixelPos p2 = project(coordinates[i].x, coordinates[i].y, geoCoding);
+            if (p2 == null || !addEdge(coordinates[i - 1].x, coordinates[i - 1].y, p1,
+                                       coordinates[i].x, coordinates[i].y, p2, geoCoding, segments, 0)) {
+                return false;
+            }
+            p1 = p2;
+        }
+        return true;
+    }
+
+    private static boolean addEdge(double lon1, double lat1, PixelPos p1,
+                                   double lon2, double lat2, PixelPos p2,
+                                   GeoCoding geoCoding, Segments segments, int depth) {
+        double lonM = 0.5 * (lon1 + lon2);
+        double latM = 0.5 * (lat1 + lat2);
+        PixelPos pM = project(lonM, latM, geoCoding);
+        if (pM == null) {
+            return false;
+        }
+        double deviation = Math.hypot(pM.x - 0.5 * (p1.x + p2.x), pM.y - 0.5 * (p1.y + p2.y));
+        double length = Math.hypot(p2.x - p1.x, p2.y - p1.y);
+        if (deviation <= MAX_DEVIATION && length <= MAX_SEGMENT_LENGTH) {
+            segments.add(p1.x, p1.y, p2.x, p2.y);
+            return true;
+        }
+        if (depth == MAX_SUBDIVISIONS) {
+            // e.g. an edge crossing a discontinuity of the geo-coding
+            return false;
+        }
+        return addEdge(lon1, lat1, p1, lonM, latM, pM, geoCoding, segments, depth + 1)
+               && addEdge(lonM, latM, pM, lon2, lat2, p2, geoCoding, segments, depth + 1);
+    }
+
+    private static PixelPos project(double lon, double lat, GeoCoding geoCoding) {
+        PixelPos pixelPos = geoCoding.getPixelPos(new GeoPos(lat, lon), null);
+        return pixelPos != null && pixelPos.isValid() ? pixelPos : null;
+    }
+
+    /**
+     * Line segments in pixel coordinates, as x1, y1, x2, y2.
+     */
+    private static final class Segments {
+
+        private double[] coords = new double[256];
+        private int size;
+
+        void add(double x1, double y1, double x2, double y2) {
+            if (4 * size + 4 > coords.length) {
+                coords = Arrays.copyOf(coords, 2 * coords.length);
+            }
+            coords[4 * size] = x1;
+            coords[4 * size + 1] = y1;
+            coords[4 * size + 2] = x2;
+            coords[4 * size + 3] = y2;
+            size++;
+        }
+    }
+
+    /**
+     * Tests whether the geo-location of a pixel centre is inside the geometry.
+     */
+    private static final class PixelTest {
+
+        private final PreparedGeometry geometry;
+        private final GeoCoding geoCoding;
+        private final GeometryFactory geometryFactory = new GeometryFactory();
+        private final PixelPos pixelPos = new PixelPos();
+        private final GeoPos geoPos = new GeoPos();
+
+        PixelTest(PreparedGeometry geometry, GeoCoding geoCoding) {
+            this.geometry = geometry;
+            this.geoCoding = geoCoding;
+        }
+
+        boolean test(int x, int y) {
+            pixelPos.setLocation(x + 0.5, y + 0.5);
+            geoCoding.getGeoPos(pixelPos, geoPos);
+            Coordinate coordinate = new Coordinate(geoPos.lon, geoPos.lat);
+            return geometry.contains(geometryFactory.createPoint(coordinate));
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.bc.calvalus.processing.ra.stat;
 
 //import javax.media.jai.Histogram;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -16,6 +21,8 @@ import java.util.List;
  * arithmetic overflow or arithmetic underflow.
  * This is less likely to occur with the sum of the logarithms for each number.
  *
+ * Statistics of parts of the values can be computed separately and merged, see {@link #write} and {@link #merge}.
+ * In this case the percentiles are approximated by a {@link QuantileSketch} instead of being computed from all values.
  */
 class Statistics {
 
@@ -34,6 +41,7 @@ class Statistics {
 
     private final int[] percentiles;
     private final Accumulator accu;
+    private final QuantileSketch sketch;
     private final boolean binValuesAsRatio;
 
     Statistics() {
@@ -51,6 +59,18 @@ class Statistics {
                double highValue,
                int[] percentiles,
                boolean binValuesAsRatio) {
+        this(numBins, lowValue, highValue, percentiles, binValuesAsRatio, false);
+    }
+
+    /**
+     * @param mergeable if true, the percentiles are approximated by a sketch of the values that can be merged
+     */
+    Statistics(int numBins,
+               double lowValue,
+               double highValue,
+               int[] percentiles,
+               boolean binValuesAsRatio,
+               boolean mergeable) {
         if (numBins > 0) {
             histogram = new Histogram64(numBins, lowValue, highValue, 1);
         } else {
@@ -58,10 +78,12 @@ class Statistics {
         }
         if (percentiles != null && percentiles.length > 0) {
             this.percentiles = percentiles;
-            this.accu = new Accumulator();
+            this.accu = mergeable ? null : new Accumulator();
+            this.sketch = mergeable ? new QuantileSketch() : null;
         } else {
             this.percentiles = null;
             this.accu = null;
+            this.sketch = null;
         }
         this.binValuesAsRatio = binValuesAsRatio;
         reset();
@@ -106,6 +128,65 @@ class Statistics {
         if (accu != null) {
             accu.accumulateNoNaN(samples);
         }
+        if (sketch != null) {
+            for (float value : samples) {
+                sketch.add(value);
+            }
+        }
+    }
+
+    /**
+     * Writes the statistics of the values processed so far, to be merged by {@link #merge}.
+     * The counts are written as variable-length longs, most histogram bins take a single byte.
+     */
+    public void write(DataOutput out) throws IOException {
+        if (accu != null) {
+            throw new IllegalStateException("statistics with exact percentiles cannot be merged");
+        }
+        WritableUtils.writeVLong(out, numValid);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(sum);
+        out.writeDouble(sumSQ);
+        WritableUtils.writeVLong(out, geomNumValid);
+        out.writeDouble(geomLogSum);
+        if (histogram != null) {
+            WritableUtils.writeVLong(out, belowHistogram);
+            WritableUtils.writeVLong(out, aboveHistogram);
+            for (long bin : histogram.getBins(0)) {
+                WritableUtils.writeVLong(out, bin);
+            }
+        }
+        if (sketch != null) {
+            sketch.write(out);
+        }
+    }
+
+    /**
+     * Merges statistics written by {@link #write} of statistics with the same configuration.
+     */
+    public void merge(DataInput in) throws IOException {
+        if (accu != null) {
+            throw new IllegalStateException("statistics with exact percentiles cannot be merged");
+        }
+        numValid += WritableUtils.readVLong(in);
+        min = Math.min(min, in.readDouble());
+        max = Math.max(max, in.readDouble());
+        sum += in.readDouble();
+        sumSQ += in.readDouble();
+        geomNumValid += WritableUtils.readVLong(in);
+        geomLogSum += in.readDouble();
+        if (histogram != null) {
+            belowHistogram += WritableUtils.readVLong(in);
+            aboveHistogram += WritableUtils.readVLong(in);
+            long[] bins = histogram.getBins(0);
+            for (int i = 0; i < bins.length; i++) {
+                bins[i] += WritableUtils.readVLong(in);
+            }
+        }
+        if (sketch != null) {
+            sketch.merge(in);
+        }
     }
 
     public void reset() {
@@ -124,6 +205,9 @@ class Statistics {
         if (accu != null) {
             accu.clear();
         }
+        if (sketch != null) {
+            sketch.clear();
+        }
     }
 
     public List<String> getStatisticsHeaders(String bandName) {
@@ -187,6 +271,12 @@ class Statistics {
                 stats.add(Double.toString(computePercentile(percentile, values)));
             }
         }
+        if (sketch != null) {
+            for (int percentile : percentiles) {
+                double value = computePercentile(percentile, sketch);
+                stats.add(Double.toString(numValid > 0 ? Math.max(min, Math.min(max, value)) : value));
+            }
+        }
         return stats;
     }
 
@@ -244,4 +334,27 @@ class Statistics {
         }
         return yp;
     }
+
+    /**
+     * Approximates the p-th percentile the same way from the sketch of the measurements.
+     */
+    static double computePercentile(int p, QuantileSketch sketch) {
+        long N = sketch.getCount();
+        if (N == 0) {
+            return Double.NaN;
+        }
+        double n = (p / 100.0) * (N + 1);
+        long k = (long) Math.floor(n);
+        double d = n - k;
+        double yp;
+        if (k == 0) {
+            yp = sketch.getValue(0);
+        } else if (k >= N) {
+            yp = sketch.getValue(N - 1);
+        } else {
+            double lower = sketch.getValue(k - 1);
+            yp = lower + d * (sketch.getValue(k) - lower);
+        }
+        return yp;
+    }
 }
@@ -2,11 +2,11 @@ package com.bc.calvalus.processing.ta;
 
 import com.bc.calvalus.commons.CalvalusLogger;
 import com.bc.calvalus.commons.DateUtils;
+import com.bc.calvalus.processing.l3.BinRegionIndex;
 import com.bc.calvalus.processing.l3.HadoopBinManager;
 import com.bc.calvalus.processing.l3.L3TemporalBin;
-import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Point;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
@@ -35,8 +35,7 @@ public class TAMapper extends Mapper<LongWritable, L3TemporalBin, TAKey, L3Tempo
     public static final Logger LOGGER = CalvalusLogger.getLogger();
 
     private Configuration conf;
-    private PlanetaryGrid planetaryGrid;
-    private TAConfig.RegionConfiguration[] regions;
+    private BinRegionIndex binRegionIndex;
 
     public static Date parseDate(String dateString) throws ParseException {
         synchronized (DATE_FORMAT) {
@@ -53,25 +52,25 @@ public class TAMapper extends Mapper<LongWritable, L3TemporalBin, TAKey, L3Tempo
     @Override
     protected void map(LongWritable binIndex, L3TemporalBin temporalBin, Context context) throws IOException, InterruptedException {
         long time = 0;
-        double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex.get());
-        Point point = GEOMETRY_FACTORY.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0]));
-        for (int regionId=0; regionId<regions.length; ++regionId) {
-            TAConfig.RegionConfiguration region = regions[regionId];
-            if (region.getGeometry().contains(point)) {
-                if (time == 0) {
-                    time = getTimeOfL3(context);
-                }
-                temporalBin.setIndex(binIndex.get());
-                context.write(new TAKey(regionId, time, binIndex.get()), new L3TemporalBinWithIndex(temporalBin, time));
+        for (int regionId : binRegionIndex.getRegionIds(binIndex.get())) {
+            if (time == 0) {
+                time = getTimeOfL3(context);
             }
+            temporalBin.setIndex(binIndex.get());
+            context.write(new TAKey(regionId, time, binIndex.get()), new L3TemporalBinWithIndex(temporalBin, time));
         }
     }
 
     @Override
     public void setConf(Configuration conf) {
         this.conf = conf;
-        planetaryGrid = HadoopBinManager.getBinningConfig(conf).createPlanetaryGrid();
-        regions = TAConfig.get(conf).getRegions();
+        PlanetaryGrid planetaryGrid = HadoopBinManager.getBinningConfig(conf).createPlanetaryGrid();
+        TAConfig.RegionConfiguration[] regions = TAConfig.get(conf).getRegions();
+        Geometry[] geometries = new Geometry[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            geometries[i] = regions[i].getGeometry();
+        }
+        binRegionIndex = BinRegionIndex.create(planetaryGrid, geometries);
     }
 
     @Override
@@ -24,13 +24,14 @@ import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.JobUtils;
 import com.bc.calvalus.processing.hadoop.HadoopProcessingService;
 import com.bc.calvalus.processing.hadoop.HadoopWorkflowItem;
+import com.bc.calvalus.processing.l3.L3PartInputFormat;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.locationtech.jts.geom.Geometry;
 
 import java.io.IOException;
 import java.util.logging.Logger;
@@ -82,7 +83,14 @@ public class TAWorkflowItem extends HadoopWorkflowItem {
     protected void configureJob(Job job) throws IOException {
 
         FileInputFormat.addInputPaths(job, getInputDir());
-        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setInputFormatClass(L3PartInputFormat.class);
+        // read only the bins of the rows intersecting the regions
+        TAConfig.RegionConfiguration[] regions = TAConfig.get(job.getConfiguration()).getRegions();
+        Geometry[] geometries = new Geometry[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            geometries[i] = regions[i].getGeometry();
+        }
+        L3PartInputFormat.setInputRegions(job.getConfiguration(), geometries);
 
         JobUtils.clearAndSetOutputDir(getOutputDir(), job, this);
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
@@ -28,6 +28,8 @@ import com.bc.calvalus.processing.ma.FilteredRecordSource;
 import com.bc.calvalus.processing.ma.GeometryRecordFilter;
 import com.bc.calvalus.processing.ma.Header;
 import com.bc.calvalus.processing.ma.MAConfig;
+import com.bc.calvalus.processing.ma.MatchUpKey;
+import com.bc.calvalus.processing.ma.MatchUpWritable;
 import com.bc.calvalus.processing.ma.PixelPosProvider;
 import com.bc.calvalus.processing.ma.PixelTimeProvider;
 import com.bc.calvalus.processing.ma.ProductRecordSource;
@@ -36,14 +38,12 @@ import com.bc.calvalus.processing.ma.RecordAggregator;
 import com.bc.calvalus.processing.ma.RecordFilterTransformer;
 import com.bc.calvalus.processing.ma.RecordSource;
 import com.bc.calvalus.processing.ma.RecordTransformer;
-import com.bc.calvalus.processing.ma.RecordWritable;
 import com.bc.calvalus.processing.utils.GeometryUtils;
 import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.core.SubProgressMonitor;
 import org.locationtech.jts.geom.Geometry;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.esa.snap.core.dataio.ProductIO;
 import org.esa.snap.core.datamodel.Product;
@@ -71,9 +71,9 @@ import java.util.logging.Logger;
  *
  * @author Marco Zuehlke
  */
-public class VCMapper extends Mapper<NullWritable, NullWritable, Text, RecordWritable> {
+public class VCMapper extends Mapper<NullWritable, NullWritable, MatchUpKey, MatchUpWritable> {
 
-    private static final Text HEADER_KEY = new Text("#");
+    private static final MatchUpKey HEADER_KEY = MatchUpKey.createHeaderKey(null);
     private static final String COUNTER_GROUP_NAME_PRODUCTS = "Products";
     private static final Logger LOG = CalvalusLogger.getLogger();
     private static final AffineTransform IDENTITY = new AffineTransform();
@@ -284,8 +284,8 @@ public class VCMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                 int numMatchUps = 0;
                 Iterable<Record> records = mergedRecordSource.getRecords();
                 for (Record selectedRecord : records) {
-                    Text key = new Text(String.format("%06d_%s", selectedRecord.getId(), productName));
-                    RecordWritable value = new RecordWritable(selectedRecord.getAttributeValues(), selectedRecord.getAnnotationValues());
+                    MatchUpKey key = MatchUpKey.createRecordKey(selectedRecord.getId(), productName);
+                    MatchUpWritable value = new MatchUpWritable(selectedRecord.getAttributeValues(), selectedRecord.getAnnotationValues());
                     context.write(key, value);
                     context.progress();
                     numMatchUps++;
@@ -294,7 +294,7 @@ public class VCMapper extends Mapper<NullWritable, NullWritable, Text, RecordWri
                 if (numMatchUps > 0) {
                     // write header
                     Header header = mergedRecordSource.getHeader();
-                    context.write(HEADER_KEY, new RecordWritable(header.getAttributeNames(), header.getAnnotationNames()));
+                    context.write(HEADER_KEY, new MatchUpWritable(header.getAttributeNames(), header.getAnnotationNames()));
                     context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Products with match-ups").increment(1);
                     context.getCounter(COUNTER_GROUP_NAME_PRODUCTS, "Number of match-ups").increment(numMatchUps);
                 } else {
@@ -21,6 +21,8 @@ import com.bc.calvalus.processing.JobUtils;
 import com.bc.calvalus.processing.hadoop.HadoopProcessingService;
 import com.bc.calvalus.processing.hadoop.HadoopWorkflowItem;
 import com.bc.calvalus.processing.ma.MAReducer;
+import com.bc.calvalus.processing.ma.MatchUpKey;
+import com.bc.calvalus.processing.ma.MatchUpWritable;
 import com.bc.calvalus.processing.ma.RecordWritable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
@@ -89,8 +91,8 @@ public class VCWorkflowItem extends HadoopWorkflowItem {
 
         job.setInputFormatClass(getInputFormatClass(jobConfig));
         job.setMapperClass(VCMapper.class);
-        job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(RecordWritable.class);
+        job.setMapOutputKeyClass(MatchUpKey.class);
+        job.setMapOutputValueClass(MatchUpWritable.class);
         job.setReducerClass(MAReducer.class);
         job.setNumReduceTasks(1);
         job.setOutputKeyClass(Text.class);
@@ -0,0 +1,141 @@
+package com.bc.calvalus.processing.beam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocalProductCacheTest {
+
+    private File testDir;
+    private File cacheDir;
+    private int numFetches;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("LocalProductCacheTest").toFile();
+        cacheDir = new File(testDir, "cache");
+        numFetches = 0;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteTree(testDir);
+    }
+
+    @Test
+    public void testFetchOnceAndLink() throws Exception {
+        LocalProductCache cache = new LocalProductCache(cacheDir, 1000);
+        String key = LocalProductCache.createKey("copy", "hdfs://host/a/product.nc", 5, 1234);
+
+        File taskDir1 = mkdir("task1");
+        assertEquals(Collections.singletonList("product.nc"), cache.getInto(key, taskDir1, this::fetchFile));
+        File taskDir2 = mkdir("task2");
+        assertEquals(Collections.singletonList("product.nc"), cache.getInto(key, taskDir2, this::fetchFile));
+
+        assertEquals(1, numFetches);
+        assertEquals("hello", new String(Files.readAllBytes(new File(taskDir1, "product.nc").toPath()), StandardCharsets.UTF_8));
+        assertEquals("hello", new String(Files.readAllBytes(new File(taskDir2, "product.nc").toPath()), StandardCharsets.UTF_8));
+        // no temporary directories left
+        List<String> names = Arrays.asList(cacheDir.list());
+        assertEquals(3, names.size());
+        assertTrue(names.containsAll(Arrays.asList(key, "lock-" + key.substring(0, 2), "lock-eviction")));
+    }
+
+    @Test
+    public void testLinkDirectoryTree() throws Exception {
+        LocalProductCache cache = new LocalProductCache(cacheDir, 1000);
+        String key = LocalProductCache.createKey("uncompress", "hdfs://host/a/product.zip", 5, 1234);
+        LocalProductCache.Fetcher fetcher = contentDir -> {
+            numFetches++;
+            File subDir = new File(contentDir, "product.SAFE");
+            assertTrue(subDir.mkdir());
+            Files.write(new File(subDir, "manifest.xml").toPath(), "xml".getBytes(StandardCharsets.UTF_8));
+            return Arrays.asList("product.SAFE", "product.SAFE/manifest.xml");
+        };
+
+        File taskDir = mkdir("task");
+        List<String> names = cache.getInto(key, taskDir, fetcher);
+        assertEquals(Arrays.asList("product.SAFE", "product.SAFE/manifest.xml"), names);
+        assertTrue(new File(taskDir, "product.SAFE").isDirectory());
+        assertEquals("xml", new String(Files.readAllBytes(new File(taskDir, "product.SAFE/manifest.xml").toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        LocalProductCache cache = new LocalProductCache(cacheDir, 12);
+        String key1 = LocalProductCache.createKey("copy", "hdfs://host/a/1.nc", 5, 1234);
+        String key2 = LocalProductCache.createKey("copy", "hdfs://host/a/2.nc", 5, 1234);
+        String key3 = LocalProductCache.createKey("copy", "hdfs://host/a/3.nc", 5, 1234);
+
+        cache.getInto(key1, mkdir("task1"), this::fetchFile);
+        new File(cacheDir, key1).setLastModified(System.currentTimeMillis() - 20000);
+        cache.getInto(key2, mkdir("task2"), this::fetchFile);
+        new File(cacheDir, key2).setLastModified(System.currentTimeMillis() - 10000);
+        cache.getInto(key3, mkdir("task3"), this::fetchFile);
+
+        assertFalse(new File(cacheDir, key1).exists());
+        assertTrue(new File(cacheDir, key2).exists());
+        assertTrue(new File(cacheDir, key3).exists());
+        // the hard link in the task directory survives the eviction
+        assertEquals("hello", new String(Files.readAllBytes(new File(testDir, "task1/product.nc").toPath()), StandardCharsets.UTF_8));
+
+        cache.getInto(key1, mkdir("task4"), this::fetchFile);
+        assertEquals(4, numFetches);
+    }
+
+    @Test
+    public void testRefetchEntryWithoutContent() throws Exception {
+        LocalProductCache cache = new LocalProductCache(cacheDir, 1000);
+        String key = LocalProductCache.createKey("copy", "hdfs://host/a/product.nc", 5, 1234);
+
+        cache.getInto(key, mkdir("task1"), this::fetchFile);
+        deleteTree(new File(cacheDir, key + "/content"));
+        File taskDir2 = mkdir("task2");
+        assertEquals(Collections.singletonList("product.nc"), cache.getInto(key, taskDir2, this::fetchFile));
+
+        assertEquals(2, numFetches);
+        assertEquals("hello", new String(Files.readAllBytes(new File(taskDir2, "product.nc").toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        String key = LocalProductCache.createKey("copy", "hdfs://host/a/product.nc", 5, 1234);
+        assertEquals(32, key.length());
+        assertEquals(key, LocalProductCache.createKey("copy", "hdfs://host/a/product.nc", 5, 1234));
+        assertNotEquals(key, LocalProductCache.createKey("copy", "hdfs://host/a/product.nc", 5, 1235));
+        assertNotEquals(key, LocalProductCache.createKey("copy", "hdfs://host/a/product.nc", 6, 1234));
+        assertNotEquals(key, LocalProductCache.createKey("uncompress", "hdfs://host/a/product.nc", 5, 1234));
+    }
+
+    private List<String> fetchFile(File contentDir) throws IOException {
+        numFetches++;
+        Files.write(new File(contentDir, "product.nc").toPath(), "hello".getBytes(StandardCharsets.UTF_8));
+        return Collections.singletonList("product.nc");
+    }
+
+    private File mkdir(String name) {
+        File dir = new File(testDir, name);
+        assertTrue(dir.mkdirs());
+        return dir;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
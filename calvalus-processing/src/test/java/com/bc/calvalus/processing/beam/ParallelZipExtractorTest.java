@@ -0,0 +1,154 @@
+package com.bc.calvalus.processing.beam;
+
+import org.apache.hadoop.fs.PositionedReadable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipExtractorTest {
+
+    private File testDir;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("ParallelZipExtractorTest").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteTree(testDir);
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        byte[] large = new byte[1000000];
+        new Random(42).nextBytes(large);
+        byte[] text = "a text which compresses well, a text which compresses well".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOut = new ZipOutputStream(bytes)) {
+            zipOut.putNextEntry(new ZipEntry("product.SAFE/"));
+            zipOut.putNextEntry(new ZipEntry("product.SAFE/text.txt"));
+            zipOut.write(text);
+            zipOut.putNextEntry(new ZipEntry("product.SAFE/data/large.bin"));
+            zipOut.write(large);
+            ZipEntry stored = new ZipEntry("product.SAFE/stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(text.length);
+            CRC32 crc = new CRC32();
+            crc.update(text);
+            stored.setCrc(crc.getValue());
+            zipOut.putNextEntry(stored);
+            zipOut.write(text);
+        }
+        ParallelZipExtractor extractor = new ParallelZipExtractor(new ByteArrayReadable(bytes.toByteArray()), bytes.size());
+
+        List<ParallelZipExtractor.Entry> entries = extractor.readCentralDirectory();
+        assertNotNull(entries);
+        assertEquals(4, entries.size());
+        assertTrue(entries.get(0).isDirectory());
+        assertEquals("product.SAFE/data/large.bin", entries.get(2).name);
+        assertEquals(large.length, entries.get(2).size);
+
+        List<File> files = extractor.extract(entries, testDir, 3, null);
+        assertEquals(4, files.size());
+        assertEquals(new File(testDir, "product.SAFE/text.txt"), files.get(1));
+        assertTrue(new File(testDir, "product.SAFE").isDirectory());
+        assertArrayEquals(text, Files.readAllBytes(new File(testDir, "product.SAFE/text.txt").toPath()));
+        assertArrayEquals(large, Files.readAllBytes(new File(testDir, "product.SAFE/data/large.bin").toPath()));
+        assertArrayEquals(text, Files.readAllBytes(new File(testDir, "product.SAFE/stored.bin").toPath()));
+    }
+
+    @Test
+    public void testExtractSelectedEntries() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOut = new ZipOutputStream(bytes)) {
+            for (String name : Arrays.asList("MTD_MSIL1C.xml", "GRANULE/B01.jp2", "GRANULE/B02.jp2")) {
+                zipOut.putNextEntry(new ZipEntry(name));
+                zipOut.write(name.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        ParallelZipExtractor extractor = new ParallelZipExtractor(new ByteArrayReadable(bytes.toByteArray()), bytes.size());
+
+        List<File> files = extractor.extract(extractor.readCentralDirectory(), testDir, 2, name -> !name.endsWith("B02.jp2"));
+        assertEquals(Arrays.asList(new File(testDir, "MTD_MSIL1C.xml"), new File(testDir, "GRANULE/B01.jp2")), files);
+        assertFalse(new File(testDir, "GRANULE/B02.jp2").exists());
+    }
+
+    @Test
+    public void testZip64CentralDirectory() throws Exception {
+        // more than 65535 entries require the zip64 end of central directory
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOut = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < 70000; i++) {
+                zipOut.putNextEntry(new ZipEntry("e" + i));
+            }
+        }
+        ParallelZipExtractor extractor = new ParallelZipExtractor(new ByteArrayReadable(bytes.toByteArray()), bytes.size());
+
+        List<ParallelZipExtractor.Entry> entries = extractor.readCentralDirectory();
+        assertNotNull(entries);
+        assertEquals(70000, entries.size());
+        assertEquals("e69999", entries.get(69999).name);
+    }
+
+    @Test
+    public void testNoZip() throws Exception {
+        byte[] bytes = "no zip archive".getBytes(StandardCharsets.UTF_8);
+        assertNull(new ParallelZipExtractor(new ByteArrayReadable(bytes), bytes.length).readCentralDirectory());
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    static class ByteArrayReadable implements PositionedReadable {
+
+        private final byte[] bytes;
+
+        ByteArrayReadable(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            int n = (int) Math.min(length, bytes.length - position);
+            System.arraycopy(bytes, (int) position, buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
+            if (position + length > bytes.length) {
+                throw new EOFException();
+            }
+            read(position, buffer, offset, length);
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer) throws IOException {
+            readFully(position, buffer, 0, buffer.length);
+        }
+    }
+}
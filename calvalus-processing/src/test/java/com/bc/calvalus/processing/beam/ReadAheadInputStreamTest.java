@@ -0,0 +1,87 @@
+package com.bc.calvalus.processing.beam;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadInputStreamTest {
+
+    @Test
+    public void testReadAll() throws Exception {
+        byte[] bytes = new byte[100000];
+        new Random(42).nextBytes(bytes);
+        try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(bytes), 4096, 4)) {
+            assertEquals(bytes[0] & 0xff, in.read());
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+                rest.write(buffer, 0, n);
+            }
+            assertEquals(bytes.length - 1, rest.size());
+            assertEquals(bytes[bytes.length - 1], rest.toByteArray()[bytes.length - 2]);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testIOExceptionIsRethrown() throws Exception {
+        IOException failure = new IOException("broken");
+        try (InputStream in = new ReadAheadInputStream(new FailingInputStream(10000, failure), 4096, 4)) {
+            assertSame(failure, readUntilFailure(in));
+            // the failure does not turn into a regular end of the stream
+            assertSame(failure, readUntilFailure(in));
+        }
+    }
+
+    @Test
+    public void testRuntimeExceptionIsRethrown() throws Exception {
+        // e.g. the bzip2 decoder signals corrupt blocks by runtime exceptions
+        IllegalStateException failure = new IllegalStateException("bad block");
+        try (InputStream in = new ReadAheadInputStream(new FailingInputStream(10000, failure), 4096, 4)) {
+            assertSame(failure, readUntilFailure(in));
+            assertSame(failure, readUntilFailure(in));
+        }
+    }
+
+    private static Throwable readUntilFailure(InputStream in) {
+        byte[] buffer = new byte[1000];
+        try {
+            while (in.read(buffer, 0, buffer.length) >= 0) {
+            }
+        } catch (IOException | RuntimeException e) {
+            return e;
+        }
+        fail("end of stream instead of failure");
+        return null;
+    }
+
+    private static class FailingInputStream extends InputStream {
+
+        private final Throwable failure;
+        private int remaining;
+
+        FailingInputStream(int length, Throwable failure) {
+            this.remaining = length;
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            remaining--;
+            return 'a';
+        }
+    }
+}
@@ -17,12 +17,14 @@
 package com.bc.calvalus.processing.beam;
 
 
+import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.UnixTestRunner;
 import com.bc.calvalus.processing.hadoop.ByteArrayWritable;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.esa.snap.core.dataio.ProductIO;
@@ -68,6 +70,27 @@ public class StreamingFormatTest {
 
     @Test
     public void testWriteReadCycle() throws Exception {
+        writeReadCycle(ByteArrayWritable.class);
+    }
+
+    @Test
+    public void testWriteReadCycleCompressedInParallel() throws Exception {
+        configuration.set(JobConfigNames.CALVALUS_OUTPUT_STREAMING_COMPRESSION, "deflate");
+        configuration.setInt(JobConfigNames.CALVALUS_OUTPUT_STREAMING_THREADS, 3);
+        writeReadCycle(BytesWritable.class);
+    }
+
+    @Test
+    public void testShuffle() throws Exception {
+        byte[] bytes = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+        byte[] shuffled = StreamingProductWriter.shuffle(bytes, 4);
+        assertArrayEquals(new byte[]{1, 5, 9, 2, 6, 10, 3, 7, 11, 4, 8, 12}, shuffled);
+        assertArrayEquals(bytes, StreamingProductWriter.unshuffle(shuffled, bytes.length, 4));
+        assertArrayEquals(bytes, StreamingProductWriter.unshuffle(StreamingProductWriter.shuffle(bytes, 2), bytes.length, 2));
+        assertSame(bytes, StreamingProductWriter.shuffle(bytes, 1));
+    }
+
+    private void writeReadCycle(Class<?> valueClass) throws Exception {
 
         File testProductFile = MerisProductTestRunner.getTestProductFile();
 
@@ -84,7 +107,7 @@ public class StreamingFormatTest {
             StreamingProductWriter.writeProductInSlices(configuration, pm, sourceProduct, productPath, TILE_HEIGHT);
             assertTrue(fileSystem.exists(productPath));
 
-            testThatProductSequenceFileIsCorrect(productPath, getNumKeys(sourceProduct));
+            testThatProductSequenceFileIsCorrect(productPath, getNumKeys(sourceProduct), valueClass);
 
             testThatProductIsCorrect(sourceProduct, productPath);
 
@@ -152,10 +175,11 @@ public class StreamingFormatTest {
         }
     }
 
-    private void testThatProductSequenceFileIsCorrect(Path productPath, int numKeys) throws IOException {
+    private void testThatProductSequenceFileIsCorrect(Path productPath, int numKeys, Class<?> valueClass) throws IOException {
         try (SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, productPath, configuration)) {
             assertSame(Text.class, reader.getKeyClass());
-            assertSame(ByteArrayWritable.class, reader.getValueClass());
+            assertSame(valueClass, reader.getValueClass());
+            assertEquals(valueClass == BytesWritable.class, reader.isCompressed());
 
             SequenceFile.Metadata metadata = reader.getMetadata();
             TreeMap<Text, Text> metadatMap = metadata.getMetadata();
@@ -0,0 +1,111 @@
+package com.bc.calvalus.processing.beam;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the throughput of extracting a zip archive by the {@link ParallelZipExtractor}
+ * compared to the sequential {@link ZipInputStream} used before. Not run as part of the tests.
+ * <p>
+ * Usage: UncompressBenchmarkMain [numEntries [entrySizeMB]]
+ */
+public class UncompressBenchmarkMain {
+
+    private static final int NUM_ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int entrySize = (args.length > 1 ? Integer.parseInt(args[1]) : 32) * 1024 * 1024;
+        File testDir = Files.createTempDirectory("UncompressBenchmarkMain").toFile();
+        try {
+            File zipFile = new File(testDir, "archive.zip");
+            long size = createArchive(zipFile, numEntries, entrySize);
+            Configuration conf = new Configuration();
+            FileSystem fs = FileSystem.getLocal(conf);
+            Path path = new Path(zipFile.getAbsolutePath());
+            for (int round = 0; round < NUM_ROUNDS; round++) {
+                File outputDir = new File(testDir, "sequential");
+                long t0 = System.nanoTime();
+                extractSequentially(fs, path, outputDir);
+                report("ZipInputStream", size, System.nanoTime() - t0);
+                deleteTree(outputDir);
+                for (int numThreads : new int[]{1, 2, 4, 8}) {
+                    outputDir = new File(testDir, "parallel");
+                    t0 = System.nanoTime();
+                    try (FSDataInputStream in = fs.open(path)) {
+                        ParallelZipExtractor extractor = new ParallelZipExtractor(in, zipFile.length());
+                        List<ParallelZipExtractor.Entry> entries = extractor.readCentralDirectory();
+                        extractor.extract(entries, outputDir, numThreads, null);
+                    }
+                    report("parallel, " + numThreads + " threads", size, System.nanoTime() - t0);
+                    deleteTree(outputDir);
+                }
+            }
+        } finally {
+            deleteTree(testDir);
+        }
+    }
+
+    private static long createArchive(File zipFile, int numEntries, int entrySize) throws IOException {
+        // half random bytes, half zeros, to get a realistic compression ratio
+        Random random = new Random(42);
+        byte[] data = new byte[entrySize];
+        long size = 0;
+        try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)))) {
+            for (int i = 0; i < numEntries; i++) {
+                for (int j = 0; j < data.length; j += 2048) {
+                    byte[] block = new byte[Math.min(1024, data.length - j)];
+                    random.nextBytes(block);
+                    System.arraycopy(block, 0, data, j, block.length);
+                }
+                zipOut.putNextEntry(new ZipEntry("product.SAFE/entry" + i + ".bin"));
+                zipOut.write(data);
+                size += data.length;
+            }
+        }
+        return size;
+    }
+
+    private static void extractSequentially(FileSystem fs, Path path, File outputDir) throws IOException {
+        try (ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(fs.open(path)))) {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                File file = new File(outputDir, entry.getName());
+                file.getParentFile().mkdirs();
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    IOUtils.copyBytes(zipIn, out, 8192);
+                }
+            }
+        }
+    }
+
+    private static void report(String variant, long size, long nanos) {
+        System.out.printf("%-22s %8.1f MB/s%n", variant, size / 1024.0 / 1024.0 / (nanos / 1e9));
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
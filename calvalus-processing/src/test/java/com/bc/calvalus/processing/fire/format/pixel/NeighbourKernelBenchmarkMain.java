@@ -0,0 +1,87 @@
+package com.bc.calvalus.processing.fire.format.pixel;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the neighbour search for the gap pixels of JD tiles by the {@link NeighbourKernel} compared to the
+ * former PixelFinaliseMapper.findNeighbourValue, single-threaded and with the tiles distributed over threads
+ * as concurrent tile computations do. Not run as part of the tests.
+ * <p>
+ * Usage: NeighbourKernelBenchmarkMain [numTiles [numThreads]]
+ */
+public class NeighbourKernelBenchmarkMain {
+
+    private static final int TILE_SIZE = PixelFinaliseMapper.TILE_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        int numTiles = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Random random = new Random(42);
+        float[][] jdTiles = new float[numTiles][];
+        int[][] lcTiles = new int[numTiles][];
+        for (int i = 0; i < numTiles; i++) {
+            jdTiles[i] = NeighbourKernelTest.createJdTile(random, TILE_SIZE * TILE_SIZE);
+            lcTiles[i] = NeighbourKernelTest.createLcTile(random, TILE_SIZE * TILE_SIZE);
+        }
+        long numPixels = (long) numTiles * TILE_SIZE * TILE_SIZE;
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (int round = 0; round < 5; round++) {
+                long t0 = System.nanoTime();
+                long legacySum = 0;
+                for (int i = 0; i < numTiles; i++) {
+                    legacySum += legacyTile(jdTiles[i], lcTiles[i]);
+                }
+                long t1 = System.nanoTime();
+                long kernelSum = 0;
+                for (int i = 0; i < numTiles; i++) {
+                    kernelSum += kernelTile(jdTiles[i], lcTiles[i]);
+                }
+                long t2 = System.nanoTime();
+                Future<?>[] futures = IntStream.range(0, numTiles)
+                        .mapToObj(i -> executorService.submit(() -> kernelTile(jdTiles[i], lcTiles[i])))
+                        .toArray(Future<?>[]::new);
+                long parallelSum = 0;
+                for (Future<?> future : futures) {
+                    parallelSum += (Long) future.get();
+                }
+                long t3 = System.nanoTime();
+                System.out.printf("legacy %6.1f ns/pixel  kernel %6.1f ns/pixel  kernel on %d threads %6.1f ns/pixel  (%d %d %d)%n",
+                                  (double) (t1 - t0) / numPixels,
+                                  (double) (t2 - t1) / numPixels,
+                                  numThreads,
+                                  (double) (t3 - t2) / numPixels,
+                                  legacySum, kernelSum, parallelSum);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static long legacyTile(float[] jd, int[] lc) {
+        long sum = 0;
+        for (int pixelIndex = 0; pixelIndex < jd.length; pixelIndex++) {
+            if (Float.isNaN(jd[pixelIndex]) || jd[pixelIndex] == 999) {
+                NeighbourKernelTest.PositionAndValue positionAndValue =
+                        NeighbourKernelTest.findNeighbourValueLegacy(jd, lc, pixelIndex, TILE_SIZE, true);
+                sum += positionAndValue.newPixelIndex != pixelIndex ? positionAndValue.newPixelIndex : -1;
+            }
+        }
+        return sum;
+    }
+
+    private static long kernelTile(float[] jd, int[] lc) {
+        NeighbourKernel kernel = new NeighbourKernel();
+        long sum = 0;
+        for (int pixelIndex = 0; pixelIndex < jd.length; pixelIndex++) {
+            if (Float.isNaN(jd[pixelIndex]) || jd[pixelIndex] == 999) {
+                sum += kernel.findNeighbourIndex(jd, lc, pixelIndex, TILE_SIZE);
+            }
+        }
+        return sum;
+    }
+}
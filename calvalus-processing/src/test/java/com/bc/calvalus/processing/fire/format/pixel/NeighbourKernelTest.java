@@ -0,0 +1,193 @@
+package com.bc.calvalus.processing.fire.format.pixel;
+
+import com.bc.calvalus.processing.fire.format.LcRemapping;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class NeighbourKernelTest {
+
+    private static final float NAN = Float.NaN;
+
+    @Test
+    public void testMajority() {
+        float[] jd = {
+                5, 7, 7,
+                5, NAN, 3,
+                999, 7, 5.8F
+        };
+        int[] lc = burnable(jd.length);
+        // 5 occurs three times (5.8 truncated), 7 three times, the smaller value wins, its last pixel is returned
+        assertEquals(8, new NeighbourKernel().findNeighbourIndex(jd, lc, 4, 3));
+        lc[8] = 210;
+        assertEquals(7, new NeighbourKernel().findNeighbourIndex(jd, lc, 4, 3));
+    }
+
+    @Test
+    public void testNoValidNeighbour() {
+        float[] jd = {
+                NAN, 999, 4,
+                NAN, NAN, 4
+        };
+        int[] lc = burnable(jd.length);
+        lc[2] = 0;
+        lc[5] = 190;
+        assertEquals(-1, new NeighbourKernel().findNeighbourIndex(jd, lc, 4, 3));
+    }
+
+    @Test
+    public void testNoWrapAroundRows() {
+        float[] jd = {
+                NAN, NAN, 4,
+                NAN, NAN, NAN,
+                NAN, NAN, NAN
+        };
+        int[] lc = burnable(jd.length);
+        assertEquals(-1, new NeighbourKernel().findNeighbourIndex(jd, lc, 3, 3));
+        assertEquals(2, new NeighbourKernel().findNeighbourIndex(jd, lc, 4, 3));
+    }
+
+    @Test
+    public void testBurnableLcClassesAsLcRemapping() {
+        for (int lcClass = -1000; lcClass < 1000; lcClass++) {
+            assertEquals(Integer.toString(lcClass), LcRemapping.isInBurnableLcClass(lcClass), NeighbourKernel.isInBurnableLcClass(lcClass));
+        }
+    }
+
+    @Test
+    public void testGoldenOutputOfRandomTiles() {
+        Random random = new Random(4711);
+        int[][] sizes = {{1, 7}, {7, 1}, {2, 2}, {3, 5}, {17, 13}, {256, 256}};
+        for (int[] size : sizes) {
+            for (int round = 0; round < 5; round++) {
+                int width = size[0];
+                int height = size[1];
+                float[] jd = createJdTile(random, width * height);
+                int[] lc = createLcTile(random, width * height);
+                NeighbourKernel kernel = new NeighbourKernel();
+                for (int pixelIndex = 0; pixelIndex < jd.length; pixelIndex++) {
+                    String message = width + "x" + height + " pixel " + pixelIndex;
+                    PositionAndValue expected = findNeighbourValueLegacy(jd, lc, pixelIndex, width, true);
+                    int neighbourIndex = kernel.findNeighbourIndex(jd, lc, pixelIndex, width);
+                    if (neighbourIndex < 0) {
+                        assertEquals(message, pixelIndex, expected.newPixelIndex);
+                        assertEquals(message, -1, expected.value, 0);
+                    } else {
+                        assertEquals(message, expected.newPixelIndex, neighbourIndex);
+                        assertEquals(message, expected.value, (int) jd[neighbourIndex], 0);
+                    }
+                }
+            }
+        }
+    }
+
+    static float[] createJdTile(Random random, int numPixels) {
+        float[] jd = new float[numPixels];
+        for (int i = 0; i < numPixels; i++) {
+            double r = random.nextDouble();
+            if (r < 0.3) {
+                jd[i] = NAN;
+            } else if (r < 0.4) {
+                jd[i] = 999;
+            } else if (r < 0.5) {
+                jd[i] = 1 + random.nextInt(4) + random.nextFloat();
+            } else {
+                jd[i] = random.nextInt(5) - 2;
+            }
+        }
+        return jd;
+    }
+
+    static int[] createLcTile(Random random, int numPixels) {
+        int[] lcClasses = {10, 11, 20, 62, 130, -126, -104, 0, 190, 200, 210};
+        int[] lc = new int[numPixels];
+        for (int i = 0; i < numPixels; i++) {
+            lc[i] = lcClasses[random.nextInt(lcClasses.length)];
+        }
+        return lc;
+    }
+
+    private static int[] burnable(int numPixels) {
+        int[] lc = new int[numPixels];
+        Arrays.fill(lc, 10);
+        return lc;
+    }
+
+    /**
+     * The former PixelFinaliseMapper.findNeighbourValue, as reference for the kernel.
+     */
+    static PositionAndValue findNeighbourValueLegacy(float[] jdData, int[] lcArray, int pixelIndex, int width, boolean isJD) {
+        int[] xDirections = new int[]{-1, 0, 1};
+        int[] yDirections = new int[]{-1, 0, 1};
+
+        SortedMap<Integer, Integer[]> values = new TreeMap<>();
+
+        for (int yDirection : yDirections) {
+            for (int xDirection : xDirections) {
+                if (pixelIndex % width == 0 && xDirection == -1
+                        || (pixelIndex + 1) % width == 0 && xDirection == 1) {
+                    continue;
+                }
+
+                int newPixelIndex = pixelIndex + yDirection * width + xDirection;
+                if (newPixelIndex < jdData.length) {
+                    if (newPixelIndex < 0 || newPixelIndex >= jdData.length) {
+                        continue;
+                    }
+                    float neighbourValue = jdData[newPixelIndex];
+
+                    boolean inBurnableLcClass = LcRemapping.isInBurnableLcClass(lcArray[newPixelIndex]);
+
+                    if (!Float.isNaN(neighbourValue) && neighbourValue != 999 && inBurnableLcClass) {
+                        PositionAndValue positionAndValue = new PositionAndValue(newPixelIndex, neighbourValue);
+                        if (values.containsKey((int) positionAndValue.value)) {
+                            Integer[] v = new Integer[]{values.get((int) positionAndValue.value)[0] + 1, positionAndValue.newPixelIndex};
+                            values.put((int) positionAndValue.value, v);
+                        } else {
+                            Integer[] v = new Integer[]{1, positionAndValue.newPixelIndex};
+                            values.put((int) positionAndValue.value, v);
+                        }
+                    }
+                }
+            }
+        }
+
+        PositionAndValue result = null;
+        int maxCount = 0;
+        for (int value : values.keySet()) {
+            Integer count = values.get(value)[0];
+            if (count > maxCount) {
+                maxCount = count;
+                result = new PositionAndValue(values.get(value)[1], value);
+            }
+        }
+
+        if (result == null) {
+            // all neighbours are NaN or not burnable
+
+            if (isJD) {
+                return new PositionAndValue(pixelIndex, -1);
+            } else {
+                return new PositionAndValue(pixelIndex, 0);
+            }
+        }
+        return result;
+    }
+
+    static class PositionAndValue {
+
+        PositionAndValue(int newPixelIndex, float value) {
+            this.newPixelIndex = newPixelIndex;
+            this.value = value;
+        }
+
+        int newPixelIndex;
+        public float value;
+
+    }
+}
@@ -0,0 +1,90 @@
+package com.bc.calvalus.processing.geodb;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import com.bc.calvalus.processing.hadoop.ProductSplit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GeodbInputFormatTest {
+
+    private File testDir;
+    private List<String> paths;
+    private Configuration conf;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("GeodbInputFormatTest").toFile();
+        paths = new ArrayList<>();
+        // enough products in one directory to be looked up by listing, interleaved with single products
+        for (int i = 0; i < 20; i++) {
+            paths.add(createProduct("many", "product" + i));
+            if (i % 5 == 0) {
+                paths.add(createProduct("few" + i, "product" + i));
+            }
+        }
+        paths.add(4, new File(testDir, "many/missing").toURI().toString());
+        paths.add(7, new File(testDir, "few0/missing").toURI().toString());
+        conf = new Configuration();
+        conf.setInt(JobConfigNames.CALVALUS_INPUT_SPLIT_THREADS, 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteTree(testDir);
+    }
+
+    @Test
+    public void testSplitsInOrderOfPaths() throws Exception {
+        List<InputSplit> splits = GeodbInputFormat.createInputSplits(conf, paths, 0);
+
+        assertEquals(paths.size() - 2, splits.size());
+        int splitIndex = 0;
+        for (String path : paths) {
+            if (!path.endsWith("missing")) {
+                ProductSplit split = (ProductSplit) splits.get(splitIndex++);
+                assertEquals(new File(new URI(path)).getPath(), split.getPath().toUri().getPath());
+                assertEquals(path.length(), split.getLength());
+            }
+        }
+    }
+
+    @Test
+    public void testRequestSizeLimit() throws Exception {
+        List<InputSplit> splits = GeodbInputFormat.createInputSplits(conf, paths, 5);
+
+        assertEquals(5, splits.size());
+        assertTrue(((ProductSplit) splits.get(4)).getPath().toString().endsWith("many/product3"));
+    }
+
+    private String createProduct(String dirName, String name) throws Exception {
+        File dir = new File(testDir, dirName);
+        dir.mkdirs();
+        File file = new File(dir, name);
+        String path = file.toURI().toString();
+        // the length of the path as content, so the split length can be checked
+        Files.write(file.toPath(), new String(new char[path.length()]).getBytes(StandardCharsets.US_ASCII));
+        return path;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,132 @@
+package com.bc.calvalus.processing.hadoop;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FSImageInputStreamTest {
+
+    private byte[] data;
+    private CountingInputStream countingInputStream;
+    private FSImageInputStream stream;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        countingInputStream = new CountingInputStream(data);
+        stream = new FSImageInputStream(new FSDataInputStream(countingInputStream), data.length, "test", 100, 4, 2);
+    }
+
+    @Test
+    public void testReadByteByByte() throws Exception {
+        for (int i = 0; i < data.length; i++) {
+            assertEquals("at " + i, data[i] & 0xff, stream.read());
+        }
+        assertEquals(-1, stream.read());
+        assertEquals(data.length, stream.getStreamPosition());
+        // 10 blocks read ahead 2 at a time
+        assertEquals(5, countingInputStream.numPositionalReads);
+    }
+
+    @Test
+    public void testSeekAndReadWithinBlock() throws Exception {
+        stream.seek(150);
+        assertEquals(data[150] & 0xff, stream.read());
+        stream.seek(120);
+        assertEquals(data[120] & 0xff, stream.read());
+        stream.seek(199);
+        assertEquals(data[199] & 0xff, stream.read());
+        assertEquals(1, countingInputStream.numPositionalReads);
+        assertEquals(0, countingInputStream.numSeeks);
+    }
+
+    @Test
+    public void testReadAcrossBlocks() throws Exception {
+        stream.seek(950);
+        byte[] b = new byte[100];
+        assertEquals(50, stream.read(b, 0, 100));
+        assertArrayEquals(Arrays.copyOfRange(data, 950, 1000), Arrays.copyOf(b, 50));
+        assertEquals(-1, stream.read(b, 0, 100));
+
+        stream.seek(90);
+        stream.readFully(b, 0, 20);
+        assertArrayEquals(Arrays.copyOfRange(data, 90, 110), Arrays.copyOf(b, 20));
+    }
+
+    @Test
+    public void testReadWholeBlocksDirectly() throws Exception {
+        byte[] b = new byte[450];
+        stream.seek(100);
+        stream.readFully(b);
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 550), b);
+        // 4 whole blocks in one call, the last 50 bytes by a block
+        assertEquals(2, countingInputStream.numPositionalReads);
+    }
+
+    @Test
+    public void testReadTypes() throws Exception {
+        stream.seek(98);
+        int expected = ((data[98] & 0xff) << 24) | ((data[99] & 0xff) << 16) | ((data[100] & 0xff) << 8) | (data[101] & 0xff);
+        assertEquals(expected, stream.readInt());
+        assertEquals(102, stream.getStreamPosition());
+    }
+
+    private static class CountingInputStream extends ByteArrayInputStream implements Seekable, PositionedReadable {
+
+        int numPositionalReads;
+        int numSeeks;
+
+        CountingInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            numPositionalReads++;
+            int n = (int) Math.min(length, count - position);
+            System.arraycopy(buf, (int) position, buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
+            if (position + length > count) {
+                throw new EOFException();
+            }
+            read(position, buffer, offset, length);
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer) throws IOException {
+            readFully(position, buffer, 0, buffer.length);
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            numSeeks++;
+            this.pos = (int) pos;
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return pos;
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) throws IOException {
+            return false;
+        }
+    }
+}
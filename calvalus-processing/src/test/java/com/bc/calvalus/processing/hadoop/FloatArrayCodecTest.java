@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.hadoop;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FloatArrayCodecTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        float[][] arrays = createArrays(1000);
+        for (FloatArrayCodec.Compression compression : new FloatArrayCodec.Compression[]{
+                FloatArrayCodec.Compression.NONE, FloatArrayCodec.Compression.DEFLATE}) {
+            FloatArrayCodec codec = FloatArrayCodec.get(compression);
+            float[][] actual = FloatArrayCodec.read(createInput(write(codec, arrays)), null);
+            assertEquals(arrays.length, actual.length);
+            for (int i = 0; i < arrays.length; i++) {
+                assertArrayEquals(compression + " band " + i, arrays[i], actual[i], 0.0f);
+                for (int j = 0; j < arrays[i].length; j++) {
+                    assertEquals(Float.floatToIntBits(arrays[i][j]), Float.floatToIntBits(actual[i][j]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReuseArrays() throws IOException {
+        FloatArrayCodec codec = FloatArrayCodec.get(FloatArrayCodec.Compression.DEFLATE);
+        float[][] arrays = createArrays(100);
+        float[][] reused = new float[arrays.length][100];
+        assertSame(reused, FloatArrayCodec.read(createInput(write(codec, arrays)), reused));
+        assertArrayEquals(arrays[2], reused[2], 0.0f);
+
+        float[][] other = new float[arrays.length][99];
+        float[][] actual = FloatArrayCodec.read(createInput(write(codec, arrays)), other);
+        assertEquals(100, actual[0].length);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        FloatArrayCodec codec = FloatArrayCodec.get(FloatArrayCodec.Compression.DEFLATE);
+        assertEquals(0, FloatArrayCodec.read(createInput(write(codec, new float[0][])), null).length);
+        float[][] actual = FloatArrayCodec.read(createInput(write(codec, new float[2][0])), null);
+        assertEquals(2, actual.length);
+        assertEquals(0, actual[1].length);
+    }
+
+    @Test
+    public void testSmallerThanRawFloats() throws IOException {
+        float[][] arrays = createArrays(10000);
+        assertEquals(true, write(FloatArrayCodec.get(FloatArrayCodec.Compression.NONE), arrays).length < 4 * 4 * 10000);
+    }
+
+    @Test
+    public void testReadBandByBand() throws IOException {
+        float[][] arrays = createArrays(1000);
+        for (FloatArrayCodec.Compression compression : new FloatArrayCodec.Compression[]{
+                FloatArrayCodec.Compression.NONE, FloatArrayCodec.Compression.DEFLATE}) {
+            byte[] bytes = write(FloatArrayCodec.get(compression), arrays);
+            int[] numBands = {0};
+            FloatArrayCodec.readBands(createInput(bytes), (band, samples) -> {
+                assertEquals(numBands[0]++, band);
+                assertArrayEquals(compression + " band " + band, arrays[band], samples, 0.0f);
+            });
+            assertEquals(arrays.length, numBands[0]);
+        }
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        float[][] arrays = createArrays(1000);
+        for (FloatArrayCodec.Compression compression : new FloatArrayCodec.Compression[]{
+                FloatArrayCodec.Compression.NONE, FloatArrayCodec.Compression.DEFLATE}) {
+            byte[] bytes = write(FloatArrayCodec.get(compression), arrays);
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            FloatArrayCodec.copy(createInput(bytes), new DataOutputStream(copy));
+            assertArrayEquals(bytes, copy.toByteArray());
+        }
+    }
+
+    @Test
+    public void testGetFromConfiguration() {
+        Configuration conf = new Configuration(false);
+        assertEquals(FloatArrayCodec.Compression.DEFLATE, FloatArrayCodec.get(conf).getCompression());
+        conf.set(JobConfigNames.CALVALUS_FLOAT_ARRAY_COMPRESSION, "none");
+        assertEquals(FloatArrayCodec.Compression.NONE, FloatArrayCodec.get(conf).getCompression());
+        conf.set(JobConfigNames.CALVALUS_FLOAT_ARRAY_COMPRESSION, "Zstd");
+        assertEquals(FloatArrayCodec.Compression.ZSTD, FloatArrayCodec.get(conf).getCompression());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCompression() {
+        Configuration conf = new Configuration(false);
+        conf.set(JobConfigNames.CALVALUS_FLOAT_ARRAY_COMPRESSION, "gzip2");
+        FloatArrayCodec.get(conf);
+    }
+
+    /**
+     * @return a band of NaNs, a band with few NaNs, a band with many NaNs and a band of special values
+     */
+    private static float[][] createArrays(int numElems) {
+        Random random = new Random(42);
+        float[][] arrays = new float[4][numElems];
+        float[] specialValues = {0.0f, -0.0f, Float.MIN_VALUE, Float.MAX_VALUE, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.intBitsToFloat(0x7fc00001), 1.0f};
+        for (int j = 0; j < numElems; j++) {
+            arrays[0][j] = Float.NaN;
+            arrays[1][j] = j % 100 == 0 ? Float.NaN : random.nextFloat();
+            arrays[2][j] = j % 10 == 0 ? 0.1f * j : Float.NaN;
+            arrays[3][j] = specialValues[j % specialValues.length];
+        }
+        return arrays;
+    }
+
+    private static byte[] write(FloatArrayCodec codec, float[][] arrays) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(new DataOutputStream(bytes), arrays);
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream createInput(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
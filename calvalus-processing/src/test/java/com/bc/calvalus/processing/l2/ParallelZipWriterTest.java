@@ -0,0 +1,134 @@
+package com.bc.calvalus.processing.l2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipWriterTest {
+
+    private File sourceDir;
+    private File zipFile;
+    private Map<String, byte[]> contents;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDir = Files.createTempDirectory("ParallelZipWriterTest").toFile();
+        zipFile = File.createTempFile("ParallelZipWriterTest", ".zip");
+        contents = new LinkedHashMap<>();
+        Random random = new Random(42);
+        byte[] text = new byte[200000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + i % 7);
+        }
+        byte[] noise = new byte[100000];
+        random.nextBytes(noise);
+        contents.put("product.dim", text);
+        contents.put("product.data/band_1.img", text);
+        contents.put("product.data/band_2.img", noise);
+        contents.put("product.data/vector_data/pins.csv", new byte[0]);
+        contents.put("product.zarr/chl/0.0", noise);
+        contents.put("product.zarr/chl/0.1", "small".getBytes());
+        contents.put("quicklook.png", "not really a png".getBytes());
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            File file = new File(sourceDir, entry.getKey());
+            file.getParentFile().mkdirs();
+            try (OutputStream outputStream = new FileOutputStream(file)) {
+                outputStream.write(entry.getValue());
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        zipFile.delete();
+        deleteTree(sourceDir);
+    }
+
+    @Test
+    public void testZip() throws Exception {
+        for (int numThreads : new int[]{1, 2, 4}) {
+            try (OutputStream outputStream = new FileOutputStream(zipFile)) {
+                ParallelZipWriter.zip(sourceDir, contents.keySet().toArray(new String[0]), outputStream, () -> {
+                }, numThreads);
+            }
+            assertZipContents("threads " + numThreads);
+        }
+    }
+
+    @Test
+    public void testProductFormatterZip() throws Exception {
+        // one thread takes the serial path, which stores compressed files with a precomputed crc
+        for (int numThreads : new int[]{1, 4}) {
+            try (OutputStream outputStream = new FileOutputStream(zipFile)) {
+                ProductFormatter.zip(sourceDir, outputStream, () -> {
+                }, numThreads);
+            }
+            assertZipContents("product formatter threads " + numThreads);
+        }
+    }
+
+    @Test
+    public void testIsCompressed() throws Exception {
+        assertFalse(ParallelZipWriter.isCompressed(new File(sourceDir, "product.dim")));
+        assertFalse(ParallelZipWriter.isCompressed(new File(sourceDir, "product.data/band_1.img")));
+        assertTrue(ParallelZipWriter.isCompressed(new File(sourceDir, "product.data/band_2.img")));
+        assertTrue(ParallelZipWriter.isCompressed(new File(sourceDir, "product.zarr/chl/0.0")));
+        assertFalse(ParallelZipWriter.isCompressed(new File(sourceDir, "product.zarr/chl/0.1")));
+        assertTrue(ParallelZipWriter.isCompressed(new File(sourceDir, "quicklook.png")));
+    }
+
+    private void assertZipContents(String message) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertEquals(message, contents.size(), zip.size());
+            for (Map.Entry<String, byte[]> expected : contents.entrySet()) {
+                ZipEntry entry = zip.getEntry(expected.getKey());
+                assertNotNull(message + " " + expected.getKey(), entry);
+                assertEquals(message, expected.getValue().length, entry.getSize());
+                CRC32 crc = new CRC32();
+                crc.update(expected.getValue());
+                assertEquals(message + " " + entry.getName(), crc.getValue(), entry.getCrc());
+                boolean compressed = ParallelZipWriter.isCompressed(new File(sourceDir, expected.getKey()));
+                assertEquals(message + " " + entry.getName(), compressed ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod());
+                try (InputStream inputStream = zip.getInputStream(entry)) {
+                    assertArrayEquals(message + " " + entry.getName(), expected.getValue(), readAll(inputStream));
+                }
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = inputStream.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void deleteTree(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
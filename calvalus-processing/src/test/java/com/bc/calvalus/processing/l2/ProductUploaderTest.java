@@ -0,0 +1,135 @@
+package com.bc.calvalus.processing.l2;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.PathOutputCommitter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProductUploaderTest {
+
+    private static final long QUIET = System.currentTimeMillis() - 10 * ProductUploader.QUIET_PERIOD_MILLIS;
+
+    private File sourceDir;
+    private File outputDir;
+    private TaskInputOutputContext<?, ?, ?, ?> context;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = Files.createTempDirectory("ProductUploaderTest").toFile();
+        sourceDir = new File(testDir, "product");
+        outputDir = new File(testDir, "output");
+        assertTrue(sourceDir.mkdir());
+        assertTrue(outputDir.mkdir());
+        PathOutputCommitter committer = Mockito.mock(PathOutputCommitter.class);
+        Mockito.when(committer.getWorkPath()).thenReturn(new Path(outputDir.toURI()));
+        context = Mockito.mock(TaskInputOutputContext.class);
+        Mockito.when(context.getOutputCommitter()).thenReturn(committer);
+        Mockito.when(context.getConfiguration()).thenReturn(new Configuration());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteTree(sourceDir.getParentFile());
+    }
+
+    @Test
+    public void testFinishCopiesAllFiles() throws Exception {
+        write("product.dim", "header", QUIET);
+        write("product.data/band_1.img", "band 1", QUIET);
+
+        ProductUploader uploader = new ProductUploader(context, sourceDir, true, 2);
+        uploader.finish();
+
+        assertEquals(Arrays.asList("product.data", "product.dim"), list(outputDir));
+        assertEquals("header", read(new File(outputDir, "product.dim")));
+        assertEquals("band 1", read(new File(outputDir, "product.data/band_1.img")));
+    }
+
+    @Test
+    public void testNonRecursiveSkipsSubdirectories() throws Exception {
+        write("product.nc", "netcdf", QUIET);
+        write("product.data/band_1.img", "band 1", QUIET);
+
+        ProductUploader uploader = new ProductUploader(context, sourceDir, false, 1);
+        uploader.finish();
+
+        assertEquals(Collections.singletonList("product.nc"), list(outputDir));
+    }
+
+    @Test
+    public void testStreamingAndFinalPass() throws Exception {
+        write("product.dim", "header", QUIET);
+        write("band_1.img", "band 1", QUIET);
+        write("band_2.img.tmp", "band 2", QUIET);
+        write("quicklook.png", "png", QUIET);
+
+        ProductUploader uploader = new ProductUploader(context, sourceDir, true, 2);
+        uploader.startStreaming();
+        waitForOutput("product.dim", "band_1.img", "band_2.img.tmp", "quicklook.png");
+
+        // modified, renamed and deleted after their upload while writing
+        write("product.dim", "final header", System.currentTimeMillis());
+        assertTrue(new File(sourceDir, "band_2.img.tmp").renameTo(new File(sourceDir, "band_2.img")));
+        assertTrue(new File(sourceDir, "quicklook.png").delete());
+        write("band_3.img", "band 3", System.currentTimeMillis());
+        uploader.finish();
+
+        assertEquals(Arrays.asList("band_1.img", "band_2.img", "band_3.img", "product.dim"), list(outputDir));
+        assertEquals("final header", read(new File(outputDir, "product.dim")));
+        assertEquals("band 1", read(new File(outputDir, "band_1.img")));
+        assertEquals("band 2", read(new File(outputDir, "band_2.img")));
+        assertEquals("band 3", read(new File(outputDir, "band_3.img")));
+    }
+
+    private void write(String entryPath, String content, long lastModified) throws IOException {
+        File file = new File(sourceDir, entryPath);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+    }
+
+    private void waitForOutput(String... entryPaths) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20 * ProductUploader.QUIET_PERIOD_MILLIS;
+        for (String entryPath : entryPaths) {
+            File file = new File(outputDir, entryPath);
+            while (!file.exists()) {
+                assertTrue("not copied while writing: " + entryPath, System.currentTimeMillis() < deadline);
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static List<String> list(File dir) {
+        String[] names = dir.list((parent, name) -> !name.startsWith("."));
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKTReader;
+
+import static org.junit.Assert.*;
+
+public class BinIndexRangesTest {
+
+    @Test
+    public void testContainsAndNext() {
+        BinIndexRanges ranges = new BinIndexRanges(new long[]{10, 20, 40}, new long[]{12, 30, 40});
+        assertEquals(3, ranges.getNumRanges());
+        assertFalse(ranges.contains(9));
+        assertTrue(ranges.contains(10));
+        assertTrue(ranges.contains(12));
+        assertFalse(ranges.contains(13));
+        assertTrue(ranges.contains(25));
+        assertTrue(ranges.contains(40));
+        assertFalse(ranges.contains(41));
+
+        assertEquals(10, ranges.getNextFirstBinIndex(0));
+        assertEquals(20, ranges.getNextFirstBinIndex(10));
+        assertEquals(20, ranges.getNextFirstBinIndex(13));
+        assertEquals(-1, ranges.getNextFirstBinIndex(40));
+
+        assertTrue(ranges.intersects(0, 10));
+        assertTrue(ranges.intersects(13, 20));
+        assertFalse(ranges.intersects(13, 19));
+        assertFalse(ranges.intersects(41, 100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverlappingRanges() {
+        new BinIndexRanges(new long[]{10, 20}, new long[]{20, 30});
+    }
+
+    @Test
+    public void testForRegionContainsBinsOfRegionOnSeaGrid() throws Exception {
+        assertContainsBinsOfRegion(new SEAGrid(180));
+    }
+
+    @Test
+    public void testForRegionContainsBinsOfRegionOnPlateCarreeGrid() throws Exception {
+        assertContainsBinsOfRegion(new PlateCarreeGrid(90));
+    }
+
+    @Test
+    public void testForRegionWithoutRestriction() throws Exception {
+        SEAGrid planetaryGrid = new SEAGrid(180);
+        assertNull(BinIndexRanges.forRegion(planetaryGrid, null));
+        assertNull(BinIndexRanges.forRegion(planetaryGrid, new WKTReader().read("POLYGON((-180 -90, 180 -90, 180 90, -180 90, -180 -90))")));
+    }
+
+    private static void assertContainsBinsOfRegion(PlanetaryGrid planetaryGrid) throws Exception {
+        Geometry region = new WKTReader().read("GEOMETRYCOLLECTION(POLYGON((-10 40, 5 40, 5 50, -10 50, -10 40)), "
+                                               + "POLYGON((100 -20, 120 -20, 120 -5, 100 -5, 100 -20)))");
+        BinIndexRanges ranges = BinIndexRanges.forRegion(planetaryGrid, region);
+        assertNotNull(ranges);
+        GeometryFactory geometryFactory = new GeometryFactory();
+        Envelope[] envelopes = {
+                region.getGeometryN(0).getEnvelopeInternal(),
+                region.getGeometryN(1).getEnvelopeInternal()
+        };
+        long numBinsInRanges = 0;
+        for (long binIndex = 0; binIndex < planetaryGrid.getNumBins(); binIndex++) {
+            double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex);
+            Coordinate centre = new Coordinate(centerLatLon[1], centerLatLon[0]);
+            if (region.intersects(geometryFactory.createPoint(centre))) {
+                assertTrue("bin " + binIndex, ranges.contains(binIndex));
+            }
+            if (ranges.contains(binIndex)) {
+                assertTrue("bin " + binIndex, envelopes[0].distance(new Envelope(centre)) < 5
+                                              || envelopes[1].distance(new Envelope(centre)) < 5);
+                numBinsInRanges++;
+            }
+        }
+        assertTrue(numBinsInRanges < planetaryGrid.getNumBins() / 10);
+    }
+}
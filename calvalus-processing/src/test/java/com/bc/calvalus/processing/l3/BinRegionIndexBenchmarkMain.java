@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+import java.util.Random;
+
+/**
+ * Measures the lookup of the regions of bins by {@link BinRegionIndex} compared to testing the centre
+ * of every bin against every region, as the TAMapper and the L3MultiRegionFormatMapper did before,
+ * on a global 9 km SEAGrid. Not run as part of the tests.
+ * <p>
+ * Usage: BinRegionIndexBenchmarkMain [numRegions [numBins]]
+ */
+public class BinRegionIndexBenchmarkMain {
+
+    private static final int NUM_ROWS = 2160;
+
+    public static void main(String[] args) {
+        int numRegions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int numBins = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        PlanetaryGrid planetaryGrid = new SEAGrid(NUM_ROWS);
+        GeometryFactory geometryFactory = new GeometryFactory();
+        Random random = new Random(42);
+        Geometry[] regions = new Geometry[numRegions];
+        for (int i = 0; i < numRegions; i++) {
+            double radius = 0.5 + random.nextDouble() * 10;
+            double centreX = -170 + random.nextDouble() * 340;
+            double centreY = -70 + random.nextDouble() * 140;
+            int numVertices = 3 + random.nextInt(60);
+            Coordinate[] coordinates = new Coordinate[numVertices + 1];
+            for (int k = 0; k < numVertices; k++) {
+                double angle = 2 * Math.PI * k / numVertices;
+                double r = radius * (0.3 + 0.7 * random.nextDouble());
+                coordinates[k] = new Coordinate(centreX + r * Math.cos(angle), centreY + r * Math.sin(angle));
+            }
+            coordinates[numVertices] = coordinates[0];
+            regions[i] = geometryFactory.createPolygon(coordinates);
+        }
+        long[] binIndexes = new long[numBins];
+        for (int i = 0; i < numBins; i++) {
+            binIndexes[i] = (long) (random.nextDouble() * planetaryGrid.getNumBins());
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            long numContained = 0;
+            for (long binIndex : binIndexes) {
+                double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex);
+                Point point = geometryFactory.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0]));
+                for (Geometry region : regions) {
+                    if (region.contains(point)) {
+                        numContained++;
+                    }
+                }
+            }
+            long t1 = System.nanoTime();
+            BinRegionIndex index = BinRegionIndex.create(planetaryGrid, regions);
+            long t2 = System.nanoTime();
+            long numIndexed = 0;
+            for (long binIndex : binIndexes) {
+                numIndexed += index.getRegionIds(binIndex).length;
+            }
+            long t3 = System.nanoTime();
+            System.out.printf("regions=%d  containment %8.1f ns/bin  index build %7.1f ms  lookup %6.1f ns/bin  (%d vs %d regions of bins)%n",
+                              numRegions,
+                              (double) (t1 - t0) / numBins,
+                              (t2 - t1) / 1e6,
+                              (double) (t3 - t2) / numBins,
+                              numContained, numIndexed);
+        }
+    }
+}
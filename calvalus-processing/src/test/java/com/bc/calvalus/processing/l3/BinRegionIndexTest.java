@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class BinRegionIndexTest {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    @Test
+    public void testOverlappingRectangles() throws Exception {
+        SEAGrid planetaryGrid = new SEAGrid(180);
+        Geometry[] geometries = {
+                new WKTReader().read("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))"),
+                new WKTReader().read("POLYGON((5 5, 15 5, 15 15, 5 15, 5 5))"),
+        };
+        BinRegionIndex index = BinRegionIndex.create(planetaryGrid, geometries);
+
+        assertArrayEquals(new int[]{0}, index.getRegionIds(planetaryGrid.getBinIndex(2.5, 2.5)));
+        assertArrayEquals(new int[]{0, 1}, index.getRegionIds(planetaryGrid.getBinIndex(7.5, 7.5)));
+        assertArrayEquals(new int[]{1}, index.getRegionIds(planetaryGrid.getBinIndex(12.5, 12.5)));
+        assertArrayEquals(new int[0], index.getRegionIds(planetaryGrid.getBinIndex(-2.5, 2.5)));
+        assertArrayEquals(new int[0], index.getRegionIds(planetaryGrid.getBinIndex(40.5, 40.5)));
+    }
+
+    @Test
+    public void testSameRegionsAsContainmentOnSeaGrid() throws Exception {
+        assertSameRegionsAsContainment(new SEAGrid(180), createRegions());
+    }
+
+    @Test
+    public void testSameRegionsAsContainmentOnPlateCarreeGrid() throws Exception {
+        assertSameRegionsAsContainment(new PlateCarreeGrid(90), createRegions());
+    }
+
+    @Test
+    public void testSameRegionsAsContainmentOnOtherGrids() throws Exception {
+        assertSameRegionsAsContainment(new DelegatingGrid(new SEAGrid(90)), createRegions());
+    }
+
+    private static void assertSameRegionsAsContainment(PlanetaryGrid planetaryGrid, Geometry[] geometries) {
+        BinRegionIndex index = BinRegionIndex.create(planetaryGrid, geometries);
+        int[] regionIds = new int[geometries.length];
+        for (long binIndex = 0; binIndex < planetaryGrid.getNumBins(); binIndex++) {
+            double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndex);
+            Geometry point = GEOMETRY_FACTORY.createPoint(new Coordinate(centerLatLon[1], centerLatLon[0]));
+            int numRegions = 0;
+            for (int regionId = 0; regionId < geometries.length; regionId++) {
+                if (geometries[regionId].contains(point)) {
+                    regionIds[numRegions++] = regionId;
+                }
+            }
+            assertArrayEquals("bin " + binIndex, Arrays.copyOf(regionIds, numRegions), index.getRegionIds(binIndex));
+        }
+    }
+
+    private static Geometry[] createRegions() throws Exception {
+        WKTReader wktReader = new WKTReader();
+        Random random = new Random(42);
+        Geometry[] geometries = new Geometry[48];
+        // a polygon with a hole, a multi-polygon, a whole-world box, vertices on the centres of rows and bins
+        geometries[0] = wktReader.read("POLYGON((-60 -30, 60 -30, 60 30, -60 30, -60 -30), (-20 -10, 20 -10, 20 10, -20 10, -20 -10))");
+        geometries[1] = wktReader.read("MULTIPOLYGON(((100 10, 120 10, 110 40, 100 10)), ((130 -40, 170 -40, 150 -5, 130 -40)))");
+        geometries[2] = wktReader.read("POLYGON((-180 -90, 180 -90, 180 90, -180 90, -180 -90))");
+        geometries[3] = wktReader.read("POLYGON((-0.5 -0.5, 10.5 -0.5, 10.5 20.5, 5 30.5, -0.5 20.5, -0.5 -0.5))");
+        // not polygonal, the centre of a bin is never contained
+        geometries[4] = wktReader.read("LINESTRING(-10 -10, 10 10)");
+        geometries[5] = wktReader.read("POLYGON EMPTY");
+        for (int i = 6; i < geometries.length; i++) {
+            double radius = 1 + random.nextDouble() * 30;
+            double centreX = -150 + random.nextDouble() * 300;
+            double centreY = -60 + random.nextDouble() * 120;
+            int numVertices = 3 + random.nextInt(30);
+            Coordinate[] coordinates = new Coordinate[numVertices + 1];
+            for (int k = 0; k < numVertices; k++) {
+                double angle = 2 * Math.PI * k / numVertices;
+                double r = radius * (0.3 + 0.7 * random.nextDouble());
+                coordinates[k] = new Coordinate(centreX + r * Math.cos(angle), centreY + r * Math.sin(angle));
+            }
+            coordinates[numVertices] = coordinates[0];
+            LinearRing shell = GEOMETRY_FACTORY.createLinearRing(coordinates);
+            geometries[i] = new Polygon(shell, null, GEOMETRY_FACTORY);
+        }
+        return geometries;
+    }
+
+    /**
+     * Hides the type of the grid, the index tests the bin centres then.
+     */
+    private static final class DelegatingGrid implements PlanetaryGrid {
+
+        private final PlanetaryGrid grid;
+
+        private DelegatingGrid(PlanetaryGrid grid) {
+            this.grid = grid;
+        }
+
+        @Override
+        public long getBinIndex(double lat, double lon) {
+            return grid.getBinIndex(lat, lon);
+        }
+
+        @Override
+        public int getRowIndex(long bin) {
+            return grid.getRowIndex(bin);
+        }
+
+        @Override
+        public long getNumBins() {
+            return grid.getNumBins();
+        }
+
+        @Override
+        public int getNumRows() {
+            return grid.getNumRows();
+        }
+
+        @Override
+        public int getNumCols(int row) {
+            return grid.getNumCols(row);
+        }
+
+        @Override
+        public long getFirstBinIndex(int row) {
+            return grid.getFirstBinIndex(row);
+        }
+
+        @Override
+        public double getCenterLat(int row) {
+            return grid.getCenterLat(row);
+        }
+
+        @Override
+        public double[] getCenterLatLon(long bin) {
+            return grid.getCenterLatLon(bin);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.esa.snap.binning.AggregatorConfig;
+import org.esa.snap.binning.aggregators.AggregatorAverage;
+import org.esa.snap.binning.aggregators.AggregatorMinMax;
+import org.esa.snap.binning.aggregators.AggregatorPercentile;
+import org.esa.snap.binning.operator.BinningConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class L3CombinerTest {
+
+    @Test
+    public void testMergeAverageAndMinMax() {
+        L3Combiner combiner = createCombiner(createAggregatorConfig(new AggregatorAverage.Descriptor().createConfig()),
+                                             createAggregatorConfig(new AggregatorMinMax.Descriptor().createConfig()));
+        assertTrue(combiner.isMerging());
+
+        L3SpatialBin target = createSBin(2, 0.2f, 0.05f, 0.1f, 0.3f);
+        L3SpatialBin source = createSBin(6, 0.6f, 0.4f, 0.4f, 0.9f);
+        combiner.mergeSpatialBin(target, source);
+
+        assertEquals(8, target.getNumObs());
+        float[] featureValues = target.getFeatureValues();
+        assertEquals(0.5f, featureValues[0], 1e-6f);
+        assertEquals(0.3125f, featureValues[1], 1e-6f);
+        assertEquals(0.1f, featureValues[2], 1e-6f);
+        assertEquals(0.9f, featureValues[3], 1e-6f);
+    }
+
+    @Test
+    public void testMergeAverageWithNaN() {
+        L3Combiner combiner = createCombiner(createAggregatorConfig(new AggregatorAverage.Descriptor().createConfig()));
+
+        L3SpatialBin target = createSBin(2, Float.NaN, Float.NaN);
+        L3SpatialBin source = createSBin(6, 0.6f, 0.4f);
+        combiner.mergeSpatialBin(target, source);
+
+        assertEquals(8, target.getNumObs());
+        assertEquals(0.6f, target.getFeatureValues()[0], 1e-6f);
+        assertEquals(0.4f, target.getFeatureValues()[1], 1e-6f);
+    }
+
+    @Test
+    public void testNoMergeForUnsupportedAggregator() {
+        L3Combiner combiner = createCombiner(createAggregatorConfig(new AggregatorAverage.Descriptor().createConfig()),
+                                             createAggregatorConfig(new AggregatorPercentile.Descriptor().createConfig()));
+        assertFalse(combiner.isMerging());
+    }
+
+    private static AggregatorConfig createAggregatorConfig(AggregatorConfig aggConf) {
+        aggConf.asPropertySet().setValue("varName", "chl_conc");
+        return aggConf;
+    }
+
+    private static L3Combiner createCombiner(AggregatorConfig... aggConfs) {
+        BinningConfig binningConfig = new BinningConfig();
+        binningConfig.setNumRows(2160);
+        binningConfig.setAggregatorConfigs(aggConfs);
+        Configuration configuration = new Configuration();
+        configuration.set(JobConfigNames.CALVALUS_L3_PARAMETERS, binningConfig.toXml());
+        L3Combiner combiner = new L3Combiner();
+        combiner.configure(configuration);
+        return combiner;
+    }
+
+    private static L3SpatialBin createSBin(int numObs, float... values) {
+        L3SpatialBin sBin = new L3SpatialBin(42, values.length, 0);
+        sBin.setNumObs(numObs);
+        System.arraycopy(values, 0, sBin.getFeatureValues(), 0, values.length);
+        return sBin;
+    }
+}
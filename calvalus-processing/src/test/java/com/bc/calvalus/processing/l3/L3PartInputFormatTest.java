@@ -0,0 +1,87 @@
+package com.bc.calvalus.processing.l3;
+
+
+import com.bc.calvalus.processing.UnixTestRunner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(UnixTestRunner.class)
+public class L3PartInputFormatTest {
+    public static final Path PATH = new Path("L3PartInputFormatTest.seq");
+    private Configuration conf;
+    private FileSystem fs;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new Configuration();
+        fs = FileSystem.getLocal(conf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.delete(PATH, false);
+        fs.delete(L3PartIndex.getIndexPath(PATH), false);
+    }
+
+    @Test
+    public void testSplitsReadEachBinWithinRangesOnce() throws Exception {
+        SequenceFileBinIteratorTest.writeIndexedPart(fs, conf, PATH, 10000);
+        L3PartIndex partIndex = L3PartIndex.read(PATH, conf);
+        BinIndexRanges ranges = new BinIndexRanges(new long[]{0, 3050, 9000, 24000}, new long[]{30, 3100, 15000, 40000});
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            if (ranges.contains(3L * i)) {
+                expected.add(3L * i);
+            }
+        }
+
+        long length = fs.getFileStatus(PATH).getLen();
+        for (int numSplits : new int[]{1, 2, 7}) {
+            List<Long> binIndexes = new ArrayList<>();
+            for (int i = 0; i < numSplits; i++) {
+                long start = length * i / numSplits;
+                long end = length * (i + 1) / numSplits;
+                readSplit(partIndex, ranges, start, end - start, binIndexes);
+            }
+            assertEquals("splits " + numSplits, expected, binIndexes);
+        }
+    }
+
+    @Test
+    public void testWithoutPartIndex() throws Exception {
+        SequenceFileBinIteratorTest.writeIndexedPart(fs, conf, PATH, 3000);
+        BinIndexRanges ranges = new BinIndexRanges(new long[]{300}, new long[]{600});
+
+        List<Long> binIndexes = new ArrayList<>();
+        readSplit(null, ranges, 0, fs.getFileStatus(PATH).getLen(), binIndexes);
+        assertEquals(101, binIndexes.size());
+        assertEquals(300L, (long) binIndexes.get(0));
+        assertEquals(600L, (long) binIndexes.get(100));
+    }
+
+    private void readSplit(L3PartIndex partIndex, BinIndexRanges ranges, long start, long length, List<Long> binIndexes) throws Exception {
+        L3PartInputFormat.RangeRecordReader recordReader = new L3PartInputFormat.RangeRecordReader(ranges);
+        recordReader.initialize(new SequenceFile.Reader(fs, PATH, conf), partIndex, start, length);
+        try {
+            while (recordReader.nextKeyValue()) {
+                L3TemporalBin bin = recordReader.getCurrentValue();
+                assertEquals(recordReader.getCurrentKey().get(), bin.getIndex());
+                assertEquals(bin.getIndex() / 3, bin.getNumObs());
+                binIndexes.add(bin.getIndex());
+            }
+        } finally {
+            recordReader.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.operator.BinningConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class L3PartitionBalancerTest {
+
+    @Test
+    public void testComputeStartRowsEqualWeights() {
+        long[] rowWeights = {1, 1, 1, 1, 1, 1};
+        assertArrayEquals(new int[]{0, 3}, L3PartitionBalancer.computeStartRows(rowWeights, 0, 6, 2));
+        assertArrayEquals(new int[]{0, 2, 4}, L3PartitionBalancer.computeStartRows(rowWeights, 0, 6, 3));
+        assertEquals(1.0, L3PartitionBalancer.computeImbalance(rowWeights, new int[]{0, 2, 4}, 6), 1e-6);
+    }
+
+    @Test
+    public void testComputeStartRowsUnevenWeights() {
+        long[] rowWeights = {0, 1, 1, 10, 10, 1, 1, 0};
+        int[] startRows = L3PartitionBalancer.computeStartRows(rowWeights, 0, 8, 2);
+        assertArrayEquals(new int[]{0, 4}, startRows);
+        assertEquals(1.0, L3PartitionBalancer.computeImbalance(rowWeights, startRows, 8), 1e-6);
+        // an even split of the rows gives the same result by symmetry, but not for three partitions
+        startRows = L3PartitionBalancer.computeStartRows(rowWeights, 0, 8, 3);
+        assertArrayEquals(new int[]{0, 4, 4}, startRows);
+        assertTrue(L3PartitionBalancer.computeImbalance(rowWeights, startRows, 8) <
+                   L3PartitionBalancer.computeImbalance(rowWeights, new int[]{0, 3, 6}, 8));
+    }
+
+    @Test
+    public void testComputeStartRowsOfRegion() {
+        long[] rowWeights = {5, 5, 1, 1, 1, 1, 5, 5};
+        assertArrayEquals(new int[]{2, 4}, L3PartitionBalancer.computeStartRows(rowWeights, 2, 4, 2));
+    }
+
+    @Test
+    public void testBalancedPartitioner() throws Exception {
+        Configuration configuration = new Configuration();
+        BinningConfig l3Config = new BinningConfig();
+        l3Config.setNumRows(6);
+        configuration.set(JobConfigNames.CALVALUS_L3_PARAMETERS, l3Config.toXml());
+        configuration.set(JobConfigNames.CALVALUS_REGION_GEOMETRY, "");
+        L3PartitionBalancer.configureJob(configuration, 3);
+        // rows with 3, 8, 12, 12, 8, 3 bins
+        assertEquals("0,2,4", configuration.get(JobConfigNames.CALVALUS_L3_PARTITION_START_ROWS));
+
+        L3Partitioner l3Partitioner = new L3Partitioner();
+        l3Partitioner.setConf(configuration);
+        PlanetaryGrid planetaryGrid = l3Partitioner.getPlanetaryGrid();
+        assertEquals(0, l3Partitioner.getPartition(new LongWritable(planetaryGrid.getFirstBinIndex(1)), null, 3));
+        assertEquals(1, l3Partitioner.getPartition(new LongWritable(planetaryGrid.getFirstBinIndex(2)), null, 3));
+        assertEquals(1, l3Partitioner.getPartition(new LongWritable(planetaryGrid.getFirstBinIndex(3)), null, 3));
+        assertEquals(2, l3Partitioner.getPartition(new LongWritable(planetaryGrid.getFirstBinIndex(4)), null, 3));
+        assertEquals(2, l3Partitioner.getPartition(new LongWritable(planetaryGrid.getFirstBinIndex(5)), null, 3));
+    }
+}
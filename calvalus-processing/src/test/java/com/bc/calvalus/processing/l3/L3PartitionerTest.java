@@ -143,6 +143,28 @@ public class L3PartitionerTest {
 
     }
 
+    @Test
+    public void testPartitionsEqualRowBasedPartitions() throws Exception {
+        String[] wkts = {"", "polygon((-7 54, -7 38.5, 5.5 38.5, 5.5 54, -7 54))"};
+        for (String wkt : wkts) {
+            L3Partitioner l3Partitioner = createPartitioner(216, wkt);
+            PlanetaryGrid planetaryGrid = l3Partitioner.getPlanetaryGrid();
+            int minRowIndex = 0;
+            int numRowsCovered = planetaryGrid.getNumRows();
+            if (!wkt.isEmpty()) {
+                minRowIndex = planetaryGrid.getRowIndex(planetaryGrid.getBinIndex(54, 5.5));
+                numRowsCovered = planetaryGrid.getRowIndex(planetaryGrid.getBinIndex(38.5, -7)) - minRowIndex + 1;
+            }
+            for (int numPartitions : new int[]{1, 2, 3, 7, 32, 300}) {
+                for (long idx = 0; idx < planetaryGrid.getNumBins(); idx++) {
+                    int row = planetaryGrid.getRowIndex(idx);
+                    int expected = Math.max(0, Math.min(numPartitions - 1, ((row - minRowIndex) * numPartitions) / numRowsCovered));
+                    assertEquals(expected, l3Partitioner.getPartition(new LongWritable(idx), null, numPartitions));
+                }
+            }
+        }
+    }
+
     private static L3Partitioner createPartitioner(int numRows, String wkt) {
         L3Partitioner l3Partitioner = new L3Partitioner();
         Configuration configuration = new Configuration();
@@ -16,15 +16,22 @@
 
 package com.bc.calvalus.processing.l3;
 
+import org.apache.hadoop.io.WritableUtils;
+import org.esa.snap.binning.SpatialBin;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class L3SpatialBinTest {
 
@@ -44,4 +51,68 @@ public class L3SpatialBinTest {
         assertEquals(metadata.length(), l3SpatialBin1.getMetadata().length());
         assertEquals(metadata, l3SpatialBin1.getMetadata());
     }
+
+    @Test
+    public void testCompactFormat() throws IOException {
+        L3SpatialBin bin = new L3SpatialBin(42, 5, 0);
+        bin.setNumObs(17);
+        float[] values = {0.0f, Float.NaN, 3.0f, 0.123f, -1.5e7f};
+        System.arraycopy(values, 0, bin.getFeatureValues(), 0, values.length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bin.write(new DataOutputStream(bytes));
+        assertTrue(bytes.size() < 4 + 4 + 5 * 4 + 4);
+
+        L3SpatialBin bin1 = (L3SpatialBin) L3SpatialBin.read(42, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(42, bin1.getIndex());
+        assertEquals(17, bin1.getNumObs());
+        assertArrayEquals(values, bin1.getFeatureValues(), 0.0f);
+        assertNull(bin1.getMetadata());
+    }
+
+    @Test
+    public void testLegacyFormat() throws IOException {
+        SpatialBin bin = new SpatialBin(42, 3);
+        bin.setNumObs(17);
+        float[] values = {0.5f, Float.NaN, 3.0f};
+        System.arraycopy(values, 0, bin.getFeatureValues(), 0, values.length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bin.write(new DataOutputStream(bytes));
+
+        L3SpatialBin bin1 = (L3SpatialBin) L3SpatialBin.read(42, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(17, bin1.getNumObs());
+        assertArrayEquals(values, bin1.getFeatureValues(), 0.0f);
+    }
+
+    @Test
+    public void testReadVectorsIntoReusedBin() throws IOException {
+        byte[] first = compactBinWithVectors(new float[][]{{1, 2, 3, 4, 5}, {6}});
+        byte[] second = compactBinWithVectors(new float[][]{{7, 8}, {}});
+        byte[] third = compactBinWithVectors(new float[][]{{9, 10, 11, 12, 13, 14, 15}, {16, 17}});
+
+        L3SpatialBin bin = new L3SpatialBin();
+        for (byte[] bytes : new byte[][]{first, second, third, first}) {
+            bin.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            bin.write(new DataOutputStream(written));
+            assertArrayEquals(bytes, written.toByteArray());
+        }
+    }
+
+    private static byte[] compactBinWithVectors(float[][] vectors) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(CompactBinFormat.VERSION_1);
+        WritableUtils.writeVInt(out, 3);
+        CompactBinFormat.writeFeatureValues(out, new float[]{0.5f, 2.0f});
+        WritableUtils.writeVInt(out, vectors.length);
+        for (float[] vector : vectors) {
+            WritableUtils.writeVInt(out, vector.length);
+            for (float value : vector) {
+                out.writeFloat(value);
+            }
+        }
+        return bytes.toByteArray();
+    }
 }
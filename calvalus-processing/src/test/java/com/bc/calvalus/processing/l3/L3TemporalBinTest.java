@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import org.esa.snap.binning.TemporalBin;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class L3TemporalBinTest {
+
+    @Test
+    public void testCompactFormat() throws IOException {
+        L3TemporalBin bin = new L3TemporalBin(42, 4);
+        bin.setNumObs(2354);
+        bin.setNumPasses(54);
+        float[] values = {12.0f, Float.NaN, 0.0f, 0.25f};
+        System.arraycopy(values, 0, bin.getFeatureValues(), 0, values.length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bin.write(new DataOutputStream(bytes));
+        assertTrue(bytes.size() < 4 + 4 + 4 + 4 * 4);
+
+        L3TemporalBin bin1 = L3TemporalBin.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(2354, bin1.getNumObs());
+        assertEquals(54, bin1.getNumPasses());
+        assertArrayEquals(values, bin1.getFeatureValues(), 0.0f);
+    }
+
+    @Test
+    public void testLegacyFormat() throws IOException {
+        TemporalBin bin = new TemporalBin(42, 3);
+        bin.setNumObs(2354);
+        bin.setNumPasses(54);
+        float[] values = {0.1f, 0.2f, Float.NaN};
+        System.arraycopy(values, 0, bin.getFeatureValues(), 0, values.length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bin.write(new DataOutputStream(bytes));
+
+        L3TemporalBin bin1 = L3TemporalBin.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(2354, bin1.getNumObs());
+        assertEquals(54, bin1.getNumPasses());
+        assertArrayEquals(values, bin1.getFeatureValues(), 0.0f);
+    }
+}
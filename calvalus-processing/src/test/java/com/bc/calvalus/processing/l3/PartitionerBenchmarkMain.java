@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+import com.bc.calvalus.processing.JobConfigNames;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.operator.BinningConfig;
+import org.esa.snap.binning.support.IsinPlanetaryGrid;
+import org.esa.snap.core.util.grid.isin.IsinPoint;
+
+import java.util.Random;
+
+/**
+ * Measures the partitioning throughput of {@link L3Partitioner} and {@link IsinPartitioner}
+ * compared to the row lookup per bin they used before. Not run as part of the tests.
+ * <p>
+ * Usage: PartitionerBenchmarkMain [numBins [numPartitions]]
+ */
+public class PartitionerBenchmarkMain {
+
+    private static final int NUM_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int numBins = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int numPartitions = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        for (int numRows : new int[]{4320, 8640}) {
+            benchmarkSeaGrid(numRows, numBins, numPartitions);
+            benchmarkIsinGrid(numRows, numBins, numPartitions);
+        }
+    }
+
+    private static void benchmarkSeaGrid(int numRows, int numBins, int numPartitions) {
+        L3Partitioner partitioner = new L3Partitioner();
+        Configuration configuration = new Configuration();
+        BinningConfig binningConfig = new BinningConfig();
+        binningConfig.setNumRows(numRows);
+        configuration.set(JobConfigNames.CALVALUS_L3_PARAMETERS, binningConfig.toXml());
+        partitioner.setConf(configuration);
+        PlanetaryGrid planetaryGrid = partitioner.getPlanetaryGrid();
+
+        long[] binIndexes = new long[numBins];
+        Random random = new Random(42);
+        for (int i = 0; i < numBins; i++) {
+            binIndexes[i] = (long) (random.nextDouble() * planetaryGrid.getNumBins());
+        }
+
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            LongWritable key = new LongWritable();
+            long checksum = 0;
+            long t0 = System.nanoTime();
+            for (long binIndex : binIndexes) {
+                int row = planetaryGrid.getRowIndex(binIndex);
+                int partition = (row * numPartitions) / numRows;
+                checksum += Math.min(partition, numPartitions - 1);
+            }
+            long t1 = System.nanoTime();
+            for (long binIndex : binIndexes) {
+                key.set(binIndex);
+                checksum -= partitioner.getPartition(key, null, numPartitions);
+            }
+            long t2 = System.nanoTime();
+            report("SEAGrid", numRows, numBins, t1 - t0, t2 - t1, checksum);
+        }
+    }
+
+    private static void benchmarkIsinGrid(int numRows, int numBins, int numPartitions) {
+        IsinPartitioner partitioner = new IsinPartitioner();
+        partitioner.setConf(new Configuration());
+
+        // 18 x 36 tiles with numRows / 18 lines and columns each
+        int tileSize = numRows / 18;
+        long[] binIndexes = new long[numBins];
+        Random random = new Random(42);
+        for (int i = 0; i < numBins; i++) {
+            long tileLine = random.nextInt(18);
+            long tileCol = random.nextInt(36);
+            long y = random.nextInt(tileSize);
+            long x = random.nextInt(tileSize);
+            binIndexes[i] = tileLine * 10000000000L + tileCol * 100000000L + y * 10000L + x;
+        }
+
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            LongWritable key = new LongWritable();
+            long checksum = 0;
+            long t0 = System.nanoTime();
+            for (long binIndex : binIndexes) {
+                IsinPoint isinPoint = IsinPlanetaryGrid.toIsinPoint(binIndex);
+                checksum += (isinPoint.getTile_line() * 36 + isinPoint.getTile_col()) % numPartitions;
+            }
+            long t1 = System.nanoTime();
+            for (long binIndex : binIndexes) {
+                key.set(binIndex);
+                checksum -= partitioner.getPartition(key, null, numPartitions);
+            }
+            long t2 = System.nanoTime();
+            report("ISIN", numRows, numBins, t1 - t0, t2 - t1, checksum);
+        }
+    }
+
+    private static void report(String grid, int numRows, int numBins, long rowLookupNanos, long partitionerNanos, long checksum) {
+        System.out.printf("%-8s rows=%5d  row lookup %6.1f ns/bin  partitioner %6.1f ns/bin  (difference %d)%n",
+                          grid, numRows,
+                          (double) rowLookupNanos / numBins,
+                          (double) partitionerNanos / numBins,
+                          checksum);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.l3;
+
+
+import com.bc.calvalus.processing.UnixTestRunner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(UnixTestRunner.class)
+public class PrefetchingBinIteratorTest {
+    public static final Path PATH = new Path("PrefetchingBinIteratorTest.seq");
+    private Configuration conf;
+    private FileSystem fs;
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new Configuration();
+        fs = FileSystem.getLocal(conf);
+        executorService = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executorService.shutdownNow();
+        fs.delete(PATH, false);
+        fs.delete(L3PartIndex.getIndexPath(PATH), false);
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs,
+                                                               conf,
+                                                               PATH,
+                                                               LongWritable.class,
+                                                               L3TemporalBin.class);
+        // more bins than fit into one chunk
+        for (int i = 0; i < 5000; i++) {
+            L3TemporalBin val = new L3TemporalBin(3L * i, 1);
+            val.getFeatureValues()[0] = 0.5F * i;
+            val.setNumObs(i);
+            val.setNumPasses(1);
+            writer.append(new LongWritable(3L * i), val);
+        }
+        writer.close();
+
+        PrefetchingBinIterator it = new PrefetchingBinIterator(PATH, conf, 2);
+        executorService.submit(it);
+
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(it.hasNext());
+            L3TemporalBin bin = it.next();
+            assertEquals(3L * i, bin.getIndex());
+            assertEquals(i, bin.getNumObs());
+            assertEquals(0.5F * i, bin.getFeatureValues()[0], 1e-6F);
+        }
+        assertFalse(it.hasNext());
+        it.stop();
+
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStopBeforeEnd() throws Exception {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs,
+                                                               conf,
+                                                               PATH,
+                                                               LongWritable.class,
+                                                               L3TemporalBin.class);
+        for (int i = 0; i < 5000; i++) {
+            writer.append(new LongWritable(i), new L3TemporalBin(i, 1));
+        }
+        writer.close();
+
+        PrefetchingBinIterator it = new PrefetchingBinIterator(PATH, conf, 1);
+        executorService.submit(it);
+        assertEquals(0L, it.next().getIndex());
+        it.stop();
+
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        PrefetchingBinIterator it = new PrefetchingBinIterator(new Path("PrefetchingBinIteratorTest.missing"), conf, 1);
+        executorService.submit(it);
+        try {
+            it.hasNext();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {
+            assertNotNull(it.getIOException());
+        }
+    }
+
+    @Test
+    public void testRuntimeExceptionOfReaderIsRethrown() throws Exception {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs,
+                                                               conf,
+                                                               PATH,
+                                                               LongWritable.class,
+                                                               L3TemporalBin.class);
+        for (int i = 0; i < 1500; i++) {
+            writer.append(new LongWritable(i), new L3TemporalBin(i, 1));
+        }
+        // a corrupt bin with a negative number of features fails with a NegativeArraySizeException on read
+        DataOutputBuffer key = new DataOutputBuffer();
+        new LongWritable(1500).write(key);
+        DataOutputBuffer value = new DataOutputBuffer();
+        value.writeByte(CompactBinFormat.VERSION_1);
+        WritableUtils.writeVInt(value, 1);
+        WritableUtils.writeVInt(value, 1);
+        WritableUtils.writeVInt(value, -5);
+        writer.appendRaw(key.getData(), 0, key.getLength(), new RawValueBytes(value));
+        for (int i = 1501; i < 2000; i++) {
+            writer.append(new LongWritable(i), new L3TemporalBin(i, 1));
+        }
+        writer.close();
+
+        PrefetchingBinIterator it = new PrefetchingBinIterator(PATH, conf, 2);
+        executorService.submit(it);
+        int numBins = 0;
+        try {
+            while (it.hasNext()) {
+                it.next();
+                numBins++;
+            }
+            fail("NegativeArraySizeException expected");
+        } catch (NegativeArraySizeException expected) {
+            assertTrue(numBins < 1500);
+        }
+        try {
+            it.hasNext();
+            fail("NegativeArraySizeException expected");
+        } catch (NegativeArraySizeException expected) {
+            assertNull(it.getIOException());
+        }
+    }
+
+    @Test
+    public void testPartIndex() throws Exception {
+        new L3PartIndex(12L, 345L, 67L).write(PATH, conf);
+        assertEquals("_PrefetchingBinIteratorTest.seq.index", L3PartIndex.getIndexPath(PATH).getName());
+
+        L3PartIndex partIndex = L3PartIndex.read(PATH, conf);
+        assertNotNull(partIndex);
+        assertEquals(12L, partIndex.getFirstBinIndex());
+        assertEquals(345L, partIndex.getLastBinIndex());
+        assertEquals(67L, partIndex.getNumBins());
+
+        assertNull(L3PartIndex.read(new Path("PrefetchingBinIteratorTest.missing"), conf));
+    }
+
+    @Test
+    public void testPartIndexEntries() throws Exception {
+        new L3PartIndex(10L, 5000L, 300L, new long[]{10L, 2000L, 4000L}, new long[]{128L, 4096L, 8192L}).write(PATH, conf);
+
+        L3PartIndex partIndex = L3PartIndex.read(PATH, conf);
+        assertNotNull(partIndex);
+        assertEquals(3, partIndex.getNumEntries());
+        assertEquals(-1L, partIndex.getSyncPosition(9L));
+        assertEquals(128L, partIndex.getSyncPosition(10L));
+        assertEquals(128L, partIndex.getSyncPosition(1999L));
+        assertEquals(4096L, partIndex.getSyncPosition(2000L));
+        assertEquals(8192L, partIndex.getSyncPosition(9999L));
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        SequenceFileBinIteratorTest.writeIndexedPart(fs, conf, PATH, 5000);
+        BinIndexRanges ranges = new BinIndexRanges(new long[]{3000, 12000}, new long[]{6002, 12002});
+
+        PrefetchingBinIterator it = new PrefetchingBinIterator(PATH, conf, 2, L3PartIndex.read(PATH, conf), ranges);
+        executorService.submit(it);
+        int numBins = 0;
+        while (it.hasNext()) {
+            L3TemporalBin bin = it.next();
+            assertTrue(ranges.contains(bin.getIndex()));
+            assertEquals(bin.getIndex() / 3, bin.getNumObs());
+            numBins++;
+        }
+        assertEquals(1001 + 1, numBins);
+    }
+
+    private static class RawValueBytes implements SequenceFile.ValueBytes {
+
+        private final DataOutputBuffer buffer;
+
+        RawValueBytes(DataOutputBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void writeUncompressedBytes(DataOutputStream outStream) throws IOException {
+            outStream.write(buffer.getData(), 0, buffer.getLength());
+        }
+
+        @Override
+        public void writeCompressedBytes(DataOutputStream outStream) throws IOException {
+            throw new IOException("not compressed");
+        }
+
+        @Override
+        public int getSize() {
+            return buffer.getLength();
+        }
+    }
+}
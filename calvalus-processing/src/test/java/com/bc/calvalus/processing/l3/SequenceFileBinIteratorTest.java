@@ -12,7 +12,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -31,6 +33,7 @@ public class SequenceFileBinIteratorTest {
     @After
     public void tearDown() throws Exception {
         fs.deleteOnExit(PATH);
+        fs.deleteOnExit(L3PartIndex.getIndexPath(PATH));
     }
 
     @Test
@@ -65,4 +68,54 @@ public class SequenceFileBinIteratorTest {
 
         assertFalse(it.hasNext());
     }
+
+    @Test
+    public void testRanges() throws Exception {
+        writeIndexedPart(fs, conf, PATH, 5000);
+        L3PartIndex partIndex = L3PartIndex.read(PATH, conf);
+        assertNotNull(partIndex);
+        assertEquals(5, partIndex.getNumEntries());
+        assertEquals(-1, partIndex.getSyncPosition(-1L));
+        assertEquals(partIndex.getSyncPosition(0L), partIndex.getSyncPosition(3L * 1023));
+
+        BinIndexRanges ranges = new BinIndexRanges(new long[]{100, 6000, 14990}, new long[]{110, 6008, 20000});
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            if (ranges.contains(3L * i)) {
+                expected.add(3L * i);
+            }
+        }
+        // with and without the index of the part
+        assertEquals(expected, readBinIndexes(new SequenceFileBinIterator(new SequenceFile.Reader(fs, PATH, conf), partIndex, ranges)));
+        assertEquals(expected, readBinIndexes(new SequenceFileBinIterator(new SequenceFile.Reader(fs, PATH, conf), null, ranges)));
+    }
+
+    /**
+     * Writes bins with the indexes 0, 3, 6, ... as the {@link L3PartOutputFormat} does.
+     */
+    static void writeIndexedPart(FileSystem fs, Configuration conf, Path path, int numBins) throws Exception {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, LongWritable.class, L3TemporalBin.class);
+        L3PartOutputFormat.IndexingRecordWriter recordWriter = new L3PartOutputFormat.IndexingRecordWriter(writer, path, conf);
+        for (int i = 0; i < numBins; i++) {
+            L3TemporalBin val = new L3TemporalBin(3L * i, 1);
+            val.getFeatureValues()[0] = 0.5F * i;
+            val.setNumObs(i);
+            recordWriter.write(new LongWritable(3L * i), val);
+        }
+        recordWriter.close(null);
+    }
+
+    private static List<Long> readBinIndexes(SequenceFileBinIterator it) throws Exception {
+        List<Long> binIndexes = new ArrayList<>();
+        try {
+            while (it.hasNext()) {
+                L3TemporalBin bin = it.next();
+                assertEquals(bin.getIndex() / 3, bin.getNumObs());
+                binIndexes.add(bin.getIndex());
+            }
+        } finally {
+            it.getReader().close();
+        }
+        return binIndexes;
+    }
 }
@@ -0,0 +1,81 @@
+package com.bc.calvalus.processing.l3.cellstream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.jni.netcdf.Nc4Iosp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CellRecordReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadNetcdf3() throws Exception {
+        File file = new File(folder.getRoot(), "cells-nc3.nc");
+        List<Long> binIndexes = SnapSparseCellReaderTest.writeCellFile(file, NetcdfFileWriter.Version.netcdf3);
+
+        assertReadWholeAndInRanges(file, binIndexes);
+    }
+
+    @Test
+    public void testReadNetcdf4() throws Exception {
+        // writing NetCDF 4 requires the netcdf C library, reading it does not
+        Assume.assumeTrue(Nc4Iosp.isClibraryPresent());
+        File file = new File(folder.getRoot(), "cells-nc4.nc");
+        List<Long> binIndexes = SnapSparseCellReaderTest.writeCellFile(file, NetcdfFileWriter.Version.netcdf4);
+
+        assertReadWholeAndInRanges(file, binIndexes);
+    }
+
+    private static void assertReadWholeAndInRanges(File file, List<Long> binIndexes) throws Exception {
+        Path path = new Path(file.toURI());
+        FileSplit fileSplit = new FileSplit(path, 0, file.length(), new String[0]);
+
+        CellRecordReader reader = new CellRecordReader(path, new Configuration());
+        try {
+            reader.initialize(new CellFileSplit(fileSplit), null);
+            assertArrayEquals(new String[]{"chl_mean"}, reader.getFeatureNames());
+            assertEquals(SnapSparseCellReaderTest.NUM_ROWS, reader.getNumRows());
+            assertEquals(binIndexes, readBinIndexes(reader));
+            assertEquals(1.0F, reader.getProgress(), 1e-6F);
+        } finally {
+            reader.close();
+        }
+
+        List<Long> rangeBinIndexes = new ArrayList<>();
+        for (int rangeIndex = 0; rangeIndex < 2; rangeIndex++) {
+            reader = new CellRecordReader(path, new Configuration());
+            try {
+                reader.initialize(new CellFileSplit(fileSplit, rangeIndex, 2), null);
+                List<Long> rangeBins = readBinIndexes(reader);
+                assertFalse("range " + rangeIndex, rangeBins.isEmpty());
+                assertTrue("range " + rangeIndex, rangeBins.size() < binIndexes.size());
+                rangeBinIndexes.addAll(rangeBins);
+            } finally {
+                reader.close();
+            }
+        }
+        assertEquals(binIndexes, rangeBinIndexes);
+    }
+
+    private static List<Long> readBinIndexes(CellRecordReader reader) throws Exception {
+        List<Long> binIndexes = new ArrayList<>();
+        while (reader.nextKeyValue()) {
+            SnapSparseCellReaderTest.assertBin(reader.getCurrentKey(), reader.getCurrentValue());
+            binIndexes.add(reader.getCurrentKey().get());
+        }
+        return binIndexes;
+    }
+}
@@ -0,0 +1,142 @@
+package com.bc.calvalus.processing.l3.cellstream;
+
+import com.bc.calvalus.processing.l3.L3TemporalBin;
+import org.apache.hadoop.io.LongWritable;
+import org.esa.snap.binning.support.SEAGrid;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapSparseCellReaderTest {
+
+    static final int NUM_ROWS = 18;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private List<Long> binIndexes;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "SnapSparseCellReaderTest.nc");
+        binIndexes = writeCellFile(file, NetcdfFileWriter.Version.netcdf3);
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        NetcdfFile netcdfFile = NetcdfFile.open(file.getPath());
+        SnapSparseCellReader reader = new SnapSparseCellReader(netcdfFile);
+        try {
+            assertArrayEquals(new String[]{"chl_mean"}, reader.getFeatureNames());
+            assertEquals(NUM_ROWS, reader.getNumRows());
+            assertEquals(binIndexes.size(), reader.getNumBins());
+            assertEquals(binIndexes.size(), reader.getNumRangeBins());
+            assertEquals(binIndexes, readBinIndexes(reader));
+            assertEquals(binIndexes.size(), reader.getNumReadBins());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRangesReadEachRowOnce() throws Exception {
+        SEAGrid planetaryGrid = new SEAGrid(NUM_ROWS);
+        for (int numRanges : new int[]{2, 3, 7}) {
+            List<Long> allBinIndexes = new ArrayList<>();
+            for (int rangeIndex = 0; rangeIndex < numRanges; rangeIndex++) {
+                NetcdfFile netcdfFile = NetcdfFile.open(file.getPath());
+                SnapSparseCellReader reader = new SnapSparseCellReader(netcdfFile);
+                try {
+                    reader.selectRange(rangeIndex, numRanges);
+                    List<Long> rangeBinIndexes = readBinIndexes(reader);
+                    assertEquals(rangeBinIndexes.size(), reader.getNumRangeBins());
+                    assertEquals(rangeBinIndexes.size(), reader.getNumReadBins());
+                    if (!rangeBinIndexes.isEmpty() && !allBinIndexes.isEmpty()) {
+                        int lastRow = planetaryGrid.getRowIndex(allBinIndexes.get(allBinIndexes.size() - 1));
+                        assertNotEquals(lastRow, planetaryGrid.getRowIndex(rangeBinIndexes.get(0)));
+                    }
+                    allBinIndexes.addAll(rangeBinIndexes);
+                } finally {
+                    reader.close();
+                }
+            }
+            assertEquals("ranges " + numRanges, binIndexes, allBinIndexes);
+        }
+    }
+
+    /**
+     * Writes a SNAP sparse cell file with every third bin of a grid of {@link #NUM_ROWS} rows.
+     *
+     * @return the indexes of the bins written
+     */
+    static List<Long> writeCellFile(File file, NetcdfFileWriter.Version version) throws IOException {
+        List<Long> binIndexes = new ArrayList<>();
+        long numBins = new SEAGrid(NUM_ROWS).getNumBins();
+        for (long binIndex = 0; binIndex < numBins; binIndex += 3) {
+            binIndexes.add(binIndex);
+        }
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(version, file.getPath());
+        try {
+            writer.addDimension(null, "bin_list", binIndexes.size());
+            writer.addDimension(null, "bin_index", NUM_ROWS);
+            Variable binNumVar = writer.addVariable(null, "bl_bin_num", DataType.INT, "bin_list");
+            Variable numObsVar = writer.addVariable(null, "bl_nobs", DataType.INT, "bin_list");
+            Variable numScenesVar = writer.addVariable(null, "bl_nscenes", DataType.INT, "bin_list");
+            Variable featureVar = writer.addVariable(null, "chl_mean", DataType.FLOAT, "bin_list");
+            writer.create();
+            int[] binNums = new int[binIndexes.size()];
+            int[] numObs = new int[binIndexes.size()];
+            float[] features = new float[binIndexes.size()];
+            for (int i = 0; i < binNums.length; i++) {
+                binNums[i] = binIndexes.get(i).intValue();
+                numObs[i] = i;
+                features[i] = 0.5F * i;
+            }
+            writer.write(binNumVar, Array.factory(binNums));
+            writer.write(numObsVar, Array.factory(numObs));
+            writer.write(numScenesVar, Array.factory(numObs));
+            writer.write(featureVar, Array.factory(features));
+        } catch (InvalidRangeException e) {
+            throw new IOException(e);
+        } finally {
+            writer.close();
+        }
+        return binIndexes;
+    }
+
+    /**
+     * Asserts that a bin read is the one written by {@link #writeCellFile}.
+     */
+    static void assertBin(LongWritable key, L3TemporalBin value) {
+        assertEquals(key.get(), value.getIndex());
+        int i = (int) (key.get() / 3);
+        assertEquals(i, value.getNumObs());
+        assertEquals(0.5F * i, value.getFeatureValues()[0], 1e-6F);
+    }
+
+    private static List<Long> readBinIndexes(SnapSparseCellReader reader) throws Exception {
+        LongWritable key = new LongWritable();
+        L3TemporalBin value = new L3TemporalBin(-1, 1);
+        List<Long> binIndexes = new ArrayList<>();
+        while (reader.readNext(key, value)) {
+            assertBin(key, value);
+            binIndexes.add(key.get());
+        }
+        return binIndexes;
+    }
+}
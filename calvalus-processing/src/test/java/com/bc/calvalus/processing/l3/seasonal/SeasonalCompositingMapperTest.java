@@ -1,14 +1,25 @@
 package com.bc.calvalus.processing.l3.seasonal;
 
 import com.bc.calvalus.commons.DateUtils;
+import com.bc.ceres.core.ProgressMonitor;
+import com.bc.ceres.glevel.MultiLevelImage;
 import org.apache.hadoop.conf.Configuration;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -77,4 +88,81 @@ public class SeasonalCompositingMapperTest {
         assertEquals("targetBandIndex", 10, targetBandIndex[7]);
         assertEquals("sourceBandIndex", 20, sourceBandIndex[10]);
     }
+
+    @Test
+    public void testParallelCompositingEqualsSerial() throws Exception {
+        final int numMicroTiles = 5;
+        final int microTileSize = 8;
+        final List<MultiLevelImage[]> bandImages = createBandImages(6, numMicroTiles * microTileSize);
+        for (int mode = 0; mode < 3; mode++) {
+            final boolean withBestPixels = mode == 0;
+            final boolean withMaxNdvi = mode == 1;
+            final byte[] serial = composite(bandImages, numMicroTiles, microTileSize, withBestPixels, withMaxNdvi, 1);
+            final byte[] parallel = composite(bandImages, numMicroTiles, microTileSize, withBestPixels, withMaxNdvi, 4);
+            assertEquals("mode " + mode, numMicroTiles * numMicroTiles * (4 * 4 + NUM_TARGET_BANDS * (4 + 4 * microTileSize * microTileSize)), serial.length);
+            assertArrayEquals("mode " + mode, serial, parallel);
+        }
+    }
+
+    private static final int NUM_SOURCE_BANDS = 10;
+    private static final int NUM_TARGET_BANDS = 7;
+
+    /**
+     * @return the micro tiles composited, with their areas, in the order passed to the consumer
+     */
+    private static byte[] composite(List<MultiLevelImage[]> bandImages, int numMicroTiles, int microTileSize,
+                                    boolean withBestPixels, boolean withMaxNdvi, int numThreads) throws Exception {
+        final SeasonalCompositingMapper.MicroTileCompositor[] compositors = new SeasonalCompositingMapper.MicroTileCompositor[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            compositors[t] = new SeasonalCompositingMapper.MicroTileCompositor(withBestPixels, withMaxNdvi, 7, 8, 9,
+                                                                               NUM_SOURCE_BANDS, NUM_TARGET_BANDS,
+                                                                               microTileSize, ProgressMonitor.NULL);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        SeasonalCompositingMapper.compositeMicroTiles(bandImages, numMicroTiles, microTileSize, compositors, (microTileArea, accu) -> {
+            out.writeInt(microTileArea.x);
+            out.writeInt(microTileArea.y);
+            out.writeInt(microTileArea.width);
+            out.writeInt(microTileArea.height);
+            for (int b = 0; b < NUM_TARGET_BANDS; b++) {
+                new BandTileWritable(accu[b]).write(out);
+            }
+        });
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return status band, 5 count bands and 4 float bands, the last one NDVI, of random weekly products
+     */
+    private static List<MultiLevelImage[]> createBandImages(int numProducts, int size) {
+        final Random random = new Random(42);
+        final short[] states = {0, 1, 2, 3, 4, 5, 11, 12, 14, 15};
+        final List<MultiLevelImage[]> bandImages = new ArrayList<>();
+        for (int p = 0; p < numProducts; p++) {
+            final Product product = new Product("week" + p, "SR", size, size);
+            final MultiLevelImage[] bandImage = new MultiLevelImage[NUM_SOURCE_BANDS];
+            for (int b = 0; b < NUM_SOURCE_BANDS; b++) {
+                final Band band;
+                if (b < 6) {
+                    final short[] data = new short[size * size];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = b == 0 ? states[random.nextInt(states.length)] : (short) random.nextInt(4);
+                    }
+                    band = product.addBand("b" + b, ProductData.TYPE_INT16);
+                    band.setRasterData(ProductData.createInstance(data));
+                } else {
+                    final float[] data = new float[size * size];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = random.nextInt(20) == 0 ? Float.NaN : b == 9 ? 1.1f * random.nextFloat() - 0.2f : random.nextFloat();
+                    }
+                    band = product.addBand("b" + b, ProductData.TYPE_FLOAT32);
+                    band.setRasterData(ProductData.createInstance(data));
+                }
+                bandImage[b] = band.getGeophysicalImage();
+            }
+            bandImages.add(bandImage);
+        }
+        return bandImages;
+    }
 }
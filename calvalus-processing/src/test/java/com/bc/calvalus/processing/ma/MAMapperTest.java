@@ -4,7 +4,6 @@ import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.hadoop.ProductSplit;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
@@ -46,7 +45,7 @@ public class MAMapperTest {
 
     @Test
     public void testMatchUp_WindowSize3() throws Exception {
-        final List<RecordWritable> collectedMatchUps = new ArrayList<RecordWritable>();
+        final List<MatchUpWritable> collectedMatchUps = new ArrayList<MatchUpWritable>();
 
         executeMatchup(collectedMatchUps, 3, false, true);
 
@@ -62,7 +61,7 @@ public class MAMapperTest {
 
     @Test
     public void testMatchUp_WindowSize3_extractPartial() throws Exception {
-        final List<RecordWritable> collectedMatchUps = new ArrayList<RecordWritable>();
+        final List<MatchUpWritable> collectedMatchUps = new ArrayList<MatchUpWritable>();
 
         executeMatchup(collectedMatchUps, 3, false, false);
 
@@ -80,11 +79,11 @@ public class MAMapperTest {
 
     @Test
     public void testMatchUp_WindowSize3_FilterOverlapping() throws Exception {
-        final List<RecordWritable> collectedMatchUps = new ArrayList<RecordWritable>();
+        final List<MatchUpWritable> collectedMatchUps = new ArrayList<MatchUpWritable>();
 
         executeMatchup(collectedMatchUps, 3, true, true);
 
-//        for (RecordWritable collectedMatchUp : collectedMatchUps) {
+//        for (MatchUpWritable collectedMatchUp : collectedMatchUps) {
 //            System.out.println("collectedMatchUp = " + collectedMatchUp);
 //        }
         assertEquals(6, collectedMatchUps.size());
@@ -99,11 +98,11 @@ public class MAMapperTest {
 
     @Test
     public void testMatchUp_WindowSize1_FilterOverlapping() throws Exception {
-        final List<RecordWritable> collectedMatchUps = new ArrayList<RecordWritable>();
+        final List<MatchUpWritable> collectedMatchUps = new ArrayList<MatchUpWritable>();
 
         executeMatchup(collectedMatchUps, 1, true, true);
 
-//        for (RecordWritable collectedMatchUp : collectedMatchUps) {
+//        for (MatchUpWritable collectedMatchUp : collectedMatchUps) {
 //            System.out.println("collectedMatchUp = " + collectedMatchUp);
 //        }
         assertEquals(7, collectedMatchUps.size());
@@ -119,7 +118,7 @@ public class MAMapperTest {
 
     @Test
     public void testMatchUp_WindowSize5() throws Exception {
-        final List<RecordWritable> collectedMatchUps = new ArrayList<RecordWritable>();
+        final List<MatchUpWritable> collectedMatchUps = new ArrayList<MatchUpWritable>();
 
         executeMatchup(collectedMatchUps, 5, false, true);
 
@@ -133,17 +132,17 @@ public class MAMapperTest {
         testMatchUp(collectedMatchUps, 5);
     }
 
-    private void testMatchUp(List<RecordWritable> collectedMatchUps, int matchUpIndex) {
+    private void testMatchUp(List<MatchUpWritable> collectedMatchUps, int matchUpIndex) {
         testMatchUp(collectedMatchUps, matchUpIndex, "");
     }
 
-    private void testMatchUp(List<RecordWritable> collectedMatchUps, int matchUpIndex, String expectedReason) {
+    private void testMatchUp(List<MatchUpWritable> collectedMatchUps, int matchUpIndex, String expectedReason) {
         int xColumn = 2;
         int yColumn = 3;
         int rad1Column = 6;
 
         float[] expectedData = expectedMatchups.get(matchUpIndex);
-        RecordWritable actualRecord = collectedMatchUps.get(matchUpIndex);
+        MatchUpWritable actualRecord = collectedMatchUps.get(matchUpIndex);
         assertEquals(expectedData[0], getCenterMatchupValue(actualRecord, xColumn), 1.0e-6f);
         assertEquals(expectedData[1], getCenterMatchupValue(actualRecord, yColumn), 1.0e-6f);
         assertEquals(expectedData[2], getCenterMatchupValue(actualRecord, rad1Column), 1.0e-6f);
@@ -152,7 +151,7 @@ public class MAMapperTest {
         assertEquals(expectedReason, actualReason);
     }
 
-    private void executeMatchup(final List<RecordWritable> collectedMatchups, int macroPixelSize, boolean filterOverlapping, boolean onlyExtractComplete) throws Exception {
+    private void executeMatchup(final List<MatchUpWritable> collectedMatchups, int macroPixelSize, boolean filterOverlapping, boolean onlyExtractComplete) throws Exception {
         MAMapper mapper = new MAMapper();
 
         Mapper.Context context = Mockito.mock(Mapper.Context.class);
@@ -166,8 +165,8 @@ public class MAMapperTest {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
                 Object[] args = invocation.getArguments();
-                Text key = (Text) args[0];
-                RecordWritable value = (RecordWritable) args[1];
+                MatchUpKey key = (MatchUpKey) args[0];
+                MatchUpWritable value = (MatchUpWritable) args[1];
                 //if (key.toString().endsWith("MER_RR__1P_TEST")) {
                 if (! key.toString().startsWith("#")) {
                     collectedMatchups.add(value);
@@ -175,7 +174,7 @@ public class MAMapperTest {
                 return null;
             }
         };
-        Mockito.doAnswer(recordAnswer).when(context).write(Mockito.any(Text.class), Mockito.any(RecordWritable.class));
+        Mockito.doAnswer(recordAnswer).when(context).write(Mockito.any(MatchUpKey.class), Mockito.any(MatchUpWritable.class));
         Configuration jobConf = new Configuration(true);
         MAConfig maConfig = new MAConfig();
         final String url = MAMapperTest.class.getResource("MER_RR__1P_TEST_MA-Data.txt").toExternalForm();
@@ -193,7 +192,7 @@ public class MAMapperTest {
         mapper.run(context);
     }
 
-    private float getCenterMatchupValue(RecordWritable record, int columnIndex) {
+    private float getCenterMatchupValue(MatchUpWritable record, int columnIndex) {
         Object attrValue = record.getAttributeValues()[columnIndex];
         if (attrValue instanceof AggregatedNumber) {
             AggregatedNumber aggregatedNumber = (AggregatedNumber) attrValue;
@@ -205,7 +204,7 @@ public class MAMapperTest {
         throw new IllegalArgumentException();
     }
 
-    private AggregatedNumber getAggregatedNumber(RecordWritable record, int columnIndex) {
+    private AggregatedNumber getAggregatedNumber(MatchUpWritable record, int columnIndex) {
         return (AggregatedNumber) record.getAttributeValues()[columnIndex];
     }
 
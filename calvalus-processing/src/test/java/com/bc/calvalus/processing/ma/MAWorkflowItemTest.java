@@ -20,7 +20,6 @@ import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.hadoop.HadoopProcessingService;
 import com.bc.calvalus.JobClientsMap;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
@@ -53,8 +52,8 @@ public class MAWorkflowItemTest {
         maWorkflowItem.configureJob(job);
 
         assertSame(MAMapper.class, job.getMapperClass());
-        assertSame(Text.class, job.getMapOutputKeyClass());
-        assertSame(RecordWritable.class, job.getMapOutputValueClass());
+        assertSame(MatchUpKey.class, job.getMapOutputKeyClass());
+        assertSame(MatchUpWritable.class, job.getMapOutputValueClass());
 
         assertSame(SequenceFileOutputFormat.class, job.getOutputFormatClass());
         assertEquals("out_004", FileOutputFormat.getOutputPath(job).getName());
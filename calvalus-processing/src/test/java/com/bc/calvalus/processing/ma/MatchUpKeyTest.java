@@ -0,0 +1,81 @@
+package com.bc.calvalus.processing.ma;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MatchUpKeyTest {
+
+    private static final int OFFSET = 3;
+
+    @Test
+    public void testToString() throws Exception {
+        assertEquals("#", MatchUpKey.createHeaderKey(null).toString());
+        assertEquals("#_MER_RR", MatchUpKey.createHeaderKey("MER_RR").toString());
+        assertEquals("000042_MER_RR", MatchUpKey.createRecordKey(42, "MER_RR").toString());
+        assertEquals("1234567_MER_RR", MatchUpKey.createRecordKey(1234567, "MER_RR").toString());
+        assertEquals("-00042_MER_RR", MatchUpKey.createRecordKey(-42, "MER_RR").toString());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        for (MatchUpKey key : createKeys()) {
+            DataOutputBuffer out = new DataOutputBuffer();
+            key.write(out);
+            MatchUpKey copy = new MatchUpKey();
+            copy.readFields(new DataInputStream(new ByteArrayInputStream(out.getData(), 0, out.getLength())));
+            assertEquals(key, copy);
+            assertEquals(key.toString(), copy.toString());
+            assertEquals(key.isHeader(), copy.isHeader());
+        }
+    }
+
+    @Test
+    public void testOrderIsOrderOfTextKeys() throws Exception {
+        List<MatchUpKey> keys = createKeys();
+        WritableComparator comparator = WritableComparator.get(MatchUpKey.class);
+        assertTrue(comparator instanceof MatchUpKey.Comparator);
+        for (MatchUpKey key1 : keys) {
+            byte[] bytes1 = serialize(key1);
+            for (MatchUpKey key2 : keys) {
+                byte[] bytes2 = serialize(key2);
+                int expected = Integer.signum(new Text(key1.toString()).compareTo(new Text(key2.toString())));
+                String message = key1 + " vs " + key2;
+                assertEquals(message, expected, Integer.signum(key1.compareTo(key2)));
+                assertEquals(message, expected, Integer.signum(comparator.compare(bytes1, OFFSET, bytes1.length - OFFSET,
+                                                                                  bytes2, OFFSET, bytes2.length - OFFSET)));
+            }
+        }
+    }
+
+    private static List<MatchUpKey> createKeys() {
+        List<MatchUpKey> keys = new ArrayList<>();
+        keys.add(MatchUpKey.createHeaderKey(null));
+        for (String productName : new String[]{"", "A", "MER_RR__1P", "MER_RR__1P_2", "S2A_\u00e4\u00f6"}) {
+            keys.add(MatchUpKey.createHeaderKey(productName));
+            for (int id : new int[]{0, 1, 9, 10, 42, 99999, 100000, 999999, 1000000, 1234567, Integer.MAX_VALUE,
+                                    -1, -42, -100000, Integer.MIN_VALUE}) {
+                keys.add(MatchUpKey.createRecordKey(id, productName));
+            }
+        }
+        return keys;
+    }
+
+    private static byte[] serialize(MatchUpKey key) throws IOException {
+        // at an offset, as in the sort buffer
+        DataOutputBuffer out = new DataOutputBuffer();
+        out.write(new byte[OFFSET]);
+        key.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+}
@@ -0,0 +1,84 @@
+package com.bc.calvalus.processing.ma;
+
+import org.apache.hadoop.io.Writable;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class MatchUpWritableTest {
+
+    private static final Object[] VALUES = {
+            "Benguela",
+            76432,
+            -2.14,
+            new Date(1313740506645L),
+            null,
+            Double.NaN,
+            1,
+            2L,
+            3.0F,
+            null,
+            new AggregatedNumber(15, 25, 5, 0.0, 1.0, 0.5, 0.1),
+            new AggregatedNumber(4, 9, 1, 0.0, 1.0, 3.4, 0.2, new float[]{1, 2, 3, 4, 5, 6, 7, 8, 9}),
+            new AggregatedNumber(4, 9, 1, 0.0, 1.0, 3.5, 0.2, new float[]{9, 8, 7, 6, 5, 4, 3, 2, 1}),
+            null
+    };
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        MatchUpWritable copy = copy(new MatchUpWritable(VALUES, new Object[]{"ALL_MASKED"}), new MatchUpWritable());
+        assertArrayEquals(VALUES, copy.getAttributeValues());
+        assertArrayEquals(new Object[]{"ALL_MASKED"}, copy.getAnnotationValues());
+        assertNull(((AggregatedNumber) copy.getAttributeValues()[10]).data);
+        assertArrayEquals(new float[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, ((AggregatedNumber) copy.getAttributeValues()[11]).data, 0.0F);
+
+        // reusing the arrays of the previous record
+        Object[] attributeValues = copy.getAttributeValues();
+        copy = copy(new MatchUpWritable(VALUES, new Object[0]), copy);
+        assertSame(attributeValues, copy.getAttributeValues());
+        assertArrayEquals(VALUES, copy.getAttributeValues());
+        assertEquals(0, copy.getAnnotationValues().length);
+    }
+
+    @Test
+    public void testWriteAndReadNullsOnly() throws Exception {
+        Object[] values = new Object[17];
+        MatchUpWritable copy = copy(new MatchUpWritable(values, new Object[]{null}), new MatchUpWritable());
+        assertArrayEquals(values, copy.getAttributeValues());
+        assertArrayEquals(new Object[]{null}, copy.getAnnotationValues());
+    }
+
+    @Test
+    public void testSameValuesAsRecordWritableInFewerBytes() throws Exception {
+        Object[] values = new Object[40];
+        values[0] = "site_42";
+        values[1] = new Date(1313740506645L);
+        for (int i = 2; i < values.length; i++) {
+            values[i] = i % 7 == 0 ? null : (double) i;
+        }
+        RecordWritable recordWritable = copy(new RecordWritable(values, new Object[]{""}), new RecordWritable());
+        MatchUpWritable matchUpWritable = copy(new MatchUpWritable(values, new Object[]{""}), new MatchUpWritable());
+        assertArrayEquals(recordWritable.getAttributeValues(), matchUpWritable.getAttributeValues());
+        assertArrayEquals(recordWritable.getAnnotationValues(), matchUpWritable.getAnnotationValues());
+        assertTrue(toBytes(new MatchUpWritable(values, new Object[]{""})).length
+                   < toBytes(new RecordWritable(values, new Object[]{""})).length);
+    }
+
+    private static <T extends Writable> T copy(Writable original, T copy) throws IOException {
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(toBytes(original))));
+        return copy;
+    }
+
+    private static byte[] toBytes(Writable writable) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writable.write(new DataOutputStream(out));
+        return out.toByteArray();
+    }
+}
@@ -28,9 +28,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.bc.calvalus.commons.DateUtils.ISO_FORMAT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class PixelPosProviderTest {
 
@@ -108,6 +115,62 @@ public class PixelPosProviderTest {
         assertDateEquals("2017-04-10T19:00:00", pixelPosProvider.getMaxReferenceTime(record));
     }
     
+    @Test
+    public void testBatchedPixelPosEqualsSingleRecordPixelPos() throws Exception {
+        Product product = new Product("name", "type", 200, 100);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 200, 100, 10.0, 50.0, 0.1, 0.1, 0.0, 0.0));
+
+        // many more records than lookup grid nodes, partly far off the product
+        Random random = new Random(42);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            records.add(RecordUtils.create(new GeoPos(35.0 + 20.0 * random.nextDouble(), 5.0 + 30.0 * random.nextDouble()),
+                                           new Date(0)));
+        }
+        List<PixelPosProvider.PixelPosRecord> expected = new ArrayList<>();
+        PixelPosProvider pixelPosProvider = new PixelPosProvider(product, null, null, false);
+        for (Record record : records) {
+            PixelPosProvider.PixelPosRecord pixelPosRecord = pixelPosProvider.getPixelPosRecord(record);
+            if (pixelPosRecord != null) {
+                expected.add(pixelPosRecord);
+            }
+        }
+        Collections.sort(expected, new PixelPosProvider.YXComparator());
+
+        List<PixelPosProvider.PixelPosRecord> actual;
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            pixelPosProvider = new PixelPosProvider(product, null, null, false, executorService);
+            actual = pixelPosProvider.computePixelPosRecords(records);
+        } finally {
+            executorService.shutdownNow();
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getPixelPos(), actual.get(i).getPixelPos());
+            assertSame(expected.get(i).getRecord(), actual.get(i).getRecord());
+        }
+    }
+
+    @Test
+    public void testGeoLookupGrid() throws Exception {
+        CrsGeoCoding geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, 200, 100, 10.0, 50.0, 0.1, 0.1, 0.0, 0.0);
+        GeoLookupGrid grid = GeoLookupGrid.create(geoCoding, 200, 100);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 200; x++) {
+                GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(x + 0.5, y + 0.5), null);
+                assertTrue(grid.mayContain(geoPos.lat, geoPos.lon));
+            }
+        }
+        assertFalse(grid.mayContain(0.0, 0.0));
+        assertFalse(grid.mayContain(45.0, 40.0));
+        assertFalse(grid.mayContain(30.0, 20.0));
+
+        // a global product covers the anti-meridian, hence no grid
+        geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, 360, 180, -180.0, 90.0, 1, 1, 0.0, 0.0);
+        assertNull(GeoLookupGrid.create(geoCoding, 360, 180));
+    }
+
     private static void assertDateEquals(String expected, long time) {
         assertEquals(expected, ISO_FORMAT.format(new Date(time)));
     }
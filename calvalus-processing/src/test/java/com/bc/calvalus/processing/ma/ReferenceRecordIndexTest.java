@@ -0,0 +1,161 @@
+package com.bc.calvalus.processing.ma;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.Product;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReferenceRecordIndexTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long T0 = 1262304000000L; // 2010-01-01
+
+    private DefaultRecordSource recordSource;
+
+    @Before
+    public void setUp() throws Exception {
+        recordSource = new DefaultRecordSource(new DefaultHeader(true, true, new String[]{"site", "chl"}, new String[]{"reason"}));
+        addRecord(1, 53.5, 10.0, T0, "hamburg");
+        addRecord(2, -33.9, 18.4, T0 + 10 * DAY, "cape town");
+        addRecord(3, 53.6, 10.1, T0 + 10 * DAY, "hamburg 2");
+        addRecord(4, 53.4, 9.9, -1, "hamburg no time");
+        recordSource.addRecord(new DefaultRecord(5, null, new Date(T0), new Object[]{"nowhere", 1.0}, new Object[]{""}));
+        addRecord(6, 64.1, -21.9, T0 + DAY, "reykjavik");
+        addRecord(7, 53.5, 10.0, T0 + DAY / 2, "hamburg 3");
+    }
+
+    @Test
+    public void testAllRecordsInOriginalOrder() throws Exception {
+        ReferenceRecordIndex index = writeAndOpen();
+
+        assertEquals(true, index.getHeader().hasLocation());
+        assertEquals(true, index.getHeader().hasTime());
+        assertArrayEquals(new String[]{"site", "chl"}, index.getHeader().getAttributeNames());
+        assertArrayEquals(new String[]{"reason"}, index.getHeader().getAnnotationNames());
+
+        List<Record> records = toList(index.query((double[]) null, null));
+        assertEquals("[1, 2, 3, 4, 6, 7]", ids(records));
+        Record record = records.get(1);
+        assertEquals(-33.9, record.getLocation().lat, 0.0);
+        assertEquals(18.4, record.getLocation().lon, 0.0);
+        assertEquals(new Date(T0 + 10 * DAY), record.getTime());
+        assertArrayEquals(new Object[]{"cape town", 2.0}, record.getAttributeValues());
+        assertArrayEquals(new Object[]{""}, record.getAnnotationValues());
+        assertNull(records.get(3).getTime());
+    }
+
+    @Test
+    public void testQueryArea() throws Exception {
+        ReferenceRecordIndex index = writeAndOpen();
+
+        assertEquals("[1, 3, 4, 7]", ids(toList(index.query(new double[]{53.0, 54.0, 9.0, 11.0}, null))));
+        assertEquals("[6]", ids(toList(index.query(new double[]{63.0, 66.0, -25.0, -20.0}, null))));
+        assertEquals("[]", ids(toList(index.query(new double[]{0.0, 1.0, 0.0, 1.0}, null))));
+    }
+
+    @Test
+    public void testQueryTimeRange() throws Exception {
+        ReferenceRecordIndex index = writeAndOpen();
+
+        // records without time are always returned
+        assertEquals("[1, 4, 7]", ids(toList(index.query(new double[]{53.0, 54.0, 9.0, 11.0}, new long[]{T0, T0 + 3 * DAY}))));
+        assertEquals("[3, 4]", ids(toList(index.query(new double[]{53.0, 54.0, 9.0, 11.0}, new long[]{T0 + 9 * DAY, T0 + 11 * DAY}))));
+        assertEquals("[2, 3, 4]", ids(toList(index.query((double[]) null, new long[]{T0 + 10 * DAY, T0 + 10 * DAY}))));
+    }
+
+    @Test
+    public void testGeoBoundsWithMacroPixelMargin() throws Exception {
+        Product product = new Product("test", "test", 100, 100);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 100, 100, 10.0, 54.0, 0.01, 0.01, 0.0, 0.0));
+
+        // border samples from 53.005 to 54.0 and 10.0 to 10.995, margin of 2 + 1 pixels of 0.01 degrees
+        double[] bounds = ReferenceRecordIndex.getGeoBounds(product, 5);
+        assertArrayEquals(new double[]{52.975, 54.03, 9.97, 11.025}, bounds, 1e-9);
+        bounds = ReferenceRecordIndex.getGeoBounds(product, 1);
+        assertArrayEquals(new double[]{52.995, 54.01, 9.99, 11.005}, bounds, 1e-9);
+        assertNull(ReferenceRecordIndex.getGeoBounds(new Product("test", "test", 100, 100), 5));
+    }
+
+    private void addRecord(int id, double lat, double lon, long time, String site) {
+        recordSource.addRecord(new DefaultRecord(id, new GeoPos(lat, lon), time >= 0 ? new Date(time) : null,
+                                                 new Object[]{site, (double) id}, new Object[]{""}));
+    }
+
+    private ReferenceRecordIndex writeAndOpen() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(6, ReferenceRecordIndex.write(recordSource, out));
+        byte[] bytes = out.toByteArray();
+        return ReferenceRecordIndex.open(new FSDataInputStream(new SeekableByteArrayInputStream(bytes)), bytes.length);
+    }
+
+    private static List<Record> toList(RecordSource recordSource) throws Exception {
+        List<Record> records = new ArrayList<>();
+        for (Record record : recordSource.getRecords()) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static String ids(List<Record> records) {
+        List<Integer> ids = new ArrayList<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids.toString();
+    }
+
+    private static class SeekableByteArrayInputStream extends ByteArrayInputStream implements Seekable, PositionedReadable {
+
+        SeekableByteArrayInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void seek(long position) {
+            pos = (int) position;
+        }
+
+        @Override
+        public long getPos() {
+            return pos;
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) {
+            return false;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) {
+            int n = Math.min(length, count - (int) position);
+            System.arraycopy(buf, (int) position, buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
+            if (read(position, buffer, offset, length) < length) {
+                throw new IOException("end of stream");
+            }
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer) throws IOException {
+            readFully(position, buffer, 0, buffer.length);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.bc.calvalus.processing.mosaic;
+
+import com.bc.calvalus.processing.hadoop.FloatArrayCodec;
+import com.bc.calvalus.processing.hadoop.WritableUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.CompressedWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.NativeCodeLoader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures size and encode/decode time of {@link TileDataWritable}s written by the {@link FloatArrayCodec}s
+ * compared to the {@link CompressedWritable} used before. Not run as part of the tests.
+ * <p>
+ * Usage: TileDataCodecBenchmarkMain [mosaic part file ...]
+ * <p>
+ * The tiles are read from the given sequence files, e.g. the part files of an LC mosaic, or are generated,
+ * with partly covered tiles and bands of NaN only.
+ */
+public class TileDataCodecBenchmarkMain {
+
+    private static final int NUM_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        List<float[][]> tiles = args.length > 0 ? readTiles(args) : createTiles();
+        List<FloatArrayCodec.Compression> compressions = new ArrayList<>();
+        compressions.add(FloatArrayCodec.Compression.NONE);
+        compressions.add(FloatArrayCodec.Compression.DEFLATE);
+        if (NativeCodeLoader.isNativeCodeLoaded()) {
+            compressions.add(FloatArrayCodec.Compression.LZ4);
+            compressions.add(FloatArrayCodec.Compression.ZSTD);
+        }
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            List<Writable> formerTiles = new ArrayList<>();
+            for (float[][] tile : tiles) {
+                formerTiles.add(new FormerTileDataWritable(tile));
+            }
+            benchmark("CompressedWritable", formerTiles, new FormerTileDataWritable(null));
+            for (FloatArrayCodec.Compression compression : compressions) {
+                List<Writable> codecTiles = new ArrayList<>();
+                for (float[][] tile : tiles) {
+                    codecTiles.add(new TileDataWritable(tile, FloatArrayCodec.get(compression)));
+                }
+                benchmark(compression.name(), codecTiles, new TileDataWritable());
+            }
+            System.out.println();
+        }
+    }
+
+    private static void benchmark(String name, List<Writable> tiles, Writable reader) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        long rawSize = 0;
+        long t0 = System.nanoTime();
+        for (Writable tile : tiles) {
+            tile.write(out);
+        }
+        long t1 = System.nanoTime();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        for (int i = 0; i < tiles.size(); i++) {
+            reader.readFields(in);
+            float[][] samples = reader instanceof TileDataWritable ? ((TileDataWritable) reader).getSamples() : ((FormerTileDataWritable) reader).getSamples();
+            rawSize += 4L * samples.length * samples[0].length;
+        }
+        long t2 = System.nanoTime();
+        System.out.printf("%-20s size %6.2f %% of raw  encode %7.1f MB/s  decode %7.1f MB/s%n",
+                          name, 100.0 * out.getLength() / rawSize,
+                          rawSize / 1.0e6 / ((t1 - t0) / 1.0e9),
+                          rawSize / 1.0e6 / ((t2 - t1) / 1.0e9));
+    }
+
+    private static List<float[][]> readTiles(String[] paths) throws IOException {
+        Configuration conf = new Configuration();
+        List<float[][]> tiles = new ArrayList<>();
+        for (String path : paths) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(new Path(path)))) {
+                TileIndexWritable key = new TileIndexWritable();
+                while (true) {
+                    TileDataWritable value = new TileDataWritable();
+                    if (!reader.next(key, value)) {
+                        break;
+                    }
+                    tiles.add(value.getSamples());
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static List<float[][]> createTiles() {
+        int tileSize = 360;
+        int numBands = 12;
+        Random random = new Random(42);
+        List<float[][]> tiles = new ArrayList<>();
+        for (int t = 0; t < 50; t++) {
+            // the area covered by a swath, with some cloud gaps
+            double edge = random.nextDouble() * tileSize * 1.5;
+            double slope = random.nextDouble() - 0.5;
+            float[][] tile = new float[numBands][tileSize * tileSize];
+            for (int b = 0; b < numBands; b++) {
+                boolean allNaN = b >= numBands - 2;
+                for (int y = 0; y < tileSize; y++) {
+                    for (int x = 0; x < tileSize; x++) {
+                        boolean covered = x < edge + slope * y && random.nextInt(10) > 0;
+                        tile[b][y * tileSize + x] = covered && !allNaN ? (float) (0.05 + 0.01 * b + 0.02 * Math.sin(x * 0.05) * Math.cos(y * 0.03) + 0.001 * random.nextGaussian()) : Float.NaN;
+                    }
+                }
+            }
+            tiles.add(tile);
+        }
+        return tiles;
+    }
+
+    /**
+     * The format written before, as a {@link CompressedWritable} of the raw floats.
+     */
+    private static class FormerTileDataWritable extends CompressedWritable {
+
+        private float[][] sampleValues;
+
+        FormerTileDataWritable(float[][] sampleValues) {
+            this.sampleValues = sampleValues;
+        }
+
+        float[][] getSamples() {
+            ensureInflated();
+            return sampleValues;
+        }
+
+        @Override
+        protected void writeCompressed(DataOutput out) throws IOException {
+            out.writeInt(sampleValues.length);
+            out.writeInt(sampleValues[0].length);
+            byte[] byteBuffer = new byte[sampleValues[0].length * 4];
+            for (float[] array1D : sampleValues) {
+                WritableUtils.convertFloatToByte(array1D, byteBuffer);
+                out.write(byteBuffer);
+            }
+        }
+
+        @Override
+        protected void readFieldsCompressed(DataInput in) throws IOException {
+            int numBands = in.readInt();
+            int numElems = in.readInt();
+            if (sampleValues == null || sampleValues.length != numBands || sampleValues[0].length != numElems) {
+                sampleValues = new float[numBands][numElems];
+            }
+            byte[] byteBuffer = new byte[numElems * 4];
+            for (float[] array1D : sampleValues) {
+                in.readFully(byteBuffer);
+                WritableUtils.convertByteToFloat(byteBuffer, array1D);
+            }
+        }
+    }
+}
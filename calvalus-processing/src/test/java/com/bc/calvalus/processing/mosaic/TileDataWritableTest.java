@@ -0,0 +1,122 @@
+package com.bc.calvalus.processing.mosaic;
+
+import com.bc.calvalus.processing.hadoop.FloatArrayCodec;
+import com.bc.calvalus.processing.hadoop.WritableUtils;
+import org.apache.hadoop.io.CompressedWritable;
+import org.apache.hadoop.io.Writable;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TileDataWritableTest {
+
+    private static final float[][] SAMPLES = {
+            {Float.NaN, Float.NaN, Float.NaN, Float.NaN},
+            {1.5f, Float.NaN, -2.5f, 0.0f},
+            {1.0f, 2.0f, 3.0f, 4.0f}
+    };
+
+    @Test
+    public void testWriteRead() throws Exception {
+        for (FloatArrayCodec.Compression compression : FloatArrayCodec.Compression.values()) {
+            if (compression == FloatArrayCodec.Compression.LZ4 || compression == FloatArrayCodec.Compression.ZSTD) {
+                // require the native Hadoop library
+                continue;
+            }
+            TileDataWritable tileData = new TileDataWritable();
+            readFields(tileData, write(new TileDataWritable(SAMPLES, FloatArrayCodec.get(compression))));
+            assertSamples(tileData.getSamples());
+        }
+    }
+
+    @Test
+    public void testReadFormerCompressedWritable() throws Exception {
+        TileDataWritable tileData = new TileDataWritable();
+        readFields(tileData, write(new FormerTileDataWritable(SAMPLES)));
+        assertSamples(tileData.getSamples());
+
+        // reused for the next value
+        readFields(tileData, write(new TileDataWritable(SAMPLES)));
+        assertSamples(tileData.getSamples());
+    }
+
+    @Test
+    public void testProcessSamples() throws Exception {
+        TileDataWritable tileData = new TileDataWritable();
+        readFields(tileData, write(new TileDataWritable(SAMPLES)));
+        float[][] samples = new float[SAMPLES.length][];
+        tileData.processSamples((band, bandSamples) -> samples[band] = bandSamples.clone());
+        assertSamples(samples);
+
+        // and once decoded
+        assertSamples(tileData.getSamples());
+        tileData.processSamples((band, bandSamples) -> samples[band] = bandSamples);
+        assertSamples(samples);
+    }
+
+    @Test
+    public void testWriteUndecoded() throws Exception {
+        byte[] bytes = write(new TileDataWritable(SAMPLES));
+        TileDataWritable tileData = new TileDataWritable();
+        readFields(tileData, bytes);
+        assertArrayEquals(bytes, write(tileData));
+
+        TileDataWritable copy = new TileDataWritable();
+        readFields(copy, write(tileData));
+        assertSamples(copy.getSamples());
+    }
+
+    private static void assertSamples(float[][] samples) {
+        assertEquals(SAMPLES.length, samples.length);
+        for (int i = 0; i < SAMPLES.length; i++) {
+            assertArrayEquals(SAMPLES[i], samples[i], 0.0f);
+        }
+    }
+
+    private static byte[] write(Writable writable) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writable.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static void readFields(Writable writable, byte[] bytes) throws IOException {
+        writable.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * The format written by former versions.
+     */
+    private static class FormerTileDataWritable extends CompressedWritable {
+
+        private final float[][] sampleValues;
+
+        FormerTileDataWritable(float[][] sampleValues) {
+            this.sampleValues = sampleValues;
+        }
+
+        @Override
+        protected void writeCompressed(DataOutput out) throws IOException {
+            out.writeInt(sampleValues.length);
+            out.writeInt(sampleValues[0].length);
+            byte[] byteBuffer = new byte[sampleValues[0].length * 4];
+            for (float[] array1D : sampleValues) {
+                WritableUtils.convertFloatToByte(array1D, byteBuffer);
+                out.write(byteBuffer);
+            }
+        }
+
+        @Override
+        protected void readFieldsCompressed(DataInput in) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
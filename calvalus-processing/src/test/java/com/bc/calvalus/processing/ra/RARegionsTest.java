@@ -25,6 +25,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class RARegionsTest {
     
@@ -39,6 +41,16 @@ public class RARegionsTest {
 
     }
 
+    @Test
+    public void test_isShapefileFile() throws Exception {
+        assertTrue(RARegions.isShapefileFile("Grid_LAEA5210_100K_polygons_BalticExtract.shp"));
+        assertTrue(RARegions.isShapefileFile("regions/lakes.DBF"));
+        assertTrue(RARegions.isShapefileFile("lakes.sbx"));
+        assertFalse(RARegions.isShapefileFile("Grid_LAEA5210_100K_polygons_BalticExtract.shp.xml"));
+        assertFalse(RARegions.isShapefileFile("regions.shp/readme"));
+        assertFalse(RARegions.isShapefileFile("regions/"));
+    }
+
     @Test
     public void test_iterateOverRegions() throws IOException {
         Configuration conf = new Configuration();
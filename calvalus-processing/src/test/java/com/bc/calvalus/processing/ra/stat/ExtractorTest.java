@@ -39,6 +39,29 @@ public class ExtractorTest {
 
     @Test
     public void testExtract() throws Exception {
+        List<Result> results = extract(1);
+
+        assertEquals(5, results.size());
+        testResultRecord(results.get(0), 65, 65);
+        testResultRecord(results.get(1), 200, 200);
+        testResultRecord(results.get(2), 108, 108);
+        testResultRecord(results.get(3), 200, 0);
+        testResultRecord(results.get(4), 1, 0);
+    }
+
+    @Test
+    public void testExtractMultiThreaded() throws Exception {
+        List<Result> results = extract(4);
+
+        assertEquals(5, results.size());
+        testResultRecord(results.get(0), 65, 65);
+        testResultRecord(results.get(1), 200, 200);
+        testResultRecord(results.get(2), 108, 108);
+        testResultRecord(results.get(3), 200, 0);
+        testResultRecord(results.get(4), 1, 0);
+    }
+
+    private static List<Result> extract(int numThreads) throws Exception {
         Product product = new Product("t", "d", 360, 180);
         product.setPreferredTileSize(20, 10);
         product.addBand("x", "X");
@@ -66,14 +89,9 @@ public class ExtractorTest {
                 results.add(new Result(regionIndex, regionName, time, numObs, samples));
             }
         };
+        extractor.setNumThreads(numThreads);
         extractor.extract(ProgressMonitor.NULL);
-
-        assertEquals(5, results.size());
-        testResultRecord(results.get(0), 65, 65);
-        testResultRecord(results.get(1), 200, 200);
-        testResultRecord(results.get(2), 108, 108);
-        testResultRecord(results.get(3), 200, 0);
-        testResultRecord(results.get(4), 1, 0);
+        return results;
     }
 
     public void testResultRecord(Result result, int numObs, int numValid) {
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void testValues() throws Exception {
+        float[] values = {-1000f, -2.5f, -0.001f, 0f, 0f, 1e-35f, 0.001f, 1f, 3f, 42f, 1e20f};
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(Float.NaN);
+        for (int i = values.length - 1; i >= 0; i--) {
+            sketch.add(values[i]);
+        }
+        assertEquals(values.length, sketch.getCount());
+        for (int rank = 0; rank < values.length; rank++) {
+            // values closer to zero than the minimum magnitude are counted as zero
+            double tolerance = Math.max(Math.abs(values[rank]) * QuantileSketch.RELATIVE_ACCURACY, QuantileSketch.MIN_MAGNITUDE);
+            assertEquals(values[rank], sketch.getValue(rank), tolerance);
+        }
+    }
+
+    @Test
+    public void testMergeWritten() throws Exception {
+        QuantileSketch sketch1 = new QuantileSketch();
+        QuantileSketch sketch2 = new QuantileSketch();
+        QuantileSketch all = new QuantileSketch();
+        for (int i = 1; i <= 1000; i++) {
+            float value = (i % 2 == 0 ? 1 : -1) * i * 0.37f;
+            (i % 3 == 0 ? sketch1 : sketch2).add(value);
+            all.add(value);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch1.write(new DataOutputStream(bytes));
+        sketch2.merge(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(all.getCount(), sketch2.getCount());
+        for (int rank = 0; rank < all.getCount(); rank++) {
+            assertEquals(all.getValue(rank), sketch2.getValue(rank), 0.0);
+        }
+    }
+}
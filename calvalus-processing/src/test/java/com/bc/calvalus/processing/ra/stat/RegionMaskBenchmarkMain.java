@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+/**
+ * Measures the rasterization of regions by {@link RegionMask} compared to testing every pixel against
+ * the geometry, as the {@link Extractor} did before, on a product of the size of a Sentinel-2 MSI tile
+ * at 10 m. Not run as part of the tests.
+ * <p>
+ * Usage: RegionMaskBenchmarkMain [numRegions [maxRadius]]
+ */
+public class RegionMaskBenchmarkMain {
+
+    private static final int SIZE = 10980;
+    private static final double PIXEL_SIZE = 0.0001;
+
+    public static void main(String[] args) throws Exception {
+        int numRegions = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int maxRadius = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        GeoCoding geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, SIZE, SIZE, 10.0, 50.0, PIXEL_SIZE, PIXEL_SIZE, 0.0, 0.0);
+        GeometryFactory geometryFactory = new GeometryFactory();
+        Random random = new Random(42);
+        Geometry[] regions = new Geometry[numRegions];
+        Rectangle[] pixelRects = new Rectangle[numRegions];
+        for (int i = 0; i < numRegions; i++) {
+            double radius = 10 + random.nextDouble() * (maxRadius - 10);
+            double centreX = radius + random.nextDouble() * (SIZE - 2 * radius);
+            double centreY = radius + random.nextDouble() * (SIZE - 2 * radius);
+            int numVertices = 3 + random.nextInt(60);
+            Coordinate[] coordinates = new Coordinate[numVertices + 1];
+            for (int k = 0; k < numVertices; k++) {
+                double angle = 2 * Math.PI * k / numVertices;
+                double r = radius * (0.3 + 0.7 * random.nextDouble());
+                GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(centreX + r * Math.cos(angle), centreY + r * Math.sin(angle)), null);
+                coordinates[k] = new Coordinate(geoPos.lon, geoPos.lat);
+            }
+            coordinates[numVertices] = coordinates[0];
+            regions[i] = geometryFactory.createPolygon(coordinates);
+            pixelRects[i] = new Rectangle((int) (centreX - radius), (int) (centreY - radius), (int) (2 * radius) + 2, (int) (2 * radius) + 2)
+                    .intersection(new Rectangle(SIZE, SIZE));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long numPixels = 0;
+            long numDifferences = 0;
+            long testingNanos = 0;
+            long rasterizingNanos = 0;
+            for (int i = 0; i < numRegions; i++) {
+                PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(regions[i]);
+                long t0 = System.nanoTime();
+                RegionMask expected = RegionMask.createByTesting(preparedGeometry, geoCoding, pixelRects[i]);
+                long t1 = System.nanoTime();
+                RegionMask regionMask = RegionMask.create(regions[i], preparedGeometry, geoCoding, pixelRects[i]);
+                long t2 = System.nanoTime();
+                testingNanos += t1 - t0;
+                rasterizingNanos += t2 - t1;
+                Rectangle rect = pixelRects[i];
+                for (int y = rect.y; y < rect.y + rect.height; y++) {
+                    for (int x = rect.x; x < rect.x + rect.width; x++) {
+                        if (expected.contains(x, y) != regionMask.contains(x, y)) {
+                            numDifferences++;
+                        }
+                    }
+                }
+                numPixels += (long) rect.width * rect.height;
+            }
+            System.out.printf("%d regions, %d pixels  testing %8.1f ms  rasterizing %8.1f ms  (%d differences)%n",
+                              numRegions, numPixels, testingNanos / 1.0e6, rasterizingNanos / 1.0e6, numDifferences);
+        }
+    }
+}
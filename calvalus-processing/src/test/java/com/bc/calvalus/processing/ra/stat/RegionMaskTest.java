@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package com.bc.calvalus.processing.ra.stat;
+
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.WKTReader;
+
+import java.awt.Rectangle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionMaskTest {
+
+    private static final String NORTH_SEA_WKT = "polygon((-19.94 40.00, 0.00 40.00, 0.00 49.22, 12.99 53.99, 13.06 65.00, 0.00 65.00, 0.0 60.00, -20.00 60.00, -19.94 40.00))";
+
+    @Test
+    public void testPolygon() throws Exception {
+        GeoCoding geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, 360, 180, -180.0, 90.0, 1, 1, 0.0, 0.0);
+        RegionMask regionMask = assertSameAsTesting(NORTH_SEA_WKT, geoCoding, new Rectangle(150, 20, 50, 40));
+        assertEquals(574, regionMask.getNumPixels());
+        assertTrue(regionMask.contains(170, 40));
+        assertFalse(regionMask.contains(190, 40));
+    }
+
+    @Test
+    public void testPolygonsWithHoles() throws Exception {
+        // 0.01 degree pixels
+        GeoCoding geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, 1000, 1000, 10.0, 55.0, 0.01, 0.01, 0.0, 0.0);
+        assertSameAsTesting("polygon((10.5 54.5, 14.2 54.1, 17.7 50.3, 11.1 46.2, 10.5 54.5), (12.0 52.0, 14.0 51.5, 13.0 50.0, 12.0 52.0))",
+                            geoCoding, new Rectangle(0, 0, 1000, 1000));
+        assertSameAsTesting("multipolygon(((10.05 54.95, 10.95 54.95, 10.95 54.05, 10.05 54.95)), " +
+                            "((15.003 50.003, 15.333 50.001, 15.171 49.777, 15.003 50.003), (15.1 49.95, 15.2 49.95, 15.15 49.9, 15.1 49.95)))",
+                            geoCoding, new Rectangle(0, 0, 1000, 1000));
+        // a region partly outside of the product
+        assertSameAsTesting("polygon((8.0 56.0, 12.5 56.0, 12.5 53.333, 8.0 53.333, 8.0 56.0))",
+                            geoCoding, new Rectangle(0, 0, 250, 167));
+    }
+
+    @Test
+    public void testNonPolygonalGeometry() throws Exception {
+        GeoCoding geoCoding = new CrsGeoCoding(DefaultGeographicCRS.WGS84, 360, 180, -180.0, 90.0, 1, 1, 0.0, 0.0);
+        assertSameAsTesting("linestring(0.0 0.0, 10.0 10.0)", geoCoding, new Rectangle(175, 75, 20, 20));
+    }
+
+    private static RegionMask assertSameAsTesting(String wkt, GeoCoding geoCoding, Rectangle rect) throws Exception {
+        Geometry geometry = new WKTReader().read(wkt);
+        RegionMask regionMask = RegionMask.create(geometry, PreparedGeometryFactory.prepare(geometry), geoCoding, rect);
+        RegionMask expected = RegionMask.createByTesting(PreparedGeometryFactory.prepare(geometry), geoCoding, rect);
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            for (int x = rect.x; x < rect.x + rect.width; x++) {
+                assertEquals("pixel " + x + "," + y, expected.contains(x, y), regionMask.contains(x, y));
+            }
+        }
+        assertEquals(expected.getNumPixels(), regionMask.getNumPixels());
+        return regionMask;
+    }
+}
@@ -18,7 +18,17 @@ package com.bc.calvalus.processing.ra.stat;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class StatisticsTest {
 
@@ -87,6 +97,73 @@ public class StatisticsTest {
         testStat(new Statistics(4, 0.0, 10.0), stat2, histo2, samples2);
     }
 
+    @Test
+    public void test_merge() throws Exception {
+        Random random = new Random(42);
+        float[][] parts = new float[3][];
+        for (int p = 0; p < parts.length; p++) {
+            parts[p] = new float[1000 + 500 * p];
+            for (int i = 0; i < parts[p].length; i++) {
+                parts[p][i] = i % 17 == 0 ? Float.NaN : (float) Math.exp(random.nextGaussian());
+            }
+        }
+        int[] percentiles = {5, 25, 50, 75, 95};
+        Statistics exact = new Statistics(10, 0.0, 5.0, percentiles, false);
+        Statistics merged = new Statistics(10, 0.0, 5.0, percentiles, false, true);
+        Statistics partial = new Statistics(10, 0.0, 5.0, percentiles, false, true);
+        for (float[] part : parts) {
+            exact.process(part);
+            partial.reset();
+            partial.process(part);
+            merged.merge(new DataInputStream(new ByteArrayInputStream(write(partial))));
+        }
+
+        assertEquals(exact.getHistogramRecords(), merged.getHistogramRecords());
+        List<String> exactStat = exact.getStatisticsRecords();
+        List<String> mergedStat = merged.getStatisticsRecords();
+        // numValid, min, max
+        assertEquals(exactStat.subList(0, 3), mergedStat.subList(0, 3));
+        // means, sigma
+        for (int i = 3; i < 6; i++) {
+            assertEquals(Double.parseDouble(exactStat.get(i)), Double.parseDouble(mergedStat.get(i)), 1e-9);
+        }
+        for (int i = 6; i < exactStat.size(); i++) {
+            double expected = Double.parseDouble(exactStat.get(i));
+            assertEquals(expected, Double.parseDouble(mergedStat.get(i)), expected * QuantileSketch.RELATIVE_ACCURACY);
+        }
+    }
+
+    @Test
+    public void test_write_sparse_histogram() throws Exception {
+        Statistics partial = new Statistics(1000, 0.0, 1.0, new int[]{50}, false, true);
+        partial.process(0.25f, 0.5f, 0.5f, 0.75f, 5.0f);
+        byte[] bytes = write(partial);
+        // one byte per empty bin instead of eight
+        assertTrue(bytes.length < 2 * 1000);
+
+        Statistics merged = new Statistics(1000, 0.0, 1.0, new int[]{50}, false, true);
+        merged.merge(new DataInputStream(new ByteArrayInputStream(bytes)));
+        merged.merge(new DataInputStream(new ByteArrayInputStream(bytes)));
+        List<String> histo = merged.getHistogramRecords();
+        // below, above, numBins, low, high, bins
+        assertEquals(1005, histo.size());
+        assertEquals("2", histo.get(1));
+        assertEquals("2", histo.get(5 + 250));
+        assertEquals("4", histo.get(5 + 500));
+        assertEquals("2", histo.get(5 + 750));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_write_exact() throws Exception {
+        write(new Statistics(3, 0.0, 1.0));
+    }
+
+    private static byte[] write(Statistics stat) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stat.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
     private static void testStat(Statistics stat, String[] recordsStat, String[] recordsHisto, float... samples) {
         stat.process(samples);
         Object[] stats = stat.getStatisticsRecords().toArray();
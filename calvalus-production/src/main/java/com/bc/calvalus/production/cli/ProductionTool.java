@@ -4,6 +4,7 @@ import com.bc.calvalus.commons.ProcessState;
 import com.bc.calvalus.commons.ProcessStatus;
 import com.bc.calvalus.commons.WorkflowItem;
 import com.bc.calvalus.ingestion.IngestionTool;
+import com.bc.calvalus.inventory.hadoop.ListingCache;
 import com.bc.calvalus.processing.JobConfigNames;
 import com.bc.calvalus.processing.hadoop.HadoopJobHook;
 import com.bc.calvalus.processing.hadoop.HadoopProcessingService;
@@ -169,6 +170,7 @@ public class ProductionTool {
                 || commandLine.hasOption("install")
                 || commandLine.hasOption("kill")
                 || commandLine.hasOption("copy")
+                || commandLine.hasOption("invalidate-listing-cache")
                 || commandLine.hasOption("ingestion")
                 || commandLine.hasOption("help")
                 || commandLine.hasOption("test-auth");
@@ -227,6 +229,10 @@ public class ProductionTool {
                 copyFilesToHDFS(commandLine.getOptionValue("copy"), config);
             }
 
+            if (commandLine.hasOption("invalidate-listing-cache")) {
+                invalidateListingCache(commandLine.getOptionValues("invalidate-listing-cache"), config);
+            }
+
             if (commandLine.hasOption("test-auth")) {
                 String samlToken = new CasUtil(quiet).fetchSamlToken(config, getUserName());
                 say("Successfully retrieved SAML token:\n");
@@ -555,6 +561,28 @@ public class ProductionTool {
         }
     }
 
+    private void invalidateListingCache(String[] dirs, Map<String, String> config) {
+        String cacheDir = config.get(JobConfigNames.CALVALUS_INPUT_LISTING_CACHE_DIR);
+        if (cacheDir == null || cacheDir.isEmpty()) {
+            exit("Error: No listing cache configured by " + JobConfigNames.CALVALUS_INPUT_LISTING_CACHE_DIR, 22);
+            return;
+        }
+        try {
+            ListingCache listingCache = new ListingCache(getHDFS(SYSTEM_USER_NAME, config), new Path(cacheDir));
+            if (dirs == null || dirs.length == 0) {
+                say("Invalidating listing cache " + cacheDir + "...");
+                listingCache.invalidate(null);
+            } else {
+                for (String dir : dirs) {
+                    say((listingCache.invalidate(new Path(dir)) ? "- " : "! nothing cached for ") + dir);
+                }
+            }
+            say("Listing cache invalidated.");
+        } catch (IOException e) {
+            exit("Error: Failed to invalidate listing cache", 22, e);
+        }
+    }
+
     private Path[] getSourcePaths(String sourcePathsString) {
         Path[] sourcePaths = toPathArray(sourcePathsString);
         ensureLocalPathsExist(sourcePaths);
@@ -803,6 +831,13 @@ public class ProductionTool {
                         "from Calvalus before any request is executed." +
                         "Use character ',' to separate multiple entries in BUNDLES.")
                 .create());  // (sub) commands don't have short options
+        options.addOption(OptionBuilder
+                .withLongOpt("invalidate-listing-cache")
+                .hasOptionalArgs()
+                .withArgName("DIRS")
+                .withDescription("Invalidates the cached listings of the input DIRS and their subdirectories, " +
+                        "or the complete listing cache if no DIRS are given, before any request is executed.")
+                .create());  // (sub) commands don't have short options
         options.addOption(OptionBuilder
                 .withLongOpt("kill")
                 .hasArgs()
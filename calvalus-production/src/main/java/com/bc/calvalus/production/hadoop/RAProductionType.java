@@ -179,6 +179,7 @@ public class RAProductionType extends HadoopProductionType {
         raConfig.setWritePerRegion(productionRequest.getBoolean("writePerRegion", Boolean.TRUE));
         raConfig.setWriteSeparateHistogram(productionRequest.getBoolean("writeSeparateHistogram", Boolean.TRUE));
         raConfig.setWritePixelValues(productionRequest.getBoolean("writePixelValues", Boolean.FALSE));
+        raConfig.setPartialAggregation(productionRequest.getBoolean("partialAggregation", Boolean.FALSE));
 
         int bandCount = productionRequest.getInteger("statband.count");
         RAConfig.BandConfig[] bandConfigs = new RAConfig.BandConfig[bandCount];